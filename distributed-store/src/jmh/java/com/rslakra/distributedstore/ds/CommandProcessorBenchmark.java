@@ -0,0 +1,131 @@
+package com.rslakra.distributedstore.ds;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load generator for the {@link CommandProcessor}: every benchmark thread is a client connection that keeps
+ * <code>pipeline</code> commands (half GET, half SET) in flight per round trip. The throughput counts round trips;
+ * the commands are reported next to it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandProcessorBenchmark {
+    
+    private static final int KEY_COUNT = 100_000;
+    
+    @Param({"1", "64"})
+    int pipeline;
+    
+    /**
+     * 0 for {@link CommandProcessor#DEFAULT_EVENT_LOOPS}.
+     */
+    @Param({"0"})
+    int eventLoops;
+    
+    private CommandProcessor commandProcessor;
+    
+    /**
+     * The connection of one client thread, and the commands it executed.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Client {
+        
+        public long commands;
+        private Socket socket;
+        private OutputStream outputStream;
+        private InputStream inputStream;
+        
+        @Setup(Level.Trial)
+        public void connect(CommandProcessorBenchmark benchmark) throws IOException {
+            socket = new Socket("127.0.0.1", benchmark.commandProcessor.getPort());
+            socket.setTcpNoDelay(true);
+            outputStream = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            inputStream = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        }
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            commands = 0;
+        }
+        
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        commandProcessor = new CommandProcessor(new KeyValueStore(), new InetSocketAddress("127.0.0.1", 0),
+                                                eventLoops == 0 ? CommandProcessor.DEFAULT_EVENT_LOOPS : eventLoops);
+        commandProcessor.start();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        commandProcessor.close();
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public void roundTrip16Connections(Client client) throws IOException {
+        roundTrip(client);
+    }
+    
+    /**
+     * Sends one batch of commands and reads every response back.
+     *
+     * @param client
+     * @throws IOException
+     */
+    private void roundTrip(Client client) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < pipeline; i++) {
+            int key = random.nextInt(KEY_COUNT);
+            String command = (i % 2 == 0 ? "SET key" + key + " value" + i : "GET key" + key);
+            client.outputStream.write(command.getBytes(StandardCharsets.US_ASCII));
+            client.outputStream.write('\n');
+        }
+        client.outputStream.flush();
+        
+        for (int responses = 0; responses < pipeline; ) {
+            int next = client.inputStream.read();
+            if (next < 0) {
+                throw new IOException("Connection closed by the server!");
+            } else if (next == '\n') {
+                responses++;
+            }
+        }
+        client.commands += pipeline;
+    }
+}
@@ -0,0 +1,77 @@
+package com.rslakra.distributedstore.ds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single-key operations of a memory-only {@link KeyValueStore} outside transactions: each get reads the latest
+ * published version and each set is a commit of its own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValueStoreBenchmark {
+    
+    @Param({"1000", "1000000"})
+    int keyCount;
+    
+    private KeyValueStore store;
+    private String[] keys;
+    
+    @Setup
+    public void setUp() {
+        store = new KeyValueStore();
+        keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = "key" + i;
+            store.set(keys[i], "value" + i);
+        }
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String get() {
+        return store.get(null, randomKey());
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public String get4Threads() {
+        return store.get(null, randomKey());
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public void set() {
+        store.set(null, randomKey(), "updated");
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public void set4Threads() {
+        store.set(null, randomKey(), "updated");
+    }
+    
+    /**
+     * @return
+     */
+    private String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+}
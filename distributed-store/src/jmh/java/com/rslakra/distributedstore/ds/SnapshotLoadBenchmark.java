@@ -0,0 +1,132 @@
+package com.rslakra.distributedstore.ds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The checkpoint of a {@link KeyValueStore} of <code>keyCount</code> keys to a snapshot, and the startup time of a
+ * store restored from that snapshot. Each invocation is timed once.
+ * <p>
+ * Loading 10M keys needs a few GB of heap; the fork gets 6 GB.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx6g"})
+public class SnapshotLoadBenchmark {
+    
+    private static final int BATCH_SIZE = 1000;
+    
+    /**
+     * A store of <code>keyCount</code> keys, checkpointed to a new directory every iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class Source {
+        
+        @Param({"1000000", "10000000"})
+        long keyCount;
+        
+        private KeyValueStore store;
+        private Path directory;
+        
+        @Setup(Level.Trial)
+        public void setUp() {
+            store = populate(keyCount);
+        }
+        
+        @Setup(Level.Iteration)
+        public void createDirectory() throws IOException {
+            directory = Files.createTempDirectory("kv-snapshot-benchmark");
+        }
+        
+        @TearDown(Level.Iteration)
+        public void deleteDirectory() throws IOException {
+            delete(directory);
+        }
+    }
+    
+    /**
+     * A snapshot of <code>keyCount</code> keys, written once; the store it was taken from is dropped.
+     */
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        
+        @Param({"1000000", "10000000"})
+        long keyCount;
+        
+        private Path directory;
+        
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("kv-snapshot-benchmark");
+            populate(keyCount).checkpoint(directory);
+            System.gc();
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+    
+    @Benchmark
+    public long checkpoint(Source source) throws IOException {
+        return source.store.checkpoint(source.directory);
+    }
+    
+    @Benchmark
+    public KeyValueStore load(Snapshot snapshot) {
+        KeyValueStore restored = new KeyValueStore(LockStripes.DEFAULT_STRIPES, null, snapshot.directory);
+        if (!("value-" + (snapshot.keyCount - 1)).equals(restored.get("key-" + (snapshot.keyCount - 1)))) {
+            throw new IllegalStateException("Snapshot was not restored!");
+        }
+        
+        return restored;
+    }
+    
+    /**
+     * @param keyCount
+     * @return a memory-only store of <code>keyCount</code> keys, written in transactions of {@value #BATCH_SIZE}.
+     */
+    private static KeyValueStore populate(long keyCount) {
+        KeyValueStore store = new KeyValueStore();
+        for (long i = 0; i < keyCount; i += BATCH_SIZE) {
+            store.begin();
+            for (long j = i; j < Math.min(keyCount, i + BATCH_SIZE); j++) {
+                store.set("key-" + j, "value-" + j);
+            }
+            store.commit();
+        }
+        
+        return store;
+    }
+    
+    /**
+     * @param directory
+     * @throws IOException
+     */
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
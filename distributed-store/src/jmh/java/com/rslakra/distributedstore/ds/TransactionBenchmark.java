@@ -0,0 +1,131 @@
+package com.rslakra.distributedstore.ds;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-modify-write transactions (begin, read a counter, write it back, commit) over a key space of
+ * <code>hotKeys</code> counters: one key makes every concurrent pair of transactions conflict, while many keys
+ * make conflicts rare. The commits and aborts are reported next to the throughput, so the abort rate of each
+ * contention level and thread count shows in the results.
+ * <p>
+ * With <code>hotKeys</code> 0 every thread updates a counter of its own, so no two transactions conflict and the
+ * throughput across thread counts shows the cost of the shared parts of a transaction, like its snapshot.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionBenchmark {
+    
+    /**
+     * 0 for a counter per thread.
+     */
+    @Param({"0", "1", "64", "65536"})
+    int hotKeys;
+    
+    @Param({"SERIALIZABLE", "SNAPSHOT"})
+    IsolationLevel isolationLevel;
+    
+    private KeyValueStore store;
+    private String[] keys;
+    private final AtomicInteger threads = new AtomicInteger();
+    
+    /**
+     * The outcomes of the commits of one thread.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        
+        public long commits;
+        public long aborts;
+    }
+    
+    /**
+     * The counter of one thread, used when <code>hotKeys</code> is 0.
+     */
+    @State(Scope.Thread)
+    public static class OwnKey {
+        
+        private String key;
+        
+        @Setup
+        public void setUp(TransactionBenchmark benchmark) {
+            key = "own-counter" + benchmark.threads.getAndIncrement();
+            benchmark.store.set(key, "0");
+        }
+    }
+    
+    @Setup
+    public void setUp() {
+        store = new KeyValueStore();
+        keys = new String[hotKeys];
+        for (int i = 0; i < hotKeys; i++) {
+            keys[i] = "counter" + i;
+            store.set(keys[i], "0");
+        }
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public boolean readWriteCommit(Outcomes outcomes, OwnKey ownKey) {
+        return readWriteCommit(outcomes, nextKey(ownKey));
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public boolean readWriteCommit4Threads(Outcomes outcomes, OwnKey ownKey) {
+        return readWriteCommit(outcomes, nextKey(ownKey));
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public boolean readWriteCommit16Threads(Outcomes outcomes, OwnKey ownKey) {
+        return readWriteCommit(outcomes, nextKey(ownKey));
+    }
+    
+    /**
+     * @param outcomes
+     * @param key
+     * @return
+     */
+    private boolean readWriteCommit(Outcomes outcomes, String key) {
+        Transaction transaction = store.beginTransaction(isolationLevel);
+        long counter = Long.parseLong(store.get(transaction, key));
+        store.set(transaction, key, Long.toString(counter + 1));
+        boolean committed = store.commit(transaction);
+        if (committed) {
+            outcomes.commits++;
+        } else {
+            outcomes.aborts++;
+        }
+        
+        return committed;
+    }
+    
+    /**
+     * @param ownKey
+     * @return the counter of the thread, or a random hot key.
+     */
+    private String nextKey(OwnKey ownKey) {
+        return (hotKeys == 0 ? ownKey.key : keys[ThreadLocalRandom.current().nextInt(hotKeys)]);
+    }
+}
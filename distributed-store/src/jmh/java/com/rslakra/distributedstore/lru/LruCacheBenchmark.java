@@ -0,0 +1,88 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.policy.WTinyLfuEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read-through workload over a {@link Cache} made of an {@link LRUEvictionPolicy} or a
+ * {@link WTinyLfuEvictionPolicy} and a {@link HashMapStore}: each operation reads a random key out of
+ * <code>capacity / hitRatio</code> keys and writes it on a miss, which evicts another, so that eviction is on the
+ * measured path. With uniformly random keys about <code>hitRatio</code> of the reads hit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LruCacheBenchmark {
+    
+    @Param({"10000"})
+    int capacity;
+    
+    @Param({"0.5", "0.9", "0.99"})
+    double hitRatio;
+    
+    @Param({"LRU", "W-TinyLFU"})
+    String policy;
+    
+    private Cache<String, String> cache;
+    private String[] keys;
+    
+    @Setup
+    public void setUp() {
+        EvictionPolicy<String> evictionPolicy = ("LRU".equals(policy) ? new LRUEvictionPolicy<>()
+                                                                      : new WTinyLfuEvictionPolicy<>(capacity));
+        cache = new Cache<>(evictionPolicy, new HashMapStore<>(capacity));
+        keys = new String[(int) Math.ceil(capacity / hitRatio)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+        for (int i = 0; i < capacity; i++) {
+            cache.set(keys[i], keys[i]);
+        }
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String get() {
+        return readThrough();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public String get4Threads() {
+        return readThrough();
+    }
+    
+    /**
+     * Reads a random key, caching it on a miss as a read-through cache would.
+     *
+     * @return
+     */
+    private String readThrough() {
+        String key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        String value = cache.get(key);
+        if (value == null) {
+            value = key;
+            cache.set(key, value);
+        }
+        return value;
+    }
+}
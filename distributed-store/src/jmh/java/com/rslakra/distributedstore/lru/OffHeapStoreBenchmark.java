@@ -0,0 +1,160 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.ds.ValueCodec;
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+import com.rslakra.distributedstore.lru.store.OffHeapStore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read-through workload over an LRU {@link Cache} holding <code>dataGigabytes</code> of values, on the heap in a
+ * {@link HashMapStore} or off it in an {@link OffHeapStore}: each operation reads a random key out of twice as
+ * many as fit, and writes a new value on a miss, which evicts another. The time the JVM spent in garbage
+ * collection pauses and their number are reported next to the throughput, so the two stores can be compared on
+ * GC cost at the same data size.
+ * <p>
+ * The default of 20 GB needs a machine with about 48 GB of memory; the fork gets a 32 GB heap and as much direct
+ * memory. Smaller runs: <code>-Djmh.args="OffHeapStoreBenchmark -p dataGigabytes=2"</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms32g", "-Xmx32g", "-XX:MaxDirectMemorySize=32g"})
+@State(Scope.Benchmark)
+public class OffHeapStoreBenchmark {
+    
+    @Param({"20"})
+    int dataGigabytes;
+    
+    @Param({"1024"})
+    int valueBytes;
+    
+    @Param({"HashMapStore", "OffHeapStore"})
+    String store;
+    
+    private Store<String, byte[]> backingStore;
+    private Cache<String, byte[]> cache;
+    private int capacity;
+    
+    /**
+     * The garbage collections during one iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class GcActivity {
+        
+        public long gcPauseMillis;
+        public long gcCount;
+        private long baselinePauseMillis;
+        private long baselineCount;
+        private int operations;
+        
+        @Setup(Level.Iteration)
+        public void setUp() {
+            baselinePauseMillis = totalGcPauseMillis();
+            baselineCount = totalGcCount();
+            gcPauseMillis = 0;
+            gcCount = 0;
+        }
+        
+        /**
+         * Refreshes the counters every few thousand operations, as reading the collector beans is not free.
+         */
+        void sample() {
+            if ((++operations & 0xFFF) == 0) {
+                gcPauseMillis = totalGcPauseMillis() - baselinePauseMillis;
+                gcCount = totalGcCount() - baselineCount;
+            }
+        }
+    }
+    
+    @Setup
+    public void setUp() {
+        capacity = (int) Math.min(((long) dataGigabytes << 30) / valueBytes, 1 << 29);
+        if ("HashMapStore".equals(store)) {
+            backingStore = new HashMapStore<>(capacity);
+        } else {
+            // Leaves room for the keys and the rounding of the entries up to their size class.
+            long maxBytes = (long) capacity * (valueBytes + valueBytes / 4 + 64);
+            backingStore = new OffHeapStore<>(ValueCodec.UTF_8, ValueCodec.BYTES, capacity, maxBytes);
+        }
+        
+        cache = new Cache<>(new LRUEvictionPolicy<>(), backingStore);
+        for (int i = 0; i < capacity; i++) {
+            cache.set("key" + i, new byte[valueBytes]);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        if (backingStore instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public byte[] readThrough(GcActivity gcActivity) {
+        gcActivity.sample();
+        String key = "key" + ThreadLocalRandom.current().nextInt(2 * capacity);
+        byte[] value = cache.get(key);
+        if (value == null) {
+            value = new byte[valueBytes];
+            cache.set(key, value);
+        }
+        return value;
+    }
+    
+    private static long totalGcPauseMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (isPausing(collector)) {
+                millis += Math.max(0, collector.getCollectionTime());
+            }
+        }
+        return millis;
+    }
+    
+    private static long totalGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (isPausing(collector)) {
+                count += Math.max(0, collector.getCollectionCount());
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * The beans of the concurrent cycles of G1 and ZGC count time the application kept running, so they are left
+     * out.
+     *
+     * @param collector
+     * @return
+     */
+    private static boolean isPausing(GarbageCollectorMXBean collector) {
+        return !collector.getName().contains("Concurrent") && !collector.getName().contains("Cycles");
+    }
+}
@@ -0,0 +1,82 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A mix of lookups and writes in a {@link ShardedCache} of LRU segments; with one shard it is a plain
+ * {@link Cache}, so comparing the scores per thread count shows how much sharding removes the contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedCacheBenchmark {
+    
+    @Param({"10000"})
+    int capacity;
+    
+    @Param({"1", "16", "128"})
+    int shards;
+    
+    private ShardedCache<String, String> cache;
+    private String[] keys;
+    
+    @Setup
+    public void setUp() {
+        cache = new ShardedCache<>(shards, capacity, shardCapacity -> new LRUEvictionPolicy<>(), HashMapStore::new);
+        // Twice the capacity, so that about half of the lookups miss and are followed by a write.
+        keys = new String[2 * capacity];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "key" + i;
+        }
+    }
+    
+    @Benchmark
+    @Threads(1)
+    public String readThrough() {
+        return access();
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public String readThrough4Threads() {
+        return access();
+    }
+    
+    @Benchmark
+    @Threads(16)
+    public String readThrough16Threads() {
+        return access();
+    }
+    
+    /**
+     * @return the cached value of a random key, caching it on a miss.
+     */
+    private String access() {
+        String key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        String value = cache.get(key);
+        if (value == null) {
+            cache.set(key, key);
+            value = key;
+        }
+        return value;
+    }
+}
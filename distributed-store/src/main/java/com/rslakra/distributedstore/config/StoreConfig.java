@@ -0,0 +1,20 @@
+package com.rslakra.distributedstore.config;
+
+import com.rslakra.distributedstore.ds.KeyValueStore;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The {@link KeyValueStore} of the application, closed with the context.
+ */
+@Configuration
+public class StoreConfig {
+
+    /**
+     * @return
+     */
+    @Bean(destroyMethod = "close")
+    public KeyValueStore keyValueStore() {
+        return new KeyValueStore();
+    }
+}
@@ -0,0 +1,65 @@
+package com.rslakra.distributedstore.controller;
+
+import com.rslakra.distributedstore.ds.Histogram;
+import com.rslakra.distributedstore.ds.KeyValueStore;
+import com.rslakra.distributedstore.ds.StoreMetrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An actuator-style endpoint reporting the transaction contention of the {@link KeyValueStore}:
+ * <code>GET /store/metrics</code>.
+ */
+@RestController
+@RequestMapping("/store")
+public class StoreMetricsController {
+
+    private final KeyValueStore keyValueStore;
+
+    /**
+     * @param keyValueStore
+     */
+    public StoreMetricsController(KeyValueStore keyValueStore) {
+        this.keyValueStore = keyValueStore;
+    }
+
+    /**
+     * @return
+     */
+    @GetMapping("/metrics")
+    public Map<String, Object> metrics() {
+        StoreMetrics metrics = keyValueStore.getMetrics();
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("version", keyValueStore.getVersion());
+        response.put("commits", metrics.getCommits().sum());
+        response.put("readOnlyCommits", metrics.getReadOnlyCommits().sum());
+        response.put("conflicts", metrics.getConflicts().sum());
+        response.put("aborts", metrics.getAborts().sum());
+        response.put("abortRate", metrics.getAbortRate());
+        response.put("validationNanos", summary(metrics.getValidationNanos()));
+        response.put("readSetSize", summary(metrics.getReadSetSizes()));
+        response.put("writeSetSize", summary(metrics.getWriteSetSizes()));
+        response.put("hotConflictKeys", metrics.getConflictKeys().getTopKeys().stream()
+            .map(entry -> Map.of("key", entry.getKey(), "conflicts", entry.getValue()))
+            .toList());
+        return response;
+    }
+
+    /**
+     * @param histogram
+     * @return
+     */
+    private static Map<String, Object> summary(Histogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getCount());
+        summary.put("mean", histogram.getMean());
+        summary.put("p50", histogram.getPercentile(50));
+        summary.put("p99", histogram.getPercentile(99));
+        summary.put("p999", histogram.getPercentile(99.9));
+        return summary;
+    }
+}
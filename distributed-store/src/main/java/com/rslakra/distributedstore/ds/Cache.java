@@ -1,5 +1,9 @@
 package com.rslakra.distributedstore.ds;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 public interface Cache {
     
     /**
@@ -22,6 +26,17 @@ public interface Cache {
      */
     void set(String key, String value);
     
+    /**
+     * Like {@link #set(String, String)}, but the key expires <code>ttl</code> after the write: it reads as missing
+     * and is deleted shortly after.
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @param unit
+     */
+    void set(String key, String value, long ttl, TimeUnit unit);
+    
     /**
      * If in a transaction, adds to deleteSet and removes from writeSet.
      * If not in a transaction, directly removed from the main data store.
@@ -30,6 +45,18 @@ public interface Cache {
      */
     void delete(String key);
     
+    /**
+     * Returns the entries from <code>fromKey</code> (inclusive) to <code>toKey</code> (exclusive) in key order, at
+     * most <code>limit</code> of them (0 for no limit); a null bound is unbounded. The entries are read lazily as
+     * the iterator advances. In a transaction the scanned range is validated at commit like a read.
+     *
+     * @param fromKey
+     * @param toKey
+     * @param limit
+     * @return
+     */
+    Iterator<Map.Entry<String, String>> scan(String fromKey, String toKey, int limit);
+    
     /**
      * Starts a new transaction if one isn’t already in progress.
      */
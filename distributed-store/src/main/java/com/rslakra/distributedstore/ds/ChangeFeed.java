@@ -0,0 +1,118 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches the commits of a {@link KeyValueStore} to its {@link Watch}es.
+ * <p>
+ * The feed is a commit listener, attached with the first watch, so it sees every later commit in version order.
+ * It retains the last commits so that a watch can start from a recent version (e.g. the version of the snapshot
+ * the watcher just loaded) without missing the commits in between; a watch starting before the retained history
+ * gets a resync event right away.
+ */
+class ChangeFeed implements Consumer<CommitRecord> {
+    
+    public static final int DEFAULT_HISTORY = 1024;
+    
+    private final KeyValueStore store;
+    private final int historyCapacity;
+    private final ArrayDeque<CommitRecord> history = new ArrayDeque<>();
+    private final List<Watch> watches = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean attached;
+    
+    /**
+     * Every commit after this version is in the history.
+     */
+    private long historyStart;
+    
+    /**
+     * @param store
+     * @param historyCapacity the number of recent commits retained.
+     */
+    ChangeFeed(KeyValueStore store, int historyCapacity) {
+        this.store = store;
+        this.historyCapacity = historyCapacity;
+    }
+    
+    /**
+     * Opens a watch of the keys starting with <code>prefix</code>, replaying the retained commits after
+     * <code>fromVersion</code> before the new ones.
+     *
+     * @param prefix
+     * @param fromVersion
+     * @param capacity
+     * @return
+     */
+    Watch watch(String prefix, long fromVersion, int capacity) {
+        Watch watch = new Watch(this, prefix, capacity);
+        lock.lock();
+        try {
+            if (!attached) {
+                store.addCommitListener(this);
+                // A commit in flight may have missed the listener, but every commit started from now on sees it.
+                historyStart = store.lastStartedVersion();
+                attached = true;
+            }
+            
+            if (fromVersion < historyStart) {
+                watch.resync(historyStart);
+                return watch;
+            }
+            for (CommitRecord record : history) {
+                if (record.getVersion() > fromVersion && !watch.offer(record)) {
+                    return watch;
+                }
+            }
+            watches.add(watch);
+            return watch;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @param watch
+     */
+    void remove(Watch watch) {
+        lock.lock();
+        try {
+            watches.remove(watch);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Retains the <code>record</code> and hands it to every watch, dropping the watches that ended.
+     *
+     * @param record
+     */
+    @Override
+    public void accept(CommitRecord record) {
+        lock.lock();
+        try {
+            if (record.getVersion() <= historyStart) {
+                return;
+            }
+            
+            history.addLast(record);
+            if (history.size() > historyCapacity) {
+                historyStart = history.removeFirst().getVersion();
+            }
+            Iterator<Watch> iterator = watches.iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().offer(record)) {
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
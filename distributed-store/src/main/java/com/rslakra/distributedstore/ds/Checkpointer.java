@@ -0,0 +1,74 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically checkpoints a {@link KeyValueStore} in the background: writes a snapshot to a directory and
+ * truncates the write-ahead log up to it, so that restart time and log size stay bounded.
+ */
+@Slf4j
+public class Checkpointer implements Closeable {
+    
+    private final KeyValueStore store;
+    private final Path directory;
+    private final ScheduledExecutorService scheduler;
+    
+    /**
+     * @param store
+     * @param directory
+     * @param intervalMillis the delay between the end of a checkpoint and the start of the next one.
+     */
+    public Checkpointer(KeyValueStore store, Path directory, long intervalMillis) {
+        this.store = store;
+        this.directory = directory;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kv-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis,
+                                              TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Checkpoints the store now.
+     *
+     * @return the version of the snapshot.
+     * @throws IOException
+     */
+    public long checkpoint() throws IOException {
+        return store.checkpoint(directory);
+    }
+    
+    /**
+     * Stops the periodic checkpoints, waiting for a running one to finish.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * A failed checkpoint is retried at the next interval; the log still has every commit meanwhile.
+     */
+    private void checkpointQuietly() {
+        try {
+            long snapshotVersion = checkpoint();
+            log.debug("Checkpointed the store at version {} to {}", snapshotVersion, directory);
+        } catch (IOException | RuntimeException ex) {
+            log.error("Checkpoint to {} failed!", directory, ex);
+        }
+    }
+}
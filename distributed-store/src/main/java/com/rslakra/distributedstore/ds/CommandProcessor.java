@@ -1,4 +1,863 @@
 package com.rslakra.distributedstore.ds;
 
-public class CommandProcessor {
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A network front end of a {@link KeyValueStore} speaking a line protocol over non-blocking NIO.
+ * <p>
+ * Every command is one line terminated by <code>\n</code> (a trailing <code>\r</code> is ignored):
+ * <pre>
+ *  PING                        -> PONG
+ *  GET key                     -> VALUE value | NIL
+ *  SET key value               -> OK            (the value is the rest of the line)
+ *  DELETE key                  -> OK
+ *  MGET key [key ...]          -> ARRAY n, followed by n lines of VALUE value | NIL
+ *  MSET key value [key value]  -> OK            (values must not contain spaces)
+ *  INCR key [delta]            -> VALUE number  (delta defaults to 1)
+ *  KEYS                        -> ARRAY n, followed by n lines of VALUE key
+ *  DUMP key                    -> STORED expiresAt data | NIL
+ *  RESTORE key expiresAt data  -> OK
+ *  BEGIN                       -> OK
+ *  COMMIT                      -> OK | CONFLICT
+ *  ROLLBACK                    -> OK
+ * </pre>
+ * Any failure is answered with <code>ERR message</code>. Clients may pipeline: send many commands without
+ * waiting, and read the responses back in the same order. As a value ends with its line, values with a line break
+ * are rejected by SET and MSET, and reading one written by other means fails with <code>ERR</code> (DUMP carries
+ * any bytes).
+ * <p>
+ * One acceptor thread hands the connections round-robin to a fixed number of event loops, each running a
+ * selector over many connections, so there is no thread per connection. Each connection keeps its own
+ * {@link Transaction} (BEGIN on one connection is invisible to the others) instead of the store's
+ * <code>ThreadLocal</code>. Outside a transaction MGET reads one consistent snapshot, MSET is atomic and INCR never
+ * conflicts, all without the transaction machinery.
+ * <p>
+ * DUMP and RESTORE hand a key over to another node with its raw bytes as base64 data and the epoch millis it
+ * expires at (0 for never), so that a key moved by a {@link PartitionedStore} keeps its time-to-live.
+ * <p>
+ * Every command decoded from one read is executed before the responses are flushed, and the responses are
+ * encoded into one direct buffer reused by the event loop, so a pipelined batch costs one write syscall. When
+ * the client does not read fast enough, the unsent responses are parked on the connection and the connection
+ * stops reading (and executing) until they are drained.
+ * <p>
+ * Commands run on the event loop thread, so a COMMIT waiting for the write-ahead log delays the other
+ * connections of the same loop by one group commit; use several event loops when the store is durable.
+ */
+@Slf4j
+public class CommandProcessor implements Closeable {
+    
+    public static final int DEFAULT_EVENT_LOOPS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    
+    /**
+     * The size of the read and write buffers of each event loop.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * A connection sending a longer line without a newline is dropped.
+     */
+    private static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+    
+    /**
+     * The stored bytes as they are: the responses only copy them out.
+     */
+    private static final ValueCodec<byte[]> STORED_BYTES = ValueCodec.of(bytes -> bytes, bytes -> bytes);
+    
+    private static final byte[] OK = response("OK");
+    private static final byte[] NIL = response("NIL");
+    private static final byte[] PONG = response("PONG");
+    private static final byte[] CONFLICT = response("CONFLICT");
+    private static final byte[] VALUE = "VALUE ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ARRAY = "ARRAY ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STORED = "STORED ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERR = "ERR ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEWLINE = {'\n'};
+    private static final byte[] SPACE = {' '};
+    
+    private final KeyValueStore store;
+    private final InetSocketAddress address;
+    private final EventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+    
+    /**
+     * @param store
+     * @param address    the address to listen on; port 0 picks a free port (see {@link #getPort()}).
+     * @param eventLoops the number of event loop threads.
+     */
+    public CommandProcessor(KeyValueStore store, InetSocketAddress address, int eventLoops) {
+        this.store = store;
+        this.address = address;
+        this.eventLoops = new EventLoop[eventLoops];
+    }
+    
+    /**
+     * @param store
+     * @param port
+     */
+    public CommandProcessor(KeyValueStore store, int port) {
+        this(store, new InetSocketAddress(port), DEFAULT_EVENT_LOOPS);
+    }
+    
+    /**
+     * Runs a store node in its own JVM.
+     * <p>
+     * Usage: <code>CommandProcessor [port] [dataDirectory]</code>; without a data directory the store is
+     * memory-only, otherwise it logs to <code>dataDirectory/wal</code> and checkpoints every minute to
+     * <code>dataDirectory/snapshots</code>.
+     *
+     * @param args
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = (args.length > 0 ? Integer.parseInt(args[0]) : 7379);
+        KeyValueStore store;
+        Checkpointer checkpointer = null;
+        if (args.length > 1) {
+            Path dataDirectory = Path.of(args[1]);
+            Path snapshotDirectory = dataDirectory.resolve("snapshots");
+            store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, new WriteAheadLog(dataDirectory.resolve("wal")),
+                                      snapshotDirectory);
+            checkpointer = new Checkpointer(store, snapshotDirectory, TimeUnit.MINUTES.toMillis(1));
+        } else {
+            store = new KeyValueStore();
+        }
+        
+        CommandProcessor commandProcessor = new CommandProcessor(store, port);
+        commandProcessor.start();
+        Checkpointer finalCheckpointer = checkpointer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            commandProcessor.close();
+            try {
+                if (finalCheckpointer != null) {
+                    finalCheckpointer.close();
+                }
+                store.close();
+            } catch (IOException ex) {
+                log.error("Failed to close the store!", ex);
+            }
+        }));
+        Thread.currentThread().join();
+    }
+    
+    /**
+     * Binds the listening socket and starts the acceptor and event loop threads.
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Command processor already started!");
+        }
+        
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1024);
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(Selector.open());
+            eventLoops[i].thread = new Thread(eventLoops[i], "kv-event-loop-" + i);
+            eventLoops[i].thread.setDaemon(true);
+        }
+        
+        running = true;
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.thread.start();
+        }
+        acceptor = new Thread(this::accept, "kv-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Listening on {} with {} event loops", serverChannel.getLocalAddress(), eventLoops.length);
+    }
+    
+    /**
+     * Returns the port the processor listens on.
+     *
+     * @return
+     */
+    public int getPort() {
+        try {
+            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Stops accepting, closes every connection (rolling back its open transaction) and stops the threads.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException ex) {
+            log.warn("Failed to close {}", address, ex);
+        }
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.selector.wakeup();
+        }
+        try {
+            acceptor.join();
+            for (EventLoop eventLoop : eventLoops) {
+                eventLoop.thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Accepts connections until closed, spreading them over the event loops.
+     */
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop eventLoop = eventLoops[next++ % eventLoops.length];
+                eventLoop.accepted.add(channel);
+                eventLoop.selector.wakeup();
+            } catch (ClosedChannelException ex) {
+                break;
+            } catch (IOException ex) {
+                log.warn("Failed to accept a connection!", ex);
+            }
+        }
+    }
+    
+    /**
+     * @param text
+     * @return
+     */
+    private static byte[] response(String text) {
+        return (text + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Rejects a value that would end its line early: a value is framed by the end of its line, so a line break in
+     * it would desynchronize the responses of a pipelining client.
+     *
+     * @param value
+     * @return
+     */
+    private static String checkLine(String value) {
+        if (value.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Values must not contain line breaks!");
+        }
+        
+        return value;
+    }
+    
+    /**
+     * @param value
+     */
+    private static void checkLine(byte[] value) {
+        for (byte b : value) {
+            if (b == '\n' || b == '\r') {
+                throw new IllegalStateException("The value contains a line break, which the protocol cannot carry!");
+            }
+        }
+    }
+    
+    /**
+     * Returns <code>buffer</code> (in write mode) if it has room for <code>extra</code> more bytes, otherwise a
+     * larger copy of it.
+     *
+     * @param buffer
+     * @param extra
+     * @return
+     */
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+    
+    /**
+     * The state of one client connection: its transaction, the bytes of a partially received line and the
+     * responses the socket did not accept yet. Only touched by the event loop owning the connection.
+     */
+    private static final class Connection {
+        
+        private final SocketChannel channel;
+        private final SelectionKey selectionKey;
+        private Transaction transaction;
+        private ByteBuffer input = ByteBuffer.allocate(0);
+        private ByteBuffer pending = ByteBuffer.allocate(0);
+        
+        /**
+         * @param channel
+         * @param selectionKey
+         */
+        private Connection(SocketChannel channel, SelectionKey selectionKey) {
+            this.channel = channel;
+            this.selectionKey = selectionKey;
+        }
+        
+        /**
+         * @return
+         */
+        private boolean hasPending() {
+            return pending.position() > 0;
+        }
+    }
+    
+    /**
+     * A selector thread serving its share of the connections.
+     */
+    private final class EventLoop implements Runnable {
+        
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final List<String> arguments = new ArrayList<>();
+        private byte[] lineBytes = new byte[256];
+        private Thread thread;
+        
+        /**
+         * @param selector
+         */
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerAccepted();
+                    for (SelectionKey selectionKey : selector.selectedKeys()) {
+                        Connection connection = (Connection) selectionKey.attachment();
+                        try {
+                            if (selectionKey.isReadable()) {
+                                onReadable(connection);
+                            } else if (selectionKey.isWritable()) {
+                                onWritable(connection);
+                            }
+                        } catch (IOException | RuntimeException ex) {
+                            log.debug("Closing connection {}", connection.channel, ex);
+                            disconnect(connection);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException ex) {
+                log.error("Event loop {} failed!", thread.getName(), ex);
+            } finally {
+                for (SelectionKey selectionKey : selector.keys()) {
+                    disconnect((Connection) selectionKey.attachment());
+                }
+                SocketChannel channel;
+                while ((channel = accepted.poll()) != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ex) {
+                        log.debug("Failed to close {}", channel, ex);
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    log.warn("Failed to close the selector of {}", thread.getName(), ex);
+                }
+            }
+        }
+        
+        /**
+         * @throws IOException
+         */
+        private void registerAccepted() throws IOException {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_READ);
+                selectionKey.attach(new Connection(channel, selectionKey));
+            }
+        }
+        
+        /**
+         * Executes the complete lines received, keeps the incomplete tail for the next read.
+         *
+         * @param connection
+         * @throws IOException
+         */
+        private void onReadable(Connection connection) throws IOException {
+            readBuffer.clear();
+            if (connection.channel.read(readBuffer) < 0) {
+                disconnect(connection);
+                return;
+            }
+            
+            readBuffer.flip();
+            if (connection.input.position() == 0) {
+                execute(connection, readBuffer);
+                if (readBuffer.hasRemaining()) {
+                    connection.input = ensureCapacity(connection.input, readBuffer.remaining());
+                    connection.input.put(readBuffer);
+                }
+            } else {
+                connection.input = ensureCapacity(connection.input, readBuffer.remaining());
+                connection.input.put(readBuffer);
+                executeBuffered(connection);
+            }
+            
+            if (connection.input.position() > MAX_LINE_LENGTH) {
+                throw new IOException("Line too long!");
+            }
+            
+            flush(connection);
+            updateInterest(connection);
+        }
+        
+        /**
+         * Drains the parked responses, then resumes the commands received meanwhile.
+         *
+         * @param connection
+         * @throws IOException
+         */
+        private void onWritable(Connection connection) throws IOException {
+            connection.pending.flip();
+            connection.channel.write(connection.pending);
+            connection.pending.compact();
+            if (!connection.hasPending()) {
+                executeBuffered(connection);
+                flush(connection);
+            }
+            
+            updateInterest(connection);
+        }
+        
+        /**
+         * @param connection
+         * @throws IOException
+         */
+        private void executeBuffered(Connection connection) throws IOException {
+            connection.input.flip();
+            execute(connection, connection.input);
+            connection.input.compact();
+        }
+        
+        /**
+         * Executes the complete lines of <code>buffer</code>, stopping early when the socket pushes back.
+         *
+         * @param connection
+         * @param buffer
+         * @throws IOException
+         */
+        private void execute(Connection connection, ByteBuffer buffer) throws IOException {
+            int start = buffer.position();
+            for (int i = start; i < buffer.limit() && !connection.hasPending(); i++) {
+                if (buffer.get(i) == '\n') {
+                    int length = i - start;
+                    if (length > 0 && buffer.get(i - 1) == '\r') {
+                        length--;
+                    }
+                    if (lineBytes.length < length) {
+                        lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+                    }
+                    buffer.get(start, lineBytes, 0, length);
+                    buffer.position(i + 1);
+                    start = i + 1;
+                    execute(connection, new String(lineBytes, 0, length, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        
+        /**
+         * @param connection
+         * @param line
+         * @throws IOException
+         */
+        private void execute(Connection connection, String line) throws IOException {
+            if (line.isEmpty()) {
+                return;
+            }
+            
+            int space = line.indexOf(' ');
+            String command = (space < 0 ? line : line.substring(0, space)).toUpperCase();
+            String rest = (space < 0 ? "" : line.substring(space + 1));
+            try {
+                switch (command) {
+                    case "PING" -> emit(connection, PONG);
+                    case "GET" -> emitValue(connection, store.getBytes(connection.transaction, argument(rest)));
+                    case "SET" -> {
+                        int separator = rest.indexOf(' ');
+                        if (separator <= 0) {
+                            throw new IllegalArgumentException("Usage: SET key value");
+                        }
+                        store.set(connection.transaction, rest.substring(0, separator),
+                                  checkLine(rest.substring(separator + 1)));
+                        emit(connection, OK);
+                    }
+                    case "DELETE" -> {
+                        store.delete(connection.transaction, argument(rest));
+                        emit(connection, OK);
+                    }
+                    case "MGET" -> multiGet(connection, split(rest));
+                    case "MSET" -> multiSet(connection, split(rest));
+                    case "INCR" -> increment(connection, split(rest));
+                    case "KEYS" -> emitArray(connection, store.keys().stream().map(ValueCodec.UTF_8::encode).toList());
+                    case "DUMP" -> dump(connection, argument(rest));
+                    case "RESTORE" -> restore(connection, split(rest));
+                    case "BEGIN" -> {
+                        if (connection.transaction != null) {
+                            throw new IllegalStateException("Transaction already in progress!");
+                        }
+                        connection.transaction = store.beginTransaction();
+                        emit(connection, OK);
+                    }
+                    case "COMMIT" -> {
+                        Transaction transaction = activeTransaction(connection);
+                        connection.transaction = null;
+                        emit(connection, store.commit(transaction) ? OK : CONFLICT);
+                    }
+                    case "ROLLBACK" -> {
+                        Transaction transaction = activeTransaction(connection);
+                        connection.transaction = null;
+                        store.rollback(transaction);
+                        emit(connection, OK);
+                    }
+                    default -> throw new IllegalArgumentException("Unknown command " + command);
+                }
+            } catch (IllegalArgumentException | IllegalStateException | UncheckedIOException ex) {
+                emitError(connection, ex.getMessage());
+            } catch (RuntimeException ex) {
+                // Any other failure of the command is answered too, so the connection stays in sync.
+                log.warn("Failed to execute {}", command, ex);
+                emitError(connection, ex.toString());
+            }
+        }
+        
+        /**
+         * Reads the <code>keys</code> from one snapshot, even outside a transaction.
+         *
+         * @param connection
+         * @param keys
+         * @throws IOException
+         */
+        private void multiGet(Connection connection, List<String> keys) throws IOException {
+            if (keys.isEmpty()) {
+                throw new IllegalArgumentException("Usage: MGET key [key ...]");
+            }
+            
+            if (connection.transaction == null) {
+                emitArray(connection, store.multiGet(keys, STORED_BYTES));
+                return;
+            }
+            
+            List<byte[]> values = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                values.add(store.getBytes(connection.transaction, key));
+            }
+            emitArray(connection, values);
+        }
+        
+        /**
+         * Buffers the pairs in the open transaction, or commits them atomically as one batch.
+         *
+         * @param connection
+         * @param pairs
+         * @throws IOException
+         */
+        private void multiSet(Connection connection, List<String> pairs) throws IOException {
+            if (pairs.isEmpty() || pairs.size() % 2 != 0) {
+                throw new IllegalArgumentException("Usage: MSET key value [key value ...]");
+            }
+            
+            if (connection.transaction == null) {
+                Map<String, String> entries = new LinkedHashMap<>();
+                for (int i = 0; i < pairs.size(); i += 2) {
+                    entries.put(pairs.get(i), checkLine(pairs.get(i + 1)));
+                }
+                store.multiSet(entries);
+            } else {
+                for (int i = 0; i < pairs.size(); i += 2) {
+                    store.set(connection.transaction, pairs.get(i), checkLine(pairs.get(i + 1)));
+                }
+            }
+            emit(connection, OK);
+        }
+        
+        /**
+         * Increments a counter outside a transaction; inside one, reads and buffers the new value like a SET.
+         *
+         * @param connection
+         * @param arguments
+         * @throws IOException
+         */
+        private void increment(Connection connection, List<String> arguments) throws IOException {
+            if (arguments.isEmpty() || arguments.size() > 2) {
+                throw new IllegalArgumentException("Usage: INCR key [delta]");
+            }
+            
+            String key = arguments.get(0);
+            long delta;
+            try {
+                delta = (arguments.size() == 1 ? 1 : Long.parseLong(arguments.get(1)));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("The delta " + arguments.get(1) + " is not a number!");
+            }
+            
+            long result;
+            if (connection.transaction == null) {
+                result = store.increment(key, delta);
+            } else {
+                result = KeyValueStore.addToCounter(key, store.getBytes(connection.transaction, key), delta);
+                store.set(connection.transaction, key, Long.toString(result));
+            }
+            emitValue(connection, Long.toString(result).getBytes(StandardCharsets.US_ASCII));
+        }
+        
+        /**
+         * Emits the latest raw bytes of the <code>key</code> with their deadline; DUMP reads outside transactions
+         * only, as a transaction does not expose the deadlines it buffers.
+         *
+         * @param connection
+         * @param key
+         * @throws IOException
+         */
+        private void dump(Connection connection, String key) throws IOException {
+            if (connection.transaction != null) {
+                throw new IllegalStateException("DUMP is not supported in a transaction!");
+            }
+            
+            StoredValue storedValue = store.getStored(key);
+            if (storedValue == null) {
+                emit(connection, NIL);
+            } else {
+                emit(connection, STORED);
+                emit(connection, Long.toString(storedValue.getExpiresAt()).getBytes(StandardCharsets.US_ASCII));
+                emit(connection, SPACE);
+                emit(connection, Base64.getEncoder().encode(storedValue.getValue()));
+                emit(connection, NEWLINE);
+            }
+        }
+        
+        /**
+         * Stores the raw bytes of a DUMP with their deadline, in the open transaction if any.
+         *
+         * @param connection
+         * @param arguments
+         * @throws IOException
+         */
+        private void restore(Connection connection, List<String> arguments) throws IOException {
+            if (arguments.size() != 3) {
+                throw new IllegalArgumentException("Usage: RESTORE key expiresAt data");
+            }
+            
+            long expiresAt;
+            byte[] value;
+            try {
+                expiresAt = Long.parseLong(arguments.get(1));
+                value = Base64.getDecoder().decode(arguments.get(2));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Invalid RESTORE of " + arguments.get(0) + "!", ex);
+            }
+            if (expiresAt < 0) {
+                throw new IllegalArgumentException("Invalid deadline " + expiresAt + "!");
+            }
+            
+            store.setBytes(connection.transaction, arguments.get(0), value, expiresAt);
+            emit(connection, OK);
+        }
+        
+        /**
+         * @param connection
+         * @return
+         */
+        private Transaction activeTransaction(Connection connection) {
+            if (connection.transaction == null) {
+                throw new IllegalStateException("No active transaction!");
+            }
+            
+            return connection.transaction;
+        }
+        
+        /**
+         * @param rest
+         * @return
+         */
+        private String argument(String rest) {
+            if (rest.isEmpty() || rest.indexOf(' ') >= 0) {
+                throw new IllegalArgumentException("Expected exactly one key!");
+            }
+            
+            return rest;
+        }
+        
+        /**
+         * @param rest
+         * @return
+         */
+        private List<String> split(String rest) {
+            arguments.clear();
+            int start = 0;
+            for (int i = 0; i <= rest.length(); i++) {
+                if (i == rest.length() || rest.charAt(i) == ' ') {
+                    if (i > start) {
+                        arguments.add(rest.substring(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            
+            return arguments;
+        }
+        
+        /**
+         * @param connection
+         * @param values
+         * @throws IOException
+         */
+        private void emitArray(Connection connection, List<byte[]> values) throws IOException {
+            // Checked up front, so that a failure is answered before any part of the array.
+            for (byte[] value : values) {
+                if (value != null) {
+                    checkLine(value);
+                }
+            }
+            
+            emit(connection, ARRAY);
+            emit(connection, Integer.toString(values.size()).getBytes(StandardCharsets.US_ASCII));
+            emit(connection, NEWLINE);
+            for (byte[] value : values) {
+                emitValue(connection, value);
+            }
+        }
+        
+        /**
+         * @param connection
+         * @param value
+         * @throws IOException
+         */
+        private void emitValue(Connection connection, byte[] value) throws IOException {
+            if (value == null) {
+                emit(connection, NIL);
+            } else {
+                checkLine(value);
+                emit(connection, VALUE);
+                emit(connection, value);
+                emit(connection, NEWLINE);
+            }
+        }
+        
+        /**
+         * @param connection
+         * @param message
+         * @throws IOException
+         */
+        private void emitError(Connection connection, String message) throws IOException {
+            emit(connection, ERR);
+            emit(connection, String.valueOf(message).replace('\n', ' ').replace('\r', ' ')
+                                   .getBytes(StandardCharsets.UTF_8));
+            emit(connection, NEWLINE);
+        }
+        
+        /**
+         * Appends <code>bytes</code> to the shared write buffer, flushing it first when full. Once the socket
+         * pushed back, everything goes to the connection's pending buffer to keep the response order.
+         *
+         * @param connection
+         * @param bytes
+         * @throws IOException
+         */
+        private void emit(Connection connection, byte[] bytes) throws IOException {
+            if (writeBuffer.remaining() < bytes.length) {
+                flush(connection);
+            }
+            
+            if (connection.hasPending() || writeBuffer.remaining() < bytes.length) {
+                connection.pending = ensureCapacity(connection.pending, bytes.length);
+                connection.pending.put(bytes);
+            } else {
+                writeBuffer.put(bytes);
+            }
+        }
+        
+        /**
+         * Writes the shared write buffer to the connection, parking what the socket does not accept.
+         *
+         * @param connection
+         * @throws IOException
+         */
+        private void flush(Connection connection) throws IOException {
+            writeBuffer.flip();
+            if (!connection.hasPending()) {
+                connection.channel.write(writeBuffer);
+            }
+            if (writeBuffer.hasRemaining()) {
+                connection.pending = ensureCapacity(connection.pending, writeBuffer.remaining());
+                connection.pending.put(writeBuffer);
+            }
+            writeBuffer.clear();
+        }
+        
+        /**
+         * Reads while nothing is parked; otherwise only waits for the socket to become writable.
+         *
+         * @param connection
+         */
+        private void updateInterest(Connection connection) {
+            if (connection.selectionKey.isValid()) {
+                connection.selectionKey.interestOps(connection.hasPending() ? SelectionKey.OP_WRITE
+                                                                            : SelectionKey.OP_READ);
+            }
+        }
+        
+        /**
+         * Closes the connection, rolling back its open transaction.
+         *
+         * @param connection
+         */
+        private void disconnect(Connection connection) {
+            if (connection.transaction != null) {
+                store.rollback(connection.transaction);
+                connection.transaction = null;
+            }
+            
+            // Drop the responses of a failed command, they must not leak to the next connection.
+            writeBuffer.clear();
+            connection.selectionKey.cancel();
+            try {
+                connection.channel.close();
+            } catch (IOException ex) {
+                log.debug("Failed to close {}", connection.channel, ex);
+            }
+        }
+    }
 }
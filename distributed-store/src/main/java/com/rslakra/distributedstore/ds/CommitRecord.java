@@ -0,0 +1,103 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes of one committed transaction (or of a single write outside a transaction), stamped with its
+ * commit version. This is what the write-ahead log records and replays, and what replication streams.
+ * <p>
+ * The <code>expirations</code> hold the deadline (in epoch milliseconds) of the written keys that expire.
+ */
+@AllArgsConstructor
+@Getter
+public class CommitRecord {
+    
+    private final long version;
+    private final Map<String, byte[]> writes;
+    private final Set<String> deletes;
+    private final Map<String, Long> expirations;
+    
+    /**
+     * @param version
+     * @param writes
+     * @param deletes
+     */
+    public CommitRecord(long version, Map<String, byte[]> writes, Set<String> deletes) {
+        this(version, writes, deletes, Collections.emptyMap());
+    }
+    
+    /**
+     * Returns the deadline of the written <code>key</code>, or 0 if it does not expire.
+     *
+     * @param key
+     * @return
+     */
+    public long expiresAt(String key) {
+        Long deadline = (expirations.isEmpty() ? null : expirations.get(key));
+        return (deadline == null ? 0 : deadline);
+    }
+    
+    /**
+     * Writes the record as
+     * <code>[version][writeCount]([key][value])*[deleteCount]([key])*[expirationCount]([key][deadline])*</code>.
+     *
+     * @param output
+     * @throws IOException
+     */
+    public void writeTo(DataOutputStream output) throws IOException {
+        output.writeLong(version);
+        output.writeInt(writes.size());
+        for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+            WriteAheadLog.writeString(output, entry.getKey());
+            WriteAheadLog.writeBytes(output, entry.getValue());
+        }
+        output.writeInt(deletes.size());
+        for (String key : deletes) {
+            WriteAheadLog.writeString(output, key);
+        }
+        output.writeInt(expirations.size());
+        for (Map.Entry<String, Long> entry : expirations.entrySet()) {
+            WriteAheadLog.writeString(output, entry.getKey());
+            output.writeLong(entry.getValue());
+        }
+    }
+    
+    /**
+     * Reads a record written by {@link #writeTo(DataOutputStream)}.
+     *
+     * @param input
+     * @return
+     * @throws IOException
+     */
+    public static CommitRecord readFrom(DataInputStream input) throws IOException {
+        long version = input.readLong();
+        int writeCount = input.readInt();
+        Map<String, byte[]> writes = new HashMap<>(writeCount * 2);
+        for (int i = 0; i < writeCount; i++) {
+            writes.put(WriteAheadLog.readString(input), WriteAheadLog.readBytes(input));
+        }
+        int deleteCount = input.readInt();
+        Set<String> deletes = new HashSet<>(deleteCount * 2);
+        for (int i = 0; i < deleteCount; i++) {
+            deletes.add(WriteAheadLog.readString(input));
+        }
+        int expirationCount = input.readInt();
+        Map<String, Long> expirations = (expirationCount == 0 ? Collections.emptyMap()
+                                                              : new HashMap<>(expirationCount * 2));
+        for (int i = 0; i < expirationCount; i++) {
+            expirations.put(WriteAheadLog.readString(input), input.readLong());
+        }
+        
+        return new CommitRecord(version, writes, deletes, expirations);
+    }
+}
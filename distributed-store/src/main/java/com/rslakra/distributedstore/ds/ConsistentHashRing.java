@@ -0,0 +1,219 @@
+package com.rslakra.distributedstore.ds;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps keys to nodes with consistent hashing.
+ * <p>
+ * Every node is placed on a 64-bit hash ring at <code>virtualNodes</code> points; a key belongs to the node owning
+ * the first point at or after the key's hash. The virtual nodes even out the share of each node, and adding or
+ * removing one of N nodes only moves the keys of the points it gains or loses, about 1/N of them.
+ * <p>
+ * Lookups are lock-free: the ring is an immutable pair of sorted arrays, replaced as a whole (copy-on-write) when
+ * the membership changes.
+ *
+ * @param <N> the type of the nodes.
+ */
+public class ConsistentHashRing<N> {
+    
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    
+    private final int virtualNodes;
+    private volatile Ring<N> ring = new Ring<>(new LinkedHashMap<>(), new long[0], new String[0]);
+    
+    /**
+     * @param virtualNodes the number of points per node.
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive!");
+        }
+        
+        this.virtualNodes = virtualNodes;
+    }
+    
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+    
+    /**
+     * Adds (or replaces) the node with the <code>nodeId</code>.
+     *
+     * @param nodeId
+     * @param node
+     */
+    public synchronized void addNode(String nodeId, N node) {
+        Map<String, N> nodes = new LinkedHashMap<>(ring.nodes);
+        nodes.put(nodeId, node);
+        ring = build(nodes);
+    }
+    
+    /**
+     * Removes the node with the <code>nodeId</code> and returns it, or null if there was none.
+     *
+     * @param nodeId
+     * @return
+     */
+    public synchronized N removeNode(String nodeId) {
+        Map<String, N> nodes = new LinkedHashMap<>(ring.nodes);
+        N node = nodes.remove(nodeId);
+        ring = build(nodes);
+        return node;
+    }
+    
+    /**
+     * Returns the node owning the <code>key</code>.
+     *
+     * @param key
+     * @return
+     */
+    public N nodeFor(String key) {
+        return ring.nodeFor(key);
+    }
+    
+    /**
+     * Returns the id of the node owning the <code>key</code>.
+     *
+     * @param key
+     * @return
+     */
+    public String nodeIdFor(String key) {
+        return ring.nodeIdFor(key);
+    }
+    
+    /**
+     * Returns the node with the <code>nodeId</code>, or null.
+     *
+     * @param nodeId
+     * @return
+     */
+    public N getNode(String nodeId) {
+        return ring.nodes.get(nodeId);
+    }
+    
+    /**
+     * Returns the nodes in the order they were added.
+     *
+     * @return
+     */
+    public Collection<N> getNodes() {
+        return Collections.unmodifiableCollection(ring.nodes.values());
+    }
+    
+    /**
+     * @return
+     */
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+    
+    /**
+     * @return
+     */
+    public int size() {
+        return ring.nodes.size();
+    }
+    
+    /**
+     * Returns the 64-bit hash of a string: FNV-1a over its UTF-8 bytes, followed by the MurmurHash3 finalizer
+     * to spread similar keys over the whole ring.
+     *
+     * @param value
+     * @return
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+    
+    /**
+     * @param nodes
+     * @return
+     */
+    private Ring<N> build(Map<String, N> nodes) {
+        long[][] points = new long[nodes.size() * virtualNodes][];
+        int index = 0;
+        int nodeIndex = 0;
+        String[] nodeIds = nodes.keySet().toArray(new String[0]);
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points[index++] = new long[]{hash(nodeId + "#" + i), nodeIndex};
+            }
+            nodeIndex++;
+        }
+        
+        Arrays.sort(points, (left, right) -> Long.compare(left[0], right[0]));
+        long[] hashes = new long[points.length];
+        String[] owners = new String[points.length];
+        for (int i = 0; i < points.length; i++) {
+            hashes[i] = points[i][0];
+            owners[i] = nodeIds[(int) points[i][1]];
+        }
+        
+        return new Ring<>(nodes, hashes, owners);
+    }
+    
+    /**
+     * One immutable membership of the ring.
+     *
+     * @param <N>
+     */
+    private static final class Ring<N> {
+        
+        private final Map<String, N> nodes;
+        private final long[] hashes;
+        private final String[] owners;
+        
+        /**
+         * @param nodes
+         * @param hashes
+         * @param owners
+         */
+        private Ring(Map<String, N> nodes, long[] hashes, String[] owners) {
+            this.nodes = nodes;
+            this.hashes = hashes;
+            this.owners = owners;
+        }
+        
+        /**
+         * @param key
+         * @return
+         */
+        private String nodeIdFor(String key) {
+            if (hashes.length == 0) {
+                throw new IllegalStateException("No nodes in the ring!");
+            }
+            
+            int index = Arrays.binarySearch(hashes, hash(key));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            
+            // Past the last point the ring wraps around to the first one.
+            return owners[index == hashes.length ? 0 : index];
+        }
+        
+        /**
+         * @param key
+         * @return
+         */
+        private N nodeFor(String key) {
+            return nodes.get(nodeIdFor(key));
+        }
+    }
+}
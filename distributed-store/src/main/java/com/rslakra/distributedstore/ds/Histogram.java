@@ -0,0 +1,80 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values in power-of-two buckets: bucket <code>b</code> counts the values of
+ * <code>b</code> significant bits, i.e. from <code>2<sup>b-1</sup></code> to <code>2<sup>b</sup> - 1</code>.
+ * Recording is one striped counter increment, so it can stay on in the commit path; percentiles are accurate to
+ * a factor of two, which is enough to tell microseconds from milliseconds.
+ */
+public class Histogram {
+    
+    private static final int BUCKETS = Long.SIZE;
+    
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    /**
+     * @param value a negative value is counted as 0.
+     */
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        buckets[Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(clamped))].increment();
+        sum.add(clamped);
+    }
+    
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        
+        return count;
+    }
+    
+    /**
+     * @return
+     */
+    public double getMean() {
+        long count = getCount();
+        return (count == 0 ? 0 : (double) sum.sum() / count);
+    }
+    
+    /**
+     * Returns the upper bound of the bucket holding the <code>percentile</code> (between 0 and 100) of the values.
+     *
+     * @param percentile
+     * @return
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        
+        return 0;
+    }
+}
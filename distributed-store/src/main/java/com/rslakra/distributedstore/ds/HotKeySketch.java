@@ -0,0 +1,114 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The streaming top-K of the keys added most often, in memory bounded by the sketch size rather than by the
+ * number of distinct keys.
+ * <p>
+ * A count-min sketch estimates the count of any key (never under, and rarely much over), and the K keys with the
+ * highest estimates are kept as candidates: a key replaces the smallest candidate once its estimate exceeds it.
+ * Every <code>10 * width</code> additions all the counts are halved, so the ranking follows the recent keys
+ * instead of the keys that were hot once.
+ */
+public class HotKeySketch {
+    
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+    
+    private final int widthBits;
+    private final long[][] counts;
+    private final int topK;
+    private final long sampleSize;
+    private final Map<String, Long> candidates = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long additions;
+    
+    /**
+     * @param width the number of counters per row, rounded up to a power of two.
+     * @param topK  the number of keys reported.
+     */
+    public HotKeySketch(int width, int topK) {
+        if (width <= 0 || topK <= 0) {
+            throw new IllegalArgumentException("Invalid sketch width " + width + " or top-K " + topK);
+        }
+        
+        this.widthBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(width - 1));
+        this.counts = new long[DEPTH][1 << widthBits];
+        this.topK = topK;
+        this.sampleSize = 10L << widthBits;
+    }
+    
+    /**
+     * Counts one occurrence of the <code>key</code>.
+     *
+     * @param key
+     */
+    public void add(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        lock.lock();
+        try {
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                estimate = Math.min(estimate, ++counts[row][(hash * SEEDS[row]) >>> (32 - widthBits)]);
+            }
+            
+            if (candidates.containsKey(key) || candidates.size() < topK) {
+                candidates.put(key, estimate);
+            } else {
+                Map.Entry<String, Long> smallest = null;
+                for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+                    if (smallest == null || candidate.getValue() < smallest.getValue()) {
+                        smallest = candidate;
+                    }
+                }
+                if (estimate > smallest.getValue()) {
+                    candidates.remove(smallest.getKey());
+                    candidates.put(key, estimate);
+                }
+            }
+            
+            if (++additions == sampleSize) {
+                age();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the hottest keys with their estimated (recent) counts, hottest first.
+     *
+     * @return
+     */
+    public List<Map.Entry<String, Long>> getTopKeys() {
+        lock.lock();
+        try {
+            List<Map.Entry<String, Long>> topKeys = new ArrayList<>(candidates.size());
+            candidates.forEach((key, estimate) -> topKeys.add(Map.entry(key, estimate)));
+            topKeys.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+            return topKeys;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Halves every count, dropping the candidates that fall to zero.
+     */
+    private void age() {
+        for (long[] row : counts) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        candidates.replaceAll((key, estimate) -> estimate >>> 1);
+        candidates.values().removeIf(estimate -> estimate == 0);
+        additions = 0;
+    }
+}
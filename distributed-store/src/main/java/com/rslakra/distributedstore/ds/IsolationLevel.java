@@ -0,0 +1,24 @@
+package com.rslakra.distributedstore.ds;
+
+/**
+ * How much a {@link Transaction} is validated at commit. Both levels read from one MVCC snapshot; they differ in
+ * which concurrent commits make the transaction abort.
+ */
+public enum IsolationLevel {
+    
+    /**
+     * Snapshot isolation: a transaction aborts only if a key it writes (or deletes) was committed by another
+     * transaction after its snapshot (first committer wins). Reads are not tracked, so it costs nothing per read
+     * and aborts less, but allows write skew: two transactions reading each other's keys may both commit.
+     */
+    SNAPSHOT,
+    
+    /**
+     * Serializable: every key read is tracked, including keys that were missing, as well as every scanned range,
+     * and a transaction aborts if any of them was changed by a commit after its snapshot. Such a change is a
+     * read-write antidependency on a transaction that committed first, so no dependency cycle can form and the
+     * committed transactions are equivalent to a serial order. The validation is proportional to the keys the
+     * transaction read and wrote.
+     */
+    SERIALIZABLE
+}
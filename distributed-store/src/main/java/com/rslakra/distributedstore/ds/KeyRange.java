@@ -0,0 +1,76 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.NavigableSet;
+
+/**
+ * The part of a key range a transaction has scanned, kept in its rangeSet so that a commit can detect phantoms:
+ * a key inserted, updated or deleted in the scanned part after the snapshot of the transaction.
+ * <p>
+ * A lazy scan covers <code>[fromKey, lastKey]</code> while it pages and the whole
+ * <code>[fromKey, toKey)</code> once it ran to the end; a <code>null</code> bound is unbounded.
+ */
+@Getter
+public class KeyRange {
+    
+    private final String fromKey;
+    private final String toKey;
+    private String lastKey;
+    private boolean complete;
+    
+    /**
+     * @param fromKey the first key (inclusive), or null.
+     * @param toKey   the end key (exclusive), or null.
+     */
+    public KeyRange(String fromKey, String toKey) {
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+    }
+    
+    /**
+     * Returns the keys of the <code>index</code> within the range.
+     *
+     * @param index
+     * @return
+     */
+    NavigableSet<String> of(NavigableSet<String> index) {
+        NavigableSet<String> keys = (fromKey == null ? index : index.tailSet(fromKey, true));
+        return (toKey == null ? keys : keys.headSet(toKey, false));
+    }
+    
+    /**
+     * Returns the keys of the <code>index</code> the scan has covered so far.
+     *
+     * @param index
+     * @return
+     */
+    NavigableSet<String> scannedOf(NavigableSet<String> index) {
+        if (complete) {
+            return of(index);
+        }
+        if (lastKey == null) {
+            return Collections.emptyNavigableSet();
+        }
+        
+        NavigableSet<String> keys = (fromKey == null ? index : index.tailSet(fromKey, true));
+        return keys.headSet(lastKey, true);
+    }
+    
+    /**
+     * Extends the covered part of the range up to the <code>key</code>.
+     *
+     * @param key
+     */
+    void scanned(String key) {
+        lastKey = key;
+    }
+    
+    /**
+     * Marks the whole range covered.
+     */
+    void completed() {
+        complete = true;
+    }
+}
@@ -1,8 +1,37 @@
 package com.rslakra.distributedstore.ds;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * This KeyValueStore class implements optimistic concurrency control:
@@ -12,36 +41,232 @@ import java.util.concurrent.atomic.AtomicLong;
  * Write operations are buffered in the transaction and only applied if the commit is successful.
  * It provides ACID properties (Atomicity, Consistency, Isolation, Durability) for transactions.
  * <p>
+ * Reads never lock. A commit locks the stripes of every key it read or writes (in ascending stripe order),
+ * validates the readSet and applies the writes while holding them, so transactions touching disjoint keys
+ * commit in parallel while overlapping ones are serialized.
+ * <p>
+ * Storage is multi-versioned (MVCC): each key keeps a short chain of versions tagged with the commit version.
+ * A transaction captures a snapshot version at {@link #begin()} and reads the newest version at or below it,
+ * so reads inside a transaction are consistent without retries, and read-only transactions always commit.
+ * Transactions are {@link IsolationLevel#SERIALIZABLE} by default: the readSet also holds the keys read as
+ * missing, so write skew through an absent key aborts as well. {@link IsolationLevel#SNAPSHOT} transactions skip
+ * the read tracking and only abort on a write-write conflict.
+ * Commit versions are published in order, so a snapshot never observes half of a commit. Old versions are
+ * dropped once no active snapshot can see them.
+ * <p>
+ * Durability comes from an optional {@link WriteAheadLog}: every commit is appended to the log while its locks are
+ * held and acknowledged only once the log is synced, with concurrent commits sharing one fsync (group commit).
+ * On startup the log is replayed to rebuild the data store and the global version.
+ * <p>
+ * {@link #checkpoint(Path)} writes a {@link StoreSnapshot} of the store from an MVCC snapshot, so writers are
+ * never paused, and then truncates the log segments the snapshot covers. Startup loads the newest snapshot in
+ * parallel and only replays the log records committed after it.
+ * <p>
+ * Commit listeners see every commit in version order; {@link ReplicationLeader} uses them to stream the commits to
+ * read replicas, which apply them under the same versions.
+ * <p>
+ * {@link #watch(String, long)} streams the changes under a key prefix the same way, one event per commit, so the
+ * configuration kept in the store can be reloaded on change instead of polled.
+ * <p>
+ * An ordered index of the keys is kept next to the hash map for {@link #scan(String, String, int)}. A scan inside a
+ * transaction records the range it covered, and the commit fails if a key in it changed since the snapshot, so
+ * phantoms are detected as well as updated reads.
+ * <p>
+ * A key written with a time-to-live expires on its own: reads treat it as missing as soon as its deadline passes,
+ * and a {@link TimerWheel} deletes it shortly after with a regular commit (batched with the other keys due at the
+ * same tick), so a transaction that read the key fails validation like after any delete. The wheel runs on a
+ * background thread started with the first expiring key.
+ * <p>
+ * {@link #multiGet(List)}, {@link #multiSet(Map)}, {@link #compareAndSet(String, long, String)} and
+ * {@link #increment(String, long)} bypass the transaction machinery: a batch reads one snapshot or commits once,
+ * and the atomic updates check the key under its stripe lock, so counters and bulk loads never abort.
+ * <p>
+ * Every read-write commit is measured in {@link StoreMetrics}: outcome, validation time, read and write set sizes
+ * and a top-K of the keys that conflict, so an abort can be traced to the keys causing it.
+ * <p>
+ * Values are stored as bytes; the <code>String</code> methods encode them as UTF-8 and the methods taking a
+ * {@link ValueCodec} convert any other type. With a {@link ValueArena} the value bytes live off the Java heap and
+ * each version only keeps their address, so that a store of many gigabytes of values does not lengthen GC pauses.
+ * <p>
+ * The {@link Cache} methods bind the transaction to the calling thread. A {@link TransactionManager} issues
+ * {@link TransactionHandle}s instead, which are not tied to any thread and so suit async callers and virtual threads.
+ * <p>
  * An in-memory transaction management system (Data Plane)
  * A distributed storage system (Data Plane)
  * A built-in distributed configuration system (Control Plane).
  */
-public class KeyValueStore implements Cache {
+@Slf4j
+public class KeyValueStore implements Cache, Closeable {
+    
+    /**
+     * Garbage is swept at most once every this many published versions (or on {@link #vacuum()}).
+     */
+    private static final long GC_INTERVAL = 256;
+    
+    /**
+     * How long a commit waiting for an earlier one to be published parks between checks.
+     */
+    private static final long PUBLISH_PARK_NANOS = 10_000;
+    
+    /**
+     * The resolution of the expiry of keys written with a time-to-live.
+     */
+    static final long EXPIRY_TICK_MILLIS = 50;
+    
+    /**
+     * The maximum number of expired keys deleted by one commit.
+     */
+    private static final int EXPIRY_BATCH_SIZE = 1024;
     
     /**
      * The main storage for key-value pairs.
-     * Each value is wrapped in a VersionedValue object, which includes the value and its version.
+     * Each value is wrapped in a VersionedValue object, which includes the value, its version and the
+     * older versions still visible to some snapshot.
+     */
+    private final Map<String, VersionedValue> dataStore = new ConcurrentHashMap<>();
+    
+    /**
+     * The keys of the data store in order, for range scans. A key is added when its first version is installed
+     * and removed with its last tombstone.
      */
-    private Map<String, VersionedValue> dataStore = new HashMap<>();
+    private final NavigableSet<String> keyIndex = new ConcurrentSkipListSet<>();
+    
+    /**
+     * The locks guarding validate+apply of a commit (and single-key writes outside a transaction).
+     */
+    private final LockStripes lockStripes;
     
     /**
      * Allows each thread to have its own transaction context.
      * Ensures thread safety for concurrent transactions.
      */
-    private ThreadLocal<Transaction> currentTransaction = new ThreadLocal<>();
+    private final ThreadLocal<Transaction> currentTransaction = new ThreadLocal<>();
+    
+    /**
+     * The latest published commit version; every commit at or below it is fully applied.
+     * New transactions take their snapshot from it.
+     */
+    private final AtomicLong globalVersion = new AtomicLong(0);
     
     /**
-     * A global counter for generating unique version numbers.
+     * A global counter for generating unique commit version numbers.
      * AtomicLong ensures thread-safe increments.
      */
-    private AtomicLong globalVersion = new AtomicLong(0);
+    private final AtomicLong nextVersion = new AtomicLong(0);
+    
+    /**
+     * The snapshots of the active transactions.
+     */
+    private final SnapshotRegistry snapshotRegistry = new SnapshotRegistry(globalVersion);
+    
+    /**
+     * The keys whose chains still hold old versions or a tombstone, waiting for the watermark to pass them.
+     */
+    private final Set<String> garbageKeys = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock gcLock = new ReentrantLock();
+    private volatile long lastGcWatermark;
+    
+    /**
+     * The log that makes commits durable, or null for a memory-only store.
+     */
+    private final WriteAheadLog writeAheadLog;
+    
+    /**
+     * Notified of every commit in version order (see {@link #addCommitListener(Consumer)}).
+     */
+    private final List<Consumer<CommitRecord>> commitListeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * The contention metrics of the transactions.
+     */
+    private final StoreMetrics metrics = new StoreMetrics();
+    
+    /**
+     * The watches of changed keys, fed by a commit listener attached with the first watch.
+     */
+    private final ChangeFeed changeFeed = new ChangeFeed(this, ChangeFeed.DEFAULT_HISTORY);
+    
+    /**
+     * The off-heap storage of the value bytes, or null to keep them on the heap.
+     */
+    private final ValueArena arena;
+    
+    /**
+     * The deadlines of the keys written with a time-to-live, and the thread expiring them (once needed).
+     */
+    private final TimerWheel timerWheel = new TimerWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+    private final ReentrantLock expiryLock = new ReentrantLock();
+    private volatile ScheduledExecutorService expiryScheduler;
+    private volatile boolean expiryEnabled = true;
+    
+    /**
+     * Creates the store and rebuilds its state from the newest snapshot in <code>snapshotDirectory</code> and
+     * the <code>writeAheadLog</code> records committed after it (if any).
+     *
+     * @param lockStripes       the number of lock stripes used by commits.
+     * @param writeAheadLog     the log to recover from and append commits to, or null.
+     * @param snapshotDirectory the directory of the checkpoints to recover from, or null.
+     * @param arena             the off-heap storage of the values, or null to keep them on the heap.
+     */
+    public KeyValueStore(int lockStripes, WriteAheadLog writeAheadLog, Path snapshotDirectory, ValueArena arena) {
+        this.lockStripes = new LockStripes(lockStripes);
+        this.writeAheadLog = writeAheadLog;
+        this.arena = arena;
+        long snapshotVersion = (snapshotDirectory == null ? 0 : loadSnapshot(snapshotDirectory));
+        nextVersion.set(snapshotVersion);
+        if (writeAheadLog != null) {
+            writeAheadLog.replay(record -> {
+                // The snapshot already holds every commit up to its version.
+                if (record.getVersion() > snapshotVersion) {
+                    recover(record);
+                }
+            });
+        }
+        finishRecovery();
+    }
+    
+    /**
+     * @param lockStripes
+     * @param writeAheadLog
+     * @param snapshotDirectory
+     */
+    public KeyValueStore(int lockStripes, WriteAheadLog writeAheadLog, Path snapshotDirectory) {
+        this(lockStripes, writeAheadLog, snapshotDirectory, null);
+    }
+    
+    /**
+     * @param lockStripes
+     * @param writeAheadLog
+     */
+    public KeyValueStore(int lockStripes, WriteAheadLog writeAheadLog) {
+        this(lockStripes, writeAheadLog, null);
+    }
+    
+    /**
+     * @param writeAheadLog
+     */
+    public KeyValueStore(WriteAheadLog writeAheadLog) {
+        this(LockStripes.DEFAULT_STRIPES, writeAheadLog);
+    }
+    
+    /**
+     * @param lockStripes the number of lock stripes used by commits.
+     */
+    public KeyValueStore(int lockStripes) {
+        this(lockStripes, null);
+    }
+    
+    public KeyValueStore() {
+        this(LockStripes.DEFAULT_STRIPES);
+    }
     
     // Methods: get, set, delete, begin, commit, rollback
     
     /**
      * Check if there's an active transaction.
      * If so, check the transaction's deleteSet and writeSet first.
-     * If not found in the transaction, reads from the main data store.
+     * If not found in the transaction, reads the version visible at the transaction's snapshot (or the latest
+     * published version outside a transaction) from the main data store.
      * Records the read in the transaction's readSet for later conflict detection.
      *
      * @param key
@@ -50,26 +275,7 @@ public class KeyValueStore implements Cache {
     @Override
     public String get(String key) {
         // Check if there's an active transaction.
-        Transaction transaction = currentTransaction.get();
-        if (transaction != null) {
-            if (transaction.getDeleteSet().contains(key)) {
-                return null;
-            }
-            if (transaction.getWriteSet().containsKey(key)) {
-                return transaction.getWriteSet().get(key);
-            }
-        }
-        
-        VersionedValue versionedValue = dataStore.get(key);
-        if (versionedValue == null) {
-            return null;
-        }
-        
-        if (transaction != null) {
-            transaction.getReadSet().putIfAbsent(key, versionedValue);
-        }
-        
-        return versionedValue.getValue();
+        return get(currentTransaction.get(), key);
     }
     
     /**
@@ -81,14 +287,20 @@ public class KeyValueStore implements Cache {
      */
     @Override
     public void set(String key, String value) {
-        Transaction transaction = currentTransaction.get();
-        // If not in a transaction, directly updates the main data store with a new version.
-        if (transaction == null) {
-            dataStore.put(key, new VersionedValue(value, globalVersion.incrementAndGet()));
-        } else {
-            transaction.getWriteSet().put(key, value);
-            transaction.getDeleteSet().remove(key);
-        }
+        set(currentTransaction.get(), key, value);
+    }
+    
+    /**
+     * Like {@link #set(String, String)}, but the key expires <code>ttl</code> after the write.
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @param unit
+     */
+    @Override
+    public void set(String key, String value, long ttl, TimeUnit unit) {
+        set(currentTransaction.get(), key, value, ValueCodec.UTF_8, ttl, unit);
     }
     
     /**
@@ -99,31 +311,51 @@ public class KeyValueStore implements Cache {
      */
     @Override
     public void delete(String key) {
-        Transaction transaction = currentTransaction.get();
-        if (transaction == null) {
-            dataStore.remove(key);
-        } else {
-            transaction.getDeleteSet().add(key);
-            transaction.getWriteSet().remove(key);
-        }
+        delete(currentTransaction.get(), key);
+    }
+    
+    /**
+     * Scans the keys from <code>fromKey</code> (inclusive) to <code>toKey</code> (exclusive) in the current
+     * transaction, if any.
+     *
+     * @param fromKey
+     * @param toKey
+     * @param limit
+     * @return
+     */
+    @Override
+    public Iterator<Map.Entry<String, String>> scan(String fromKey, String toKey, int limit) {
+        return scan(currentTransaction.get(), fromKey, toKey, limit, ValueCodec.UTF_8);
     }
     
     /**
      * Starts a new transaction if one isn’t already in progress.
+     * The transaction reads at a snapshot of the latest published version.
      */
     @Override
     public void begin() {
+        begin(IsolationLevel.SERIALIZABLE);
+    }
+    
+    /**
+     * Starts a transaction of the <code>isolationLevel</code> bound to the calling thread.
+     *
+     * @param isolationLevel
+     */
+    public void begin(IsolationLevel isolationLevel) {
         if (currentTransaction.get() != null) {
             throw new IllegalStateException("Transaction already in progress!");
         }
         
-        currentTransaction.set(new Transaction());
+        currentTransaction.set(beginTransaction(isolationLevel));
     }
     
     /**
      * Checks for conflicts by comparing versions in the readSet with current versions.
      * If no conflicts, applies changes from deleteSet and writeSet to the main data store.
      * Returns true if the commit was successful, false if there was a conflict.
+     * <p>
+     * A read-only transaction has read a consistent snapshot and commits without validation.
      *
      * @return
      */
@@ -134,27 +366,8 @@ public class KeyValueStore implements Cache {
             throw new IllegalStateException("No active transaction!");
         }
         
-        // Validate read set
-        for (Map.Entry<String, VersionedValue> entry : transaction.getReadSet().entrySet()) {
-            VersionedValue versionedValue = dataStore.get(entry.getKey());
-            if (versionedValue == null || versionedValue.getVersion() != entry.getValue().getVersion()) {
-                // Conflict detected
-                currentTransaction.remove();
-                return false;
-            }
-        }
-        
-        // Apply changes
-        for (String key : transaction.getDeleteSet()) {
-            dataStore.remove(key);
-        }
-        
-        for (Map.Entry<String, String> entry : transaction.getWriteSet().entrySet()) {
-            dataStore.put(entry.getKey(), new VersionedValue(entry.getValue(), globalVersion.incrementAndGet()));
-        }
-        
         currentTransaction.remove();
-        return true;
+        return commit(transaction);
     }
     
     /**
@@ -168,5 +381,1635 @@ public class KeyValueStore implements Cache {
         }
         
         currentTransaction.remove();
+        rollback(transaction);
+    }
+    
+    // Explicit transactions: the same operations on a transaction owned by the caller instead of the thread.
+    
+    /**
+     * Starts a new transaction that is not bound to the calling thread; it reads at a snapshot of the latest
+     * published version and must be finished with {@link #commit(Transaction)} or {@link #rollback(Transaction)}.
+     *
+     * @return
+     */
+    public Transaction beginTransaction() {
+        return beginTransaction(IsolationLevel.SERIALIZABLE);
+    }
+    
+    /**
+     * Starts a transaction of the <code>isolationLevel</code> that is not bound to any thread.
+     *
+     * @param isolationLevel
+     * @return
+     */
+    public Transaction beginTransaction(IsolationLevel isolationLevel) {
+        return new Transaction(snapshotRegistry.register(), isolationLevel);
+    }
+    
+    /**
+     * Reads the <code>key</code> in the <code>transaction</code>, or the latest published value if it is null.
+     *
+     * @param transaction
+     * @param key
+     * @return
+     */
+    public String get(Transaction transaction, String key) {
+        return get(transaction, key, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Reads the <code>key</code> in the <code>transaction</code> (or the latest published value if it is null) and
+     * decodes it with the <code>codec</code>.
+     *
+     * @param transaction
+     * @param key
+     * @param codec
+     * @param <V>
+     * @return
+     */
+    public <V> V get(Transaction transaction, String key, ValueCodec<V> codec) {
+        byte[] value = getBytes(transaction, key);
+        return (value == null ? null : codec.decode(value));
+    }
+    
+    /**
+     * Buffers the write in the <code>transaction</code>, or writes it right away if it is null.
+     *
+     * @param transaction
+     * @param key
+     * @param value
+     */
+    public void set(Transaction transaction, String key, String value) {
+        set(transaction, key, value, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Encodes the <code>value</code> with the <code>codec</code> and buffers the write in the
+     * <code>transaction</code>, or writes it right away if it is null.
+     *
+     * @param transaction
+     * @param key
+     * @param value
+     * @param codec
+     * @param <V>
+     */
+    public <V> void set(Transaction transaction, String key, V value, ValueCodec<V> codec) {
+        setBytes(transaction, key, encode(key, value, codec), 0);
+    }
+    
+    /**
+     * Like {@link #set(Transaction, String, Object, ValueCodec)}, but the key expires <code>ttl</code> after the
+     * write (or after the commit of the <code>transaction</code>, at the latest).
+     *
+     * @param transaction
+     * @param key
+     * @param value
+     * @param codec
+     * @param ttl
+     * @param unit
+     * @param <V>
+     */
+    public <V> void set(Transaction transaction, String key, V value, ValueCodec<V> codec, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("Invalid time-to-live " + ttl);
+        }
+        
+        setBytes(transaction, key, encode(key, value, codec), System.currentTimeMillis() + unit.toMillis(ttl));
+    }
+    
+    /**
+     * Returns a lazy iterator over the live entries from <code>fromKey</code> (inclusive) to <code>toKey</code>
+     * (exclusive) in key order, at most <code>limit</code> of them (0 for no limit); a null bound is unbounded.
+     * <p>
+     * In a <code>transaction</code> the scan reads at its snapshot, sees its own writes and records the part of
+     * the range it went through, so the commit fails if a key in that part was inserted, updated or deleted
+     * meanwhile. Outside a transaction each entry is the latest value when the scan reaches it.
+     * <p>
+     * Keys are walked in the index as the iterator advances; nothing is copied up front.
+     *
+     * @param transaction
+     * @param fromKey
+     * @param toKey
+     * @param limit
+     * @param codec
+     * @param <V>
+     * @return
+     */
+    public <V> Iterator<Map.Entry<String, V>> scan(Transaction transaction, String fromKey, String toKey, int limit,
+                                                   ValueCodec<V> codec) {
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("The range " + fromKey + " to " + toKey + " is inverted!");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid scan limit " + limit);
+        }
+        
+        KeyRange range = new KeyRange(fromKey, toKey);
+        if (transaction != null) {
+            transaction.checkActive();
+            if (transaction.isSerializable()) {
+                transaction.getRangeSet().add(range);
+            }
+        }
+        
+        return new RangeIterator<>(transaction, range, (limit == 0 ? Integer.MAX_VALUE : limit), codec);
+    }
+    
+    /**
+     * Returns the stored bytes of the <code>key</code>, which must not be modified.
+     *
+     * @param transaction
+     * @param key
+     * @return
+     */
+    byte[] getBytes(Transaction transaction, String key) {
+        return read(transaction, key, true);
+    }
+    
+    /**
+     * Reads the bytes of the <code>key</code>, recording the version read in the readSet if <code>tracked</code>
+     * (a scan is validated by its range instead).
+     *
+     * @param transaction
+     * @param key
+     * @param tracked
+     * @return
+     */
+    private byte[] read(Transaction transaction, String key, boolean tracked) {
+        if (transaction == null) {
+            return readLatest(key);
+        }
+        
+        transaction.checkActive();
+        if (transaction.getDeleteSet().contains(key)) {
+            return null;
+        }
+        if (transaction.getWriteSet().containsKey(key)) {
+            return transaction.getWriteSet().get(key);
+        }
+        
+        VersionedValue versionedValue = readVisible(key, transaction.getSnapshotVersion());
+        // A missing key is tracked as null, so a commit creating it fails the commit. An expired key is read as
+        // missing, but its version is tracked, so the delete expiring it fails the commit.
+        if (tracked && transaction.isSerializable() && !transaction.getReadSet().containsKey(key)) {
+            transaction.getReadSet().put(key, versionedValue);
+        }
+        if (versionedValue == null) {
+            return null;
+        }
+        
+        return (versionedValue.isExpired() ? null : bytesOf(versionedValue));
+    }
+    
+    /**
+     * Stores the <code>value</code> bytes, which the caller must not modify afterward, expiring at
+     * <code>expiresAt</code> (or never if 0).
+     *
+     * @param transaction
+     * @param key
+     * @param value
+     * @param expiresAt
+     */
+    void setBytes(Transaction transaction, String key, byte[] value, long expiresAt) {
+        // If not in a transaction, directly updates the main data store with a new version.
+        if (transaction == null) {
+            writeOutsideTransaction(key, value, expiresAt, false);
+        } else {
+            transaction.checkActive();
+            transaction.getWriteSet().put(key, value);
+            transaction.getDeleteSet().remove(key);
+            if (expiresAt == 0) {
+                transaction.getExpirations().remove(key);
+            } else {
+                transaction.getExpirations().put(key, expiresAt);
+            }
+        }
+    }
+    
+    /**
+     * Buffers the delete in the <code>transaction</code>, or deletes right away if it is null.
+     *
+     * @param transaction
+     * @param key
+     */
+    public void delete(Transaction transaction, String key) {
+        if (transaction == null) {
+            writeOutsideTransaction(key, null, 0, true);
+        } else {
+            transaction.checkActive();
+            transaction.getDeleteSet().add(key);
+            transaction.getWriteSet().remove(key);
+            transaction.getExpirations().remove(key);
+        }
+    }
+    
+    /**
+     * Reads the <code>keys</code> from one snapshot without a transaction; a missing key reads as null.
+     *
+     * @param keys
+     * @return the values in the order of the <code>keys</code>.
+     */
+    public List<String> multiGet(List<String> keys) {
+        return multiGet(keys, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Reads the <code>keys</code> from one snapshot without a transaction; a missing key reads as null.
+     *
+     * @param keys
+     * @param codec
+     * @param <V>
+     * @return the values in the order of the <code>keys</code>.
+     */
+    public <V> List<V> multiGet(List<String> keys, ValueCodec<V> codec) {
+        long snapshotVersion = snapshotRegistry.register();
+        try {
+            List<V> values = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                VersionedValue versionedValue = readVisible(key, snapshotVersion);
+                values.add(versionedValue == null || versionedValue.isExpired()
+                           ? null : codec.decode(bytesOf(versionedValue)));
+            }
+            
+            return values;
+        } finally {
+            snapshotRegistry.release(snapshotVersion);
+        }
+    }
+    
+    /**
+     * Writes all the <code>entries</code> atomically as one commit, without a transaction.
+     *
+     * @param entries
+     */
+    public void multiSet(Map<String, String> entries) {
+        multiSet(entries, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Writes all the <code>entries</code> atomically as one commit, without a transaction: blind writes have
+     * nothing to validate, so they only lock the stripes of the keys.
+     *
+     * @param entries
+     * @param codec
+     * @param <V>
+     */
+    public <V> void multiSet(Map<String, V> entries, ValueCodec<V> codec) {
+        Map<String, byte[]> writes = new HashMap<>(Math.max(16, entries.size() * 4 / 3 + 1));
+        entries.forEach((key, value) -> writes.put(key, encode(key, value, codec)));
+        int[] stripes = lockStripes.stripesFor(writes.keySet());
+        lockStripes.lockAll(stripes);
+        commitLocked(writes, Collections.emptySet(), Collections.emptyMap(), stripes);
+        collectGarbage();
+    }
+    
+    /**
+     * Returns the latest bytes of the <code>key</code> with their expiry deadline, or null if the key is missing.
+     *
+     * @param key
+     * @return
+     */
+    StoredValue getStored(String key) {
+        long snapshotVersion = snapshotRegistry.register();
+        try {
+            VersionedValue versionedValue = readVisible(key, snapshotVersion);
+            if (versionedValue == null || versionedValue.isExpired()) {
+                return null;
+            }
+            
+            return new StoredValue(bytesOf(versionedValue), versionedValue.getExpiresAt());
+        } finally {
+            snapshotRegistry.release(snapshotVersion);
+        }
+    }
+    
+    /**
+     * Returns the latest value of the <code>key</code> with its version, to be passed to
+     * {@link #compareAndSet(String, long, String)}.
+     *
+     * @param key
+     * @return
+     */
+    public Versioned<String> getVersioned(String key) {
+        return getVersioned(key, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Returns the latest value of the <code>key</code> with its version; a missing key has the version
+     * {@link Versioned#ABSENT} and a null value.
+     *
+     * @param key
+     * @param codec
+     * @param <V>
+     * @return
+     */
+    public <V> Versioned<V> getVersioned(String key, ValueCodec<V> codec) {
+        long snapshotVersion = snapshotRegistry.register();
+        try {
+            VersionedValue versionedValue = readVisible(key, snapshotVersion);
+            if (versionedValue == null || versionedValue.isExpired()) {
+                return new Versioned<>(null, Versioned.ABSENT);
+            }
+            
+            return new Versioned<>(codec.decode(bytesOf(versionedValue)), versionedValue.getVersion());
+        } finally {
+            snapshotRegistry.release(snapshotVersion);
+        }
+    }
+    
+    /**
+     * Writes the <code>value</code> only if the <code>key</code> is still at the <code>expectedVersion</code>
+     * ({@link Versioned#ABSENT} to create it), as one commit without a transaction.
+     *
+     * @param key
+     * @param expectedVersion
+     * @param value
+     * @return false if the key changed, leaving it untouched.
+     */
+    public boolean compareAndSet(String key, long expectedVersion, String value) {
+        return compareAndSet(key, expectedVersion, value, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Writes the <code>value</code> only if the <code>key</code> is still at the <code>expectedVersion</code>
+     * ({@link Versioned#ABSENT} to create it), as one commit without a transaction. The version is checked under
+     * the stripe lock of the key, so a failed attempt costs no commit and no abort.
+     *
+     * @param key
+     * @param expectedVersion
+     * @param value
+     * @param codec
+     * @param <V>
+     * @return false if the key changed, leaving it untouched.
+     */
+    public <V> boolean compareAndSet(String key, long expectedVersion, V value, ValueCodec<V> codec) {
+        byte[] bytes = encode(key, value, codec);
+        int[] stripes = {lockStripes.stripeFor(key)};
+        lockStripes.lockAll(stripes);
+        VersionedValue head = liveHead(key);
+        if ((head == null ? Versioned.ABSENT : head.getVersion()) != expectedVersion) {
+            lockStripes.unlockAll(stripes);
+            return false;
+        }
+        
+        commitLocked(Collections.singletonMap(key, bytes), Collections.emptySet(), Collections.emptyMap(), stripes);
+        collectGarbage();
+        return true;
+    }
+    
+    /**
+     * Atomically adds <code>delta</code> to the decimal number stored at the <code>key</code> (0 if missing), as
+     * one commit without a transaction, so concurrent increments never conflict. A key with a time-to-live keeps
+     * its deadline.
+     *
+     * @param key
+     * @param delta
+     * @return the new value.
+     */
+    public long increment(String key, long delta) {
+        int[] stripes = {lockStripes.stripeFor(key)};
+        long result;
+        long expiresAt;
+        lockStripes.lockAll(stripes);
+        try {
+            VersionedValue head = liveHead(key);
+            result = addToCounter(key, head == null ? null : bytesOf(head), delta);
+            expiresAt = (head == null ? 0 : head.getExpiresAt());
+        } catch (RuntimeException ex) {
+            lockStripes.unlockAll(stripes);
+            throw ex;
+        }
+        
+        byte[] bytes = Long.toString(result).getBytes(StandardCharsets.US_ASCII);
+        commitLocked(Collections.singletonMap(key, bytes), Collections.emptySet(),
+                     expiresAt == 0 ? Collections.emptyMap() : Collections.singletonMap(key, expiresAt), stripes);
+        collectGarbage();
+        return result;
+    }
+    
+    /**
+     * Validates and applies the <code>transaction</code>; returns false if there was a conflict.
+     *
+     * @param transaction
+     * @return
+     */
+    public boolean commit(Transaction transaction) {
+        transaction.finish();
+        try {
+            if (transaction.isReadOnly()) {
+                metrics.getReadOnlyCommits().increment();
+                return true;
+            }
+            
+            // Lock every key the transaction depends on, so validation and apply are atomic.
+            int[] stripes = stripesOf(transaction);
+            lockStripes.lockAll(stripes);
+            if (!validate(transaction)) {
+                lockStripes.unlockAll(stripes);
+                metrics.recordOutcome(false);
+                return false;
+            }
+            
+            apply(transaction, stripes);
+            metrics.recordOutcome(true);
+            return true;
+        } finally {
+            endTransaction(transaction);
+        }
+    }
+    
+    /**
+     * The first phase of a two-phase commit: locks the keys of the <code>transaction</code> (waiting at most
+     * <code>timeoutMillis</code>), validates its readSet, and checks the write-ahead log and reserves the arena
+     * blocks of its writes, so that nothing can fail the commit once every participant voted yes. A prepared
+     * transaction keeps its locks and blocks until {@link #commitPrepared(Transaction)} or
+     * {@link #abortPrepared(Transaction)}; otherwise it is finished.
+     *
+     * @param transaction
+     * @param timeoutMillis
+     * @return true if the transaction is prepared, false on a conflict, a lock timeout, a failed log or a full
+     * arena.
+     */
+    boolean prepare(Transaction transaction, long timeoutMillis) {
+        transaction.finish();
+        int[] stripes = stripesOf(transaction);
+        if (!lockStripes.tryLockAll(stripes, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            endTransaction(transaction);
+            metrics.recordOutcome(false);
+            return false;
+        }
+        
+        if (!validate(transaction)) {
+            lockStripes.unlockAll(stripes);
+            endTransaction(transaction);
+            metrics.recordOutcome(false);
+            return false;
+        }
+        
+        Map<String, Long> blocks;
+        try {
+            checkDurable();
+            blocks = allocateBlocks(transaction.getWriteSet());
+        } catch (RuntimeException ex) {
+            log.warn("Prepare failed, voting no!", ex);
+            lockStripes.unlockAll(stripes);
+            endTransaction(transaction);
+            metrics.recordOutcome(false);
+            return false;
+        }
+        
+        transaction.setPreparedStripes(stripes);
+        transaction.setPreparedBlocks(blocks);
+        return true;
+    }
+    
+    /**
+     * The second phase of a two-phase commit: applies the prepared <code>transaction</code> and releases its
+     * locks. It cannot conflict anymore.
+     *
+     * @param transaction
+     */
+    void commitPrepared(Transaction transaction) {
+        try {
+            apply(transaction, transaction.getPreparedStripes());
+            metrics.recordOutcome(true);
+        } finally {
+            transaction.setPreparedStripes(null);
+            transaction.setPreparedBlocks(null);
+            endTransaction(transaction);
+        }
+    }
+    
+    /**
+     * Releases the locks and arena blocks of the prepared <code>transaction</code> without applying it.
+     *
+     * @param transaction
+     */
+    void abortPrepared(Transaction transaction) {
+        freeBlocks(transaction.getWriteSet(), transaction.getPreparedBlocks());
+        lockStripes.unlockAll(transaction.getPreparedStripes());
+        transaction.setPreparedStripes(null);
+        transaction.setPreparedBlocks(null);
+        endTransaction(transaction);
+        metrics.recordOutcome(false);
+    }
+    
+    /**
+     * Discards the <code>transaction</code> without applying any changes.
+     *
+     * @param transaction
+     */
+    public void rollback(Transaction transaction) {
+        transaction.finish();
+        endTransaction(transaction);
+    }
+    
+    /**
+     * Closes the write-ahead log (if any) after flushing the pending commits.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService scheduler = expiryScheduler;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+    
+    /**
+     * Writes a snapshot of the store to the <code>directory</code> without pausing writers, deletes the older
+     * snapshots and truncates the write-ahead log up to the snapshot version.
+     *
+     * @param directory
+     * @return the version of the snapshot.
+     * @throws IOException
+     */
+    public long checkpoint(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long snapshotVersion = snapshotRegistry.register();
+        try (StoreSnapshot.Writer writer = new StoreSnapshot.Writer(directory, snapshotVersion,
+                                                                    StoreSnapshot.DEFAULT_CHUNK_ENTRIES)) {
+            for (String key : dataStore.keySet()) {
+                VersionedValue versionedValue = readVisible(key, snapshotVersion);
+                if (versionedValue != null) {
+                    writer.append(key, bytesOf(versionedValue), versionedValue.getVersion(),
+                                  versionedValue.getExpiresAt());
+                }
+            }
+            writer.commit();
+        } finally {
+            snapshotRegistry.release(snapshotVersion);
+        }
+        
+        StoreSnapshot.deleteOlder(directory, snapshotVersion);
+        if (writeAheadLog != null) {
+            writeAheadLog.truncate(snapshotVersion);
+        }
+        
+        return snapshotVersion;
+    }
+    
+    /**
+     * Sweeps every key with superseded versions or tombstones that no active snapshot can see anymore.
+     */
+    public void vacuum() {
+        gcLock.lock();
+        try {
+            sweepGarbage(snapshotRegistry.watermark());
+        } finally {
+            gcLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the off-heap storage of the values, or null if they are on the heap.
+     *
+     * @return
+     */
+    public ValueArena getArena() {
+        return arena;
+    }
+    
+    /**
+     * Returns the contention metrics of the transactions committed to this store.
+     *
+     * @return
+     */
+    public StoreMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Returns the latest published version: every commit at or below it is visible.
+     *
+     * @return
+     */
+    public long getVersion() {
+        return globalVersion.get();
+    }
+    
+    /**
+     * Returns the version of the latest commit started, which may not be published yet.
+     *
+     * @return
+     */
+    long lastStartedVersion() {
+        return nextVersion.get();
+    }
+    
+    /**
+     * Watches the keys starting with <code>prefix</code> (all keys if empty) from the commit after
+     * <code>fromVersion</code>, with a buffer of {@link Watch#DEFAULT_CAPACITY} events.
+     *
+     * @param prefix
+     * @param fromVersion
+     * @return
+     */
+    public Watch watch(String prefix, long fromVersion) {
+        return watch(prefix, fromVersion, Watch.DEFAULT_CAPACITY);
+    }
+    
+    /**
+     * Watches the keys starting with <code>prefix</code> (all keys if empty) from the commit after
+     * <code>fromVersion</code>. To follow a set of keys, read them in a transaction and watch from its snapshot
+     * version; reload and watch again in the same way after a resync event.
+     *
+     * @param prefix
+     * @param fromVersion
+     * @param capacity    the number of events buffered before the watcher has to resync.
+     * @return
+     */
+    public Watch watch(String prefix, long fromVersion, int capacity) {
+        return changeFeed.watch(prefix, fromVersion, capacity);
+    }
+    
+    /**
+     * Registers a listener called with every commit, in version order, just before the commit becomes visible.
+     * It runs on the committing thread while later commits wait for it, so it must be fast (e.g. enqueue).
+     *
+     * @param commitListener
+     */
+    public void addCommitListener(Consumer<CommitRecord> commitListener) {
+        commitListeners.add(commitListener);
+    }
+    
+    /**
+     * @param commitListener
+     */
+    public void removeCommitListener(Consumer<CommitRecord> commitListener) {
+        commitListeners.remove(commitListener);
+    }
+    
+    /**
+     * Passes every live entry visible at the registered <code>snapshotVersion</code> to the <code>consumer</code>,
+     * including the expired ones that were not deleted yet.
+     *
+     * @param snapshotVersion
+     * @param consumer
+     */
+    void forEachVisible(long snapshotVersion, StoreSnapshot.EntryConsumer consumer) {
+        for (String key : dataStore.keySet()) {
+            VersionedValue versionedValue = readVisible(key, snapshotVersion);
+            if (versionedValue != null) {
+                consumer.accept(key, bytesOf(versionedValue), versionedValue.getVersion(),
+                                versionedValue.getExpiresAt());
+            }
+        }
+    }
+    
+    /**
+     * Applies a commit streamed from the leader of this replica under the leader's version. Must be called by a
+     * single writer, in version order.
+     *
+     * @param record
+     */
+    void applyReplicated(CommitRecord record) {
+        Set<String> keys = new HashSet<>(record.getWrites().keySet());
+        keys.addAll(record.getDeletes());
+        int[] stripes = lockStripes.stripesFor(keys);
+        lockStripes.lockAll(stripes);
+        try {
+            checkDurable();
+            Map<String, Long> blocks = allocateBlocks(record.getWrites());
+            for (String key : record.getDeletes()) {
+                install(key, null, 0, true, record.getVersion(), blocks);
+            }
+            for (Map.Entry<String, byte[]> entry : record.getWrites().entrySet()) {
+                install(entry.getKey(), entry.getValue(), record.expiresAt(entry.getKey()), false, record.getVersion(),
+                        blocks);
+            }
+        } finally {
+            lockStripes.unlockAll(stripes);
+        }
+        
+        awaitDurable(log(record));
+        nextVersion.set(record.getVersion());
+        notifyCommitListeners(record);
+        globalVersion.set(record.getVersion());
+        collectGarbage();
+    }
+    
+    /**
+     * Replaces the content of this replica with the leader's <code>entries</code> at <code>version</code>: keys
+     * missing from them are deleted. Must be called by the single replication writer.
+     *
+     * @param version
+     * @param entries
+     * @param expirations
+     */
+    void resetReplicated(long version, Map<String, byte[]> entries, Map<String, Long> expirations) {
+        Set<String> deletes = new HashSet<>();
+        for (String key : dataStore.keySet()) {
+            if (!entries.containsKey(key)) {
+                deletes.add(key);
+            }
+        }
+        
+        applyReplicated(new CommitRecord(version, entries, deletes, expirations));
+    }
+    
+    /**
+     * Stops expiring keys: a replica applies the deletes of its leader's expiry instead, while its reads already
+     * hide the expired keys.
+     */
+    void disableExpiry() {
+        expiryEnabled = false;
+    }
+    
+    /**
+     * Deletes the keys whose deadline passed, in batches of one commit each.
+     */
+    void expireDue() {
+        List<Map.Entry<String, Long>> due = timerWheel.advance(System.currentTimeMillis());
+        if (!expiryEnabled) {
+            return;
+        }
+        
+        for (int from = 0; from < due.size(); from += EXPIRY_BATCH_SIZE) {
+            expire(due.subList(from, Math.min(from + EXPIRY_BATCH_SIZE, due.size())));
+        }
+    }
+    
+    /**
+     * Returns the live keys of one consistent snapshot of the store.
+     *
+     * @return
+     */
+    public List<String> keys() {
+        long snapshotVersion = snapshotRegistry.register();
+        try {
+            List<String> keys = new ArrayList<>();
+            for (String key : dataStore.keySet()) {
+                VersionedValue versionedValue = readVisible(key, snapshotVersion);
+                if (versionedValue != null && !versionedValue.isExpired()) {
+                    keys.add(key);
+                }
+            }
+            
+            return keys;
+        } finally {
+            snapshotRegistry.release(snapshotVersion);
+        }
+    }
+    
+    /**
+     * Returns the number of versions retained for the <code>key</code>.
+     *
+     * @param key
+     * @return
+     */
+    int versionCount(String key) {
+        VersionedValue versionedValue = dataStore.get(key);
+        return (versionedValue == null ? 0 : versionedValue.chainLength());
+    }
+    
+    /**
+     * Returns the stripes of every key the <code>transaction</code> read or writes.
+     *
+     * @param transaction
+     * @return
+     */
+    private int[] stripesOf(Transaction transaction) {
+        Set<String> keys = new HashSet<>(transaction.getReadSet().keySet());
+        keys.addAll(transaction.getWriteSet().keySet());
+        keys.addAll(transaction.getDeleteSet());
+        return lockStripes.stripesFor(keys);
+    }
+    
+    /**
+     * Returns the first key of the readSet that changed since it was read, or of a scanned range that changed
+     * since the snapshot; at {@link IsolationLevel#SNAPSHOT}, the first key the transaction writes that changed
+     * since the snapshot. Returns null if there is no conflict. The stripes of the keys must be locked; a range is
+     * checked against every commit that installed its versions, so a concurrent writer of the range is ordered
+     * after this transaction.
+     *
+     * @param transaction
+     * @return
+     */
+    private String findConflict(Transaction transaction) {
+        long snapshotVersion = transaction.getSnapshotVersion();
+        if (!transaction.isSerializable()) {
+            // First committer wins: only a write-write conflict aborts.
+            String conflict = changedSince(transaction.getWriteSet().keySet(), snapshotVersion);
+            return (conflict == null ? changedSince(transaction.getDeleteSet(), snapshotVersion) : conflict);
+        }
+        
+        for (Map.Entry<String, VersionedValue> entry : transaction.getReadSet().entrySet()) {
+            VersionedValue versionedValue = dataStore.get(entry.getKey());
+            if (entry.getValue() == null) {
+                // A missing key must still be missing: any version after the snapshot (re)created it.
+                if (versionedValue != null && versionedValue.getVersion() > snapshotVersion) {
+                    return entry.getKey();
+                }
+            } else if (versionedValue == null || versionedValue.getVersion() != entry.getValue().getVersion()) {
+                // Conflict detected
+                return entry.getKey();
+            }
+        }
+        
+        // A phantom: a key of a scanned range changed (or appeared) after the snapshot.
+        for (KeyRange range : transaction.getRangeSet()) {
+            String conflict = changedSince(range.scannedOf(keyIndex), snapshotVersion);
+            if (conflict != null) {
+                return conflict;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns the first of the <code>keys</code> with a version committed after <code>snapshotVersion</code>, or
+     * null if there is none.
+     *
+     * @param keys
+     * @param snapshotVersion
+     * @return
+     */
+    private String changedSince(Collection<String> keys, long snapshotVersion) {
+        for (String key : keys) {
+            VersionedValue versionedValue = dataStore.get(key);
+            if (versionedValue != null && versionedValue.getVersion() > snapshotVersion) {
+                return key;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Validates the locked <code>transaction</code> and records the validation in the metrics.
+     *
+     * @param transaction
+     * @return true if there was no conflict.
+     */
+    private boolean validate(Transaction transaction) {
+        long start = System.nanoTime();
+        String conflict = findConflict(transaction);
+        metrics.recordValidation(transaction, System.nanoTime() - start, conflict);
+        transaction.setConflictKey(conflict);
+        return (conflict == null);
+    }
+    
+    /**
+     * Installs the writes of the validated <code>transaction</code> under a new commit version, then releases
+     * the <code>stripes</code>, waits for the version to be durable and publishes it.
+     *
+     * @param transaction
+     * @param stripes
+     */
+    private void apply(Transaction transaction, int[] stripes) {
+        commitLocked(transaction.getWriteSet(), transaction.getDeleteSet(), transaction.getExpirations(), stripes,
+                     transaction.getPreparedBlocks());
+    }
+    
+    /**
+     * Installs the <code>writes</code> and <code>deletes</code> under one new commit version, then releases the
+     * <code>stripes</code> (locked by the caller), waits for the version to be durable and publishes it. Nothing
+     * is committed if there is no change, and nothing is installed once the write-ahead log has failed. A commit
+     * that fails once its version is taken is taken back before the version is published, so that no reader,
+     * listener or replica sees it.
+     *
+     * @param writes
+     * @param deletes
+     * @param expirations
+     * @param stripes
+     */
+    private void commitLocked(Map<String, byte[]> writes, Set<String> deletes, Map<String, Long> expirations,
+                              int[] stripes) {
+        commitLocked(writes, deletes, expirations, stripes, null);
+    }
+    
+    /**
+     * Installs the <code>writes</code> and <code>deletes</code> as {@link #commitLocked(Map, Set, Map, int[])},
+     * with the arena <code>blocks</code> a prepared transaction reserved for its writes.
+     *
+     * @param writes
+     * @param deletes
+     * @param expirations
+     * @param stripes
+     * @param blocks      the blocks reserved by {@link #prepare(Transaction, long)}, or null to check the log and
+     *                    allocate them here.
+     */
+    private void commitLocked(Map<String, byte[]> writes, Set<String> deletes, Map<String, Long> expirations,
+                              int[] stripes, Map<String, Long> blocks) {
+        long commitVersion = 0;
+        CommitRecord record = null;
+        CompletableFuture<Void> durable = null;
+        boolean logged = false;
+        try {
+            if (!writes.isEmpty() || !deletes.isEmpty()) {
+                if (blocks == null) {
+                    checkDurable();
+                    // The values go to the arena before the version is taken, so a full arena fails the whole commit.
+                    blocks = allocateBlocks(writes);
+                }
+                commitVersion = nextVersion.incrementAndGet();
+                for (String key : deletes) {
+                    install(key, null, 0, true, commitVersion, blocks);
+                }
+                
+                record = new CommitRecord(commitVersion, writes, deletes, expirations);
+                for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+                    long expiresAt = record.expiresAt(entry.getKey());
+                    VersionedValue head = dataStore.get(entry.getKey());
+                    install(entry.getKey(), entry.getValue(), expiresAt, false, commitVersion, blocks);
+                    // A write keeping the deadline of the key (an increment) keeps its wheel entry as well.
+                    if (expiresAt != 0 && (head == null || head.getExpiresAt() != expiresAt)) {
+                        scheduleExpiry(entry.getKey(), expiresAt);
+                    }
+                }
+                durable = log(record);
+                logged = true;
+            }
+        } finally {
+            if (commitVersion != 0 && !logged) {
+                uninstall(writes.keySet(), deletes, commitVersion);
+            }
+            lockStripes.unlockAll(stripes);
+            if (commitVersion != 0 && !logged) {
+                publish(commitVersion, null);
+            }
+        }
+        
+        if (commitVersion == 0) {
+            return;
+        }
+        
+        // The stripes are released while the group commit runs, so that other commits can join it.
+        try {
+            awaitDurable(durable);
+        } catch (RuntimeException ex) {
+            lockStripes.lockAll(stripes);
+            try {
+                uninstall(writes.keySet(), deletes, commitVersion);
+            } finally {
+                lockStripes.unlockAll(stripes);
+            }
+            publish(commitVersion, null);
+            throw ex;
+        }
+        publish(commitVersion, record);
+    }
+    
+    /**
+     * Returns the live (not deleted) version of the <code>key</code> visible at <code>snapshotVersion</code>.
+     * The snapshot must be registered, so that its versions cannot be garbage-collected.
+     *
+     * @param key
+     * @param snapshotVersion
+     * @return
+     */
+    private VersionedValue readVisible(String key, long snapshotVersion) {
+        VersionedValue head = dataStore.get(key);
+        VersionedValue versionedValue = (head == null ? null : head.visibleAt(snapshotVersion));
+        return (versionedValue == null || versionedValue.isDeleted() ? null : versionedValue);
+    }
+    
+    /**
+     * Returns the newest version of the <code>key</code> unless it is deleted or expired. The caller holds the
+     * stripe lock of the <code>key</code>, so the version cannot be pruned while it is used.
+     *
+     * @param key
+     * @return
+     */
+    private VersionedValue liveHead(String key) {
+        VersionedValue head = dataStore.get(key);
+        return (head == null || head.isDeleted() || head.isExpired() ? null : head);
+    }
+    
+    /**
+     * Adds <code>delta</code> to the decimal number in the <code>value</code> bytes of the <code>key</code>
+     * (0 if null).
+     *
+     * @param key
+     * @param value
+     * @param delta
+     * @return
+     */
+    static long addToCounter(String key, byte[] value, long delta) {
+        try {
+            return (value == null ? delta
+                                  : Math.addExact(Long.parseLong(new String(value, StandardCharsets.US_ASCII)), delta));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("The value of " + key + " is not a number!");
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException("Incrementing " + key + " overflows!");
+        }
+    }
+    
+    /**
+     * Returns the live value of the <code>key</code> at the latest published version, without registering a
+     * snapshot. If no version is found while the published version moved on, a concurrent prune may have cut the
+     * chain below the unregistered snapshot, so the read is retried at the newer version. For the same reason an
+     * off-heap value may be freed (and its block reused) while it is copied, which is retried as well.
+     *
+     * @param key
+     * @return
+     */
+    private byte[] readLatest(String key) {
+        while (true) {
+            long snapshotVersion = globalVersion.get();
+            VersionedValue head = dataStore.get(key);
+            if (head == null) {
+                return null;
+            }
+            
+            VersionedValue versionedValue = head.visibleAt(snapshotVersion);
+            if (versionedValue == null) {
+                if (globalVersion.get() == snapshotVersion) {
+                    return null;
+                }
+            } else if (versionedValue.isDeleted() || versionedValue.isExpired()) {
+                return null;
+            } else {
+                byte[] value = bytesOf(versionedValue);
+                if (!versionedValue.isReleased()) {
+                    return value;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the value bytes of a live version, copied from the arena if they are off-heap.
+     *
+     * @param versionedValue
+     * @return
+     */
+    private byte[] bytesOf(VersionedValue versionedValue) {
+        return (versionedValue.isOffHeap()
+                ? arena.read(versionedValue.getAddress(), versionedValue.getLength())
+                : versionedValue.getValue());
+    }
+    
+    /**
+     * Creates a version holding the <code>value</code>, moving its bytes to the arena (if any).
+     *
+     * @param value
+     * @param expiresAt
+     * @param version
+     * @param deleted
+     * @param previous
+     * @return
+     */
+    private VersionedValue newVersion(byte[] value, long expiresAt, long version, boolean deleted,
+                                      VersionedValue previous) {
+        if (deleted || arena == null) {
+            return new VersionedValue(value, expiresAt, version, deleted, previous);
+        }
+        
+        return new VersionedValue(arena.allocate(value), value.length, expiresAt, version, previous);
+    }
+    
+    /**
+     * @param key
+     * @param value
+     * @param codec
+     * @param <V>
+     * @return
+     */
+    private static <V> byte[] encode(String key, V value, ValueCodec<V> codec) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value of " + key + " is null!");
+        }
+        
+        return codec.encode(value);
+    }
+    
+    /**
+     * Writes (or deletes) a single key as its own commit.
+     *
+     * @param key
+     * @param value
+     * @param expiresAt
+     * @param deleted
+     */
+    private void writeOutsideTransaction(String key, byte[] value, long expiresAt, boolean deleted) {
+        int[] stripes = {lockStripes.stripeFor(key)};
+        lockStripes.lockAll(stripes);
+        if (deleted) {
+            commitLocked(Collections.emptyMap(), Collections.singleton(key), Collections.emptyMap(), stripes);
+        } else {
+            commitLocked(Collections.singletonMap(key, value), Collections.emptySet(),
+                         expiresAt == 0 ? Collections.emptyMap() : Collections.singletonMap(key, expiresAt), stripes);
+        }
+        collectGarbage();
+    }
+    
+    /**
+     * Copies the values of the <code>writes</code> to the arena (if any), all or none: if the arena fills up, the
+     * blocks taken so far are freed before the failure is thrown.
+     *
+     * @param writes
+     * @return the address of the block of each key.
+     * @throws IllegalStateException if the arena is full.
+     */
+    private Map<String, Long> allocateBlocks(Map<String, byte[]> writes) {
+        if (arena == null || writes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        
+        Map<String, Long> blocks = new HashMap<>();
+        try {
+            for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+                blocks.put(entry.getKey(), arena.allocate(entry.getValue()));
+            }
+        } catch (RuntimeException ex) {
+            freeBlocks(writes, blocks);
+            throw ex;
+        }
+        return blocks;
+    }
+    
+    /**
+     * Returns the arena <code>blocks</code> of the <code>writes</code> that were not installed.
+     *
+     * @param writes
+     * @param blocks the blocks from {@link #allocateBlocks(Map)}, or null.
+     */
+    private void freeBlocks(Map<String, byte[]> writes, Map<String, Long> blocks) {
+        if (blocks != null) {
+            blocks.forEach((key, address) -> arena.free(address, writes.get(key).length));
+        }
+    }
+    
+    /**
+     * Pushes a new version (or tombstone) onto the chain of the <code>key</code>.
+     * The caller holds the stripe lock of the <code>key</code>.
+     *
+     * @param key
+     * @param value
+     * @param expiresAt
+     * @param deleted
+     * @param version
+     * @param blocks    the arena blocks already holding the values, from {@link #allocateBlocks(Map)}.
+     */
+    private void install(String key, byte[] value, long expiresAt, boolean deleted, long version,
+                         Map<String, Long> blocks) {
+        VersionedValue head = dataStore.get(key);
+        if (deleted && (head == null || head.isDeleted())) {
+            return;
+        }
+        
+        VersionedValue versionedValue = (deleted || arena == null
+                                         ? new VersionedValue(value, expiresAt, version, deleted, head)
+                                         : new VersionedValue(blocks.get(key), value.length, expiresAt, version, head));
+        dataStore.put(key, versionedValue);
+        if (head == null) {
+            keyIndex.add(key);
+        }
+        if (versionedValue.prune(snapshotRegistry.watermark(), arena) || deleted) {
+            garbageKeys.add(key);
+        }
+    }
+    
+    /**
+     * Takes back the versions a failed commit installed at <code>version</code> for the <code>writes</code> and
+     * <code>deletes</code>, before the version is published. The caller holds the stripes of the keys.
+     *
+     * @param writes
+     * @param deletes
+     * @param version
+     */
+    private void uninstall(Set<String> writes, Set<String> deletes, long version) {
+        Set<String> keys = new HashSet<>(writes);
+        keys.addAll(deletes);
+        for (String key : keys) {
+            VersionedValue head = dataStore.get(key);
+            VersionedValue removed = null;
+            if (head != null && head.getVersion() == version) {
+                removed = head;
+                if (head.getPrevious() == null) {
+                    dataStore.remove(key);
+                    keyIndex.remove(key);
+                } else {
+                    dataStore.put(key, head.getPrevious());
+                }
+            } else {
+                // A later failed commit of the key may have installed on top of this one.
+                VersionedValue current = head;
+                while (current != null && current.getPrevious() != null
+                       && current.getPrevious().getVersion() >= version) {
+                    if (current.getPrevious().getVersion() == version) {
+                        removed = current.unlinkPrevious();
+                        break;
+                    }
+                    current = current.getPrevious();
+                }
+            }
+            
+            if (removed != null) {
+                removed.release(arena);
+            }
+        }
+    }
+    
+    /**
+     * Queues the <code>record</code> in the write-ahead log; returns null for a memory-only store.
+     *
+     * @param record
+     * @return
+     */
+    private CompletableFuture<Void> log(CommitRecord record) {
+        return (writeAheadLog == null ? null : writeAheadLog.append(record));
+    }
+    
+    /**
+     * Rejects a commit once the write-ahead log has failed, before anything of it is installed: it could not be
+     * made durable, so no reader, listener or replica may see it.
+     */
+    private void checkDurable() {
+        if (writeAheadLog == null) {
+            return;
+        }
+        
+        try {
+            writeAheadLog.checkHealthy();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Write-ahead log failed, commit rejected!", ex);
+        }
+    }
+    
+    /**
+     * Waits for the group commit that makes a logged commit durable.
+     *
+     * @param durable
+     */
+    private void awaitDurable(CompletableFuture<Void> durable) {
+        if (durable == null) {
+            return;
+        }
+        
+        try {
+            durable.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw new UncheckedIOException("Commit not durable, rolled back!", (IOException) ex.getCause());
+            }
+            throw ex;
+        }
+    }
+    
+    /**
+     * Re-applies a logged commit during recovery. Records can be logged slightly out of version order, so a
+     * key only takes the change when it is newer than what the key already holds; deletes are kept as
+     * tombstones until the replay finishes, so that an older write cannot resurrect the key.
+     *
+     * @param record
+     */
+    private void recover(CommitRecord record) {
+        for (String key : record.getDeletes()) {
+            recoverVersion(key, null, 0, true, record.getVersion());
+        }
+        for (Map.Entry<String, byte[]> entry : record.getWrites().entrySet()) {
+            recoverVersion(entry.getKey(), entry.getValue(), record.expiresAt(entry.getKey()), false,
+                           record.getVersion());
+        }
+        
+        if (record.getVersion() > nextVersion.get()) {
+            nextVersion.set(record.getVersion());
+        }
+    }
+    
+    /**
+     * @param key
+     * @param value
+     * @param expiresAt
+     * @param deleted
+     * @param version
+     */
+    private void recoverVersion(String key, byte[] value, long expiresAt, boolean deleted, long version) {
+        VersionedValue head = dataStore.get(key);
+        if (head == null || head.getVersion() < version) {
+            dataStore.put(key, newVersion(value, expiresAt, version, deleted, null));
+            if (head != null && arena != null) {
+                head.release(arena);
+            }
+        }
+    }
+    
+    /**
+     * Loads the newest snapshot of the <code>directory</code> (if any) and returns its version.
+     *
+     * @param directory
+     * @return
+     */
+    private long loadSnapshot(Path directory) {
+        try {
+            Path snapshot = StoreSnapshot.latest(directory).orElse(null);
+            if (snapshot == null) {
+                return 0;
+            }
+            
+            return StoreSnapshot.load(snapshot, Runtime.getRuntime().availableProcessors(),
+                                      (key, value, version, expiresAt) -> {
+                                          dataStore.put(key, newVersion(value, expiresAt, version, false, null));
+                                      });
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to load the snapshot from " + directory, ex);
+        }
+    }
+    
+    /**
+     * Drops the recovered tombstones, schedules the expiry of the recovered keys with a time-to-live and
+     * publishes the recovered version.
+     */
+    private void finishRecovery() {
+        dataStore.values().removeIf(VersionedValue::isDeleted);
+        keyIndex.addAll(dataStore.keySet());
+        dataStore.forEach((key, versionedValue) -> {
+            if (versionedValue.getExpiresAt() != 0) {
+                scheduleExpiry(key, versionedValue.getExpiresAt());
+            }
+        });
+        globalVersion.set(nextVersion.get());
+    }
+    
+    /**
+     * Adds the <code>key</code> to the timer wheel, starting the expiry thread with the first expiring key.
+     *
+     * @param key
+     * @param expiresAt
+     */
+    private void scheduleExpiry(String key, long expiresAt) {
+        timerWheel.schedule(key, expiresAt);
+        if (expiryScheduler != null) {
+            return;
+        }
+        
+        expiryLock.lock();
+        try {
+            if (expiryScheduler == null) {
+                ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "kv-expiry");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.scheduleWithFixedDelay(this::expireQuietly, EXPIRY_TICK_MILLIS, EXPIRY_TICK_MILLIS,
+                                                 TimeUnit.MILLISECONDS);
+                expiryScheduler = scheduler;
+            }
+        } finally {
+            expiryLock.unlock();
+        }
+    }
+    
+    /**
+     * A failed expiry is logged. Its keys stay hidden from reads; they are deleted when written again or
+     * rescheduled by the recovery after a restart.
+     */
+    private void expireQuietly() {
+        try {
+            expireDue();
+        } catch (RuntimeException ex) {
+            log.error("Expiring keys failed!", ex);
+        }
+    }
+    
+    /**
+     * Deletes the <code>due</code> keys that still carry the deadline they were scheduled with, as one commit.
+     *
+     * @param due
+     */
+    private void expire(List<Map.Entry<String, Long>> due) {
+        List<String> keys = new ArrayList<>(due.size());
+        due.forEach(entry -> keys.add(entry.getKey()));
+        int[] stripes = lockStripes.stripesFor(keys);
+        lockStripes.lockAll(stripes);
+        Set<String> deletes = new HashSet<>();
+        for (Map.Entry<String, Long> entry : due) {
+            VersionedValue head = dataStore.get(entry.getKey());
+            // A key rewritten since it was scheduled carries another deadline (and another wheel entry).
+            if (head != null && !head.isDeleted() && head.getExpiresAt() == entry.getValue()) {
+                deletes.add(entry.getKey());
+            }
+        }
+        
+        commitLocked(Collections.emptyMap(), deletes, Collections.emptyMap(), stripes);
+        collectGarbage();
+    }
+    
+    /**
+     * Makes the <code>version</code> visible to new snapshots once all earlier versions are visible, so the
+     * published version always covers complete commits only. The commit listeners see the <code>record</code>
+     * (if the commit completed) right before it becomes visible, hence in version order.
+     * <p>
+     * The wait is short, so it spins first; it ends up parking, because a yield may hand the CPU straight back to
+     * the waiter (notably on a virtual thread), starving the committer it waits for.
+     *
+     * @param version
+     * @param record
+     */
+    private void publish(long version, CommitRecord record) {
+        for (int spins = 0; globalVersion.get() != version - 1; spins++) {
+            if (spins < 64) {
+                Thread.onSpinWait();
+            } else if (spins < 128) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PUBLISH_PARK_NANOS);
+            }
+        }
+        
+        notifyCommitListeners(record);
+        globalVersion.set(version);
+    }
+    
+    /**
+     * A failing listener is logged and skipped, it must not fail a commit that is already applied.
+     *
+     * @param record
+     */
+    private void notifyCommitListeners(CommitRecord record) {
+        if (record == null) {
+            return;
+        }
+        
+        for (Consumer<CommitRecord> commitListener : commitListeners) {
+            try {
+                commitListener.accept(record);
+            } catch (RuntimeException ex) {
+                log.error("Commit listener failed on version {}", record.getVersion(), ex);
+            }
+        }
+    }
+    
+    /**
+     * Removes the key of a collected tombstone from the data store and the index. It holds the stripe of the key,
+     * so that a concurrent install cannot add the key back to the map while its index entry is being removed. The
+     * stripe is only tried: a sweep can run on a thread whose prepared transaction holds stripes, and the key is
+     * simply collected by a later sweep.
+     *
+     * @param key
+     * @param tombstone
+     */
+    private void removeTombstone(String key, VersionedValue tombstone) {
+        int stripe = lockStripes.stripeFor(key);
+        if (lockStripes.tryLock(stripe)) {
+            try {
+                if (dataStore.remove(key, tombstone)) {
+                    keyIndex.remove(key);
+                }
+            } finally {
+                lockStripes.unlock(stripe);
+            }
+        }
+    }
+    
+    /**
+     * Releases the snapshot of a finished transaction.
+     *
+     * @param transaction
+     */
+    private void endTransaction(Transaction transaction) {
+        snapshotRegistry.release(transaction.getSnapshotVersion());
+        collectGarbage();
+    }
+    
+    /**
+     * Opportunistically sweeps the garbage once the watermark moved far enough; never blocks.
+     */
+    private void collectGarbage() {
+        if (garbageKeys.isEmpty() || !gcLock.tryLock()) {
+            return;
+        }
+        
+        try {
+            long watermark = snapshotRegistry.watermark();
+            if (watermark - lastGcWatermark >= GC_INTERVAL) {
+                sweepGarbage(watermark);
+            }
+        } finally {
+            gcLock.unlock();
+        }
+    }
+    
+    /**
+     * Prunes the chains of the garbage keys at the <code>watermark</code> and removes the keys whose only
+     * remaining version is a tombstone nobody can read past. The caller holds the <code>gcLock</code>.
+     *
+     * @param watermark
+     */
+    private void sweepGarbage(long watermark) {
+        lastGcWatermark = watermark;
+        // Iterate over a copy: a key re-added below could otherwise be met again by the same iteration.
+        for (String key : garbageKeys.toArray(new String[0])) {
+            VersionedValue head = dataStore.get(key);
+            if (head != null) {
+                head.prune(watermark, arena);
+                if (head.isDeleted() && head.getVersion() <= watermark) {
+                    removeTombstone(key, head);
+                }
+            }
+            
+            // Stop tracking the key once nothing is left to collect. The head is re-read after the removal,
+            // so a concurrent install (which tracks the key after its put) is never missed.
+            garbageKeys.remove(key);
+            VersionedValue current = dataStore.get(key);
+            if (current != null && (current.getPrevious() != null || current.isDeleted())) {
+                garbageKeys.add(key);
+            }
+        }
+    }
+    
+    /**
+     * Walks the key index of a range lazily, merged with the writes the transaction buffered in the range.
+     *
+     * @param <V>
+     */
+    private final class RangeIterator<V> implements Iterator<Map.Entry<String, V>> {
+        
+        private final Transaction transaction;
+        private final KeyRange range;
+        private final ValueCodec<V> codec;
+        private final Iterator<String> indexKeys;
+        private final Iterator<String> writtenKeys;
+        private String indexKey;
+        private String writtenKey;
+        private int remaining;
+        private Map.Entry<String, V> next;
+        
+        /**
+         * @param transaction
+         * @param range
+         * @param limit
+         * @param codec
+         */
+        private RangeIterator(Transaction transaction, KeyRange range, int limit, ValueCodec<V> codec) {
+            this.transaction = transaction;
+            this.range = range;
+            this.codec = codec;
+            this.remaining = limit;
+            this.indexKeys = range.of(keyIndex).iterator();
+            if (transaction == null || transaction.getWriteSet().isEmpty()) {
+                this.writtenKeys = Collections.emptyIterator();
+            } else {
+                this.writtenKeys = range.of(new TreeMap<>(transaction.getWriteSet()).navigableKeySet()).iterator();
+            }
+            this.indexKey = (indexKeys.hasNext() ? indexKeys.next() : null);
+            this.writtenKey = (writtenKeys.hasNext() ? writtenKeys.next() : null);
+        }
+        
+        @Override
+        public boolean hasNext() {
+            while (next == null && remaining > 0) {
+                String key = nextKey();
+                if (key == null) {
+                    range.completed();
+                    return false;
+                }
+                
+                range.scanned(key);
+                byte[] value = read(transaction, key, false);
+                if (value != null) {
+                    next = Map.entry(key, codec.decode(value));
+                    remaining--;
+                }
+            }
+            
+            return next != null;
+        }
+        
+        @Override
+        public Map.Entry<String, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            
+            Map.Entry<String, V> entry = next;
+            next = null;
+            return entry;
+        }
+        
+        /**
+         * Returns the smaller of the next index key and the next written key (or null at the end of both).
+         *
+         * @return
+         */
+        private String nextKey() {
+            String key;
+            if (writtenKey == null || (indexKey != null && indexKey.compareTo(writtenKey) <= 0)) {
+                key = indexKey;
+            } else {
+                key = writtenKey;
+            }
+            if (key == null) {
+                return null;
+            }
+            
+            if (key.equals(indexKey)) {
+                indexKey = (indexKeys.hasNext() ? indexKeys.next() : null);
+            }
+            if (key.equals(writtenKey)) {
+                writtenKey = (writtenKeys.hasNext() ? writtenKeys.next() : null);
+            }
+            
+            return key;
+        }
     }
 }
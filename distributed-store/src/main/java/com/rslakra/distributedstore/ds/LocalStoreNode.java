@@ -0,0 +1,92 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A {@link StoreNode} backed by a {@link KeyValueStore} in this JVM.
+ */
+@Getter
+public class LocalStoreNode implements StoreNode {
+    
+    private final String id;
+    private final KeyValueStore store;
+    
+    /**
+     * @param id
+     * @param store
+     */
+    public LocalStoreNode(String id, KeyValueStore store) {
+        this.id = id;
+        this.store = store;
+    }
+    
+    /**
+     * @param id
+     */
+    public LocalStoreNode(String id) {
+        this(id, new KeyValueStore());
+    }
+    
+    /**
+     * @param key
+     * @return
+     */
+    @Override
+    public String get(String key) {
+        return store.get(null, key);
+    }
+    
+    /**
+     * @param key
+     * @param value
+     */
+    @Override
+    public void set(String key, String value) {
+        store.set(null, key, value);
+    }
+    
+    /**
+     * @param key
+     * @return
+     */
+    @Override
+    public StoredValue getStored(String key) {
+        return store.getStored(key);
+    }
+    
+    /**
+     * @param key
+     * @param storedValue
+     */
+    @Override
+    public void setStored(String key, StoredValue storedValue) {
+        store.setBytes(null, key, storedValue.getValue(), storedValue.getExpiresAt());
+    }
+    
+    /**
+     * @param key
+     */
+    @Override
+    public void delete(String key) {
+        store.delete(null, key);
+    }
+    
+    /**
+     * @return
+     */
+    @Override
+    public List<String> keys() {
+        return store.keys();
+    }
+    
+    /**
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
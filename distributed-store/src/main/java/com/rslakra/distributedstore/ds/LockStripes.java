@@ -0,0 +1,163 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed set of locks that keys are hashed onto (lock striping).
+ * <p>
+ * Two keys share a lock only when they hash onto the same stripe, so transactions touching disjoint keys
+ * mostly take disjoint locks and commit in parallel. Multi-key callers always acquire stripes in ascending
+ * index order, which rules out deadlocks between concurrent commits.
+ * <p>
+ * The stripes are binary semaphores rather than reentrant locks because they are not owned by a thread: a
+ * two-phase commit may lock the stripes while preparing on one thread and release them on another.
+ */
+public class LockStripes {
+    
+    /**
+     * Default number of stripes; large enough that unrelated keys rarely collide.
+     */
+    public static final int DEFAULT_STRIPES = 1024;
+    
+    private final Semaphore[] locks;
+    private final int mask;
+    
+    /**
+     * @param stripes the requested number of stripes, rounded up to a power of two.
+     */
+    public LockStripes(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive!");
+        }
+        
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new Semaphore[size];
+        for (int i = 0; i < size; i++) {
+            this.locks[i] = new Semaphore(1);
+        }
+        this.mask = size - 1;
+    }
+    
+    public LockStripes() {
+        this(DEFAULT_STRIPES);
+    }
+    
+    /**
+     * Returns the stripe index of the <code>key</code>.
+     *
+     * @param key
+     * @return
+     */
+    public int stripeFor(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+    
+    /**
+     * Returns the distinct stripe indexes of the <code>keys</code> in ascending (acquisition) order.
+     *
+     * @param keys
+     * @return
+     */
+    public int[] stripesFor(Collection<String> keys) {
+        int[] stripes = new int[keys.size()];
+        int index = 0;
+        for (String key : keys) {
+            stripes[index++] = stripeFor(key);
+        }
+        
+        Arrays.sort(stripes);
+        int unique = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                stripes[unique++] = stripes[i];
+            }
+        }
+        
+        return unique == stripes.length ? stripes : Arrays.copyOf(stripes, unique);
+    }
+    
+    /**
+     * @param stripe
+     */
+    public void lock(int stripe) {
+        locks[stripe].acquireUninterruptibly();
+    }
+    
+    /**
+     * Acquires the <code>stripe</code> only if it is free right now.
+     *
+     * @param stripe
+     * @return
+     */
+    public boolean tryLock(int stripe) {
+        return locks[stripe].tryAcquire();
+    }
+    
+    /**
+     * @param stripe
+     */
+    public void unlock(int stripe) {
+        locks[stripe].release();
+    }
+    
+    /**
+     * Acquires all the <code>stripes</code>, which must be sorted as returned by {@link #stripesFor(Collection)}.
+     *
+     * @param stripes
+     */
+    public void lockAll(int[] stripes) {
+        for (int stripe : stripes) {
+            locks[stripe].acquireUninterruptibly();
+        }
+    }
+    
+    /**
+     * Acquires all the (sorted) <code>stripes</code>, giving up after <code>timeout</code>. On failure no stripe
+     * is left locked.
+     * <p>
+     * Callers that may already hold other locks (such as a participant of a two-phase commit, whose coordinator
+     * holds the locks of other partitions) must use this instead of {@link #lockAll(int[])}, as ordered
+     * acquisition only prevents deadlocks within one set of stripes.
+     *
+     * @param stripes
+     * @param timeout
+     * @param unit
+     * @return true if all the stripes were acquired.
+     */
+    public boolean tryLockAll(int[] stripes, long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int i = 0; i < stripes.length; i++) {
+            boolean acquired;
+            try {
+                acquired = locks[stripes[i]].tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                unlockAll(Arrays.copyOf(stripes, i));
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Releases all the <code>stripes</code> in the reverse order of acquisition.
+     *
+     * @param stripes
+     */
+    public void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].release();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The commit outcomes of one partition of a {@link TransactionManager}.
+ * <p>
+ * A conflict is a participant failing its own validation (or lock timeout); an abort is any commit attempt the
+ * partition took part in that did not commit, including those aborted because another participant conflicted.
+ */
+@Getter
+public class PartitionStats {
+    
+    private final String partitionId;
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder fastPathCommits = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    
+    /**
+     * @param partitionId
+     */
+    public PartitionStats(String partitionId) {
+        this.partitionId = partitionId;
+    }
+    
+    /**
+     * Returns the share of the commit attempts that conflicted on this partition.
+     *
+     * @return
+     */
+    public double getConflictRate() {
+        return rate(conflicts);
+    }
+    
+    /**
+     * Returns the share of the commit attempts involving this partition that aborted.
+     *
+     * @return
+     */
+    public double getAbortRate() {
+        return rate(aborts);
+    }
+    
+    /**
+     * @param counter
+     * @return
+     */
+    private double rate(LongAdder counter) {
+        long total = attempts.sum();
+        return (total == 0 ? 0 : (double) counter.sum() / total);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s[attempts=%d, commits=%d, fastPathCommits=%d, conflicts=%d, aborts=%d]", partitionId,
+                             attempts.sum(), commits.sum(), fastPathCommits.sum(), conflicts.sum(), aborts.sum());
+    }
+}
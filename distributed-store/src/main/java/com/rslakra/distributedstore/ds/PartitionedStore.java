@@ -0,0 +1,249 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A key-value store hash-partitioned over several {@link StoreNode}s with a {@link ConsistentHashRing}.
+ * <p>
+ * Every single-key operation goes straight to the node owning the key, so memory and throughput grow with the
+ * number of nodes. Adding or removing a node moves only the keys whose owner changes (about 1/N of them): they
+ * are copied to their new owner before the ring switches over, and deleted from the old one afterwards.
+ * <p>
+ * Operations run under the read lock of the router and membership changes under its write lock, so no operation
+ * observes a half-moved key. The lock only covers this router: other clients writing to the nodes directly
+ * during a rebalance are not coordinated.
+ */
+@Slf4j
+public class PartitionedStore implements Closeable {
+    
+    private final ConsistentHashRing<StoreNode> ring;
+    private final ReentrantReadWriteLock membershipLock = new ReentrantReadWriteLock();
+    
+    /**
+     * @param virtualNodes the number of ring points per node.
+     * @param nodes        the initial nodes; their keys are expected to be placed already.
+     */
+    public PartitionedStore(int virtualNodes, Collection<? extends StoreNode> nodes) {
+        this.ring = new ConsistentHashRing<>(virtualNodes);
+        for (StoreNode node : nodes) {
+            ring.addNode(node.getId(), node);
+        }
+    }
+    
+    /**
+     * @param nodes
+     */
+    public PartitionedStore(Collection<? extends StoreNode> nodes) {
+        this(ConsistentHashRing.DEFAULT_VIRTUAL_NODES, nodes);
+    }
+    
+    /**
+     * @param key
+     * @return
+     */
+    public String get(String key) {
+        membershipLock.readLock().lock();
+        try {
+            return ring.nodeFor(key).get(key);
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @param key
+     * @param value
+     */
+    public void set(String key, String value) {
+        membershipLock.readLock().lock();
+        try {
+            ring.nodeFor(key).set(key, value);
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @param key
+     */
+    public void delete(String key) {
+        membershipLock.readLock().lock();
+        try {
+            ring.nodeFor(key).delete(key);
+        } finally {
+            membershipLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the node owning the <code>key</code>.
+     *
+     * @param key
+     * @return
+     */
+    public StoreNode nodeFor(String key) {
+        return ring.nodeFor(key);
+    }
+    
+    /**
+     * @return
+     */
+    public Collection<StoreNode> getNodes() {
+        return ring.getNodes();
+    }
+    
+    /**
+     * Adds the <code>node</code> and moves to it the keys it now owns.
+     *
+     * @param node
+     * @return the number of keys moved.
+     */
+    public int addNode(StoreNode node) {
+        membershipLock.writeLock().lock();
+        try {
+            if (ring.getNode(node.getId()) != null) {
+                throw new IllegalStateException("Node " + node.getId() + " already exists!");
+            }
+            
+            ConsistentHashRing<StoreNode> target = copyRing();
+            target.addNode(node.getId(), node);
+            List<Move> moves = new ArrayList<>();
+            for (StoreNode owner : ring.getNodes()) {
+                for (String key : owner.keys()) {
+                    if (target.nodeFor(key) != owner) {
+                        moves.add(new Move(key, owner));
+                    }
+                }
+            }
+            
+            return rebalance(moves, target, () -> ring.addNode(node.getId(), node));
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Removes the node with the <code>nodeId</code> after moving its keys to their new owners.
+     *
+     * @param nodeId
+     * @return the removed node (not closed).
+     */
+    public StoreNode removeNode(String nodeId) {
+        membershipLock.writeLock().lock();
+        try {
+            StoreNode node = ring.getNode(nodeId);
+            if (node == null) {
+                throw new IllegalStateException("Node " + nodeId + " does not exist!");
+            } else if (ring.size() == 1) {
+                throw new IllegalStateException("Cannot remove the last node!");
+            }
+            
+            ConsistentHashRing<StoreNode> target = copyRing();
+            target.removeNode(nodeId);
+            List<Move> moves = new ArrayList<>();
+            for (String key : node.keys()) {
+                moves.add(new Move(key, node));
+            }
+            
+            rebalance(moves, target, () -> ring.removeNode(nodeId));
+            return node;
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Closes every node.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        membershipLock.writeLock().lock();
+        try {
+            for (StoreNode node : ring.getNodes()) {
+                node.close();
+            }
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @return
+     */
+    private ConsistentHashRing<StoreNode> copyRing() {
+        ConsistentHashRing<StoreNode> copy = new ConsistentHashRing<>(ring.getVirtualNodes());
+        for (StoreNode node : ring.getNodes()) {
+            copy.addNode(node.getId(), node);
+        }
+        
+        return copy;
+    }
+    
+    /**
+     * Copies the moved keys with their expiry deadlines to their owners in the <code>target</code> ring, switches
+     * the membership and then deletes the keys from their previous owners. If the copy fails, the copies already
+     * written are deleted before the failure is thrown, so that a key deleted before a retry cannot come back.
+     *
+     * @param moves
+     * @param target
+     * @param switchRing
+     * @return
+     */
+    private int rebalance(List<Move> moves, ConsistentHashRing<StoreNode> target, Runnable switchRing) {
+        List<Move> copied = new ArrayList<>(moves.size());
+        try {
+            for (Move move : moves) {
+                // The raw bytes move with their deadline, so a key with a time-to-live does not become permanent.
+                StoredValue storedValue = move.owner.getStored(move.key);
+                if (storedValue != null) {
+                    copied.add(move);
+                    target.nodeFor(move.key).setStored(move.key, storedValue);
+                }
+            }
+        } catch (RuntimeException ex) {
+            for (Move move : copied) {
+                try {
+                    target.nodeFor(move.key).delete(move.key);
+                } catch (RuntimeException deleteEx) {
+                    ex.addSuppressed(deleteEx);
+                }
+            }
+            throw ex;
+        }
+        
+        switchRing.run();
+        for (Move move : moves) {
+            move.owner.delete(move.key);
+        }
+        
+        log.info("Moved {} keys, the ring has {} nodes", moves.size(), ring.size());
+        return moves.size();
+    }
+    
+    /**
+     * A key leaving its current owner.
+     */
+    private static final class Move {
+        
+        private final String key;
+        private final StoreNode owner;
+        
+        /**
+         * @param key
+         * @param owner
+         */
+        private Move(String key, StoreNode owner) {
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link StoreNode} talking to a {@link CommandProcessor} (usually another JVM) over its line protocol.
+ * <p>
+ * The node keeps one connection and serializes the requests on it. Keys must not contain spaces and values must
+ * not contain newlines, as the protocol is line based; keys handed over during a rebalance travel as base64 with
+ * their expiry deadline instead.
+ */
+public class RemoteStoreNode implements StoreNode {
+    
+    @Getter
+    private final String id;
+    @Getter
+    private final InetSocketAddress address;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Socket socket;
+    private BufferedReader reader;
+    private Writer writer;
+    
+    /**
+     * @param id
+     * @param address
+     */
+    public RemoteStoreNode(String id, InetSocketAddress address) {
+        this.id = id;
+        this.address = address;
+    }
+    
+    /**
+     * @param key
+     * @return
+     */
+    @Override
+    public String get(String key) {
+        return value(request("GET " + key));
+    }
+    
+    /**
+     * @param key
+     * @param value
+     */
+    @Override
+    public void set(String key, String value) {
+        expectOk(request("SET " + key + " " + value));
+    }
+    
+    /**
+     * @param key
+     * @return
+     */
+    @Override
+    public StoredValue getStored(String key) {
+        String response = request("DUMP " + key);
+        if ("NIL".equals(response)) {
+            return null;
+        } else if (!response.startsWith("STORED ")) {
+            throw failure(response);
+        }
+        
+        int separator = response.indexOf(' ', "STORED ".length());
+        if (separator < 0) {
+            throw failure(response);
+        }
+        
+        return new StoredValue(Base64.getDecoder().decode(response.substring(separator + 1)),
+                               Long.parseLong(response.substring("STORED ".length(), separator)));
+    }
+    
+    /**
+     * @param key
+     * @param storedValue
+     */
+    @Override
+    public void setStored(String key, StoredValue storedValue) {
+        expectOk(request("RESTORE " + key + " " + storedValue.getExpiresAt() + " "
+                         + Base64.getEncoder().encodeToString(storedValue.getValue())));
+    }
+    
+    /**
+     * @param key
+     */
+    @Override
+    public void delete(String key) {
+        expectOk(request("DELETE " + key));
+    }
+    
+    /**
+     * @return
+     */
+    @Override
+    public List<String> keys() {
+        lock.lock();
+        try {
+            String header = send("KEYS");
+            if (!header.startsWith("ARRAY ")) {
+                throw failure(header);
+            }
+            
+            int count = Integer.parseInt(header.substring("ARRAY ".length()));
+            List<String> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(value(readLine()));
+            }
+            
+            return keys;
+        } catch (IOException ex) {
+            disconnect();
+            throw new UncheckedIOException(ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Closes the connection; the next request reconnects.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            disconnect();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Sends one command and returns its one-line response.
+     *
+     * @param command
+     * @return
+     */
+    private String request(String command) {
+        lock.lock();
+        try {
+            return send(command);
+        } catch (IOException ex) {
+            // The stream may be out of sync with the responses now, so start over with a new connection.
+            disconnect();
+            throw new UncheckedIOException(ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @param command
+     * @return
+     * @throws IOException
+     */
+    private String send(String command) throws IOException {
+        if (socket == null) {
+            socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+        
+        writer.write(command);
+        writer.write('\n');
+        writer.flush();
+        return readLine();
+    }
+    
+    /**
+     * @return
+     * @throws IOException
+     */
+    private String readLine() throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Connection to " + address + " closed!");
+        }
+        
+        return line;
+    }
+    
+    /**
+     * Drops the connection, discarding any unread response.
+     */
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to release.
+            }
+            socket = null;
+        }
+    }
+    
+    /**
+     * @param response
+     * @return
+     */
+    private static String value(String response) {
+        if ("NIL".equals(response)) {
+            return null;
+        } else if (response.startsWith("VALUE ")) {
+            return response.substring("VALUE ".length());
+        }
+        
+        throw failure(response);
+    }
+    
+    /**
+     * @param response
+     */
+    private static void expectOk(String response) {
+        if (!"OK".equals(response)) {
+            throw failure(response);
+        }
+    }
+    
+    /**
+     * @param response
+     * @return
+     */
+    private static IllegalStateException failure(String response) {
+        return new IllegalStateException(response.startsWith("ERR ") ? response.substring("ERR ".length())
+                                                                      : "Unexpected response: " + response);
+    }
+}
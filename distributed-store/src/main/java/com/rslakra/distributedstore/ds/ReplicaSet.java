@@ -0,0 +1,94 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes the reads of one partition over its leader and its read replicas.
+ * <p>
+ * A bounded-staleness read names the oldest leader version it accepts, e.g. the version returned after its own
+ * write ({@link #getLeaderVersion()}) for read-your-writes, and is served by any replica that applied at least that
+ * version, round-robin; the leader serves it when no replica is recent enough. Writes always go to the leader.
+ */
+public class ReplicaSet {
+    
+    @Getter
+    private final KeyValueStore leader;
+    @Getter
+    private final List<ReplicationFollower> followers;
+    private final AtomicInteger next = new AtomicInteger();
+    @Getter
+    private final LongAdder replicaReads = new LongAdder();
+    @Getter
+    private final LongAdder leaderReads = new LongAdder();
+    
+    /**
+     * @param leader
+     * @param followers
+     */
+    public ReplicaSet(KeyValueStore leader, List<ReplicationFollower> followers) {
+        this.leader = leader;
+        this.followers = List.copyOf(followers);
+    }
+    
+    /**
+     * Reads the <code>key</code> from the leader.
+     *
+     * @param key
+     * @return
+     */
+    public String get(String key) {
+        leaderReads.increment();
+        return leader.get(null, key);
+    }
+    
+    /**
+     * Reads the <code>key</code> from any replica that applied the leader's <code>minVersion</code>, falling back
+     * to the leader.
+     *
+     * @param key
+     * @param minVersion
+     * @return
+     */
+    public String get(String key, long minVersion) {
+        int size = followers.size();
+        int start = (size == 0 ? 0 : Math.floorMod(next.getAndIncrement(), size));
+        for (int i = 0; i < size; i++) {
+            ReplicationFollower follower = followers.get((start + i) % size);
+            if (follower.getAppliedVersion() >= minVersion) {
+                replicaReads.increment();
+                return follower.get(key);
+            }
+        }
+        
+        return get(key);
+    }
+    
+    /**
+     * @param key
+     * @param value
+     */
+    public void set(String key, String value) {
+        leader.set(null, key, value);
+    }
+    
+    /**
+     * @param key
+     */
+    public void delete(String key) {
+        leader.delete(null, key);
+    }
+    
+    /**
+     * Returns the leader's latest version; a read with this minimum version observes every write acknowledged so
+     * far.
+     *
+     * @return
+     */
+    public long getLeaderVersion() {
+        return leader.getVersion();
+    }
+}
@@ -0,0 +1,243 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read replica of a {@link KeyValueStore}: applies the commit stream of a {@link ReplicationLeader} to a local
+ * store, under the leader's versions.
+ * <p>
+ * A single writer thread connects to the leader, receives a full copy of its store followed by its commits, and
+ * applies them in version order, so {@link #getAppliedVersion()} tells exactly which leader commits a read on
+ * the replica observes. When the connection drops the thread reconnects and resyncs. The replica store is meant to
+ * be read only; writing to it directly would be overwritten by the next resync. It does not expire keys itself
+ * either: it applies the deletes of the leader's expiry.
+ */
+@Slf4j
+public class ReplicationFollower implements Closeable {
+    
+    public static final long DEFAULT_RECONNECT_DELAY_MILLIS = 100;
+    
+    @Getter
+    private final KeyValueStore replica;
+    private final InetSocketAddress leaderAddress;
+    private final long reconnectDelayMillis;
+    private final Thread writer;
+    private final Inflater inflater = new Inflater();
+    private volatile boolean running;
+    private volatile Socket socket;
+    
+    /**
+     * @param replica              the local store the commits are applied to.
+     * @param leaderAddress        the address of the {@link ReplicationLeader}.
+     * @param reconnectDelayMillis the delay before reconnecting after a failure.
+     */
+    public ReplicationFollower(KeyValueStore replica, InetSocketAddress leaderAddress, long reconnectDelayMillis) {
+        this.replica = replica;
+        this.replica.disableExpiry();
+        this.leaderAddress = leaderAddress;
+        this.reconnectDelayMillis = reconnectDelayMillis;
+        this.writer = new Thread(this::replicate, "kv-replica-" + leaderAddress);
+        this.writer.setDaemon(true);
+    }
+    
+    /**
+     * @param replica
+     * @param leaderAddress
+     */
+    public ReplicationFollower(KeyValueStore replica, InetSocketAddress leaderAddress) {
+        this(replica, leaderAddress, DEFAULT_RECONNECT_DELAY_MILLIS);
+    }
+    
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        running = true;
+        writer.start();
+    }
+    
+    /**
+     * Returns the version of the last leader commit applied (and visible) on the replica.
+     *
+     * @return
+     */
+    public long getAppliedVersion() {
+        return replica.getVersion();
+    }
+    
+    /**
+     * Reads the <code>key</code> from the replica.
+     *
+     * @param key
+     * @return
+     */
+    public String get(String key) {
+        return replica.get(null, key);
+    }
+    
+    /**
+     * Waits until the replica applied the leader's <code>version</code>.
+     *
+     * @param version
+     * @param timeout
+     * @param unit
+     * @return true if the version was reached in time.
+     * @throws InterruptedException
+     */
+    public boolean awaitVersion(long version, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getAppliedVersion() < version) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Stops replicating; the replica store is left open.
+     */
+    @Override
+    public void close() {
+        running = false;
+        closeSocket();
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * The writer loop: (re)connects and applies the stream until closed.
+     */
+    private void replicate() {
+        try {
+            while (running) {
+                try {
+                    socket = new Socket(leaderAddress.getAddress(), leaderAddress.getPort());
+                    socket.setTcpNoDelay(true);
+                    applyStream(socket);
+                } catch (IOException | DataFormatException ex) {
+                    if (running) {
+                        log.info("Replication from {} interrupted: {}", leaderAddress, ex.getMessage());
+                        Thread.sleep(reconnectDelayMillis);
+                    }
+                } finally {
+                    closeSocket();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    /**
+     * @param socket
+     * @throws IOException
+     * @throws DataFormatException
+     */
+    private void applyStream(Socket socket) throws IOException, DataFormatException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        output.writeLong(getAppliedVersion());
+        output.flush();
+        
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        Map<String, byte[]> snapshot = new HashMap<>();
+        Map<String, Long> expirations = new HashMap<>();
+        byte[] compressed = new byte[0];
+        byte[] payload = new byte[0];
+        while (running) {
+            byte type = input.readByte();
+            long version = input.readLong();
+            int rawLength = input.readInt();
+            int compressedLength = input.readInt();
+            if (compressed.length < compressedLength) {
+                compressed = new byte[Math.max(compressedLength, compressed.length * 2)];
+            }
+            input.readFully(compressed, 0, compressedLength);
+            if (payload.length < rawLength) {
+                payload = new byte[Math.max(rawLength, payload.length * 2)];
+            }
+            inflate(compressed, compressedLength, payload, rawLength);
+            
+            DataInputStream frame = new DataInputStream(new ByteArrayInputStream(payload, 0, rawLength));
+            switch (type) {
+                case ReplicationLeader.SNAPSHOT_CHUNK -> {
+                    CommitRecord chunk = CommitRecord.readFrom(frame);
+                    snapshot.putAll(chunk.getWrites());
+                    expirations.putAll(chunk.getExpirations());
+                }
+                case ReplicationLeader.SNAPSHOT_END -> {
+                    replica.resetReplicated(version, snapshot, expirations);
+                    snapshot = new HashMap<>();
+                    expirations = new HashMap<>();
+                    log.info("Replica of {} resynced at version {}", leaderAddress, version);
+                }
+                case ReplicationLeader.COMMITS -> {
+                    int count = frame.readInt();
+                    for (int i = 0; i < count; i++) {
+                        replica.applyReplicated(CommitRecord.readFrom(frame));
+                    }
+                }
+                default -> throw new IOException("Unknown replication frame " + type);
+            }
+        }
+    }
+    
+    /**
+     * @param compressed
+     * @param compressedLength
+     * @param payload
+     * @param rawLength
+     * @throws DataFormatException
+     */
+    private void inflate(byte[] compressed, int compressedLength, byte[] payload, int rawLength)
+        throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        int length = 0;
+        while (length < rawLength && !inflater.finished()) {
+            length += inflater.inflate(payload, length, rawLength - length);
+        }
+        
+        if (length != rawLength) {
+            throw new DataFormatException("Truncated replication frame");
+        }
+    }
+    
+    /**
+     * Closes the current connection, if any.
+     */
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ex) {
+                log.debug("Failed to close {}", current, ex);
+            }
+        }
+    }
+}
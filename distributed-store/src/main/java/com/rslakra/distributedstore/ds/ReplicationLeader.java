@@ -0,0 +1,337 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Streams the commits of a {@link KeyValueStore} to its read replicas ({@link ReplicationFollower}s).
+ * <p>
+ * A follower connects and first receives a full copy of the store at some snapshot version S, taken from an MVCC
+ * snapshot so that writers are not paused, then every commit after S in version order. Each follower has a bounded
+ * queue fed by a commit listener and a sender thread that drains it in batches; every batch (and every snapshot
+ * chunk) is one Deflate-compressed frame:
+ * <pre>
+ *  frame : [type][version][rawLength][compressedLength][deflated payload]
+ * </pre>
+ * A follower falling so far behind that its queue overflows is disconnected; it reconnects and resyncs from a new
+ * snapshot, so a slow replica never slows down the commits of the leader.
+ */
+@Slf4j
+public class ReplicationLeader implements Closeable {
+    
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 512;
+    
+    /**
+     * A chunk of the initial copy: a {@link CommitRecord} of the entries, with their deadlines.
+     */
+    static final byte SNAPSHOT_CHUNK = 1;
+    
+    /**
+     * The end of the initial copy, whose version is the snapshot version.
+     */
+    static final byte SNAPSHOT_END = 2;
+    
+    /**
+     * A batch of commits: <code>[count](commitRecord)*</code>, see {@link CommitRecord#writeTo(DataOutputStream)}.
+     */
+    static final byte COMMITS = 3;
+    
+    private static final int SNAPSHOT_CHUNK_ENTRIES = 4096;
+    
+    private final KeyValueStore store;
+    private final InetSocketAddress address;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final List<FollowerSession> sessions = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private volatile boolean running;
+    
+    /**
+     * @param store
+     * @param address       the address followers connect to; port 0 picks a free port.
+     * @param queueCapacity the number of commits a follower may lag behind before it is resynced.
+     * @param maxBatchSize  the maximum number of commits per frame.
+     */
+    public ReplicationLeader(KeyValueStore store, InetSocketAddress address, int queueCapacity, int maxBatchSize) {
+        this.store = store;
+        this.address = address;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+    }
+    
+    /**
+     * @param store
+     * @param address
+     */
+    public ReplicationLeader(KeyValueStore store, InetSocketAddress address) {
+        this(store, address, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+    
+    /**
+     * Starts accepting followers.
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        running = true;
+        acceptor = new Thread(this::accept, "kv-replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    /**
+     * @return
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Returns the number of connected followers.
+     *
+     * @return
+     */
+    public int getFollowerCount() {
+        return sessions.size();
+    }
+    
+    /**
+     * Disconnects every follower and stops accepting new ones.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to close {}", address, ex);
+        }
+        for (FollowerSession session : sessions) {
+            session.disconnect();
+        }
+    }
+    
+    /**
+     * Accepts followers until closed, each served by its own sender thread.
+     */
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                FollowerSession session = new FollowerSession(socket);
+                session.sender = new Thread(session, "kv-replication-" + socket.getRemoteSocketAddress());
+                session.sender.setDaemon(true);
+                session.sender.start();
+            } catch (SocketException ex) {
+                break;
+            } catch (IOException ex) {
+                log.warn("Failed to accept a follower!", ex);
+            }
+        }
+    }
+    
+    /**
+     * The stream to one follower.
+     */
+    private final class FollowerSession implements Runnable {
+        
+        private final Socket socket;
+        private final Consumer<CommitRecord> commitListener = this::enqueue;
+        private final BlockingQueue<CommitRecord> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final ByteArrayOutputStream rawBytes = new ByteArrayOutputStream(64 * 1024);
+        private final DataOutputStream raw = new DataOutputStream(rawBytes);
+        private byte[] compressed = new byte[64 * 1024];
+        private DataOutputStream output;
+        private volatile boolean overflowed;
+        private Thread sender;
+        
+        /**
+         * @param socket
+         */
+        private FollowerSession(Socket socket) {
+            this.socket = socket;
+        }
+        
+        @Override
+        public void run() {
+            sessions.add(this);
+            store.addCommitListener(commitListener);
+            try {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                long followerVersion = input.readLong();
+                long snapshotVersion = sendSnapshot();
+                log.info("Follower {} at version {} resynced at version {}", socket.getRemoteSocketAddress(),
+                         followerVersion, snapshotVersion);
+                
+                List<CommitRecord> batch = new ArrayList<>(maxBatchSize);
+                long nextVersion = snapshotVersion + 1;
+                while (running && !overflowed) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    // The commits up to the snapshot version are already part of the copy.
+                    batch.removeIf(record -> record.getVersion() <= snapshotVersion);
+                    for (CommitRecord record : batch) {
+                        // A commit that failed half-way, or one published while the listener was being added, leaves
+                        // a hole that only a resync can fill.
+                        if (record.getVersion() != nextVersion++) {
+                            throw new IOException("Missing version " + (nextVersion - 1) + " in the commit stream");
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        raw.writeInt(batch.size());
+                        for (CommitRecord record : batch) {
+                            record.writeTo(raw);
+                        }
+                        writeFrame(COMMITS, batch.get(batch.size() - 1).getVersion());
+                        batch.clear();
+                    }
+                }
+            } catch (IOException ex) {
+                log.info("Follower {} disconnected: {}", socket.getRemoteSocketAddress(), ex.getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                store.removeCommitListener(commitListener);
+                sessions.remove(this);
+                deflater.end();
+                disconnect();
+            }
+        }
+        
+        /**
+         * Called by the committing threads, in version order.
+         *
+         * @param record
+         */
+        private void enqueue(CommitRecord record) {
+            if (!overflowed && !queue.offer(record)) {
+                log.warn("Follower {} is too far behind, disconnecting it", socket.getRemoteSocketAddress());
+                overflowed = true;
+                disconnect();
+            }
+        }
+        
+        /**
+         * Sends every live entry at a new snapshot version, in chunks.
+         *
+         * @return the snapshot version.
+         * @throws IOException
+         */
+        private long sendSnapshot() throws IOException {
+            Transaction transaction = store.beginTransaction();
+            long snapshotVersion = transaction.getSnapshotVersion();
+            try {
+                Map<String, byte[]> entries = new HashMap<>();
+                Map<String, Long> expirations = new HashMap<>();
+                store.forEachVisible(snapshotVersion, (key, value, version, expiresAt) -> {
+                    entries.put(key, value);
+                    if (expiresAt != 0) {
+                        expirations.put(key, expiresAt);
+                    }
+                    if (entries.size() == SNAPSHOT_CHUNK_ENTRIES) {
+                        sendChunk(entries, expirations, snapshotVersion);
+                    }
+                });
+                if (!entries.isEmpty()) {
+                    sendChunk(entries, expirations, snapshotVersion);
+                }
+                writeFrame(SNAPSHOT_END, snapshotVersion);
+                return snapshotVersion;
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            } finally {
+                store.rollback(transaction);
+            }
+        }
+        
+        /**
+         * @param entries
+         * @param expirations
+         * @param snapshotVersion
+         */
+        private void sendChunk(Map<String, byte[]> entries, Map<String, Long> expirations, long snapshotVersion) {
+            try {
+                new CommitRecord(snapshotVersion, entries, Collections.emptySet(), expirations).writeTo(raw);
+                writeFrame(SNAPSHOT_CHUNK, snapshotVersion);
+                entries.clear();
+                expirations.clear();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        
+        /**
+         * Compresses the raw payload written so far into one frame and flushes it.
+         *
+         * @param type
+         * @param version
+         * @throws IOException
+         */
+        private void writeFrame(byte type, long version) throws IOException {
+            raw.flush();
+            byte[] payload = rawBytes.toByteArray();
+            rawBytes.reset();
+            deflater.reset();
+            deflater.setInput(payload);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            
+            output.writeByte(type);
+            output.writeLong(version);
+            output.writeInt(payload.length);
+            output.writeInt(length);
+            output.write(compressed, 0, length);
+            output.flush();
+        }
+        
+        /**
+         * Closes the socket and wakes the sender thread up, so that it ends.
+         */
+        private void disconnect() {
+            sender.interrupt();
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                log.debug("Failed to close {}", socket, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How {@link TransactionManager#execute(RetryPolicy, java.util.function.Function)} reruns a transaction that
+ * aborted on a conflict.
+ * <p>
+ * The pause before each retry is drawn uniformly between zero and an exponentially growing cap ("full jitter"), so
+ * that transactions which collided once spread out instead of colliding again in lockstep. After
+ * <code>escalateAfter</code> aborts the retries stop being optimistic: they first lock the keys the previous
+ * attempts aborted on, so that the executions fighting over the same hot keys take turns.
+ */
+@Getter
+public class RetryPolicy {
+    
+    public static final RetryPolicy DEFAULT = new RetryPolicy(16, 50, TimeUnit.MILLISECONDS.toMicros(10), 3);
+    
+    private final int maxAttempts;
+    private final long baseBackoffMicros;
+    private final long maxBackoffMicros;
+    private final int escalateAfter;
+    
+    /**
+     * @param maxAttempts       how many times the transaction runs before giving up.
+     * @param baseBackoffMicros the cap of the pause after the first abort, doubled after each further abort.
+     * @param maxBackoffMicros  the largest cap of a pause.
+     * @param escalateAfter     the number of aborts after which the retries lock their keys first.
+     */
+    public RetryPolicy(int maxAttempts, long baseBackoffMicros, long maxBackoffMicros, int escalateAfter) {
+        if (maxAttempts <= 0 || baseBackoffMicros < 0 || maxBackoffMicros < baseBackoffMicros || escalateAfter <= 0) {
+            throw new IllegalArgumentException("Invalid retry policy!");
+        }
+        
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMicros = baseBackoffMicros;
+        this.maxBackoffMicros = maxBackoffMicros;
+        this.escalateAfter = escalateAfter;
+    }
+    
+    /**
+     * Returns a random pause to take after the <code>aborts</code>-th abort.
+     *
+     * @param aborts
+     * @return
+     */
+    long backoffNanos(int aborts) {
+        long cap = baseBackoffMicros << Math.min(aborts - 1, 30);
+        if (cap <= 0 || cap > maxBackoffMicros) {
+            cap = maxBackoffMicros;
+        }
+        
+        return (cap == 0 ? 0 : TimeUnit.MICROSECONDS.toNanos(ThreadLocalRandom.current().nextLong(cap + 1)));
+    }
+    
+    /**
+     * @param aborts
+     * @return true if the attempt after the <code>aborts</code>-th abort locks its keys first.
+     */
+    boolean isPessimistic(int aborts) {
+        return aborts >= escalateAfter;
+    }
+}
@@ -0,0 +1,136 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the snapshot versions of the active transactions, so the store knows which old versions can still
+ * be read and which can be garbage-collected.
+ * <p>
+ * The active snapshots are counted per version in stripes picked by the registering thread, so registrations on
+ * different threads mostly update different maps and none of them takes a lock. A registration counts its version
+ * first and then checks that it is still the latest published one, retrying otherwise: a watermark computed
+ * concurrently either sees the count, or read the published version before it and so is not newer than the
+ * snapshot. Hence no snapshot older than a returned watermark can appear later, and the watermark never blocks.
+ */
+public class SnapshotRegistry {
+    
+    private static final int MAX_STRIPES = 64;
+    
+    /**
+     * The number of active transactions per snapshot version, in each stripe.
+     */
+    private final ConcurrentSkipListMap<Long, Integer>[] stripes;
+    private final int mask;
+    private final AtomicLong globalVersion;
+    
+    /**
+     * @param globalVersion the latest published commit version of the store.
+     */
+    @SuppressWarnings("unchecked")
+    public SnapshotRegistry(AtomicLong globalVersion) {
+        this.globalVersion = globalVersion;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int size = Math.min(MAX_STRIPES, Integer.highestOneBit(processors * 2 - 1) << 1);
+        this.stripes = new ConcurrentSkipListMap[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ConcurrentSkipListMap<>();
+        }
+        this.mask = size - 1;
+    }
+    
+    /**
+     * Takes a snapshot of the latest published version and registers it as active.
+     *
+     * @return
+     */
+    public long register() {
+        ConcurrentSkipListMap<Long, Integer> stripe = stripes[stripeIndex()];
+        long snapshotVersion = globalVersion.get();
+        while (true) {
+            stripe.merge(snapshotVersion, 1, Integer::sum);
+            long latestVersion = globalVersion.get();
+            if (latestVersion == snapshotVersion) {
+                return snapshotVersion;
+            }
+            
+            // A commit was published meanwhile, so a concurrent watermark may already be past this version.
+            decrement(stripe, snapshotVersion);
+            snapshotVersion = latestVersion;
+        }
+    }
+    
+    /**
+     * Releases a snapshot taken by {@link #register()}, possibly on another thread: the count of its version is
+     * taken from the stripe of the calling thread if it has one, else from any other stripe.
+     *
+     * @param snapshotVersion
+     */
+    public void release(long snapshotVersion) {
+        int index = stripeIndex();
+        for (int i = 0; i <= mask; i++) {
+            if (decrement(stripes[(index + i) & mask], snapshotVersion)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Returns the oldest version any active or future snapshot can read; versions hidden by a newer one at or
+     * below this watermark are garbage.
+     *
+     * @return
+     */
+    public long watermark() {
+        long watermark = globalVersion.get();
+        for (ConcurrentSkipListMap<Long, Integer> stripe : stripes) {
+            Map.Entry<Long, Integer> oldest = stripe.firstEntry();
+            if (oldest != null) {
+                watermark = Math.min(watermark, oldest.getKey());
+            }
+        }
+        
+        return watermark;
+    }
+    
+    /**
+     * Returns the number of active snapshots.
+     *
+     * @return
+     */
+    public int activeCount() {
+        int count = 0;
+        for (ConcurrentSkipListMap<Long, Integer> stripe : stripes) {
+            for (Integer value : stripe.values()) {
+                count += value;
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * @return the stripe of the calling thread.
+     */
+    private int stripeIndex() {
+        long id = Thread.currentThread().threadId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+    
+    /**
+     * Removes one snapshot of the <code>version</code> from the <code>stripe</code>.
+     *
+     * @param stripe
+     * @param version
+     * @return false if the stripe has no snapshot of the version.
+     */
+    private static boolean decrement(ConcurrentSkipListMap<Long, Integer> stripe, long version) {
+        boolean[] found = new boolean[1];
+        stripe.computeIfPresent(version, (key, count) -> {
+            found[0] = true;
+            return (count == 1 ? null : count - 1);
+        });
+        return found[0];
+    }
+}
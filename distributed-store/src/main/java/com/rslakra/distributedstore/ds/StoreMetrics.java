@@ -0,0 +1,65 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The always-on contention metrics of a {@link KeyValueStore}: the outcomes of the commits, how long their
+ * validation held the locks, how large their read and write sets were, and which keys they conflicted on.
+ * <p>
+ * Only read-write commits are measured, with two clock reads and a few striped counter increments each; reads and
+ * single-key writes outside a transaction are not instrumented. A conflict additionally updates the
+ * {@link HotKeySketch}, which takes a lock, but a conflict already costs the whole transaction.
+ */
+@Getter
+public class StoreMetrics {
+    
+    public static final int HOT_KEYS = 16;
+    
+    private static final int SKETCH_WIDTH = 4096;
+    
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder readOnlyCommits = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final Histogram validationNanos = new Histogram();
+    private final Histogram readSetSizes = new Histogram();
+    private final Histogram writeSetSizes = new Histogram();
+    private final HotKeySketch conflictKeys = new HotKeySketch(SKETCH_WIDTH, HOT_KEYS);
+    
+    /**
+     * Records the validation of the <code>transaction</code> and the key it conflicted on, if any.
+     *
+     * @param transaction
+     * @param validationNanos
+     * @param conflictKey
+     */
+    void recordValidation(Transaction transaction, long validationNanos, String conflictKey) {
+        this.validationNanos.record(validationNanos);
+        readSetSizes.record(transaction.getReadSet().size() + transaction.getRangeSet().size());
+        writeSetSizes.record(transaction.getWriteSet().size() + transaction.getDeleteSet().size());
+        if (conflictKey != null) {
+            conflicts.increment();
+            conflictKeys.add(conflictKey);
+        }
+    }
+    
+    /**
+     * @param committed
+     */
+    void recordOutcome(boolean committed) {
+        (committed ? commits : aborts).increment();
+    }
+    
+    /**
+     * Returns the share of the read-write commit attempts that aborted.
+     *
+     * @return
+     */
+    public double getAbortRate() {
+        long aborted = aborts.sum();
+        long total = commits.sum() + aborted;
+        return (total == 0 ? 0 : (double) aborted / total);
+    }
+}
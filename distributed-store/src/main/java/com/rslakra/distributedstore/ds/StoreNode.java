@@ -0,0 +1,59 @@
+package com.rslakra.distributedstore.ds;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * One partition of a {@link PartitionedStore}: either a {@link KeyValueStore} in this JVM or a remote one served
+ * by a {@link CommandProcessor}.
+ */
+public interface StoreNode extends Closeable {
+    
+    /**
+     * Returns the id of the node, which also places it on the hash ring.
+     *
+     * @return
+     */
+    String getId();
+    
+    /**
+     * @param key
+     * @return
+     */
+    String get(String key);
+    
+    /**
+     * @param key
+     * @param value
+     */
+    void set(String key, String value);
+    
+    /**
+     * Returns the raw bytes of the <code>key</code> with their expiry deadline, so that the key can move to another
+     * node without becoming permanent.
+     *
+     * @param key
+     * @return the stored value, or null if the key is missing.
+     */
+    StoredValue getStored(String key);
+    
+    /**
+     * Stores the raw bytes of the <code>key</code>, expiring at the deadline of the <code>storedValue</code>.
+     *
+     * @param key
+     * @param storedValue
+     */
+    void setStored(String key, StoredValue storedValue);
+    
+    /**
+     * @param key
+     */
+    void delete(String key);
+    
+    /**
+     * Returns the live keys of the node, used to move keys when the membership changes.
+     *
+     * @return
+     */
+    List<String> keys();
+}
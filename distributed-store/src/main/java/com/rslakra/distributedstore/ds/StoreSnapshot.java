@@ -0,0 +1,374 @@
+package com.rslakra.distributedstore.ds;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary snapshot of the store at one version, used to restart without replaying the whole
+ * write-ahead log.
+ * <p>
+ * The file is split into independently checksummed chunks, indexed by a footer, so that it can be loaded by
+ * several threads at once:
+ * <pre>
+ *  header : [magic][format][snapshotVersion]
+ *  chunk  : ([keyLength][key][version][expiresAt][valueLength][value])*
+ *  footer : [chunkCount]([offset][length][entries][crc32])* [footerOffset][magic]
+ * </pre>
+ * Format 1 files, written before keys could expire, have no <code>expiresAt</code> and are still loaded.
+ * <p>
+ * A snapshot is written to a temporary file and atomically renamed, so a crash never leaves a partial
+ * <code>snapshot-&lt;version&gt;.snap</code> behind.
+ */
+public final class StoreSnapshot {
+    
+    public static final int DEFAULT_CHUNK_ENTRIES = 1 << 16;
+    
+    private static final int MAGIC = 0x4B565353;
+    private static final int FORMAT = 2;
+    private static final String FILE_PREFIX = "snapshot-";
+    private static final String FILE_SUFFIX = ".snap";
+    
+    private StoreSnapshot() {
+    }
+    
+    /**
+     * Receives the entries of a snapshot being loaded; called concurrently from the loader threads.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        
+        /**
+         * @param key
+         * @param value
+         * @param version
+         * @param expiresAt the deadline of the key in epoch milliseconds, or 0 if it does not expire.
+         */
+        void accept(String key, byte[] value, long version, long expiresAt);
+    }
+    
+    /**
+     * Returns the path of the snapshot of <code>version</code> in the <code>directory</code>.
+     *
+     * @param directory
+     * @param version
+     * @return
+     */
+    public static Path snapshotPath(Path directory, long version) {
+        return directory.resolve(String.format("%s%020d%s", FILE_PREFIX, version, FILE_SUFFIX));
+    }
+    
+    /**
+     * Returns the newest snapshot in the <code>directory</code>, if any.
+     *
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static Optional<Path> latest(Path directory) throws IOException {
+        List<Path> snapshots = list(directory);
+        return snapshots.isEmpty() ? Optional.empty() : Optional.of(snapshots.get(snapshots.size() - 1));
+    }
+    
+    /**
+     * Deletes the snapshots older than <code>version</code> from the <code>directory</code>.
+     *
+     * @param directory
+     * @param version
+     * @throws IOException
+     */
+    public static void deleteOlder(Path directory, long version) throws IOException {
+        Path current = snapshotPath(directory, version);
+        for (Path snapshot : list(directory)) {
+            if (snapshot.getFileName().toString().compareTo(current.getFileName().toString()) < 0) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+    
+    /**
+     * Loads the snapshot <code>file</code> with <code>parallelism</code> threads and returns its version.
+     *
+     * @param file
+     * @param parallelism
+     * @param consumer
+     * @return
+     * @throws IOException
+     */
+    public static long load(Path file, int parallelism, EntryConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, Integer.BYTES * 2 + Long.BYTES);
+            int format = (header.getInt() == MAGIC ? header.getInt() : -1);
+            if (format != 1 && format != FORMAT) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            long snapshotVersion = header.getLong();
+            
+            ByteBuffer trailer = read(channel, channel.size() - Long.BYTES - Integer.BYTES, Long.BYTES + Integer.BYTES);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException("Incomplete snapshot file: " + file);
+            }
+            ByteBuffer footer = read(channel, footerOffset, (int) (channel.size() - footerOffset));
+            int chunkCount = footer.getInt();
+            List<long[]> chunks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                chunks.add(new long[]{footer.getLong(), footer.getInt(), footer.getInt(), footer.getInt()});
+            }
+            
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, chunkCount)));
+            try {
+                List<Future<?>> futures = new ArrayList<>(chunkCount);
+                for (long[] chunk : chunks) {
+                    futures.add(executor.submit(() -> {
+                        loadChunk(channel, chunk[0], (int) chunk[1], (int) chunk[3], format, consumer);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + file, ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException("Failed to load " + file, ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+            
+            return snapshotVersion;
+        }
+    }
+    
+    /**
+     * Decodes one memory-mapped chunk after verifying its checksum.
+     *
+     * @param channel
+     * @param offset
+     * @param length
+     * @param checksum
+     * @param format
+     * @param consumer
+     * @throws IOException
+     */
+    private static void loadChunk(FileChannel channel, long offset, int length, int checksum, int format,
+                                  EntryConsumer consumer) throws IOException {
+        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(chunk.duplicate());
+        if ((int) crc32.getValue() != checksum) {
+            throw new IOException("Corrupt snapshot chunk at offset " + offset);
+        }
+        
+        while (chunk.hasRemaining()) {
+            String key = readString(chunk);
+            long version = chunk.getLong();
+            long expiresAt = (format == 1 ? 0 : chunk.getLong());
+            byte[] value = readBytes(chunk);
+            consumer.accept(key, value, version, expiresAt);
+        }
+    }
+    
+    /**
+     * @param buffer
+     * @return
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = readBytes(buffer);
+        return (bytes == null ? null : new String(bytes, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * @param buffer
+     * @return
+     */
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+    
+    /**
+     * @param channel
+     * @param position
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of snapshot file!");
+            }
+        }
+        
+        return buffer.flip();
+    }
+    
+    /**
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+                stream.forEach(snapshots::add);
+            }
+        }
+        
+        // The zero-padded version makes the name order the version order.
+        snapshots.sort(null);
+        return snapshots;
+    }
+    
+    /**
+     * Writes a snapshot, one chunk at a time.
+     */
+    public static final class Writer implements Closeable {
+        
+        private final Path file;
+        private final Path tempFile;
+        private final FileChannel channel;
+        private final int chunkEntries;
+        private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(1 << 20);
+        private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+        private final List<long[]> chunks = new ArrayList<>();
+        private int entries;
+        private boolean committed;
+        
+        /**
+         * @param directory
+         * @param snapshotVersion
+         * @param chunkEntries    the number of entries per chunk (the unit of parallel loading).
+         * @throws IOException
+         */
+        public Writer(Path directory, long snapshotVersion, int chunkEntries) throws IOException {
+            this.file = snapshotPath(directory, snapshotVersion);
+            this.tempFile = directory.resolve(file.getFileName() + ".tmp");
+            this.chunkEntries = chunkEntries;
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 2 + Long.BYTES);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(snapshotVersion).flip();
+            write(header);
+        }
+        
+        /**
+         * @param key
+         * @param value
+         * @param version
+         * @param expiresAt
+         */
+        public void append(String key, byte[] value, long version, long expiresAt) {
+            try {
+                WriteAheadLog.writeString(chunk, key);
+                chunk.writeLong(version);
+                chunk.writeLong(expiresAt);
+                WriteAheadLog.writeBytes(chunk, value);
+                if (++entries == chunkEntries) {
+                    flushChunk();
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        
+        /**
+         * Writes the footer, syncs and atomically publishes the snapshot file.
+         *
+         * @return
+         * @throws IOException
+         */
+        public Path commit() throws IOException {
+            flushChunk();
+            long footerOffset = channel.position();
+            ByteBuffer footer = ByteBuffer.allocate(Integer.BYTES + chunks.size() * (Long.BYTES + Integer.BYTES * 3)
+                                                    + Long.BYTES + Integer.BYTES);
+            footer.putInt(chunks.size());
+            for (long[] chunkIndex : chunks) {
+                footer.putLong(chunkIndex[0]).putInt((int) chunkIndex[1]).putInt((int) chunkIndex[2])
+                    .putInt((int) chunkIndex[3]);
+            }
+            footer.putLong(footerOffset).putInt(MAGIC).flip();
+            write(footer);
+            channel.force(true);
+            channel.close();
+            
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+            return file;
+        }
+        
+        /**
+         * Discards the snapshot unless it was committed.
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        
+        /**
+         * @throws IOException
+         */
+        private void flushChunk() throws IOException {
+            if (entries == 0) {
+                return;
+            }
+            
+            chunk.flush();
+            byte[] bytes = chunkBytes.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes);
+            chunks.add(new long[]{channel.position(), bytes.length, entries, (int) crc32.getValue()});
+            write(ByteBuffer.wrap(bytes));
+            chunkBytes.reset();
+            entries = 0;
+        }
+        
+        /**
+         * @param buffer
+         * @throws IOException
+         */
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
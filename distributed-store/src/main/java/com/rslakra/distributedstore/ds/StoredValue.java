@@ -0,0 +1,19 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The raw bytes of a value together with the time it expires at, as a {@link StoreNode} hands a key over to
+ * another node.
+ */
+@AllArgsConstructor
+@Getter
+public class StoredValue {
+    
+    private final byte[] value;
+    /**
+     * The epoch millis the value expires at, or 0 if it never does.
+     */
+    private final long expiresAt;
+}
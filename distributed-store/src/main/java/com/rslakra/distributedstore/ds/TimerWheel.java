@@ -0,0 +1,200 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timing wheel of key deadlines, used to expire the keys of a {@link KeyValueStore}.
+ * <p>
+ * Time is cut into ticks. Level 0 has one slot per tick for the next 64 ticks, level 1 one slot per 64 ticks for
+ * the next 64<sup>2</sup> ticks, and so on for {@value #LEVELS} levels; a deadline further away is parked in the
+ * last level and placed again when it is reached. Scheduling is O(1), and every time a level wraps around, the
+ * next slot of the level above is cascaded into the lower levels, so each entry moves at most once per level.
+ * <p>
+ * A slot is a pair of arrays, so an entry costs one key reference and its deadline, not an object per timer. An
+ * entry is never cancelled: a key rescheduled (or no longer expiring) leaves its old entry behind, and the store
+ * ignores a due entry whose deadline is not the key's current one.
+ */
+public class TimerWheel {
+    
+    static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+    
+    private final long tickMillis;
+    private final Slot[][] wheels = new Slot[LEVELS][SLOTS];
+    private final ReentrantLock lock = new ReentrantLock();
+    private long currentTick;
+    private int size;
+    
+    /**
+     * @param tickMillis  the resolution of the deadlines.
+     * @param startMillis the current time.
+     */
+    public TimerWheel(long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        for (Slot[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                wheel[i] = new Slot();
+            }
+        }
+    }
+    
+    /**
+     * Schedules the <code>key</code> to be due at <code>deadlineMillis</code>; a past deadline is due at the next
+     * tick.
+     *
+     * @param key
+     * @param deadlineMillis
+     */
+    public void schedule(String key, long deadlineMillis) {
+        lock.lock();
+        try {
+            place(key, deadlineMillis, Math.max(ticksOf(deadlineMillis), currentTick + 1));
+            size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Advances the wheel to <code>nowMillis</code> and returns the entries that became due, as key and deadline.
+     *
+     * @param nowMillis
+     * @return
+     */
+    public List<Map.Entry<String, Long>> advance(long nowMillis) {
+        List<Map.Entry<String, Long>> due = new ArrayList<>();
+        lock.lock();
+        try {
+            long targetTick = nowMillis / tickMillis;
+            while (currentTick < targetTick) {
+                currentTick++;
+                cascade(1);
+                Slot slot = wheels[0][(int) (currentTick & (SLOTS - 1))];
+                for (int i = 0; i < slot.size; i++) {
+                    // Only a deadline beyond the range of the wheel can still be ahead.
+                    if (ticksOf(slot.deadlines[i]) <= currentTick) {
+                        due.add(Map.entry(slot.keys[i], slot.deadlines[i]));
+                        size--;
+                    } else {
+                        place(slot.keys[i], slot.deadlines[i], ticksOf(slot.deadlines[i]));
+                    }
+                }
+                slot.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        return due;
+    }
+    
+    /**
+     * Returns the number of scheduled entries.
+     *
+     * @return
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Moves the current slot of <code>level</code> down when the level below just wrapped around, starting with
+     * the levels above it.
+     *
+     * @param level
+     */
+    private void cascade(int level) {
+        if (level == LEVELS || (currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+            return;
+        }
+        
+        cascade(level + 1);
+        Slot slot = wheels[level][(int) ((currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1))];
+        for (int i = 0; i < slot.size; i++) {
+            place(slot.keys[i], slot.deadlines[i], Math.max(ticksOf(slot.deadlines[i]), currentTick));
+        }
+        slot.clear();
+    }
+    
+    /**
+     * Adds the entry to the slot of the <code>tick</code> in the lowest level that reaches it.
+     *
+     * @param key
+     * @param deadlineMillis
+     * @param tick
+     */
+    private void place(String key, long deadlineMillis, long tick) {
+        long delta = Math.min(tick - currentTick, MAX_TICKS - 1);
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        
+        long slotTick = currentTick + delta;
+        wheels[level][(int) ((slotTick >>> (SLOT_BITS * level)) & (SLOTS - 1))].add(key, deadlineMillis);
+    }
+    
+    /**
+     * Returns the tick at which <code>deadlineMillis</code> is due (rounded up).
+     *
+     * @param deadlineMillis
+     * @return
+     */
+    private long ticksOf(long deadlineMillis) {
+        return (deadlineMillis + tickMillis - 1) / tickMillis;
+    }
+    
+    /**
+     * The entries of one slot.
+     */
+    private static final class Slot {
+        
+        private static final int INITIAL_CAPACITY = 4;
+        
+        private String[] keys = new String[INITIAL_CAPACITY];
+        private long[] deadlines = new long[INITIAL_CAPACITY];
+        private int size;
+        
+        /**
+         * @param key
+         * @param deadlineMillis
+         */
+        private void add(String key, long deadlineMillis) {
+            if (size == keys.length) {
+                String[] grownKeys = new String[size * 2];
+                long[] grownDeadlines = new long[size * 2];
+                System.arraycopy(keys, 0, grownKeys, 0, size);
+                System.arraycopy(deadlines, 0, grownDeadlines, 0, size);
+                keys = grownKeys;
+                deadlines = grownDeadlines;
+            }
+            keys[size] = key;
+            deadlines[size++] = deadlineMillis;
+        }
+        
+        /**
+         * Empties the slot, giving back the memory of a burst.
+         */
+        private void clear() {
+            if (keys.length > 1024) {
+                keys = new String[INITIAL_CAPACITY];
+                deadlines = new long[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(keys, 0, size, null);
+            }
+            size = 0;
+        }
+    }
+}
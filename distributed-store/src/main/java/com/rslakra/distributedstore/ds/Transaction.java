@@ -1,10 +1,11 @@
 package com.rslakra.distributedstore.ds;
 
 import lombok.Getter;
-import lombok.NoArgsConstructor;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,19 +14,46 @@ import java.util.Set;
  * control mechanism. It acts as a container for all the operations performed
  * within a single transaction.
  */
-@NoArgsConstructor
 @Getter
 public class Transaction {
+    /**
+     * Purpose: The store version this transaction reads at.
+     * <p>
+     * Usage: Every read inside the transaction returns the newest version at
+     * or below this snapshot, so the transaction sees a consistent view of
+     * the store no matter what commits concurrently.
+     */
+    private final long snapshotVersion;
+    
+    /**
+     * Purpose: The isolation level of this transaction.
+     * <p>
+     * Usage: Decides whether reads and scans are tracked, and whether the
+     * commit validates the reads or only the writes.
+     */
+    private final IsolationLevel isolationLevel;
+    
     /**
      * Purpose:Tracks all the key-value pairs that have been read during this
      * transaction
      * <p>
      * Usage: Used for conflict detection during commit. If any key in the
      * readSet has a different version in the main store at commit time, it
-     * indicates a conflict.
+     * indicates a conflict. A key that was missing when read maps to null,
+     * and conflicts if it was written after the snapshot.
      */
     private Map<String, VersionedValue> readSet = new HashMap<>();
     
+    /**
+     * Purpose: Tracks the key ranges scanned during this transaction.
+     * <p>
+     * Usage: Used for phantom detection during commit. If any key in a
+     * scanned range has a newer version than the snapshot at commit time
+     * (including a key inserted or deleted in the range), it indicates a
+     * conflict.
+     */
+    private List<KeyRange> rangeSet = new ArrayList<>();
+    
     /**
      * Purpose: Buffers all write operations performed during this transaction.
      * <p>
@@ -33,7 +61,16 @@ public class Transaction {
      * main store. These changes are only applied if the transaction is
      * successfully committed.
      */
-    private Map<String, String> writeSet = new HashMap<>();
+    private Map<String, byte[]> writeSet = new HashMap<>();
+    
+    /**
+     * Purpose: The deadlines of the buffered writes that expire.
+     * <p>
+     * Usage: Holds the epoch milliseconds at which a key of the writeSet
+     * written with a time-to-live expires; a key without an entry never
+     * expires.
+     */
+    private Map<String, Long> expirations = new HashMap<>();
     
     /**
      * Purpose: Tracks all keys that are marked for deletion in this transaction.
@@ -43,4 +80,109 @@ public class Transaction {
      * successfully committed.
      */
     private Set<String> deleteSet = new HashSet<>();
+    
+    /**
+     * Purpose: Marks a committed or rolled back transaction.
+     * <p>
+     * Usage: A finished transaction has released its snapshot and must not
+     * be used or finished again.
+     */
+    private boolean finished;
+    
+    /**
+     * Purpose: The lock stripes held by a prepared transaction.
+     * <p>
+     * Usage: Set when the transaction is prepared as a participant of a
+     * two-phase commit, and released when it is committed or aborted.
+     */
+    private int[] preparedStripes;
+    
+    /**
+     * Purpose: The arena blocks reserved for the writes of a prepared transaction.
+     * <p>
+     * Usage: Set when the transaction is prepared with an off-heap arena, so
+     * that the commit cannot fail on a full arena once every participant
+     * voted yes; freed if the transaction is aborted instead.
+     */
+    private Map<String, Long> preparedBlocks;
+    
+    /**
+     * Purpose: The key the validation of the commit found in conflict.
+     * <p>
+     * Usage: Set when the commit aborts on a conflict, so that a retry can
+     * lock the key that caused the abort.
+     */
+    private String conflictKey;
+    
+    /**
+     * @param snapshotVersion
+     * @param isolationLevel
+     */
+    public Transaction(long snapshotVersion, IsolationLevel isolationLevel) {
+        this.snapshotVersion = snapshotVersion;
+        this.isolationLevel = isolationLevel;
+    }
+    
+    /**
+     * @param snapshotVersion
+     */
+    public Transaction(long snapshotVersion) {
+        this(snapshotVersion, IsolationLevel.SERIALIZABLE);
+    }
+    
+    /**
+     * Returns true if the reads and scans of the transaction are validated at commit.
+     *
+     * @return
+     */
+    public boolean isSerializable() {
+        return isolationLevel == IsolationLevel.SERIALIZABLE;
+    }
+    
+    /**
+     * Returns true if the transaction has not buffered any write or delete.
+     *
+     * @return
+     */
+    public boolean isReadOnly() {
+        return writeSet.isEmpty() && deleteSet.isEmpty();
+    }
+    
+    /**
+     * Throws if the transaction was already committed or rolled back.
+     */
+    void checkActive() {
+        if (finished) {
+            throw new IllegalStateException("Transaction already finished!");
+        }
+    }
+    
+    /**
+     * Marks the transaction finished; throws if it already was.
+     */
+    void finish() {
+        checkActive();
+        finished = true;
+    }
+    
+    /**
+     * @param preparedStripes
+     */
+    void setPreparedStripes(int[] preparedStripes) {
+        this.preparedStripes = preparedStripes;
+    }
+    
+    /**
+     * @param preparedBlocks
+     */
+    void setPreparedBlocks(Map<String, Long> preparedBlocks) {
+        this.preparedBlocks = preparedBlocks;
+    }
+    
+    /**
+     * @param conflictKey
+     */
+    void setConflictKey(String conflictKey) {
+        this.conflictKey = conflictKey;
+    }
 }
@@ -0,0 +1,260 @@
+package com.rslakra.distributedstore.ds;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An explicit transaction issued by a {@link TransactionManager}.
+ * <p>
+ * Unlike the {@link Cache} API, a handle is not bound to the thread that began it: it can be passed across
+ * async callbacks and virtual-thread continuations and finished from any thread. Calls on one handle are
+ * serialized (and publish their effects to the next caller), but it is meant to be used by one logical flow
+ * at a time. A <code>ReentrantLock</code> is used instead of <code>synchronized</code> so that a virtual thread
+ * waiting for a durable commit does not pin its carrier thread.
+ * <p>
+ * The handle holds one {@link Transaction} per partition it touched; the manager commits them together.
+ * <p>
+ * Closing a handle that was neither committed nor rolled back rolls it back, so it can be used in a
+ * try-with-resources block.
+ */
+public class TransactionHandle implements AutoCloseable {
+    
+    private final TransactionManager transactionManager;
+    private final IsolationLevel isolationLevel;
+    private final Map<TransactionManager.Partition, Transaction> participants = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean active = true;
+    private boolean aborted;
+    
+    /**
+     * @param transactionManager
+     * @param isolationLevel
+     */
+    TransactionHandle(TransactionManager transactionManager, IsolationLevel isolationLevel) {
+        this.transactionManager = transactionManager;
+        this.isolationLevel = isolationLevel;
+    }
+    
+    /**
+     * Reads the <code>key</code> at the transaction's snapshot of its partition, seeing the transaction's own
+     * writes.
+     *
+     * @param key
+     * @return
+     */
+    public String get(String key) {
+        return get(key, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Reads the <code>key</code> like {@link #get(String)} and decodes it with the <code>codec</code>.
+     *
+     * @param key
+     * @param codec
+     * @param <V>
+     * @return
+     */
+    public <V> V get(String key, ValueCodec<V> codec) {
+        lock.lock();
+        try {
+            TransactionManager.Partition partition = transactionManager.partitionFor(key);
+            return partition.getStore().get(participant(partition), key, codec);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Buffers the write until the commit.
+     *
+     * @param key
+     * @param value
+     */
+    public void set(String key, String value) {
+        set(key, value, ValueCodec.UTF_8);
+    }
+    
+    /**
+     * Buffers the write until the commit; the key expires <code>ttl</code> after the write.
+     *
+     * @param key
+     * @param value
+     * @param ttl
+     * @param unit
+     */
+    public void set(String key, String value, long ttl, TimeUnit unit) {
+        lock.lock();
+        try {
+            TransactionManager.Partition partition = transactionManager.partitionFor(key);
+            partition.getStore().set(participant(partition), key, value, ValueCodec.UTF_8, ttl, unit);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Encodes the <code>value</code> with the <code>codec</code> and buffers the write until the commit.
+     *
+     * @param key
+     * @param value
+     * @param codec
+     * @param <V>
+     */
+    public <V> void set(String key, V value, ValueCodec<V> codec) {
+        lock.lock();
+        try {
+            TransactionManager.Partition partition = transactionManager.partitionFor(key);
+            partition.getStore().set(participant(partition), key, value, codec);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Buffers the delete until the commit.
+     *
+     * @param key
+     */
+    public void delete(String key) {
+        lock.lock();
+        try {
+            TransactionManager.Partition partition = transactionManager.partitionFor(key);
+            partition.getStore().delete(participant(partition), key);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Validates and applies the transaction on every partition it touched; returns false if there was a
+     * conflict, in which case nothing was applied.
+     *
+     * @return
+     */
+    public boolean commit() {
+        lock.lock();
+        try {
+            checkActive();
+            active = false;
+            aborted = !transactionManager.commit(participants);
+            return !aborted;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Discards the transaction without applying any changes.
+     */
+    public void rollback() {
+        lock.lock();
+        try {
+            checkActive();
+            active = false;
+            transactionManager.rollback(participants);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns true until the transaction is committed or rolled back.
+     *
+     * @return
+     */
+    public boolean isActive() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of partitions the transaction touched so far.
+     *
+     * @return
+     */
+    public int getPartitionCount() {
+        lock.lock();
+        try {
+            return participants.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Rolls the transaction back unless it was already finished.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (active) {
+                rollback();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns true if the transaction was committed and the commit aborted.
+     *
+     * @return
+     */
+    boolean isAborted() {
+        lock.lock();
+        try {
+            return aborted;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the keys the validation of an aborted commit found in conflict, one per partition at most.
+     *
+     * @return
+     */
+    Set<String> getConflictKeys() {
+        lock.lock();
+        try {
+            Set<String> conflictKeys = new LinkedHashSet<>();
+            for (Transaction transaction : participants.values()) {
+                if (transaction.getConflictKey() != null) {
+                    conflictKeys.add(transaction.getConflictKey());
+                }
+            }
+            return conflictKeys;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the transaction of the <code>partition</code>, starting it on first use.
+     *
+     * @param partition
+     * @return
+     */
+    private Transaction participant(TransactionManager.Partition partition) {
+        checkActive();
+        return participants.computeIfAbsent(partition, key -> key.getStore().beginTransaction(isolationLevel));
+    }
+    
+    /**
+     * Throws if the transaction was already committed or rolled back.
+     */
+    private void checkActive() {
+        if (!active) {
+            throw new IllegalStateException("Transaction already finished!");
+        }
+    }
+}
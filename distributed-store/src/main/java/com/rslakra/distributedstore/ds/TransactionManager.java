@@ -1,4 +1,396 @@
 package com.rslakra.distributedstore.ds;
 
-public class TransactionManager {
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Issues explicit {@link TransactionHandle}s on one or more {@link KeyValueStore} partitions.
+ * <p>
+ * The transaction state lives in the handle rather than in a <code>ThreadLocal</code>, so a transaction can span
+ * async hops, thousands of transactions can run on virtual threads without a per-thread footprint, and a lost
+ * handle only holds its snapshot until it is closed. The {@link Cache} methods of the store remain available as a
+ * thread-bound compatibility layer over the same machinery.
+ * <p>
+ * Keys are spread over the partitions with a {@link ConsistentHashRing}. A transaction joins a partition the first
+ * time it touches one of its keys (reading at that partition's snapshot), and its commit depends on how many it
+ * joined:
+ * <ul>
+ * <li>one partition: a plain local commit (the fast path), with no coordination at all.</li>
+ * <li>several partitions: a two-phase commit. Every participant gets a single prepare carrying all of its keys,
+ * sent to all participants in parallel; a participant locks its keys (giving up after a timeout, so that two
+ * coordinators locking partitions in different orders cannot deadlock) and validates its reads. If every
+ * participant votes yes, all of them apply their writes in parallel; otherwise the prepared ones are released.</li>
+ * </ul>
+ * The commit is atomic across partitions, but each partition publishes it under its own version: a reader
+ * spanning partitions may see it on one partition before the other. The decision is not logged, so with durable
+ * partitions a crash in the middle of the second phase can persist the commit on only some of them.
+ * <p>
+ * {@link #execute(Function)} runs a transaction body and commits it, rerunning the body whenever the commit
+ * aborts; see {@link RetryPolicy} for the backoff and the escalation to locking the contended keys.
+ */
+public class TransactionManager implements Closeable {
+    
+    public static final long DEFAULT_PREPARE_TIMEOUT_MILLIS = 100;
+    
+    private final List<Partition> partitions = new ArrayList<>();
+    private final ConsistentHashRing<Partition> ring = new ConsistentHashRing<>();
+    @Getter
+    private final long prepareTimeoutMillis;
+    private final ExecutorService coordinator = Executors.newVirtualThreadPerTaskExecutor();
+    private final LockStripes escalationLocks = new LockStripes();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    
+    /**
+     * @param stores               the partitions.
+     * @param prepareTimeoutMillis how long a participant waits for its locks before voting no.
+     */
+    public TransactionManager(List<KeyValueStore> stores, long prepareTimeoutMillis) {
+        if (stores.isEmpty()) {
+            throw new IllegalArgumentException("At least one store is required!");
+        }
+        
+        for (int i = 0; i < stores.size(); i++) {
+            Partition partition = new Partition("partition-" + i, stores.get(i));
+            partitions.add(partition);
+            ring.addNode(partition.stats.getPartitionId(), partition);
+        }
+        this.prepareTimeoutMillis = prepareTimeoutMillis;
+    }
+    
+    /**
+     * @param stores
+     */
+    public TransactionManager(List<KeyValueStore> stores) {
+        this(stores, DEFAULT_PREPARE_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * @param store
+     */
+    public TransactionManager(KeyValueStore store) {
+        this(Collections.singletonList(store));
+    }
+    
+    /**
+     * Starts a new transaction; it reads every partition at a snapshot taken when it first touches it.
+     *
+     * @return
+     */
+    public TransactionHandle begin() {
+        return begin(IsolationLevel.SERIALIZABLE);
+    }
+    
+    /**
+     * Starts a new transaction of the <code>isolationLevel</code> in every partition it touches.
+     *
+     * @param isolationLevel
+     * @return
+     */
+    public TransactionHandle begin(IsolationLevel isolationLevel) {
+        return new TransactionHandle(this, isolationLevel);
+    }
+    
+    /**
+     * Runs the <code>body</code> in a new transaction and commits it with the {@link RetryPolicy#DEFAULT} policy.
+     *
+     * @param body
+     * @param <R>
+     * @return the result of the attempt that committed.
+     */
+    public <R> R execute(Function<TransactionHandle, R> body) {
+        return execute(RetryPolicy.DEFAULT, body);
+    }
+    
+    /**
+     * Runs the <code>body</code> in a new transaction and commits it, running it again in a fresh transaction
+     * after every abort until one commits or the <code>retryPolicy</code> gives up.
+     * <p>
+     * Between attempts the caller backs off for a jittered, exponentially growing pause. Once the policy escalates,
+     * each attempt first locks the keys the validation of the previous ones found in conflict (on the manager, in a
+     * fixed order) and holds them until its commit, so escalated executions on the same hot keys run one after the
+     * other instead of aborting each other. The locks only order the executions that escalated: every commit is
+     * still validated, so a transaction begun directly, or a conflict on another key, can still abort it.
+     * <p>
+     * The body may run several times and must not have side effects outside the transaction. If it commits the
+     * handle itself, an abort is retried as if <code>execute</code> had committed; if it rolls the handle back,
+     * its result is returned as it is; if it throws, the transaction is rolled back and the exception is propagated
+     * without a retry. Escalated locks are not reentrant, so a body must not call
+     * <code>execute</code> on the same manager.
+     *
+     * @param retryPolicy
+     * @param body
+     * @param <R>
+     * @return the result of the attempt that committed.
+     * @throws IllegalStateException if every attempt aborted or the caller was interrupted while backing off.
+     */
+    public <R> R execute(RetryPolicy retryPolicy, Function<TransactionHandle, R> body) {
+        Set<String> contendedKeys = new LinkedHashSet<>();
+        int aborts = 0;
+        while (true) {
+            int[] stripes = (retryPolicy.isPessimistic(aborts) ? escalationLocks.stripesFor(contendedKeys) : null);
+            if (stripes != null) {
+                escalationLocks.lockAll(stripes);
+            }
+            try (TransactionHandle handle = begin()) {
+                R result = body.apply(handle);
+                // A commit by the body itself that aborted is retried like any other.
+                if (handle.isActive() ? handle.commit() : !handle.isAborted()) {
+                    return result;
+                }
+                contendedKeys.addAll(handle.getConflictKeys());
+            } finally {
+                if (stripes != null) {
+                    escalationLocks.unlockAll(stripes);
+                }
+            }
+            
+            if (++aborts == retryPolicy.getMaxAttempts()) {
+                throw new IllegalStateException("Transaction aborted " + aborts + " times!");
+            }
+            
+            retries.increment();
+            if (retryPolicy.isPessimistic(aborts)) {
+                if (!retryPolicy.isPessimistic(aborts - 1)) {
+                    escalations.increment();
+                }
+            } else {
+                backoff(retryPolicy.backoffNanos(aborts));
+            }
+        }
+    }
+    
+    /**
+     * Returns how many times {@link #execute(RetryPolicy, Function)} reran a transaction after an abort.
+     *
+     * @return
+     */
+    public long getRetryCount() {
+        return retries.sum();
+    }
+    
+    /**
+     * Returns how many executions escalated to locking their keys.
+     *
+     * @return
+     */
+    public long getEscalationCount() {
+        return escalations.sum();
+    }
+    
+    /**
+     * Returns the partition owning the <code>key</code>.
+     *
+     * @param key
+     * @return
+     */
+    public KeyValueStore storeFor(String key) {
+        return partitionFor(key).store;
+    }
+    
+    /**
+     * Returns the commit outcomes of every partition.
+     *
+     * @return
+     */
+    public List<PartitionStats> getPartitionStats() {
+        List<PartitionStats> stats = new ArrayList<>(partitions.size());
+        for (Partition partition : partitions) {
+            stats.add(partition.stats);
+        }
+        
+        return stats;
+    }
+    
+    /**
+     * Stops the coordinator threads; the stores are left open.
+     */
+    @Override
+    public void close() {
+        coordinator.shutdown();
+    }
+    
+    /**
+     * @param key
+     * @return
+     */
+    Partition partitionFor(String key) {
+        return ring.nodeFor(key);
+    }
+    
+    /**
+     * Commits the transaction made of the <code>participants</code>; returns false if it aborted.
+     *
+     * @param participants
+     * @return
+     */
+    boolean commit(Map<Partition, Transaction> participants) {
+        if (participants.isEmpty()) {
+            return true;
+        } else if (participants.size() == 1) {
+            Map.Entry<Partition, Transaction> participant = participants.entrySet().iterator().next();
+            PartitionStats stats = participant.getKey().stats;
+            stats.getAttempts().increment();
+            if (participant.getKey().store.commit(participant.getValue())) {
+                stats.getCommits().increment();
+                stats.getFastPathCommits().increment();
+                return true;
+            }
+            
+            stats.getConflicts().increment();
+            stats.getAborts().increment();
+            return false;
+        }
+        
+        // Phase 1: prepare every participant in parallel.
+        List<Map.Entry<Partition, Transaction>> entries = new ArrayList<>(participants.entrySet());
+        List<RuntimeException> failures = new ArrayList<>();
+        List<Boolean> votes = runAll(entries, entry -> entry.getKey().store.prepare(entry.getValue(),
+                                                                                   prepareTimeoutMillis), failures);
+        boolean commit = !votes.contains(Boolean.FALSE);
+        for (int i = 0; i < entries.size(); i++) {
+            PartitionStats stats = entries.get(i).getKey().stats;
+            stats.getAttempts().increment();
+            if (!votes.get(i)) {
+                stats.getConflicts().increment();
+            }
+            (commit ? stats.getCommits() : stats.getAborts()).increment();
+        }
+        
+        // Phase 2: apply everywhere, or release the participants that prepared.
+        if (commit) {
+            runAll(entries, entry -> {
+                entry.getKey().store.commitPrepared(entry.getValue());
+                return Boolean.TRUE;
+            }, failures);
+        } else {
+            for (int i = 0; i < entries.size(); i++) {
+                if (votes.get(i)) {
+                    entries.get(i).getKey().store.abortPrepared(entries.get(i).getValue());
+                }
+            }
+        }
+        
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        
+        return commit;
+    }
+    
+    /**
+     * Discards the transaction made of the <code>participants</code>.
+     *
+     * @param participants
+     */
+    void rollback(Map<Partition, Transaction> participants) {
+        participants.forEach((partition, transaction) -> partition.store.rollback(transaction));
+    }
+    
+    /**
+     * Pauses the caller for the <code>nanos</code> before a retry.
+     *
+     * @param nanos
+     */
+    private static void backoff(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying the transaction!", ex);
+        }
+    }
+    
+    /**
+     * Runs the <code>action</code> on every entry in parallel (the first one on the calling thread) and waits for
+     * all of them, even when interrupted, so that no participant is left prepared behind the caller's back.
+     *
+     * @param entries
+     * @param action
+     * @param failures collects the exceptions thrown by the action.
+     * @return the result of each entry, false where the action failed.
+     */
+    private List<Boolean> runAll(List<Map.Entry<Partition, Transaction>> entries,
+                                 Function<Map.Entry<Partition, Transaction>, Boolean> action,
+                                 List<RuntimeException> failures) {
+        List<Future<Boolean>> futures = new ArrayList<>(entries.size());
+        for (int i = 1; i < entries.size(); i++) {
+            Map.Entry<Partition, Transaction> entry = entries.get(i);
+            futures.add(coordinator.submit(() -> action.apply(entry)));
+        }
+        
+        List<Boolean> results = new ArrayList<>(entries.size());
+        try {
+            results.add(action.apply(entries.get(0)));
+        } catch (RuntimeException ex) {
+            failures.add(ex);
+            results.add(Boolean.FALSE);
+        }
+        
+        boolean interrupted = false;
+        for (Future<Boolean> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    failures.add(ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+                                                                           : new IllegalStateException(ex.getCause()));
+                    results.add(Boolean.FALSE);
+                    break;
+                }
+            }
+        }
+        
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        
+        return results;
+    }
+    
+    /**
+     * One store and its statistics.
+     */
+    static final class Partition {
+        
+        private final KeyValueStore store;
+        private final PartitionStats stats;
+        
+        /**
+         * @param partitionId
+         * @param store
+         */
+        private Partition(String partitionId, KeyValueStore store) {
+            this.store = store;
+            this.stats = new PartitionStats(partitionId);
+        }
+        
+        /**
+         * @return
+         */
+        KeyValueStore getStore() {
+            return store;
+        }
+    }
 }
@@ -0,0 +1,222 @@
+package com.rslakra.distributedstore.ds;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap storage for the value bytes of a {@link KeyValueStore}, so that the Java heap only holds the keys and
+ * the small version objects and the GC never scans or copies the values themselves.
+ * <p>
+ * The memory is a list of direct-buffer slabs, allocated on demand up to a capacity. A value takes a block of
+ * the smallest size class that fits it; the classes are spaced at a quarter of a power of two, so a block wastes
+ * at most 25%. Freed blocks go to the free list of their class and are reused before the current slab is
+ * carved further; slabs are never returned, so a stale address always points into valid memory.
+ * <p>
+ * An address is <code>(slab &lt;&lt; 32) | offset</code>. The arena does not know which blocks are live: the store
+ * frees the block of a version once no snapshot can see that version anymore.
+ * <p>
+ * The direct memory is limited by <code>-XX:MaxDirectMemorySize</code>, which has to be raised accordingly.
+ */
+public class ValueArena {
+    
+    public static final int DEFAULT_SLAB_SIZE = 64 << 20;
+    
+    private static final int MIN_BLOCK = 16;
+    private static final int SIZE_CLASSES = 128;
+    
+    private final int slabSize;
+    private final int maxSlabs;
+    private final FreeList[] freeLists = new FreeList[SIZE_CLASSES];
+    private final ReentrantLock slabLock = new ReentrantLock();
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private int slabOffset;
+    private final AtomicLong usedBytes = new AtomicLong();
+    
+    /**
+     * @param capacity the maximum number of bytes the arena reserves.
+     * @param slabSize the size of one slab, which is also the largest value the arena can hold.
+     */
+    public ValueArena(long capacity, int slabSize) {
+        if (slabSize < MIN_BLOCK || slabSize > (1 << 30) || capacity < slabSize) {
+            throw new IllegalArgumentException("Invalid arena capacity " + capacity + " or slab size " + slabSize);
+        }
+        
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeLists[i] = new FreeList();
+        }
+    }
+    
+    /**
+     * @param capacity
+     */
+    public ValueArena(long capacity) {
+        this(capacity, (int) Math.min(DEFAULT_SLAB_SIZE, capacity));
+    }
+    
+    /**
+     * Copies the <code>value</code> into a new block and returns its address.
+     *
+     * @param value
+     * @return
+     */
+    public long allocate(byte[] value) {
+        int blockSize = blockSize(value.length);
+        if (blockSize > slabSize) {
+            throw new IllegalArgumentException("Value of " + value.length + " bytes exceeds the slab size!");
+        }
+        
+        long address = freeLists[sizeClass(value.length)].pop();
+        if (address < 0) {
+            address = carve(blockSize);
+        }
+        usedBytes.addAndGet(blockSize);
+        slabs[(int) (address >>> 32)].put((int) address, value);
+        return address;
+    }
+    
+    /**
+     * Copies the <code>length</code> bytes at the <code>address</code> onto the heap.
+     *
+     * @param address
+     * @param length
+     * @return
+     */
+    public byte[] read(long address, int length) {
+        byte[] value = new byte[length];
+        slabs[(int) (address >>> 32)].get((int) address, value);
+        return value;
+    }
+    
+    /**
+     * Returns the block of a value of <code>length</code> bytes at the <code>address</code> for reuse.
+     *
+     * @param address
+     * @param length
+     */
+    public void free(long address, int length) {
+        freeLists[sizeClass(length)].push(address);
+        usedBytes.addAndGet(-blockSize(length));
+    }
+    
+    /**
+     * Returns the bytes of the blocks in use.
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+    
+    /**
+     * Returns the bytes of the slabs allocated so far.
+     *
+     * @return
+     */
+    public long getReservedBytes() {
+        return (long) slabs.length * slabSize;
+    }
+    
+    /**
+     * Returns the size of the block holding <code>length</code> bytes.
+     *
+     * @param length
+     * @return
+     */
+    static int blockSize(int length) {
+        if (length <= MIN_BLOCK) {
+            return MIN_BLOCK;
+        }
+        
+        int shift = 31 - Integer.numberOfLeadingZeros(length - 1) - 2;
+        return (((length - 1) >>> shift) + 1) << shift;
+    }
+    
+    /**
+     * Returns the size class of <code>length</code> bytes: 0 for the smallest block, then four classes for each
+     * power of two.
+     *
+     * @param length
+     * @return
+     */
+    static int sizeClass(int length) {
+        if (length <= MIN_BLOCK) {
+            return 0;
+        }
+        
+        int power = 31 - Integer.numberOfLeadingZeros(length - 1);
+        return 1 + 4 * (power - 4) + (((length - 1) >>> (power - 2)) - 4);
+    }
+    
+    /**
+     * Cuts a new block from the current slab, starting a new slab when it is full (the tail of the old one is
+     * left unused).
+     *
+     * @param blockSize
+     * @return
+     */
+    private long carve(int blockSize) {
+        slabLock.lock();
+        try {
+            ByteBuffer[] current = slabs;
+            if (current.length == 0 || slabOffset + blockSize > slabSize) {
+                if (current.length == maxSlabs) {
+                    throw new IllegalStateException("Value arena is full!");
+                }
+                
+                ByteBuffer[] grown = new ByteBuffer[current.length + 1];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                grown[current.length] = ByteBuffer.allocateDirect(slabSize);
+                slabs = grown;
+                slabOffset = 0;
+            }
+            
+            long address = ((long) (slabs.length - 1) << 32) | slabOffset;
+            slabOffset += blockSize;
+            return address;
+        } finally {
+            slabLock.unlock();
+        }
+    }
+    
+    /**
+     * A stack of the free block addresses of one size class.
+     */
+    private static final class FreeList {
+        
+        private final ReentrantLock lock = new ReentrantLock();
+        private long[] addresses = new long[16];
+        private int size;
+        
+        /**
+         * @param address
+         */
+        private void push(long address) {
+            lock.lock();
+            try {
+                if (size == addresses.length) {
+                    long[] grown = new long[size * 2];
+                    System.arraycopy(addresses, 0, grown, 0, size);
+                    addresses = grown;
+                }
+                addresses[size++] = address;
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * @return the address of a free block, or -1 if there is none.
+         */
+        private long pop() {
+            lock.lock();
+            try {
+                return (size == 0 ? -1 : addresses[--size]);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
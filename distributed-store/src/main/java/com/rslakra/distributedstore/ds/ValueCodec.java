@@ -0,0 +1,74 @@
+package com.rslakra.distributedstore.ds;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Converts the values of one type to and from the bytes a {@link KeyValueStore} stores. The store itself only
+ * knows bytes; the <code>String</code> methods of the store use {@link #UTF_8}.
+ * <p>
+ * A codec is never called with null: a missing value stays null on both sides.
+ *
+ * @param <V> the type of the values.
+ */
+public interface ValueCodec<V> {
+    
+    /**
+     * Strings as their UTF-8 bytes.
+     */
+    ValueCodec<String> UTF_8 = of(value -> value.getBytes(StandardCharsets.UTF_8),
+                                  bytes -> new String(bytes, StandardCharsets.UTF_8));
+    
+    /**
+     * Raw bytes. Both directions copy, so neither the caller nor the store can change the other's bytes.
+     */
+    ValueCodec<byte[]> BYTES = of(value -> Arrays.copyOf(value, value.length),
+                                  bytes -> Arrays.copyOf(bytes, bytes.length));
+    
+    /**
+     * The remaining bytes of a buffer (its position is left unchanged). Decoding wraps the stored bytes in a
+     * read-only buffer without copying them.
+     */
+    ValueCodec<ByteBuffer> BYTE_BUFFER = of(value -> {
+        byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return bytes;
+    }, bytes -> ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    
+    /**
+     * @param value
+     * @return
+     */
+    byte[] encode(V value);
+    
+    /**
+     * @param bytes
+     * @return
+     */
+    V decode(byte[] bytes);
+    
+    /**
+     * Returns a codec made of the <code>encoder</code> and the <code>decoder</code>.
+     *
+     * @param encoder
+     * @param decoder
+     * @param <V>
+     * @return
+     */
+    static <V> ValueCodec<V> of(Function<V, byte[]> encoder, Function<byte[], V> decoder) {
+        return new ValueCodec<>() {
+            
+            @Override
+            public byte[] encode(V value) {
+                return encoder.apply(value);
+            }
+            
+            @Override
+            public V decode(byte[] bytes) {
+                return decoder.apply(bytes);
+            }
+        };
+    }
+}
@@ -0,0 +1,32 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A value read together with the commit version of the key, as expected by
+ * {@link KeyValueStore#compareAndSet(String, long, String)}.
+ *
+ * @param <V> the type of the value.
+ */
+@AllArgsConstructor
+@Getter
+public class Versioned<V> {
+    
+    /**
+     * The version of a missing key.
+     */
+    public static final long ABSENT = 0;
+    
+    private final V value;
+    private final long version;
+    
+    /**
+     * Returns true if the key was missing (deleted, expired or never written).
+     *
+     * @return
+     */
+    public boolean isAbsent() {
+        return version == ABSENT;
+    }
+}
@@ -1,13 +1,206 @@
 package com.rslakra.distributedstore.ds;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 
-@AllArgsConstructor
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * One committed version of a key. The versions of a key form a chain from the newest to the oldest through
+ * <code>previous</code>, so a transaction reads the newest version that is visible to its snapshot.
+ * <p>
+ * A delete is stored as a <code>deleted</code> (tombstone) version, which hides the older versions from the
+ * snapshots that are newer than it.
+ * <p>
+ * The value bytes live either on the heap (<code>value</code>) or in a {@link ValueArena}, in which case the
+ * version only keeps their <code>address</code> and <code>length</code>. An off-heap block is freed once the version
+ * is pruned, so a reader that did not register its snapshot rechecks {@link #isReleased()} after copying it.
+ * <p>
+ * A version written with a time-to-live carries its deadline in <code>expiresAt</code> (epoch milliseconds, 0 for
+ * never). Reads treat an expired version as missing until the expiry deletes it.
+ */
 @Getter
 public class VersionedValue {
     
-    private String value;
-    private long version;
+    /**
+     * The <code>address</code> of a version whose bytes are not off-heap.
+     */
+    public static final long NO_ADDRESS = -1;
+    
+    private static final VarHandle RELEASED;
+    
+    static {
+        try {
+            RELEASED = MethodHandles.lookup().findVarHandle(VersionedValue.class, "released", boolean.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+    
+    private final byte[] value;
+    private final long address;
+    private final int length;
+    private final long expiresAt;
+    private final long version;
+    private final boolean deleted;
+    private volatile VersionedValue previous;
+    private volatile boolean released;
+    
+    /**
+     * @param value
+     * @param version
+     * @param deleted
+     * @param previous
+     */
+    public VersionedValue(byte[] value, long version, boolean deleted, VersionedValue previous) {
+        this(value, 0, version, deleted, previous);
+    }
+    
+    /**
+     * @param value
+     * @param expiresAt
+     * @param version
+     * @param deleted
+     * @param previous
+     */
+    public VersionedValue(byte[] value, long expiresAt, long version, boolean deleted, VersionedValue previous) {
+        this.value = value;
+        this.address = NO_ADDRESS;
+        this.length = (value == null ? 0 : value.length);
+        this.expiresAt = expiresAt;
+        this.version = version;
+        this.deleted = deleted;
+        this.previous = previous;
+    }
+    
+    /**
+     * @param value
+     * @param version
+     */
+    public VersionedValue(byte[] value, long version) {
+        this(value, version, false, null);
+    }
+    
+    /**
+     * Creates a live version whose <code>length</code> bytes are at the <code>address</code> of an arena.
+     *
+     * @param address
+     * @param length
+     * @param expiresAt
+     * @param version
+     * @param previous
+     */
+    public VersionedValue(long address, int length, long expiresAt, long version, VersionedValue previous) {
+        this.value = null;
+        this.address = address;
+        this.length = length;
+        this.expiresAt = expiresAt;
+        this.version = version;
+        this.deleted = false;
+        this.previous = previous;
+    }
+    
+    /**
+     * Returns true if the value bytes are in an arena.
+     *
+     * @return
+     */
+    public boolean isOffHeap() {
+        return address != NO_ADDRESS;
+    }
+    
+    /**
+     * Returns true if the version has a time-to-live that ran out.
+     *
+     * @return
+     */
+    public boolean isExpired() {
+        return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+    }
+    
+    /**
+     * Returns true once the off-heap block of this version was freed. The fence keeps the reads of the block made
+     * before the call from being reordered after it, so a false result proves that the copy was not torn.
+     *
+     * @return
+     */
+    public boolean isReleased() {
+        VarHandle.acquireFence();
+        return released;
+    }
+    
+    /**
+     * Returns the newest version of this chain visible at <code>snapshotVersion</code> (or null).
+     *
+     * @param snapshotVersion
+     * @return
+     */
+    public VersionedValue visibleAt(long snapshotVersion) {
+        VersionedValue current = this;
+        while (current != null && current.version > snapshotVersion) {
+            current = current.previous;
+        }
+        
+        return current;
+    }
+    
+    /**
+     * Drops the versions no snapshot at or after the <code>watermark</code> can see, i.e. everything older than
+     * the newest version visible at the <code>watermark</code>, and frees their blocks in the <code>arena</code>
+     * (if any).
+     * <p>
+     * Returns true if the chain still has versions older than its head afterward.
+     *
+     * @param watermark
+     * @param arena
+     * @return
+     */
+    public boolean prune(long watermark, ValueArena arena) {
+        VersionedValue visible = visibleAt(watermark);
+        if (visible != null) {
+            VersionedValue dropped = visible.previous;
+            visible.previous = null;
+            for (; arena != null && dropped != null; dropped = dropped.previous) {
+                dropped.release(arena);
+            }
+        }
+        
+        return previous != null;
+    }
+    
+    /**
+     * Unlinks the version right before this one from the chain, which then goes on with the version before it.
+     *
+     * @return the unlinked version.
+     */
+    VersionedValue unlinkPrevious() {
+        VersionedValue unlinked = previous;
+        previous = unlinked.previous;
+        return unlinked;
+    }
+    
+    /**
+     * Frees the off-heap block of this version, once even if the chain is pruned concurrently.
+     *
+     * @param arena
+     */
+    void release(ValueArena arena) {
+        if (isOffHeap() && RELEASED.compareAndSet(this, false, true)) {
+            arena.free(address, length);
+        }
+    }
     
+    /**
+     * Returns the number of versions in this chain.
+     *
+     * @return
+     */
+    public int chainLength() {
+        int length = 0;
+        for (VersionedValue current = this; current != null; current = current.previous) {
+            length++;
+        }
+        
+        return length;
+    }
 }
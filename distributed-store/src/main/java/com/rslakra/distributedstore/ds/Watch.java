@@ -0,0 +1,102 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A subscription to the commits changing the keys under a prefix, opened with
+ * {@link KeyValueStore#watch(String, long)}. The events are buffered in a bounded queue filled on the committing
+ * thread, so a watcher that does not keep up never blocks the commits: once its queue overflows, the buffered
+ * events are dropped and the watch ends with a {@link WatchEvent#isResync() resync} event.
+ */
+public class Watch implements Closeable {
+    
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    private final ChangeFeed feed;
+    @Getter
+    private final String prefix;
+    private final BlockingQueue<WatchEvent> events;
+    private volatile boolean closed;
+    
+    /**
+     * @param feed
+     * @param prefix
+     * @param capacity the number of events buffered before the watch is resynced.
+     */
+    Watch(ChangeFeed feed, String prefix, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid watch capacity " + capacity);
+        }
+        
+        this.feed = feed;
+        this.prefix = (prefix == null ? "" : prefix);
+        this.events = new ArrayBlockingQueue<>(capacity);
+    }
+    
+    /**
+     * Returns the next event, waiting at most <code>timeout</code>, or null if there is none.
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     * @throws InterruptedException
+     */
+    public WatchEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return events.poll(timeout, unit);
+    }
+    
+    /**
+     * Returns true once the watch was closed or ended with a resync; the events already buffered can still be
+     * polled.
+     *
+     * @return
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Stops receiving events.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        feed.remove(this);
+    }
+    
+    /**
+     * Buffers the changes of the <code>record</code> under the prefix; called by the feed in version order.
+     *
+     * @param record
+     * @return false if the watch ended.
+     */
+    boolean offer(CommitRecord record) {
+        if (closed) {
+            return false;
+        }
+        
+        WatchEvent event = WatchEvent.of(record, prefix);
+        if (event != null && !events.offer(event)) {
+            resync(record.getVersion());
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Ends the watch, replacing the buffered events by a resync event.
+     *
+     * @param version
+     */
+    void resync(long version) {
+        closed = true;
+        events.clear();
+        events.offer(WatchEvent.resync(version));
+    }
+}
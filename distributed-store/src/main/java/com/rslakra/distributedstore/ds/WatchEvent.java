@@ -0,0 +1,92 @@
+package com.rslakra.distributedstore.ds;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes of one commit to the keys of a {@link Watch}: all the keys a commit changed under the prefix are
+ * coalesced into one event.
+ * <p>
+ * A <code>resync</code> event ends the watch instead: the watcher fell too far behind (or asked for versions
+ * that are no longer retained), so it has to reload the keys from a snapshot and watch again from the version of
+ * that snapshot.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+public class WatchEvent {
+    
+    private final long version;
+    private final Map<String, byte[]> writes;
+    private final Set<String> deletes;
+    private final boolean resync;
+    
+    /**
+     * Returns the changes of the <code>record</code> to the keys starting with <code>prefix</code>, or null if
+     * there are none.
+     *
+     * @param record
+     * @param prefix
+     * @return
+     */
+    static WatchEvent of(CommitRecord record, String prefix) {
+        if (prefix.isEmpty()) {
+            return new WatchEvent(record.getVersion(), Collections.unmodifiableMap(record.getWrites()),
+                                  Collections.unmodifiableSet(record.getDeletes()), false);
+        }
+        
+        Map<String, byte[]> writes = null;
+        for (Map.Entry<String, byte[]> entry : record.getWrites().entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                if (writes == null) {
+                    writes = new HashMap<>();
+                }
+                writes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<String> deletes = null;
+        for (String key : record.getDeletes()) {
+            if (key.startsWith(prefix)) {
+                if (deletes == null) {
+                    deletes = new HashSet<>();
+                }
+                deletes.add(key);
+            }
+        }
+        
+        if (writes == null && deletes == null) {
+            return null;
+        }
+        
+        return new WatchEvent(record.getVersion(),
+                              writes == null ? Collections.emptyMap() : Collections.unmodifiableMap(writes),
+                              deletes == null ? Collections.emptySet() : Collections.unmodifiableSet(deletes), false);
+    }
+    
+    /**
+     * @param version the latest version known to the watch.
+     * @return
+     */
+    static WatchEvent resync(long version) {
+        return new WatchEvent(version, Collections.emptyMap(), Collections.emptySet(), true);
+    }
+    
+    /**
+     * Returns the new value of the written <code>key</code>, or null if the commit did not write it.
+     *
+     * @param key
+     * @param codec
+     * @param <V>
+     * @return
+     */
+    public <V> V getValue(String key, ValueCodec<V> codec) {
+        byte[] value = writes.get(key);
+        return (value == null ? null : codec.decode(value));
+    }
+}
@@ -0,0 +1,597 @@
+package com.rslakra.distributedstore.ds;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead log of {@link CommitRecord}s with group commit.
+ * <p>
+ * {@link #append(CommitRecord)} only queues the record and returns a future. A single flusher thread writes
+ * everything queued so far with one write and one fsync, then completes all their futures, so many concurrent
+ * commits share a single fsync. A batch is flushed once it holds <code>maxBatchSize</code> records or
+ * <code>flushIntervalMillis</code> after its first record, whichever comes first.
+ * <p>
+ * Each record is framed as <code>[length][crc32][payload]</code>. A torn or corrupt tail (a crash in the middle
+ * of a write) is detected by the checksum and truncated when the log is opened.
+ * <p>
+ * The log is a directory of segment files (<code>wal-&lt;sequence&gt;.log</code>). The flusher rolls over to a
+ * new segment once the current one reaches <code>segmentBytes</code>, and {@link #truncate(long)} deletes the
+ * closed segments a checkpoint has made redundant.
+ * <p>
+ * A failed write or fsync leaves the tail of the log in an unknown state, so the log stops: the flusher exits and
+ * every queued and later append fails with that exception.
+ */
+public class WriteAheadLog implements Closeable {
+    
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    
+    private final Path directory;
+    private final long flushIntervalNanos;
+    private final int maxBatchSize;
+    private final long segmentBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingCondition = lock.newCondition();
+    private final Thread flusher;
+    private final AtomicLong syncCount = new AtomicLong();
+    private List<PendingRecord> pending = new ArrayList<>();
+    private boolean closed;
+    private IOException failure;
+    
+    /**
+     * The highest commit version of every segment by sequence; the last one is being appended to.
+     * Guarded by <code>lock</code>.
+     */
+    private final TreeMap<Long, Long> segmentVersions = new TreeMap<>();
+    
+    /**
+     * The channel of the current segment; only used by the flusher once the log is open.
+     */
+    private FileChannel channel;
+    private long currentSegment;
+    
+    /**
+     * Opens (or creates) the log in <code>directory</code>, truncating any torn tail.
+     *
+     * @param directory
+     * @param flushIntervalMillis the longest time a record waits for its batch to fill up.
+     * @param maxBatchSize        the number of records that triggers a flush immediately.
+     * @param segmentBytes        the size after which the log rolls over to a new segment.
+     * @throws IOException
+     */
+    public WriteAheadLog(Path directory, long flushIntervalMillis, int maxBatchSize, long segmentBytes)
+        throws IOException {
+        if (flushIntervalMillis < 0 || maxBatchSize <= 0 || segmentBytes <= 0) {
+            throw new IllegalArgumentException("Invalid flushIntervalMillis, maxBatchSize or segmentBytes!");
+        }
+        
+        this.directory = directory;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        for (Long sequence : listSegments()) {
+            Path segment = segmentPath(sequence);
+            long[] maxVersion = {0};
+            long validLength = readRecords(segment,
+                                           record -> maxVersion[0] = Math.max(maxVersion[0], record.getVersion()));
+            if (validLength < Files.size(segment)) {
+                try (FileChannel torn = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    torn.truncate(validLength);
+                }
+            }
+            segmentVersions.put(sequence, maxVersion[0]);
+        }
+        
+        openSegment(segmentVersions.isEmpty() ? 1 : segmentVersions.lastKey());
+        this.flusher = new Thread(this::flushLoop, "wal-flusher-" + directory.getFileName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+    
+    /**
+     * @param directory
+     * @param flushIntervalMillis
+     * @param maxBatchSize
+     * @throws IOException
+     */
+    public WriteAheadLog(Path directory, long flushIntervalMillis, int maxBatchSize) throws IOException {
+        this(directory, flushIntervalMillis, maxBatchSize, DEFAULT_SEGMENT_BYTES);
+    }
+    
+    /**
+     * @param directory
+     * @throws IOException
+     */
+    public WriteAheadLog(Path directory) throws IOException {
+        this(directory, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_BATCH_SIZE);
+    }
+    
+    /**
+     * Replays every intact record of the log in append order.
+     *
+     * @param consumer
+     */
+    public void replay(Consumer<CommitRecord> consumer) {
+        List<Long> sequences;
+        lock.lock();
+        try {
+            sequences = new ArrayList<>(segmentVersions.keySet());
+        } finally {
+            lock.unlock();
+        }
+        
+        try {
+            for (Long sequence : sequences) {
+                readRecords(segmentPath(sequence), consumer);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Queues the <code>record</code> for the next group commit. The returned future completes once the record
+     * is durable on disk, or exceptionally if the log failed.
+     *
+     * @param record
+     * @return
+     */
+    public CompletableFuture<Void> append(CommitRecord record) {
+        byte[] frame = encode(record);
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed!");
+            }
+            if (failure != null) {
+                durable.completeExceptionally(failure);
+                return durable;
+            }
+            
+            pending.add(new PendingRecord(frame, record.getVersion(), durable));
+            if (pending.size() == 1 || pending.size() >= maxBatchSize) {
+                pendingCondition.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        return durable;
+    }
+    
+    /**
+     * Throws the failure that stopped the log, if any: a stopped log makes no commit durable anymore, so the
+     * store checks it before installing a commit.
+     *
+     * @throws IOException
+     */
+    public void checkHealthy() throws IOException {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Deletes the closed segments whose records are all at or below <code>version</code>, i.e. covered by a
+     * durable snapshot of that version. The segment being appended to is never deleted.
+     *
+     * @param version
+     * @return the number of deleted segments.
+     * @throws IOException
+     */
+    public int truncate(long version) throws IOException {
+        List<Long> redundant = new ArrayList<>();
+        lock.lock();
+        try {
+            Iterator<Map.Entry<Long, Long>> iterator = segmentVersions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Long> segment = iterator.next();
+                if (segment.getKey() != currentSegment && segment.getValue() <= version) {
+                    redundant.add(segment.getKey());
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        for (Long sequence : redundant) {
+            Files.deleteIfExists(segmentPath(sequence));
+        }
+        
+        return redundant.size();
+    }
+    
+    /**
+     * Returns the directory of the log segments.
+     *
+     * @return
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Returns the number of segment files.
+     *
+     * @return
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segmentVersions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of fsyncs performed so far; with group commit this stays well below the number of
+     * appended records under concurrent load.
+     *
+     * @return
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+    
+    /**
+     * Flushes the queued records and closes the log.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingCondition.signal();
+        } finally {
+            lock.unlock();
+        }
+        
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * The flusher thread: takes whatever is queued, writes it with one fsync and completes the futures.
+     */
+    private void flushLoop() {
+        while (true) {
+            List<PendingRecord> batch;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    pendingCondition.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                
+                // Give concurrent commits a chance to join the batch.
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                long remaining;
+                while (pending.size() < maxBatchSize && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        pendingCondition.awaitNanos(remaining);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+                
+                batch = pending;
+                pending = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            
+            if (!flush(batch)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Writes the <code>batch</code> with one fsync. On a failure the log stops: the batch and everything queued
+     * behind it fail with the exception, and so does every later append.
+     *
+     * @param batch
+     * @return false if the log failed.
+     */
+    private boolean flush(List<PendingRecord> batch) {
+        try {
+            int size = 0;
+            long maxVersion = 0;
+            for (PendingRecord record : batch) {
+                size += record.frame.length;
+                maxVersion = Math.max(maxVersion, record.version);
+            }
+            
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            for (PendingRecord record : batch) {
+                buffer.put(record.frame);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            syncCount.incrementAndGet();
+            
+            lock.lock();
+            try {
+                segmentVersions.merge(currentSegment, maxVersion, Math::max);
+            } finally {
+                lock.unlock();
+            }
+            for (PendingRecord record : batch) {
+                record.durable.complete(null);
+            }
+            
+            if (channel.size() >= segmentBytes) {
+                channel.close();
+                openSegment(currentSegment + 1);
+            }
+            return true;
+        } catch (IOException ex) {
+            List<PendingRecord> queued;
+            lock.lock();
+            try {
+                failure = ex;
+                queued = pending;
+                pending = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            for (PendingRecord record : batch) {
+                record.durable.completeExceptionally(ex);
+            }
+            for (PendingRecord record : queued) {
+                record.durable.completeExceptionally(ex);
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Opens (or creates) the segment with the <code>sequence</code> for appending.
+     *
+     * @param sequence
+     * @throws IOException
+     */
+    private void openSegment(long sequence) throws IOException {
+        FileChannel segmentChannel = FileChannel.open(segmentPath(sequence), StandardOpenOption.CREATE,
+                                                      StandardOpenOption.WRITE);
+        segmentChannel.position(segmentChannel.size());
+        lock.lock();
+        try {
+            segmentVersions.putIfAbsent(sequence, 0L);
+            currentSegment = sequence;
+            channel = segmentChannel;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the sequences of the segment files in ascending order.
+     *
+     * @return
+     * @throws IOException
+     */
+    private List<Long> listSegments() throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        String glob = SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path segment : stream) {
+                String fileName = segment.getFileName().toString();
+                sequences.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+                                                                fileName.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        
+        sequences.sort(null);
+        return sequences;
+    }
+    
+    /**
+     * @param sequence
+     * @return
+     */
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+    
+    /**
+     * Reads the intact records from the start of the <code>segment</code> and returns the length of the intact
+     * prefix.
+     *
+     * @param segment
+     * @param consumer
+     * @return
+     * @throws IOException
+     */
+    private static long readRecords(Path segment, Consumer<CommitRecord> consumer) throws IOException {
+        long validLength = 0;
+        try (FileChannel readChannel = FileChannel.open(segment, StandardOpenOption.READ);
+             DataInputStream input = new DataInputStream(
+                 new BufferedInputStream(Channels.newInputStream(readChannel), 1 << 16))) {
+            long fileSize = readChannel.size();
+            CRC32 crc32 = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = input.readInt();
+                    int checksum = input.readInt();
+                    if (length < 0 || length > fileSize) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    input.readFully(payload);
+                    crc32.reset();
+                    crc32.update(payload);
+                    if ((int) crc32.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException ex) {
+                    break;
+                }
+                
+                consumer.accept(decode(payload));
+                validLength += HEADER_BYTES + payload.length;
+            }
+        }
+        
+        return validLength;
+    }
+    
+    /**
+     * Frames the <code>record</code> as <code>[length][crc32][payload]</code>.
+     *
+     * @param record
+     * @return
+     */
+    private static byte[] encode(CommitRecord record) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payloadBytes);
+            record.writeTo(payload);
+            payload.flush();
+            
+            byte[] body = payloadBytes.toByteArray();
+            CRC32 crc32 = new CRC32();
+            crc32.update(body);
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + body.length);
+            frame.putInt(body.length).putInt((int) crc32.getValue()).put(body);
+            return frame.array();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * @param payload
+     * @return
+     * @throws IOException
+     */
+    private static CommitRecord decode(byte[] payload) throws IOException {
+        return CommitRecord.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+    
+    /**
+     * Writes a nullable string as <code>[length][utf-8 bytes]</code>, with a length of -1 for null.
+     *
+     * @param output
+     * @param value
+     * @throws IOException
+     */
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        writeBytes(output, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * @param input
+     * @return
+     * @throws IOException
+     */
+    static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = readBytes(input);
+        return (bytes == null ? null : new String(bytes, StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Writes nullable bytes as <code>[length][bytes]</code>, with a length of -1 for null.
+     *
+     * @param output
+     * @param bytes
+     * @throws IOException
+     */
+    static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+    
+    /**
+     * @param input
+     * @return
+     * @throws IOException
+     */
+    static byte[] readBytes(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+    
+    /**
+     * A framed record waiting for its group commit.
+     */
+    private static final class PendingRecord {
+        
+        private final byte[] frame;
+        private final long version;
+        private final CompletableFuture<Void> durable;
+        
+        private PendingRecord(byte[] frame, long version, CompletableFuture<Void> durable) {
+            this.frame = frame;
+            this.version = version;
+            this.durable = durable;
+        }
+    }
+}
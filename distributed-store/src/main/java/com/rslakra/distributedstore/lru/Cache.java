@@ -1,37 +1,285 @@
 package com.rslakra.distributedstore.lru;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the values of a {@link Store}, evicting keys as its {@link EvictionPolicy} decides when the store is
+ * full.
+ * <p>
+ * With an {@link Expiration}, the cache also records when each key was written and last read, and a read of a key
+ * that has expired removes it and misses. Expired keys that are not read stay in the store until they are evicted
+ * or {@link #cleanUp()} removes them. Without one, the cache keeps no timestamps.
+ *
+ * @param <K>
+ * @param <V>
+ */
+@Slf4j
 public class Cache<K, V> {
     
+    /**
+     * The write time of a key the cache keeps no timestamps for.
+     */
+    static final long NO_TIME = Long.MIN_VALUE;
+    
     private final EvictionPolicy<K> evictionPolicy;
     private final Store<K, V> store;
+    private final Expiration expiration;
+    private final LongSupplier ticker;
+    private final Map<K, Timestamps> timestamps;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
     
-    public Cache(EvictionPolicy<K> evictionPolicy, Store<K, V> store) {
+    /**
+     * @param evictionPolicy
+     * @param store
+     * @param expiration
+     * @param ticker         the source of {@link System#nanoTime()}-like times.
+     */
+    Cache(EvictionPolicy<K> evictionPolicy, Store<K, V> store, Expiration expiration, LongSupplier ticker) {
         this.evictionPolicy = evictionPolicy;
         this.store = store;
+        this.expiration = expiration;
+        this.ticker = ticker;
+        this.timestamps = (expiration.isEnabled() ? new ConcurrentHashMap<>() : null);
+    }
+    
+    /**
+     * @param evictionPolicy
+     * @param store
+     * @param expiration
+     */
+    public Cache(EvictionPolicy<K> evictionPolicy, Store<K, V> store, Expiration expiration) {
+        this(evictionPolicy, store, expiration, System::nanoTime);
+    }
+    
+    public Cache(EvictionPolicy<K> evictionPolicy, Store<K, V> store) {
+        this(evictionPolicy, store, Expiration.NEVER);
     }
     
     public V get(K key) {
         try {
             V value = this.store.get(key);
+            if (timestamps != null) {
+                Timestamps stamp = timestamps.get(key);
+                if (stamp != null) {
+                    long now = ticker.getAsLong();
+                    if (expiration.isExpired(stamp.writeTime, stamp.accessTime, now)) {
+                        expire(key, stamp);
+                        misses.increment();
+                        return null;
+                    }
+                    stamp.accessTime = now;
+                }
+            }
+            
             this.evictionPolicy.accessedKey(key);
+            hits.increment();
             return value;
         } catch (KeyNotFoundException e) {
-            System.out.println("No Key Found!");
+            misses.increment();
+            log.debug("No Key Found!");
             return null;
         }
     }
     
+    /**
+     * Caches the <code>value</code>, evicting keys until the store has room for it, unless the eviction policy
+     * does not admit the key. A key that is not admitted is not cached at all: an older value of it is removed,
+     * so that it is not read back in place of the one written.
+     *
+     * @param key
+     * @param value
+     */
     public void set(K key, V value) {
+        // The timestamps go first, so that a read racing this write cannot expire the new value.
+        Timestamps stamp = null;
+        if (timestamps != null) {
+            stamp = new Timestamps(ticker.getAsLong());
+            timestamps.put(key, stamp);
+        }
+        
+        boolean admitted = false;
+        while (true) {
+            try {
+                this.store.set(key, value);
+                if (stamp != null) {
+                    // An eviction of the key racing this write may have dropped the timestamps put above.
+                    timestamps.putIfAbsent(key, stamp);
+                }
+                this.evictionPolicy.accessedKey(key);
+                return;
+            } catch (StorageFullException ex) {
+                if (!admitted && !this.evictionPolicy.admit(key)) {
+                    discard(key, stamp);
+                    return;
+                }
+                admitted = true;
+                
+                K keyToRemove = this.evictionPolicy.evict();
+                if (keyToRemove == null) {
+                    throw new RuntimeException("Unexpected State. Storage full and no key to evict.");
+                }
+                // Only the timestamps of the evicted value are dropped, not those of a write of the key racing this.
+                Timestamps evictedStamp = (timestamps == null || keyToRemove.equals(key)
+                                           ? null : timestamps.get(keyToRemove));
+                try {
+                    this.store.delete(keyToRemove);
+                    evictions.increment();
+                } catch (KeyNotFoundException e) {
+                    // A concurrent read re-recorded a key that another write had just evicted.
+                    log.debug("Evicted key already removed!");
+                }
+                if (evictedStamp != null) {
+                    timestamps.remove(keyToRemove, evictedStamp);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Removes the keys that have expired, which reads only do for the keys they read. A cache whose keys are not
+     * all read regularly can call it periodically to give the room of its stale keys back before the store fills
+     * up.
+     *
+     * @return the number of keys removed.
+     */
+    public int cleanUp() {
+        if (timestamps == null) {
+            return 0;
+        }
+        
+        int removed = 0;
+        long now = ticker.getAsLong();
+        for (Map.Entry<K, Timestamps> entry : timestamps.entrySet()) {
+            Timestamps stamp = entry.getValue();
+            if (expiration.isExpired(stamp.writeTime, stamp.accessTime, now) && expire(entry.getKey(), stamp)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+    
+    /**
+     * @return the number of keys cached.
+     */
+    public long size() {
+        return this.store.size();
+    }
+    
+    /**
+     * @return the total weight of the keys cached.
+     */
+    public long weightedSize() {
+        return this.store.weightedSize();
+    }
+    
+    /**
+     * @return the lookups, evictions and expirations so far.
+     */
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum());
+    }
+    
+    /**
+     * @param key
+     * @return the time the <code>key</code> was last written, or {@link #NO_TIME} if the cache has no timestamps
+     * for it.
+     */
+    long getWriteTime(K key) {
+        Timestamps stamp = (timestamps == null ? null : timestamps.get(key));
+        return (stamp == null ? NO_TIME : stamp.writeTime);
+    }
+    
+    /**
+     * Removes the value of the <code>key</code> a rejected write would have replaced, with the
+     * <code>stamp</code> that write put. As for {@link #expire(Object, Timestamps)}, nothing is removed if a later
+     * write of the key replaced the timestamps meanwhile.
+     *
+     * @param key
+     * @param stamp the timestamps of the rejected write, or null if the cache keeps none.
+     */
+    private void discard(K key, Timestamps stamp) {
+        if (stamp == null) {
+            removeRejected(key);
+            return;
+        }
+        
+        timestamps.computeIfPresent(key, (rejectedKey, current) -> {
+            if (current != stamp) {
+                return current;
+            }
+            
+            removeRejected(rejectedKey);
+            return null;
+        });
+    }
+    
+    /**
+     * @param key
+     */
+    private void removeRejected(K key) {
         try {
-            this.store.set(key, value);
-            this.evictionPolicy.accessedKey(key);
-        } catch (StorageFullException ex) {
-            K keyToRemove = this.evictionPolicy.evict();
-            if (keyToRemove == null) {
-                throw new RuntimeException("Unexpected State. Storage full and no key to evict.");
+            this.store.delete(key);
+            this.evictionPolicy.removedKey(key);
+        } catch (KeyNotFoundException e) {
+            log.debug("Rejected key not cached!");
+        }
+    }
+    
+    /**
+     * Removes the expired <code>key</code>, unless a write replaced its timestamps meanwhile. The key is removed
+     * under the lock of its timestamps, which a write of the key takes before it stores the new value, so the new
+     * value cannot be removed with the old one.
+     *
+     * @param key
+     * @param stamp the timestamps found expired.
+     * @return true if the key was removed.
+     */
+    private boolean expire(K key, Timestamps stamp) {
+        boolean[] removed = new boolean[1];
+        timestamps.computeIfPresent(key, (expiredKey, current) -> {
+            if (current != stamp) {
+                return current;
             }
-            this.store.delete(keyToRemove);
-            this.set(key, value);
+            
+            try {
+                this.store.delete(expiredKey);
+            } catch (KeyNotFoundException e) {
+                log.debug("Expired key already removed!");
+            }
+            this.evictionPolicy.removedKey(expiredKey);
+            removed[0] = true;
+            return null;
+        });
+        
+        if (removed[0]) {
+            expirations.increment();
+        }
+        return removed[0];
+    }
+    
+    /**
+     * The write and last access times of a key. A write replaces them, so that a stale instance identifies the
+     * version of the key it was taken from.
+     */
+    private static final class Timestamps {
+        
+        private final long writeTime;
+        private volatile long accessTime;
+        
+        /**
+         * @param writeTime
+         */
+        private Timestamps(long writeTime) {
+            this.writeTime = writeTime;
+            this.accessTime = writeTime;
         }
     }
 }
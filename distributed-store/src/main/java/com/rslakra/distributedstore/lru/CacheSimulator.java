@@ -0,0 +1,101 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.policy.WTinyLfuEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replays a trace of key accesses against a {@link Cache} and measures its hit ratio. Every access is a read, and
+ * a miss is followed by a write of the key (a read-through cache), which is where the eviction policy evicts and,
+ * for W-TinyLFU, decides on admission.
+ * <p>
+ * Run as a program, it replays a trace file against LRU and W-TinyLFU caches of the same capacity in one pass and
+ * prints their hit ratios:
+ * <pre>
+ * CacheSimulator &lt;trace-file&gt; &lt;capacity&gt;
+ * </pre>
+ * The key of each access is the first whitespace-separated field of each non-blank line, so that access logs
+ * with a key followed by other columns can be replayed as they are.
+ */
+public class CacheSimulator {
+    
+    private final Cache<String, String> cache;
+    private long accesses;
+    private long hits;
+    
+    /**
+     * @param evictionPolicy
+     * @param capacity
+     */
+    public CacheSimulator(EvictionPolicy<String> evictionPolicy, int capacity) {
+        this.cache = new Cache<>(evictionPolicy, new HashMapStore<>(capacity));
+    }
+    
+    /**
+     * Reads the <code>key</code>, caching it on a miss.
+     *
+     * @param key
+     */
+    public void access(String key) {
+        accesses++;
+        if (cache.get(key) != null) {
+            hits++;
+        } else {
+            cache.set(key, key);
+        }
+    }
+    
+    /**
+     * @return the share of the accesses that hit.
+     */
+    public double getHitRatio() {
+        return (accesses == 0 ? 0 : (double) hits / accesses);
+    }
+    
+    /**
+     * @return
+     */
+    public long getAccesses() {
+        return accesses;
+    }
+    
+    /**
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CacheSimulator <trace-file> <capacity>");
+            System.exit(1);
+        }
+        
+        int capacity = Integer.parseInt(args[1]);
+        Map<String, CacheSimulator> simulators = new LinkedHashMap<>();
+        simulators.put("LRU", new CacheSimulator(new LRUEvictionPolicy<>(), capacity));
+        simulators.put("W-TinyLFU", new CacheSimulator(new WTinyLfuEvictionPolicy<>(capacity), capacity));
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(args[0]), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                
+                String key = trimmed.split("\\s+", 2)[0];
+                simulators.values().forEach(simulator -> simulator.access(key));
+            }
+        }
+        
+        simulators.forEach((name, simulator) -> System.out.printf("%-10s %d accesses, hit ratio %.4f%n", name,
+                                                                  simulator.getAccesses(),
+                                                                  simulator.getHitRatio()));
+    }
+}
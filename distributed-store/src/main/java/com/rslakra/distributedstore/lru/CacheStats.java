@@ -0,0 +1,37 @@
+package com.rslakra.distributedstore.lru;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A snapshot of the lookup, eviction and expiration counts of a {@link Cache}; the snapshots of several caches add
+ * up.
+ */
+@Getter
+@AllArgsConstructor
+public class CacheStats {
+    
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    
+    /**
+     * @param other
+     * @return the sum of both snapshots.
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(hitCount + other.hitCount, missCount + other.missCount,
+                              evictionCount + other.evictionCount, expirationCount + other.expirationCount);
+    }
+    
+    /**
+     * Returns the share of the lookups that hit.
+     *
+     * @return
+     */
+    public double getHitRatio() {
+        long lookups = hitCount + missCount;
+        return (lookups == 0 ? 0 : (double) hitCount / lookups);
+    }
+}
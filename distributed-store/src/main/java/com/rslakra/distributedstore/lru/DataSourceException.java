@@ -0,0 +1,11 @@
+package com.rslakra.distributedstore.lru;
+
+/**
+ * Thrown when a {@link DataSource} fails to load a value.
+ */
+public class DataSourceException extends RuntimeException {
+    
+    public DataSourceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
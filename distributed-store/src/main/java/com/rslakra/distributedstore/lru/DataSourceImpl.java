@@ -1,16 +1,25 @@
 package com.rslakra.distributedstore.lru;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
+/**
+ * An in-memory {@link DataSource} whose futures are already complete.
+ */
 public class DataSourceImpl implements DataSource<String, String> {
     
+    private final Map<String, String> data = new ConcurrentHashMap<>();
+    
     @Override
     public Future<String> get(String key) {
-        return null;
+        return CompletableFuture.completedFuture(data.get(key));
     }
     
     @Override
     public Future<Void> persist(String key, String value) {
-        return null;
+        data.put(key, value);
+        return CompletableFuture.completedFuture(null);
     }
 }
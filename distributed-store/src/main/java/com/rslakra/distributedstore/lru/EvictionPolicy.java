@@ -11,4 +11,26 @@ public interface EvictionPolicy<E> {
      * @return
      */
     E evict();
+    
+    /**
+     * Called when the store is full, before a key is evicted to make room for the <code>candidate</code>: returns
+     * false if the candidate is less valuable than the key that would be evicted, in which case it is not cached.
+     * Every candidate is admitted by default.
+     *
+     * @param candidate
+     * @return
+     */
+    default boolean admit(E candidate) {
+        return true;
+    }
+    
+    /**
+     * Called when the cache drops the <code>key</code> on its own (when it expires, or when a write of it is not
+     * admitted), so that the policy forgets it instead of evicting it later. Does nothing by default, in which
+     * case the key is evicted as usual.
+     *
+     * @param key
+     */
+    default void removedKey(E key) {
+    }
 }
@@ -0,0 +1,77 @@
+package com.rslakra.distributedstore.lru;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When the entries of a {@link Cache} go stale, each setting in milliseconds and 0 to turn it off:
+ * <ul>
+ * <li><code>expireAfterWriteMillis</code>: an entry expires that long after it was written.</li>
+ * <li><code>expireAfterAccessMillis</code>: an entry expires when it was neither written nor read for that
+ * long.</li>
+ * <li><code>refreshAfterWriteMillis</code>: a {@link LoadingCache} reloads an entry that long after it was
+ * written, in the background, while readers keep getting the current value. It should come well before the
+ * expiry after write, so that popular keys are refreshed before they expire.</li>
+ * </ul>
+ */
+@Getter
+public class Expiration {
+    
+    /**
+     * Entries never go stale.
+     */
+    public static final Expiration NEVER = new Expiration(0, 0, 0);
+    
+    private final long expireAfterWriteMillis;
+    private final long expireAfterAccessMillis;
+    private final long refreshAfterWriteMillis;
+    
+    /**
+     * @param expireAfterWriteMillis
+     * @param expireAfterAccessMillis
+     * @param refreshAfterWriteMillis
+     */
+    public Expiration(long expireAfterWriteMillis, long expireAfterAccessMillis, long refreshAfterWriteMillis) {
+        if (expireAfterWriteMillis < 0 || expireAfterAccessMillis < 0 || refreshAfterWriteMillis < 0
+            || (refreshAfterWriteMillis > 0 && expireAfterWriteMillis > 0
+                && refreshAfterWriteMillis >= expireAfterWriteMillis)) {
+            throw new IllegalArgumentException("Invalid expiration " + expireAfterWriteMillis + "/"
+                                               + expireAfterAccessMillis + " or refresh " + refreshAfterWriteMillis
+                                               + "!");
+        }
+        
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        this.expireAfterAccessMillis = expireAfterAccessMillis;
+        this.refreshAfterWriteMillis = refreshAfterWriteMillis;
+    }
+    
+    /**
+     * @return true if the entries need timestamps: any of the settings is on.
+     */
+    public boolean isEnabled() {
+        return (expireAfterWriteMillis > 0 || expireAfterAccessMillis > 0 || refreshAfterWriteMillis > 0);
+    }
+    
+    /**
+     * @param writeTime  the {@link System#nanoTime()} of the last write.
+     * @param accessTime the {@link System#nanoTime()} of the last write or read.
+     * @param now
+     * @return true if the entry has expired.
+     */
+    boolean isExpired(long writeTime, long accessTime, long now) {
+        return ((expireAfterWriteMillis > 0 && now - writeTime >= TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMillis))
+                || (expireAfterAccessMillis > 0
+                    && now - accessTime >= TimeUnit.MILLISECONDS.toNanos(expireAfterAccessMillis)));
+    }
+    
+    /**
+     * @param writeTime the {@link System#nanoTime()} of the last write.
+     * @param now
+     * @return true if the entry is due for a refresh.
+     */
+    boolean isRefreshDue(long writeTime, long now) {
+        return (refreshAfterWriteMillis > 0
+                && now - writeTime >= TimeUnit.MILLISECONDS.toNanos(refreshAfterWriteMillis));
+    }
+}
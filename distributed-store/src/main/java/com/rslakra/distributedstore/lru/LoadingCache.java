@@ -0,0 +1,409 @@
+package com.rslakra.distributedstore.lru;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link Cache} in front of a {@link DataSource}: reads through it on a miss and writes behind it.
+ * <p>
+ * A miss loads the key from the data source and caches it. Concurrent misses on the same key share one load: the
+ * first caller loads and the others wait for its result, so a hot key that falls out of the cache costs one
+ * backend call instead of one per reader.
+ * <p>
+ * A write updates the cache at once and is queued for the data source. The queue holds one value per key, so
+ * repeated writes to a key between two flushes are persisted once, with the last value. The queue is flushed
+ * every <code>flushIntervalMillis</code> by a background thread, and as soon as it holds
+ * <code>maxPendingWrites</code> keys. A flush persists all the queued keys in parallel and waits for them; a
+ * failed write stays queued for the next flush. Reads see the queued writes even when the key was evicted from the
+ * cache meanwhile, so a value is never loaded back from the data source before its latest write reached it. The
+ * writes still queued when the process dies are lost; {@link #close()} flushes them.
+ * <p>
+ * An {@link Expiration} makes entries expire (a read of an expired entry is a miss and loads it again) and can
+ * refresh them ahead of time: a read of an entry written more than <code>refreshAfterWriteMillis</code> ago
+ * returns the cached value at once and reloads the entry in the background, one reload per key at a time. A
+ * popular key is therefore refreshed before it expires, and its readers never wait for the data source. A refresh
+ * does not replace a value written or still queued since it started.
+ *
+ * @param <K>
+ * @param <V>
+ */
+@Slf4j
+public class LoadingCache<K, V> implements Closeable {
+    
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_MAX_PENDING_WRITES = 1024;
+    public static final int REFRESH_THREADS = 4;
+    
+    private final Cache<K, V> cache;
+    private final DataSource<K, V> dataSource;
+    private final int maxPendingWrites;
+    private final Expiration expiration;
+    private final LongSupplier ticker;
+    private final Map<K, CompletableFuture<V>> loads = new ConcurrentHashMap<>();
+    private final Map<K, V> pendingWrites = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService refresher;
+    private final Set<K> refreshes = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder persistCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    
+    /**
+     * @param evictionPolicy
+     * @param store
+     * @param dataSource
+     * @param flushIntervalMillis the delay between two flushes of the queued writes.
+     * @param maxPendingWrites    the number of queued keys that triggers a flush right away.
+     * @param expiration
+     * @param ticker              the source of {@link System#nanoTime()}-like times.
+     */
+    LoadingCache(EvictionPolicy<K> evictionPolicy, Store<K, V> store, DataSource<K, V> dataSource,
+                 long flushIntervalMillis, int maxPendingWrites, Expiration expiration, LongSupplier ticker) {
+        if (flushIntervalMillis <= 0 || maxPendingWrites <= 0) {
+            throw new IllegalArgumentException("Invalid flush interval " + flushIntervalMillis
+                                               + " or max pending writes " + maxPendingWrites + "!");
+        }
+        
+        this.cache = new Cache<>(evictionPolicy, store, expiration, ticker);
+        this.dataSource = dataSource;
+        this.maxPendingWrites = maxPendingWrites;
+        this.expiration = expiration;
+        this.ticker = ticker;
+        this.refresher = (expiration.getRefreshAfterWriteMillis() > 0 ? newRefresher() : null);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kv-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                                            TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * @param evictionPolicy
+     * @param store
+     * @param dataSource
+     * @param flushIntervalMillis
+     * @param maxPendingWrites
+     * @param expiration
+     */
+    public LoadingCache(EvictionPolicy<K> evictionPolicy, Store<K, V> store, DataSource<K, V> dataSource,
+                        long flushIntervalMillis, int maxPendingWrites, Expiration expiration) {
+        this(evictionPolicy, store, dataSource, flushIntervalMillis, maxPendingWrites, expiration, System::nanoTime);
+    }
+    
+    /**
+     * @param evictionPolicy
+     * @param store
+     * @param dataSource
+     * @param flushIntervalMillis
+     * @param maxPendingWrites
+     */
+    public LoadingCache(EvictionPolicy<K> evictionPolicy, Store<K, V> store, DataSource<K, V> dataSource,
+                        long flushIntervalMillis, int maxPendingWrites) {
+        this(evictionPolicy, store, dataSource, flushIntervalMillis, maxPendingWrites, Expiration.NEVER);
+    }
+    
+    /**
+     * @param evictionPolicy
+     * @param store
+     * @param dataSource
+     */
+    public LoadingCache(EvictionPolicy<K> evictionPolicy, Store<K, V> store, DataSource<K, V> dataSource) {
+        this(evictionPolicy, store, dataSource, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_PENDING_WRITES);
+    }
+    
+    /**
+     * Returns the value of the <code>key</code>, loading it on a miss, and starts a refresh if it is due.
+     *
+     * @param key
+     * @return the value, or null if the data source does not have the key either.
+     * @throws DataSourceException if the load failed.
+     */
+    public V get(K key) {
+        V value = cache.get(key);
+        if (value != null) {
+            refreshIfDue(key);
+            return value;
+        }
+        
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loads.putIfAbsent(key, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        
+        try {
+            // A load that finished between the miss and the registration has cached the key already.
+            value = cache.get(key);
+            if (value == null) {
+                value = pendingWrites.get(key);
+            }
+            if (value == null) {
+                loadCount.increment();
+                value = await(dataSource.get(key));
+            }
+            
+            // Caches the value unless a write replaced the load meanwhile.
+            V loaded = value;
+            loads.computeIfPresent(key, (loadKey, current) -> {
+                if (current != load) {
+                    return current;
+                }
+                
+                if (loaded != null) {
+                    cache.set(loadKey, loaded);
+                }
+                return null;
+            });
+            load.complete(value);
+            return value;
+        } catch (RuntimeException ex) {
+            loads.remove(key, load);
+            load.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+    
+    /**
+     * Caches the <code>value</code> and queues it for the data source.
+     *
+     * @param key
+     * @param value
+     */
+    public void set(K key, V value) {
+        // Drops a load in flight for the key, so that it cannot cache the older value over this one.
+        loads.compute(key, (writeKey, load) -> {
+            cache.set(writeKey, value);
+            pendingWrites.put(writeKey, value);
+            return null;
+        });
+        
+        if (pendingWrites.size() >= maxPendingWrites && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+    
+    /**
+     * Persists the queued writes and waits for them; the writes that fail stay queued.
+     *
+     * @return the number of keys persisted.
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            flushRequested.set(false);
+            if (pendingWrites.isEmpty()) {
+                return 0;
+            }
+            
+            Map<K, V> batch = new HashMap<>(pendingWrites);
+            Map<K, Future<Void>> writes = new LinkedHashMap<>();
+            batch.forEach((key, value) -> {
+                persistCount.increment();
+                try {
+                    writes.put(key, dataSource.persist(key, value));
+                } catch (RuntimeException ex) {
+                    log.warn("Failed to persist {}", key, ex);
+                }
+            });
+            
+            int persisted = 0;
+            for (Map.Entry<K, Future<Void>> write : writes.entrySet()) {
+                try {
+                    write.getValue().get();
+                    // A newer value written during the flush stays queued.
+                    pendingWrites.remove(write.getKey(), batch.get(write.getKey()));
+                    persisted++;
+                } catch (ExecutionException ex) {
+                    log.warn("Failed to persist {}", write.getKey(), ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            
+            return persisted;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the number of loads sent to the data source.
+     */
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+    
+    /**
+     * @return the number of writes sent to the data source.
+     */
+    public long getPersistCount() {
+        return persistCount.sum();
+    }
+    
+    /**
+     * @return the number of refreshes started, which are counted in the loads as well.
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+    
+    /**
+     * @return the hits, misses, evictions and expirations of the cache.
+     */
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+    
+    /**
+     * @return the number of keys waiting to be persisted.
+     */
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+    
+    /**
+     * Stops the periodic flushes and flushes the queued writes.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        if (refresher != null) {
+            refresher.shutdown();
+        }
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+            if (refresher != null) {
+                refresher.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        
+        flush();
+        if (!pendingWrites.isEmpty()) {
+            log.error("{} writes could not be persisted!", pendingWrites.size());
+        }
+    }
+    
+    /**
+     * Starts a background reload of the <code>key</code> if it was written more than the refresh age ago, unless
+     * one is running already or its last write is not persisted yet.
+     *
+     * @param key
+     */
+    private void refreshIfDue(K key) {
+        if (refresher == null) {
+            return;
+        }
+        
+        long writeTime = cache.getWriteTime(key);
+        if (writeTime == Cache.NO_TIME || !expiration.isRefreshDue(writeTime, ticker.getAsLong())
+            || pendingWrites.containsKey(key) || !refreshes.add(key)) {
+            return;
+        }
+        
+        try {
+            refresher.execute(() -> refresh(key, writeTime));
+        } catch (RejectedExecutionException ex) {
+            refreshes.remove(key);
+        }
+    }
+    
+    /**
+     * Reloads the <code>key</code> and caches the value, unless the key was written since
+     * <code>writeTime</code>. A failed refresh keeps the cached value, and the next read past the refresh age
+     * retries it.
+     *
+     * @param key
+     * @param writeTime the write time of the cached value that is refreshed.
+     */
+    private void refresh(K key, long writeTime) {
+        try {
+            refreshCount.increment();
+            loadCount.increment();
+            V value = await(dataSource.get(key));
+            if (value == null) {
+                return;
+            }
+            
+            // Serialized with the writes of the key, which go through the same map entry.
+            loads.compute(key, (refreshKey, load) -> {
+                if (load == null && cache.getWriteTime(refreshKey) == writeTime
+                    && !pendingWrites.containsKey(refreshKey)) {
+                    cache.set(refreshKey, value);
+                }
+                return load;
+            });
+        } catch (DataSourceException ex) {
+            log.warn("Failed to refresh {}", key, ex);
+        } finally {
+            refreshes.remove(key);
+        }
+    }
+    
+    /**
+     * @return the threads that run the refreshes.
+     */
+    private static ExecutorService newRefresher() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(REFRESH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "kv-refresh-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * A failed flush is retried at the next interval.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException ex) {
+            log.error("Write-behind flush failed!", ex);
+        }
+    }
+    
+    /**
+     * @param future
+     * @return the value of the completed <code>future</code>.
+     * @throws DataSourceException if it failed.
+     */
+    private static <V> V await(Future<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataSourceException("Interrupted while loading!", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof DataSourceException) {
+                throw (DataSourceException) ex.getCause();
+            }
+            throw new DataSourceException("Failed to load!", ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.rslakra.distributedstore.lru;
+
+import java.util.function.IntFunction;
+
+/**
+ * A cache split into independent {@link Cache} segments, each with its own eviction policy, store and share of the
+ * capacity. A key always maps to the same segment, so threads working on different keys rarely touch the same
+ * policy lock or store, and throughput grows with the number of threads instead of queuing on one eviction policy.
+ * <p>
+ * Each segment evicts on its own once its share is full, so the cache as a whole holds no more than its capacity,
+ * but a skewed key distribution can evict from one segment while another still has room. The size and the
+ * statistics are summed over the segments and are not an atomic snapshot under concurrent updates.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ShardedCache<K, V> {
+    
+    /**
+     * A few segments per core keeps two busy threads from hashing to the same segment most of the time.
+     */
+    public static final int DEFAULT_SHARD_COUNT = 4 * Runtime.getRuntime().availableProcessors();
+    
+    private final Cache<K, V>[] shards;
+    private final int capacity;
+    
+    /**
+     * @param shardCount    the number of segments.
+     * @param capacity      the capacity of the whole cache in the unit of its stores (keys, or a weight budget),
+     *                      split as evenly as possible over the segments.
+     * @param policyFactory creates the eviction policy of a segment, given its capacity.
+     * @param storeFactory  creates the store of a segment, given its capacity.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardedCache(int shardCount, int capacity, IntFunction<EvictionPolicy<K>> policyFactory,
+                        IntFunction<Store<K, V>> storeFactory) {
+        if (shardCount <= 0 || capacity < shardCount) {
+            throw new IllegalArgumentException("Invalid shard count " + shardCount + " for capacity " + capacity
+                                               + "!");
+        }
+        
+        this.capacity = capacity;
+        this.shards = new Cache[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            int shardCapacity = capacity / shardCount + (i < capacity % shardCount ? 1 : 0);
+            shards[i] = new Cache<>(policyFactory.apply(shardCapacity), storeFactory.apply(shardCapacity));
+        }
+    }
+    
+    /**
+     * @param capacity
+     * @param policyFactory
+     * @param storeFactory
+     */
+    public ShardedCache(int capacity, IntFunction<EvictionPolicy<K>> policyFactory,
+                        IntFunction<Store<K, V>> storeFactory) {
+        this(Math.min(DEFAULT_SHARD_COUNT, capacity), capacity, policyFactory, storeFactory);
+    }
+    
+    /**
+     * @param key
+     * @return the cached value, or null on a miss.
+     */
+    public V get(K key) {
+        return shardFor(key).get(key);
+    }
+    
+    /**
+     * @param key
+     * @param value
+     */
+    public void set(K key, V value) {
+        shardFor(key).set(key, value);
+    }
+    
+    /**
+     * @return the number of keys cached over all the segments.
+     */
+    public long size() {
+        long size = 0;
+        for (Cache<K, V> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+    
+    /**
+     * @return the total weight of the keys cached over all the segments.
+     */
+    public long weightedSize() {
+        long weightedSize = 0;
+        for (Cache<K, V> shard : shards) {
+            weightedSize += shard.weightedSize();
+        }
+        return weightedSize;
+    }
+    
+    /**
+     * @return the lookups and evictions of all the segments.
+     */
+    public CacheStats getStats() {
+        CacheStats stats = new CacheStats(0, 0, 0, 0);
+        for (Cache<K, V> shard : shards) {
+            stats = stats.plus(shard.getStats());
+        }
+        return stats;
+    }
+    
+    /**
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * @return
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    /**
+     * Spreads the high bits of the hash code into the low ones, so that keys whose hash codes differ only in their
+     * high bits do not all land in one segment.
+     *
+     * @param key
+     * @return
+     */
+    private Cache<K, V> shardFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return shards[Math.floorMod(hash, shards.length)];
+    }
+}
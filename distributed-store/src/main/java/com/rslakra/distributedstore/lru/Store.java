@@ -19,4 +19,17 @@ public interface Store<K, V> {
      */
     void delete(K key);
     
+    /**
+     * @return the number of keys stored.
+     */
+    long size();
+    
+    /**
+     * Returns the total weight of the keys stored, in the unit of the store's capacity; one per key by default.
+     *
+     * @return
+     */
+    default long weightedSize() {
+        return size();
+    }
 }
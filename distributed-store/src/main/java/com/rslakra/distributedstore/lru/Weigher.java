@@ -0,0 +1,29 @@
+package com.rslakra.distributedstore.lru;
+
+/**
+ * Computes the weight of an entry, in the unit of the weight budget of the store that uses it: a number of
+ * entries, an estimate of heap bytes, etc. The weight of an entry is computed once, when it is written, so it must
+ * not depend on state that changes while the entry is cached.
+ *
+ * @param <K>
+ * @param <V>
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    
+    /**
+     * @param key
+     * @param value
+     * @return the weight of the entry, zero or more.
+     */
+    int weigh(K key, V value);
+    
+    /**
+     * Weighs every entry 1, so that the weight budget is a number of entries.
+     *
+     * @return
+     */
+    static <K, V> Weigher<K, V> singleton() {
+        return (key, value) -> 1;
+    }
+}
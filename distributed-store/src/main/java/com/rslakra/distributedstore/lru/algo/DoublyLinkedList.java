@@ -1,10 +1,17 @@
 package com.rslakra.distributedstore.lru.algo;
 
 
+/**
+ * A doubly linked list between two sentinel nodes, so that a node can be detached or appended in O(1) given the
+ * node itself. It is not thread-safe.
+ *
+ * @param <E>
+ */
 public class DoublyLinkedList<E> {
     
     DoublyLinkedListNode<E> head;
     DoublyLinkedListNode<E> tail;
+    int size;
     
     public DoublyLinkedList() {
         this.head = new DoublyLinkedListNode<>(null);
@@ -13,24 +20,41 @@ public class DoublyLinkedList<E> {
         this.tail.previous = this.head;
     }
     
+    /**
+     * Unlinks the <code>node</code> from the list; a node that is not linked is left as it is.
+     *
+     * @param node
+     */
     public void detachNode(DoublyLinkedListNode<E> node) {
-        if (node != null) {
-            if (node.next != null) {
-                node.next.previous = node.next;
-            }
-            
-            if (node.previous != null) {
-                node.previous.next = node.previous;
-            }
+        if (node != null && node.isLinked()) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            size--;
         }
     }
     
+    /**
+     * @param node a node that is not linked in any list.
+     */
     public void addNodeAtLast(DoublyLinkedListNode<E> node) {
-        DoublyLinkedListNode prevTail = this.tail.previous;
+        DoublyLinkedListNode<E> prevTail = this.tail.previous;
         prevTail.next = node;
         node.next = this.tail;
-        prevTail.previous = node;
         node.previous = prevTail;
+        this.tail.previous = node;
+        size++;
+    }
+    
+    /**
+     * Moves the linked <code>node</code> to the end of the list.
+     *
+     * @param node
+     */
+    public void moveToLast(DoublyLinkedListNode<E> node) {
+        detachNode(node);
+        addNodeAtLast(node);
     }
     
     public DoublyLinkedListNode<E> addElementToLast(E element) {
@@ -53,4 +77,11 @@ public class DoublyLinkedList<E> {
     public DoublyLinkedListNode<E> getLastNode() {
         return isItemPresent() ? this.tail.previous : null;
     }
+    
+    /**
+     * @return the number of nodes in the list.
+     */
+    public int size() {
+        return size;
+    }
 }
@@ -9,7 +9,7 @@ public class DoublyLinkedListNode<E> {
     E element;
     DoublyLinkedListNode<E> previous;
     DoublyLinkedListNode<E> next;
-
+    
     /**
      * @param element
      */
@@ -18,4 +18,11 @@ public class DoublyLinkedListNode<E> {
         this.previous = null;
         this.next = null;
     }
+    
+    /**
+     * @return true while the node is in a list.
+     */
+    public boolean isLinked() {
+        return previous != null;
+    }
 }
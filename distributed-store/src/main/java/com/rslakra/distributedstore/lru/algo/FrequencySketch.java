@@ -0,0 +1,120 @@
+package com.rslakra.distributedstore.lru.algo;
+
+/**
+ * The approximate access frequency of the elements seen recently, in a fixed amount of memory (the TinyLFU
+ * filter).
+ * <p>
+ * A count-min sketch of 4-bit counters: each element increments one counter in each of four rows and its
+ * frequency is the smallest of the four, which overestimates only when all four collide. The counters saturate
+ * at 15, which is enough to compare a candidate with a victim. After <code>10 * maximumSize</code> increments
+ * every counter is halved, so that the elements that were popular once fade out and the recent ones take over.
+ * It is not thread-safe.
+ *
+ * @param <E>
+ */
+public class FrequencySketch<E> {
+    
+    public static final int MAX_FREQUENCY = 15;
+    
+    private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL,
+                                         0xCBF29CE484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+    
+    /**
+     * @param maximumSize the number of elements the cache holds, which sizes the sketch.
+     */
+    public FrequencySketch(int maximumSize) {
+        int tableSize = Integer.highestOneBit(Math.max(8, maximumSize - 1)) << 1;
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = 10 * Math.max(1, maximumSize);
+    }
+    
+    /**
+     * @param element
+     * @return the estimated number of recent accesses of the <code>element</code>, at most 15.
+     */
+    public int frequency(E element) {
+        int hash = spread(element.hashCode());
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long counter = counterOf(hash, row);
+            frequency = Math.min(frequency, (int) ((table[slotOf(counter)] >>> offsetOf(counter)) & 0xF));
+        }
+        
+        return frequency;
+    }
+    
+    /**
+     * Counts one access of the <code>element</code>.
+     *
+     * @param element
+     */
+    public void increment(E element) {
+        int hash = spread(element.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long counter = counterOf(hash, row);
+            int slot = slotOf(counter);
+            int offset = offsetOf(counter);
+            if (((table[slot] >>> offset) & 0xF) != MAX_FREQUENCY) {
+                table[slot] += (1L << offset);
+                added = true;
+            }
+        }
+        
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+    
+    /**
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+    
+    /**
+     * @param hash
+     * @param row
+     * @return the hash of the counter of the <code>row</code>, locating both its word and its nibble.
+     */
+    private static long counterOf(int hash, int row) {
+        long counter = (hash + SEEDS[row]) * SEEDS[row];
+        return counter + (counter >>> 32);
+    }
+    
+    /**
+     * @param counter
+     * @return
+     */
+    private int slotOf(long counter) {
+        return (int) counter & tableMask;
+    }
+    
+    /**
+     * @param counter
+     * @return the bit offset of one of the 16 nibbles of the word.
+     */
+    private static int offsetOf(long counter) {
+        return (int) (counter >>> 60) << 2;
+    }
+    
+    /**
+     * @param hashCode
+     * @return
+     */
+    private static int spread(int hashCode) {
+        int hash = hashCode * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,98 @@
+package com.rslakra.distributedstore.lru.algo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lossy buffer of events recorded by many threads and drained by one at a time, as used to record cache hits
+ * without taking the lock of the eviction order on every read.
+ * <p>
+ * The threads are spread by their id over a power-of-two number of small ring buffers, so that they rarely
+ * compete for the same one. Recording an event is one compare-and-set of the stripe's write counter; when the
+ * stripe is full, or another thread won the race for the slot, the event is dropped, which only makes the
+ * recency of a hot entry slightly less precise. {@link #offer(Object)} tells the caller when its stripe is full,
+ * which is when the buffer should be drained.
+ *
+ * @param <E>
+ */
+public class StripedRingBuffer<E> {
+    
+    public static final int STRIPE_SIZE = 16;
+    
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+    
+    private final Stripe<E>[] stripes;
+    private final int mask;
+    
+    /**
+     * Creates four stripes per processor.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public StripedRingBuffer() {
+        int stripeCount = Integer.highestOneBit(Math.max(1, 4 * Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.mask = stripeCount - 1;
+    }
+    
+    /**
+     * Records the <code>element</code> in the stripe of the calling thread.
+     *
+     * @param element
+     * @return false if the stripe is full and the element was dropped; the buffer should then be drained.
+     */
+    public boolean offer(E element) {
+        long threadId = Thread.currentThread().threadId();
+        int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        Stripe<E> stripe = stripes[(hash >>> 16) & mask];
+        long tail = stripe.writeCounter.get();
+        if (tail - stripe.readCounter >= STRIPE_SIZE) {
+            return false;
+        }
+        
+        if (stripe.writeCounter.compareAndSet(tail, tail + 1)) {
+            stripe.slots.lazySet((int) tail & STRIPE_MASK, element);
+        }
+        return true;
+    }
+    
+    /**
+     * Passes the recorded elements to the <code>consumer</code> and empties the buffer. Only one thread may drain
+     * at a time.
+     *
+     * @param consumer
+     */
+    public void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes) {
+            long head = stripe.readCounter;
+            long tail = stripe.writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) head & STRIPE_MASK;
+                E element = stripe.slots.get(index);
+                if (element == null) {
+                    // The writer claimed the slot but has not published the element yet.
+                    break;
+                }
+                
+                stripe.slots.lazySet(index, null);
+                consumer.accept(element);
+            }
+            stripe.readCounter = head;
+        }
+    }
+    
+    /**
+     * One ring buffer.
+     *
+     * @param <E>
+     */
+    private static final class Stripe<E> {
+        
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPE_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+    }
+}
@@ -4,39 +4,105 @@ package com.rslakra.distributedstore.lru.policy;
 import com.rslakra.distributedstore.lru.EvictionPolicy;
 import com.rslakra.distributedstore.lru.algo.DoublyLinkedList;
 import com.rslakra.distributedstore.lru.algo.DoublyLinkedListNode;
+import com.rslakra.distributedstore.lru.algo.StripedRingBuffer;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Evicts the least recently used key, in O(1) and safely under concurrent accesses and evictions.
+ * <p>
+ * The keys are kept in a linked list in access order, guarded by one lock. An access to a known key does not take
+ * the lock: it is recorded in a {@link StripedRingBuffer}, and the buffered accesses are replayed on the list by
+ * whichever thread next holds the lock (the thread that found its stripe full tries to take it, and does not wait
+ * if another thread has it). Under a burst of reads some accesses are dropped, so the order is approximately LRU
+ * for the hottest keys. A new key is linked under the lock right away, so that every key the cache holds can be
+ * evicted.
+ *
+ * @param <K>
+ */
 public class LRUEvictionPolicy<K> implements EvictionPolicy<K> {
     
     private final DoublyLinkedList<K> linkedList;
     private final Map<K, DoublyLinkedListNode<K>> mapper;
+    private final StripedRingBuffer<DoublyLinkedListNode<K>> readBuffer;
+    private final ReentrantLock lock = new ReentrantLock();
     
     public LRUEvictionPolicy() {
         this.linkedList = new DoublyLinkedList<>();
         this.mapper = new ConcurrentHashMap<>();
+        this.readBuffer = new StripedRingBuffer<>();
     }
     
     @Override
     public void accessedKey(K key) {
-        if (this.mapper.containsKey(key)) {
-            linkedList.detachNode(this.mapper.get(key));
-            linkedList.addNodeAtLast(this.mapper.get(key));
-        } else {
-            DoublyLinkedListNode<K> newNode = new DoublyLinkedListNode<>(key);
-            this.mapper.put(key, newNode);
+        DoublyLinkedListNode<K> node = this.mapper.get(key);
+        if (node != null) {
+            if (!readBuffer.offer(node) && lock.tryLock()) {
+                try {
+                    drainReadBuffer();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return;
+        }
+        
+        lock.lock();
+        try {
+            drainReadBuffer();
+            node = this.mapper.get(key);
+            if (node == null) {
+                this.mapper.put(key, linkedList.addElementToLast(key));
+            } else {
+                linkedList.moveToLast(node);
+            }
+        } finally {
+            lock.unlock();
         }
     }
     
     @Override
     public K evict() {
-        DoublyLinkedListNode<K> nodeToRemove = this.linkedList.getFirstNode();
-        if (nodeToRemove == null) {
-            return null;
+        lock.lock();
+        try {
+            drainReadBuffer();
+            DoublyLinkedListNode<K> nodeToRemove = this.linkedList.getFirstNode();
+            if (nodeToRemove == null) {
+                return null;
+            }
+            
+            linkedList.detachNode(nodeToRemove);
+            this.mapper.remove(nodeToRemove.getElement());
+            return nodeToRemove.getElement();
+        } finally {
+            lock.unlock();
         }
-        
-        linkedList.detachNode(nodeToRemove);
-        return nodeToRemove.getElement();
+    }
+    
+    @Override
+    public void removedKey(K key) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            DoublyLinkedListNode<K> node = this.mapper.remove(key);
+            if (node != null) {
+                linkedList.detachNode(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Moves the buffered nodes to the end of the list, skipping the ones evicted since. Requires the lock.
+     */
+    private void drainReadBuffer() {
+        readBuffer.drainTo(node -> {
+            if (node.isLinked()) {
+                linkedList.moveToLast(node);
+            }
+        });
     }
 }
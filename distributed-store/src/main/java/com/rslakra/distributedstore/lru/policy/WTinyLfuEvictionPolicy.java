@@ -0,0 +1,278 @@
+package com.rslakra.distributedstore.lru.policy;
+
+import com.rslakra.distributedstore.lru.EvictionPolicy;
+import com.rslakra.distributedstore.lru.algo.DoublyLinkedList;
+import com.rslakra.distributedstore.lru.algo.DoublyLinkedListNode;
+import com.rslakra.distributedstore.lru.algo.FrequencySketch;
+import com.rslakra.distributedstore.lru.algo.StripedRingBuffer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The W-TinyLFU policy: recency for new keys, frequency for the rest, so that a scan or a burst of keys used only
+ * once cannot flush the keys that are used all the time.
+ * <p>
+ * A new key enters a small LRU admission window (1% of the keys by default). The keys pushed out of the window
+ * move to the main region, a segmented LRU made of a probation segment and a protected segment (80% of the main
+ * region) that a key reaches when it is used again while on probation. When the cache is full and the window is
+ * too, the key leaving the window competes with the least recently used key on probation, and the one that was
+ * accessed less often, according to a {@link FrequencySketch} of the recent accesses, is evicted. A key used
+ * once therefore only displaces another key used once.
+ * <p>
+ * With an empty window the policy is plain TinyLFU: {@link #admit(Object)} rejects a new key that is not more
+ * frequent than the victim it would replace.
+ * <p>
+ * Accesses are buffered and applied under a lock like in {@link LRUEvictionPolicy}. The <code>maximumSize</code>
+ * only sizes the regions and the sketch: the store still decides when a key must be evicted, so it should have
+ * the same capacity.
+ *
+ * @param <K>
+ */
+public class WTinyLfuEvictionPolicy<K> implements EvictionPolicy<K> {
+    
+    public static final double DEFAULT_WINDOW_RATIO = 0.01;
+    public static final double PROTECTED_RATIO = 0.8;
+    
+    private final int windowCapacity;
+    private final int protectedCapacity;
+    private final DoublyLinkedList<K> window = new DoublyLinkedList<>();
+    private final DoublyLinkedList<K> probation = new DoublyLinkedList<>();
+    private final DoublyLinkedList<K> protectedSegment = new DoublyLinkedList<>();
+    private final Map<K, Node<K>> nodes = new ConcurrentHashMap<>();
+    private final FrequencySketch<K> sketch;
+    private final StripedRingBuffer<Node<K>> readBuffer = new StripedRingBuffer<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    /**
+     * @param maximumSize the capacity of the store.
+     * @param windowRatio the share of the keys in the admission window, 0 for none.
+     */
+    public WTinyLfuEvictionPolicy(int maximumSize, double windowRatio) {
+        if (maximumSize <= 0 || windowRatio < 0 || windowRatio >= 1) {
+            throw new IllegalArgumentException("Invalid maximum size " + maximumSize + " or window ratio "
+                                               + windowRatio + "!");
+        }
+        
+        this.windowCapacity = (windowRatio == 0 ? 0 : Math.max(1, (int) (maximumSize * windowRatio)));
+        this.protectedCapacity = (int) ((maximumSize - windowCapacity) * PROTECTED_RATIO);
+        this.sketch = new FrequencySketch<>(maximumSize);
+    }
+    
+    /**
+     * @param maximumSize
+     */
+    public WTinyLfuEvictionPolicy(int maximumSize) {
+        this(maximumSize, DEFAULT_WINDOW_RATIO);
+    }
+    
+    @Override
+    public void accessedKey(K key) {
+        Node<K> node = nodes.get(key);
+        if (node != null) {
+            if (!readBuffer.offer(node) && lock.tryLock()) {
+                try {
+                    drainReadBuffer();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return;
+        }
+        
+        lock.lock();
+        try {
+            drainReadBuffer();
+            node = nodes.get(key);
+            if (node == null) {
+                add(key);
+            } else {
+                onAccess(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public boolean admit(K candidate) {
+        if (windowCapacity > 0) {
+            // The window takes every new key; the duel happens when a key leaves it.
+            return true;
+        }
+        
+        lock.lock();
+        try {
+            drainReadBuffer();
+            // The access that brought the candidate is not counted yet, hence a tie admits it.
+            Node<K> victim = mainVictim();
+            if (victim == null || sketch.frequency(candidate) >= sketch.frequency(victim.getElement())) {
+                return true;
+            }
+            
+            // The rejected access still counts, so that a key that keeps coming back is admitted eventually.
+            sketch.increment(candidate);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public K evict() {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            Node<K> victim = mainVictim();
+            Node<K> candidate = (windowCapacity > 0 && window.size() >= windowCapacity
+                                 ? (Node<K>) window.getFirstNode() : null);
+            Node<K> evicted;
+            if (candidate == null) {
+                evicted = (victim != null ? victim : (Node<K>) window.getFirstNode());
+            } else if (victim == null
+                       || sketch.frequency(candidate.getElement()) <= sketch.frequency(victim.getElement())) {
+                evicted = candidate;
+            } else {
+                // The key leaving the window is more popular than the victim: it takes the victim's place.
+                evicted = victim;
+                move(candidate, Region.PROBATION);
+            }
+            
+            if (evicted == null) {
+                return null;
+            }
+            
+            listOf(evicted.region).detachNode(evicted);
+            nodes.remove(evicted.getElement());
+            return evicted.getElement();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public void removedKey(K key) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            Node<K> node = nodes.remove(key);
+            if (node != null) {
+                listOf(node.region).detachNode(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Adds the new <code>key</code> to the window, moving the keys the window cannot hold to probation. Requires
+     * the lock.
+     *
+     * @param key
+     */
+    private void add(K key) {
+        Node<K> node = new Node<>(key);
+        nodes.put(key, node);
+        window.addNodeAtLast(node);
+        sketch.increment(key);
+        while (window.size() > windowCapacity) {
+            move((Node<K>) window.getFirstNode(), Region.PROBATION);
+        }
+    }
+    
+    /**
+     * Applies an access to the <code>node</code>. Requires the lock.
+     *
+     * @param node
+     */
+    private void onAccess(Node<K> node) {
+        sketch.increment(node.getElement());
+        switch (node.region) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                move(node, Region.PROTECTED);
+                while (protectedSegment.size() > protectedCapacity) {
+                    move((Node<K>) protectedSegment.getFirstNode(), Region.PROBATION);
+                }
+                break;
+            default:
+                protectedSegment.moveToLast(node);
+                break;
+        }
+    }
+    
+    /**
+     * @return the key the main region gives up first: the least recently used on probation, if any.
+     */
+    private Node<K> mainVictim() {
+        Node<K> victim = (Node<K>) probation.getFirstNode();
+        return (victim != null ? victim : (Node<K>) protectedSegment.getFirstNode());
+    }
+    
+    /**
+     * Moves the <code>node</code> to the end of the list of the <code>region</code>.
+     *
+     * @param node
+     * @param region
+     */
+    private void move(Node<K> node, Region region) {
+        listOf(node.region).detachNode(node);
+        node.region = region;
+        listOf(region).addNodeAtLast(node);
+    }
+    
+    /**
+     * @param region
+     * @return
+     */
+    private DoublyLinkedList<K> listOf(Region region) {
+        switch (region) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedSegment;
+        }
+    }
+    
+    /**
+     * Applies the buffered accesses, skipping the nodes evicted since. Requires the lock.
+     */
+    private void drainReadBuffer() {
+        readBuffer.drainTo(node -> {
+            if (node.isLinked()) {
+                onAccess(node);
+            }
+        });
+    }
+    
+    /**
+     * The regions of the policy.
+     */
+    private enum Region {
+        WINDOW,
+        PROBATION,
+        PROTECTED
+    }
+    
+    /**
+     * A key and the region it is in.
+     *
+     * @param <K>
+     */
+    private static final class Node<K> extends DoublyLinkedListNode<K> {
+        
+        private Region region = Region.WINDOW;
+        
+        /**
+         * @param key
+         */
+        private Node(K key) {
+            super(key);
+        }
+    }
+}
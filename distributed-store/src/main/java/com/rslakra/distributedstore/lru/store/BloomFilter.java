@@ -0,0 +1,122 @@
+package com.rslakra.distributedstore.lru.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The bloom filter of the keys of one {@link SSTable}: a lookup of a key that is not in the table is answered
+ * without touching its data in about 99% of the cases (10 bits and 7 hashes per key).
+ * <p>
+ * The probes are derived from one 64-bit hash of the key bytes by double hashing.
+ */
+final class BloomFilter {
+    
+    static final int BITS_PER_KEY = 10;
+    static final int HASHES = 7;
+    
+    private final long[] bits;
+    
+    /**
+     * @param keyCount the number of keys the filter is sized for.
+     */
+    BloomFilter(int keyCount) {
+        this(new long[Math.max(1, (int) (((long) keyCount * BITS_PER_KEY + 63) / 64))]);
+    }
+    
+    /**
+     * @param bits
+     */
+    private BloomFilter(long[] bits) {
+        this.bits = bits;
+    }
+    
+    /**
+     * @param key
+     */
+    void add(byte[] key) {
+        add(hash(key));
+    }
+    
+    /**
+     * Adds the key with the <code>hash</code> returned by {@link #hash(byte[])}.
+     *
+     * @param hash
+     */
+    void add(long hash) {
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Integer.toUnsignedLong(hash1 + i * hash2) % bitCount;
+            bits[(int) (bit >>> 6)] |= (1L << bit);
+        }
+    }
+    
+    /**
+     * @param key
+     * @return false if the <code>key</code> was certainly never added.
+     */
+    boolean mightContain(byte[] key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        long bitCount = (long) bits.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Integer.toUnsignedLong(hash1 + i * hash2) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return the number of bytes {@link #writeTo(ByteBuffer)} writes.
+     */
+    int serializedSize() {
+        return Integer.BYTES + bits.length * Long.BYTES;
+    }
+    
+    /**
+     * @param buffer
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(bits.length);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+    }
+    
+    /**
+     * Reads a filter written by {@link #writeTo(ByteBuffer)} at the position of the <code>buffer</code>.
+     *
+     * @param buffer
+     * @return
+     */
+    static BloomFilter readFrom(ByteBuffer buffer) {
+        long[] bits = new long[buffer.getInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        
+        return new BloomFilter(bits);
+    }
+    
+    /**
+     * FNV-1a over the bytes, finished with the murmur3 mix so that both halves are well distributed.
+     *
+     * @param key
+     * @return
+     */
+    static long hash(byte[] key) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        hash ^= (hash >>> 33);
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= (hash >>> 33);
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
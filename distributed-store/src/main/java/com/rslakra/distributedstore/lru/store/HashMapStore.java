@@ -3,59 +3,133 @@ package com.rslakra.distributedstore.lru.store;
 import com.rslakra.distributedstore.lru.KeyNotFoundException;
 import com.rslakra.distributedstore.lru.StorageFullException;
 import com.rslakra.distributedstore.lru.Store;
+import com.rslakra.distributedstore.lru.Weigher;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * An in-memory store bounded by the total weight of its entries. Each entry is weighed by a {@link Weigher} when it
+ * is written, and a write that would take the total over <code>maxWeight</code> fails with a
+ * {@link StorageFullException}, so that the cache evicts until it fits. Overwriting a key only needs room for the
+ * difference between the new and the old weight. By default every entry weighs 1 and the budget is a number of
+ * entries; with a {@link HeapWeigher} it is an estimate of heap bytes.
+ *
+ * @param <K>
+ * @param <V>
+ */
 public class HashMapStore<K, V> implements Store<K, V> {
 
-    private Map<K, V> dataStore;
-    private final int capacity;
+    private final Map<K, Weighted<V>> dataStore;
+    private final long maxWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final AtomicLong totalWeight = new AtomicLong();
 
     /**
-     * @param capacity
+     * @param maxWeight the total weight of the entries the store can hold.
+     * @param weigher
      */
-    public HashMapStore(int capacity) {
+    public HashMapStore(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Invalid max weight " + maxWeight + "!");
+        }
+
         this.dataStore = new ConcurrentHashMap<>();
-        this.capacity = capacity;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * @param capacity the number of entries the store can hold.
+     */
+    public HashMapStore(int capacity) {
+        this(capacity, Weigher.singleton());
     }
 
     @Override
     public void set(K key, V value) {
-        if (this.isStorageFull()) {
-            throw new StorageFullException("Capacity is full!");
+        int weight = weigher.weigh(key, value);
+        if (weight < 0 || weight > maxWeight) {
+            throw new IllegalArgumentException("Invalid weight " + weight + " for max weight " + maxWeight + "!");
         }
-        this.dataStore.put(key, value);
+
+        // The weight is reserved under the lock of the key, so that racing writes of one key count once.
+        this.dataStore.compute(key, (writeKey, previous) -> {
+            if (!reserve(weight - (previous == null ? 0 : previous.weight))) {
+                throw new StorageFullException("Capacity is full!");
+            }
+            return new Weighted<>(value, weight);
+        });
     }
 
-    /**
-     * Checks if the key exists or not and throws an error if not exists.
-     *
-     * @param key
-     */
-    private void checkKeyExists(K key) {
-        if (!isKeyExist(key)) {
+    @Override
+    public V get(K key) {
+        Weighted<V> weighted = this.dataStore.get(key);
+        if (weighted == null) {
             throw new KeyNotFoundException("No Key Found!");
         }
+        return weighted.value;
     }
 
     @Override
-    public V get(K key) {
-        checkKeyExists(key);
-        return this.dataStore.get(key);
+    public void delete(K key) {
+        Weighted<V> removed = this.dataStore.remove(key);
+        if (removed == null) {
+            throw new KeyNotFoundException("No Key Found!");
+        }
+        totalWeight.addAndGet(-removed.weight);
     }
 
     @Override
-    public void delete(K key) {
-        checkKeyExists(key);
-        this.dataStore.remove(key);
+    public long size() {
+        return this.dataStore.size();
     }
 
-    private boolean isStorageFull() {
-        return this.dataStore.size() >= this.capacity;
+    @Override
+    public long weightedSize() {
+        return totalWeight.get();
+    }
+
+    /**
+     * @return
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Adds the <code>delta</code> to the total weight, unless it would exceed the max weight. A negative delta
+     * always fits.
+     *
+     * @param delta
+     * @return true if the weight was reserved.
+     */
+    private boolean reserve(long delta) {
+        while (true) {
+            long current = totalWeight.get();
+            if (delta > 0 && current + delta > maxWeight) {
+                return false;
+            }
+            if (totalWeight.compareAndSet(current, current + delta)) {
+                return true;
+            }
+        }
     }
 
-    private boolean isKeyExist(K key) {
-        return this.dataStore.containsKey(key);
+    /**
+     * A value and the weight it was written with.
+     *
+     * @param <V>
+     */
+    private static final class Weighted<V> {
+
+        private final V value;
+        private final int weight;
+
+        private Weighted(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
     }
 }
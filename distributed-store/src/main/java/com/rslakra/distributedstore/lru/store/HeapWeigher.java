@@ -0,0 +1,55 @@
+package com.rslakra.distributedstore.lru.store;
+
+import com.rslakra.distributedstore.lru.Weigher;
+
+/**
+ * Estimates the heap bytes retained by an entry of a {@link HashMapStore}, for a 64-bit JVM with compressed
+ * references: the map node, plus the key and the value. Strings, byte arrays and boxed primitives are sized from
+ * their length or type; any other object counts as a bare object header, so a store of richer values should be
+ * given a weigher that knows their layout.
+ */
+public class HeapWeigher implements Weigher<Object, Object> {
+    
+    /**
+     * A node of the map and the holder of the value and its weight.
+     */
+    private static final int ENTRY_OVERHEAD = 32 + 24;
+    private static final int OBJECT_HEADER = 16;
+    
+    @Override
+    public int weigh(Object key, Object value) {
+        long weight = ENTRY_OVERHEAD + sizeOf(key) + sizeOf(value);
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @param object
+     * @return the estimated heap bytes of the <code>object</code>, aligned on 8 bytes.
+     */
+    private static long sizeOf(Object object) {
+        if (object instanceof String string) {
+            // The String object, then its byte array (Latin-1 when compact strings apply, else UTF-16).
+            return 24 + align(16L + (long) string.length() * (isLatin1(string) ? 1 : 2));
+        } else if (object instanceof byte[] bytes) {
+            return align(16L + bytes.length);
+        } else if (object instanceof Long || object instanceof Double) {
+            return 24;
+        } else if (object == null) {
+            return 0;
+        }
+        return OBJECT_HEADER;
+    }
+    
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,756 @@
+package com.rslakra.distributedstore.lru.store;
+
+import com.rslakra.distributedstore.ds.ValueCodec;
+import com.rslakra.distributedstore.lru.KeyNotFoundException;
+import com.rslakra.distributedstore.lru.StorageFullException;
+import com.rslakra.distributedstore.lru.Store;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A disk-backed {@link Store} organized as a log-structured merge tree, for data sets larger than the memory.
+ * <p>
+ * Writes go to a sorted in-memory memtable. Once it holds <code>memtableBytes</code> it becomes immutable and a
+ * background thread writes it to a new {@link SSTable} in level 0, while a fresh memtable takes the writes. A
+ * second background thread compacts the tables level by level: the level 0 tables (which may overlap) are merged
+ * into level 1 once there are {@value #L0_COMPACTION_TRIGGER} of them, and a deeper level that grows beyond ten
+ * times the previous one has one table at a time merged into the next level. Every level below 0 is a sorted
+ * run of non-overlapping tables of about <code>tableBytes</code> each, so a point read probes the memtables, the
+ * few level 0 tables and at most one table per deeper level, and the bloom filters skip the tables that do not
+ * hold the key; a read that hits a table reads a few records of its memory-mapped file. Deleted keys are
+ * written as tombstones, which are dropped when they reach the deepest level.
+ * <p>
+ * Reads take no lock: they use an immutable view of the memtables and tables that every flush and compaction
+ * replaces. Writes are serialized on one lock, as the {@link StorageFullException} of the <code>capacity</code>
+ * needs to know whether the key is new, and wait when the memtable is full while the previous one is still being
+ * written. A <code>MANIFEST</code> file lists the tables of each level and is replaced atomically after every
+ * flush and compaction; reopening the directory restores the tables it lists and deletes the others. The
+ * memtable is only written on a flush or {@link #close()}, so a crash loses the writes since the last flush.
+ * <p>
+ * Keys are ordered by their encoded bytes, compared as unsigned.
+ *
+ * @param <K>
+ * @param <V>
+ */
+@Slf4j
+public class LsmStore<K, V> implements Store<K, V>, Closeable {
+    
+    public static final long DEFAULT_MEMTABLE_BYTES = 4L << 20;
+    public static final long DEFAULT_TABLE_BYTES = 64L << 20;
+    
+    static final int L0_COMPACTION_TRIGGER = 4;
+    static final int LEVEL_SIZE_MULTIPLIER = 10;
+    
+    private static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+    private static final Comparator<SSTable> BY_MIN_KEY = Comparator.comparing(SSTable::getMinKey, KEY_ORDER);
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final String MANIFEST = "MANIFEST";
+    private static final String TABLE_SUFFIX = ".sst";
+    
+    private final Path directory;
+    private final ValueCodec<K> keyCodec;
+    private final ValueCodec<V> valueCodec;
+    private final long capacity;
+    private final long memtableBytes;
+    private final long tableBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final ReentrantLock manifestLock = new ReentrantLock();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ExecutorService flusher;
+    private final ExecutorService compactor;
+    // The key after which each level picks its next table to compact; only used by the compactor thread.
+    private final List<byte[]> compactPointers = new ArrayList<>();
+    private volatile State state;
+    private volatile boolean closed;
+    private volatile RuntimeException failure;
+    private long memtableSize;
+    private long liveCount;
+    
+    /**
+     * Opens the store in the <code>directory</code>, restoring the tables a previous store left in it.
+     *
+     * @param directory
+     * @param keyCodec
+     * @param valueCodec
+     * @param capacity      the number of live keys after which a new key is rejected.
+     * @param memtableBytes the approximate size at which a memtable is written to disk.
+     * @param tableBytes    the size of the tables written by compactions.
+     */
+    public LsmStore(Path directory, ValueCodec<K> keyCodec, ValueCodec<V> valueCodec, long capacity,
+                    long memtableBytes, long tableBytes) {
+        if (capacity <= 0 || memtableBytes <= 0 || tableBytes <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + ", memtable size " + memtableBytes
+                                               + " or table size " + tableBytes + "!");
+        }
+        
+        this.directory = directory;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.capacity = capacity;
+        this.memtableBytes = memtableBytes;
+        this.tableBytes = tableBytes;
+        List<List<SSTable>> levels = recover();
+        this.state = new State(newMemtable(), null, levels);
+        this.liveCount = countLiveKeys(levels);
+        this.flusher = Executors.newSingleThreadExecutor(runnable -> newDaemon(runnable, "kv-lsm-flusher"));
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> newDaemon(runnable, "kv-lsm-compactor"));
+        this.compactor.execute(this::compact);
+    }
+    
+    /**
+     * @param directory
+     * @param keyCodec
+     * @param valueCodec
+     * @param capacity
+     */
+    public LsmStore(Path directory, ValueCodec<K> keyCodec, ValueCodec<V> valueCodec, long capacity) {
+        this(directory, keyCodec, valueCodec, capacity, DEFAULT_MEMTABLE_BYTES, DEFAULT_TABLE_BYTES);
+    }
+    
+    @Override
+    public void set(K key, V value) {
+        byte[] keyBytes = keyCodec.encode(key);
+        byte[] valueBytes = valueCodec.encode(value);
+        lock.lock();
+        try {
+            checkOpen();
+            boolean added = (find(keyBytes) == null);
+            if (added && liveCount >= capacity) {
+                throw new StorageFullException("Capacity is full!");
+            }
+            
+            write(keyBytes, valueBytes);
+            if (added) {
+                liveCount++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public V get(K key) {
+        checkOpen();
+        byte[] value = find(keyCodec.encode(key));
+        if (value == null) {
+            throw new KeyNotFoundException("No Key Found!");
+        }
+        
+        return valueCodec.decode(value);
+    }
+    
+    @Override
+    public void delete(K key) {
+        byte[] keyBytes = keyCodec.encode(key);
+        lock.lock();
+        try {
+            checkOpen();
+            if (find(keyBytes) == null) {
+                throw new KeyNotFoundException("No Key Found!");
+            }
+            
+            write(keyBytes, SSTable.TOMBSTONE);
+            liveCount--;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of live keys.
+     *
+     * @return
+     */
+    @Override
+    public long size() {
+        lock.lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Writes the memtable to disk and stops the background threads, waiting for a running compaction.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            
+            closed = true;
+            if (!state.memtable.isEmpty() && failure == null) {
+                rotate();
+            }
+            while (state.flushing != null && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        // The flusher schedules compactions, so it stops first.
+        shutdown(flusher);
+        shutdown(compactor);
+    }
+    
+    /**
+     * Returns the number of tables in each level.
+     *
+     * @return
+     */
+    List<Integer> getTableCounts() {
+        List<Integer> tableCounts = new ArrayList<>();
+        for (List<SSTable> level : state.levels) {
+            tableCounts.add(level.size());
+        }
+        
+        return tableCounts;
+    }
+    
+    /**
+     * Returns the value of the <code>key</code>, or null if it is missing or deleted.
+     *
+     * @param key
+     * @return
+     */
+    private byte[] find(byte[] key) {
+        State current = state;
+        byte[] value = current.memtable.get(key);
+        if (value == null && current.flushing != null) {
+            value = current.flushing.get(key);
+        }
+        if (value == null) {
+            value = findInTables(current.levels, key);
+        }
+        
+        return (value == SSTable.TOMBSTONE ? null : value);
+    }
+    
+    /**
+     * @param levels
+     * @param key
+     * @return the newest value or tombstone of the <code>key</code> in the tables, or null.
+     */
+    private static byte[] findInTables(List<List<SSTable>> levels, byte[] key) {
+        for (SSTable table : levels.get(0)) {
+            byte[] value = table.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        
+        for (int level = 1; level < levels.size(); level++) {
+            // The first table of the sorted run whose last key is not below the key.
+            List<SSTable> tables = levels.get(level);
+            int low = 0;
+            int high = tables.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (KEY_ORDER.compare(tables.get(middle).getMaxKey(), key) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low < tables.size()) {
+                byte[] value = tables.get(low).get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Adds the record to the memtable, first handing the memtable to the flusher if it is full. Requires the lock.
+     *
+     * @param key
+     * @param value
+     */
+    private void write(byte[] key, byte[] value) {
+        if (memtableSize >= memtableBytes) {
+            rotate();
+        }
+        
+        state.memtable.put(key, value);
+        memtableSize += key.length + value.length + ENTRY_OVERHEAD;
+    }
+    
+    /**
+     * Makes the memtable immutable and schedules its flush, waiting for the previous flush first. Requires the
+     * lock.
+     */
+    private void rotate() {
+        while (state.flushing != null) {
+            checkFailure();
+            flushed.awaitUninterruptibly();
+        }
+        checkFailure();
+        
+        State current = state;
+        state = new State(newMemtable(), current.memtable, current.levels);
+        memtableSize = 0;
+        flusher.execute(this::flush);
+    }
+    
+    /**
+     * Writes the immutable memtable to a new level 0 table.
+     */
+    private void flush() {
+        try {
+            SSTable table = writeTable(state.flushing.entrySet().iterator());
+            lock.lock();
+            try {
+                State current = state;
+                List<List<SSTable>> levels = copyLevels(current.levels);
+                levels.get(0).add(0, table);
+                state = new State(current.memtable, null, levels);
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            
+            writeManifest();
+            compactor.execute(this::compact);
+        } catch (RuntimeException ex) {
+            log.error("Flush to {} failed!", directory, ex);
+            lock.lock();
+            try {
+                failure = ex;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Runs compactions until every level is within its target size. A failed compaction leaves the tables as
+     * they were and is retried after the next flush.
+     */
+    private void compact() {
+        try {
+            Compaction compaction;
+            while (!closed && (compaction = pickCompaction()) != null) {
+                runCompaction(compaction);
+            }
+        } catch (RuntimeException ex) {
+            log.error("Compaction in {} failed!", directory, ex);
+        }
+    }
+    
+    /**
+     * @return the next compaction to run, or null if none is needed.
+     */
+    private Compaction pickCompaction() {
+        List<List<SSTable>> levels = state.levels;
+        if (levels.get(0).size() >= L0_COMPACTION_TRIGGER) {
+            List<SSTable> inputs = levels.get(0);
+            byte[] minKey = inputs.get(0).getMinKey();
+            byte[] maxKey = inputs.get(0).getMaxKey();
+            for (SSTable input : inputs) {
+                minKey = (KEY_ORDER.compare(input.getMinKey(), minKey) < 0 ? input.getMinKey() : minKey);
+                maxKey = (KEY_ORDER.compare(input.getMaxKey(), maxKey) > 0 ? input.getMaxKey() : maxKey);
+            }
+            
+            return new Compaction(0, inputs, overlapping(levels, 1, minKey, maxKey), isDeepest(levels, 1));
+        }
+        
+        long targetBytes = tableBytes;
+        for (int level = 1; level < levels.size(); level++) {
+            targetBytes *= LEVEL_SIZE_MULTIPLIER;
+            long levelBytes = 0;
+            for (SSTable table : levels.get(level)) {
+                levelBytes += table.getSize();
+            }
+            if (levelBytes > targetBytes) {
+                // Round-robin over the key space, so that every part of the level gets compacted in turn.
+                while (compactPointers.size() <= level) {
+                    compactPointers.add(null);
+                }
+                byte[] pointer = compactPointers.get(level);
+                SSTable input = levels.get(level).get(0);
+                for (SSTable table : levels.get(level)) {
+                    if (pointer != null && KEY_ORDER.compare(table.getMinKey(), pointer) > 0) {
+                        input = table;
+                        break;
+                    }
+                }
+                compactPointers.set(level, input.getMaxKey());
+                
+                return new Compaction(level, List.of(input),
+                                      overlapping(levels, level + 1, input.getMinKey(), input.getMaxKey()),
+                                      isDeepest(levels, level + 1));
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Merges the inputs of the <code>compaction</code> into new tables of the next level and installs them.
+     *
+     * @param compaction
+     */
+    private void runCompaction(Compaction compaction) {
+        List<Iterator<Map.Entry<byte[], byte[]>>> runs = new ArrayList<>();
+        compaction.inputs.forEach(table -> runs.add(table.iterator()));
+        compaction.overlapping.forEach(table -> runs.add(table.iterator()));
+        MergingIterator merged = new MergingIterator(runs);
+        List<SSTable> outputs = new ArrayList<>();
+        SSTable.Writer writer = null;
+        try {
+            while (merged.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = merged.next();
+                if (compaction.deepest && entry.getValue() == SSTable.TOMBSTONE) {
+                    continue;
+                }
+                
+                if (writer == null) {
+                    writer = newWriter();
+                }
+                writer.add(entry.getKey(), entry.getValue());
+                if (writer.getSize() >= tableBytes) {
+                    outputs.add(writer.finish());
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                outputs.add(writer.finish());
+                writer = null;
+            }
+        } catch (RuntimeException ex) {
+            if (writer != null) {
+                writer.abort();
+            }
+            outputs.forEach(SSTable::delete);
+            throw ex;
+        }
+        
+        lock.lock();
+        try {
+            State current = state;
+            List<List<SSTable>> levels = copyLevels(current.levels);
+            levels.get(compaction.level).removeAll(compaction.inputs);
+            while (levels.size() <= compaction.level + 1) {
+                levels.add(new ArrayList<>());
+            }
+            List<SSTable> nextLevel = levels.get(compaction.level + 1);
+            nextLevel.removeAll(compaction.overlapping);
+            nextLevel.addAll(outputs);
+            nextLevel.sort(BY_MIN_KEY);
+            state = new State(current.memtable, current.flushing, levels);
+        } finally {
+            lock.unlock();
+        }
+        
+        writeManifest();
+        compaction.inputs.forEach(SSTable::delete);
+        compaction.overlapping.forEach(SSTable::delete);
+        log.debug("Compacted {} tables of level {} and {} of level {} into {} tables", compaction.inputs.size(),
+                  compaction.level, compaction.overlapping.size(), compaction.level + 1, outputs.size());
+    }
+    
+    /**
+     * @param entries
+     * @return a new table holding the <code>entries</code>, which are sorted by key.
+     */
+    private SSTable writeTable(Iterator<Map.Entry<byte[], byte[]>> entries) {
+        SSTable.Writer writer = newWriter();
+        try {
+            while (entries.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = entries.next();
+                writer.add(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException ex) {
+            writer.abort();
+            throw ex;
+        }
+        
+        return writer.finish();
+    }
+    
+    /**
+     * @return
+     */
+    private SSTable.Writer newWriter() {
+        long id = nextId.getAndIncrement();
+        return new SSTable.Writer(id, tablePath(id));
+    }
+    
+    /**
+     * Replaces the manifest with the tables of the current view. Concurrent callers are serialized and each
+     * writes the view current at that time, so the last write always lists the latest tables.
+     */
+    private void writeManifest() {
+        manifestLock.lock();
+        try {
+            StringBuilder manifest = new StringBuilder("next ").append(nextId.get()).append('\n');
+            List<List<SSTable>> levels = state.levels;
+            for (int level = 0; level < levels.size(); level++) {
+                for (SSTable table : levels.get(level)) {
+                    manifest.append(level).append(' ').append(table.getId()).append('\n');
+                }
+            }
+            
+            Path tempFile = directory.resolve(MANIFEST + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(StandardCharsets.UTF_8.encode(manifest.toString()));
+                channel.force(true);
+            }
+            Files.move(tempFile, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            manifestLock.unlock();
+        }
+    }
+    
+    /**
+     * Opens the tables listed in the manifest and deletes the ones a crash left unlisted.
+     *
+     * @return the levels, newest table first in level 0 and by key in the others.
+     */
+    private List<List<SSTable>> recover() {
+        List<List<SSTable>> levels = new ArrayList<>();
+        levels.add(new ArrayList<>());
+        Set<Path> listed = new HashSet<>();
+        try {
+            Files.createDirectories(directory);
+            Path manifest = directory.resolve(MANIFEST);
+            if (Files.exists(manifest)) {
+                for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split(" ");
+                    if ("next".equals(fields[0])) {
+                        nextId.set(Long.parseLong(fields[1]));
+                        continue;
+                    }
+                    
+                    int level = Integer.parseInt(fields[0]);
+                    long id = Long.parseLong(fields[1]);
+                    while (levels.size() <= level) {
+                        levels.add(new ArrayList<>());
+                    }
+                    levels.get(level).add(SSTable.open(id, tablePath(id)));
+                    listed.add(tablePath(id));
+                }
+            }
+            
+            try (DirectoryStream<Path> tables = Files.newDirectoryStream(directory, "*" + TABLE_SUFFIX)) {
+                for (Path table : tables) {
+                    if (!listed.contains(table)) {
+                        log.warn("Deleting the unlisted table {}", table);
+                        Files.delete(table);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        
+        return levels;
+    }
+    
+    /**
+     * @param levels
+     * @return the number of keys of the tables that are not deleted.
+     */
+    private static long countLiveKeys(List<List<SSTable>> levels) {
+        List<Iterator<Map.Entry<byte[], byte[]>>> runs = new ArrayList<>();
+        levels.forEach(level -> level.forEach(table -> runs.add(table.iterator())));
+        MergingIterator merged = new MergingIterator(runs);
+        long liveKeys = 0;
+        while (merged.hasNext()) {
+            if (merged.next().getValue() != SSTable.TOMBSTONE) {
+                liveKeys++;
+            }
+        }
+        
+        return liveKeys;
+    }
+    
+    /**
+     * @param levels
+     * @param level
+     * @param minKey
+     * @param maxKey
+     * @return the tables of the <code>level</code> that may hold keys between the bounds.
+     */
+    private static List<SSTable> overlapping(List<List<SSTable>> levels, int level, byte[] minKey, byte[] maxKey) {
+        List<SSTable> overlapping = new ArrayList<>();
+        if (level < levels.size()) {
+            for (SSTable table : levels.get(level)) {
+                if (table.overlaps(minKey, maxKey)) {
+                    overlapping.add(table);
+                }
+            }
+        }
+        
+        return overlapping;
+    }
+    
+    /**
+     * @param levels
+     * @param level
+     * @return true if no level below the <code>level</code> holds tables.
+     */
+    private static boolean isDeepest(List<List<SSTable>> levels, int level) {
+        for (int deeper = level + 1; deeper < levels.size(); deeper++) {
+            if (!levels.get(deeper).isEmpty()) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @param levels
+     * @return a mutable copy of the <code>levels</code>.
+     */
+    private static List<List<SSTable>> copyLevels(List<List<SSTable>> levels) {
+        List<List<SSTable>> copy = new ArrayList<>(levels.size());
+        levels.forEach(level -> copy.add(new ArrayList<>(level)));
+        return copy;
+    }
+    
+    /**
+     * @return
+     */
+    private static ConcurrentSkipListMap<byte[], byte[]> newMemtable() {
+        return new ConcurrentSkipListMap<>(KEY_ORDER);
+    }
+    
+    /**
+     * @param runnable
+     * @param name
+     * @return
+     */
+    private static Thread newDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+    
+    /**
+     * @param executor
+     */
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * @param id
+     * @return
+     */
+    private Path tablePath(long id) {
+        return directory.resolve(String.format("%08d%s", id, TABLE_SUFFIX));
+    }
+    
+    /**
+     * Throws if the store was closed or can no longer write its memtables.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Store is closed!");
+        }
+        checkFailure();
+    }
+    
+    /**
+     * Throws if a flush failed.
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Store failed to flush its memtable!", failure);
+        }
+    }
+    
+    /**
+     * The memtables and tables visible to the reads; replaced, never changed, by writes, flushes and compactions
+     * (except for the records added to the mutable memtable).
+     */
+    private static final class State {
+        
+        private final ConcurrentSkipListMap<byte[], byte[]> memtable;
+        private final ConcurrentSkipListMap<byte[], byte[]> flushing;
+        private final List<List<SSTable>> levels;
+        
+        /**
+         * @param memtable
+         * @param flushing the immutable memtable being written, or null.
+         * @param levels
+         */
+        private State(ConcurrentSkipListMap<byte[], byte[]> memtable, ConcurrentSkipListMap<byte[], byte[]> flushing,
+                      List<List<SSTable>> levels) {
+            this.memtable = memtable;
+            this.flushing = flushing;
+            this.levels = levels;
+        }
+    }
+    
+    /**
+     * One planned compaction: the <code>inputs</code> of the <code>level</code> are merged with the
+     * <code>overlapping</code> tables of the next level.
+     */
+    private static final class Compaction {
+        
+        private final int level;
+        private final List<SSTable> inputs;
+        private final List<SSTable> overlapping;
+        private final boolean deepest;
+        
+        /**
+         * @param level
+         * @param inputs      the newest first.
+         * @param overlapping
+         * @param deepest     true if the output is the deepest level, where tombstones are dropped.
+         */
+        private Compaction(int level, List<SSTable> inputs, List<SSTable> overlapping, boolean deepest) {
+            this.level = level;
+            this.inputs = inputs;
+            this.overlapping = overlapping;
+            this.deepest = deepest;
+        }
+    }
+}
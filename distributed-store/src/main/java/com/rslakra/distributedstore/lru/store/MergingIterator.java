@@ -0,0 +1,90 @@
+package com.rslakra.distributedstore.lru.store;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted runs of records into one sorted run holding each key once, with the value of the first run (in
+ * the given order) that holds it: the runs are passed newest first, so a newer value or tombstone shadows the
+ * older ones.
+ */
+final class MergingIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+    
+    private final PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+    
+    /**
+     * @param runs the sorted runs, newest first.
+     */
+    MergingIterator(List<Iterator<Map.Entry<byte[], byte[]>>> runs) {
+        for (int i = 0; i < runs.size(); i++) {
+            Cursor cursor = new Cursor(i, runs.get(i));
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+    }
+    
+    @Override
+    public boolean hasNext() {
+        return !cursors.isEmpty();
+    }
+    
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        Cursor newest = cursors.poll();
+        if (newest == null) {
+            throw new NoSuchElementException();
+        }
+        
+        Map.Entry<byte[], byte[]> entry = newest.current;
+        // Skip the older values of the same key.
+        while (!cursors.isEmpty() && Arrays.equals(cursors.peek().current.getKey(), entry.getKey())) {
+            Cursor older = cursors.poll();
+            if (older.advance()) {
+                cursors.add(older);
+            }
+        }
+        if (newest.advance()) {
+            cursors.add(newest);
+        }
+        
+        return entry;
+    }
+    
+    /**
+     * The position in one run.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+        
+        private final int rank;
+        private final Iterator<Map.Entry<byte[], byte[]>> run;
+        private Map.Entry<byte[], byte[]> current;
+        
+        /**
+         * @param rank
+         * @param run
+         */
+        private Cursor(int rank, Iterator<Map.Entry<byte[], byte[]>> run) {
+            this.rank = rank;
+            this.run = run;
+        }
+        
+        /**
+         * @return false if the run is exhausted.
+         */
+        private boolean advance() {
+            current = (run.hasNext() ? run.next() : null);
+            return current != null;
+        }
+        
+        @Override
+        public int compareTo(Cursor other) {
+            int compare = Arrays.compareUnsigned(current.getKey(), other.current.getKey());
+            return (compare != 0 ? compare : Integer.compare(rank, other.rank));
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package com.rslakra.distributedstore.lru.store;
+
+import com.rslakra.distributedstore.ds.ValueCodec;
+import com.rslakra.distributedstore.lru.KeyNotFoundException;
+import com.rslakra.distributedstore.lru.StorageFullException;
+import com.rslakra.distributedstore.lru.Store;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link Store} that keeps its entries serialized outside the Java heap, so that a cache of tens of gigabytes
+ * adds almost nothing for the garbage collector to trace or copy.
+ * <p>
+ * The memory is allocated as direct buffers of up to 1 GB (the arenas), carved into pages of
+ * {@value #PAGE_SIZE} bytes. Each page is handed to one size class and split into chunks of that size, the
+ * classes growing by about 25% from {@value #MIN_CHUNK_SIZE} bytes to a whole page. An entry (the lengths of its
+ * key and value, its key and its value) is written to a chunk of the smallest class that fits it; a deleted
+ * entry's chunk goes to the free list of its class (doubly linked through the free chunks themselves) and is reused
+ * by the next entry of that class. Each page counts the chunks in use on it: once the last one is freed, its chunks
+ * are unlinked from the free list and the page goes back to a pool shared by all the classes. So a workload whose
+ * entry sizes drift over time gets the pages of the old classes back as the cache evicts their entries.
+ * <p>
+ * The keys are indexed by an open-addressing hash table with linear probing, sized for <code>capacity</code> keys
+ * up front and held in two primitive arrays (the address of each entry and the hash of its key), which the
+ * garbage collector does not need to scan. Deletes shift the following entries back instead of leaving
+ * tombstones. Reads share a lock, and writes take it exclusively.
+ * <p>
+ * Every read decodes a fresh copy of the value. Entries larger than a page are rejected. The memory is returned to
+ * the system once the store is {@link #close() closed} and its buffers are collected.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class OffHeapStore<K, V> implements Store<K, V>, Closeable {
+    
+    static final int PAGE_SIZE = 1 << 20;
+    static final int MIN_CHUNK_SIZE = 64;
+    
+    private static final int ARENA_SHIFT = 30;
+    private static final int ARENA_SIZE = 1 << ARENA_SHIFT;
+    private static final int HEADER_SIZE = 8;
+    private static final long NONE = -1;
+    private static final int[] CHUNK_SIZES = chunkSizes();
+    
+    private final ValueCodec<K> keyCodec;
+    private final ValueCodec<V> valueCodec;
+    private final int capacity;
+    private final long maxPages;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private final long[] addresses;
+    private final int[] hashes;
+    private final int mask;
+    private int size;
+    
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private long pageCount;
+    private int[] pageChunks = new int[16];
+    private int[] freePages = new int[16];
+    private int freePageCount;
+    private final long[] freeChunks = new long[CHUNK_SIZES.length];
+    private final long[] carveAddresses = new long[CHUNK_SIZES.length];
+    private final long[] carveEnds = new long[CHUNK_SIZES.length];
+    private long usedBytes;
+    private boolean closed;
+    
+    /**
+     * @param keyCodec
+     * @param valueCodec
+     * @param capacity   the number of keys the store can hold.
+     * @param maxBytes   the off-heap memory the store can allocate, rounded down to whole pages.
+     */
+    public OffHeapStore(ValueCodec<K> keyCodec, ValueCodec<V> valueCodec, int capacity, long maxBytes) {
+        if (capacity <= 0 || capacity > (1 << 29) || maxBytes < PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or max bytes " + maxBytes + "!");
+        }
+        
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.capacity = capacity;
+        this.maxPages = maxBytes / PAGE_SIZE;
+        
+        // A load factor of at most 0.75 keeps the probe sequences short.
+        int tableSize = Integer.highestOneBit(capacity + capacity / 3) << 1;
+        this.addresses = new long[tableSize];
+        this.hashes = new int[tableSize];
+        this.mask = tableSize - 1;
+        Arrays.fill(addresses, NONE);
+        Arrays.fill(freeChunks, NONE);
+        Arrays.fill(carveAddresses, NONE);
+    }
+    
+    @Override
+    public void set(K key, V value) {
+        byte[] keyBytes = keyCodec.encode(key);
+        byte[] valueBytes = valueCodec.encode(value);
+        int entrySize = HEADER_SIZE + keyBytes.length + valueBytes.length;
+        if (entrySize > PAGE_SIZE) {
+            throw new IllegalArgumentException("Entry of " + entrySize + " bytes is larger than a page!");
+        }
+        
+        int hash = hash(keyBytes);
+        int sizeClass = sizeClassOf(entrySize);
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            int slot = find(keyBytes, hash);
+            if (slot >= 0) {
+                long previous = addresses[slot];
+                int previousClass = sizeClassOf(entrySize(previous));
+                if (previousClass == sizeClass) {
+                    write(previous, keyBytes, valueBytes);
+                } else {
+                    // The new chunk is allocated first, so that a full store keeps the previous value.
+                    long address = allocate(sizeClass);
+                    write(address, keyBytes, valueBytes);
+                    free(previous, previousClass);
+                    addresses[slot] = address;
+                }
+                return;
+            }
+            
+            if (size >= capacity) {
+                throw new StorageFullException("Capacity is full!");
+            }
+            long address = allocate(sizeClass);
+            write(address, keyBytes, valueBytes);
+            slot = ~slot;
+            addresses[slot] = address;
+            hashes[slot] = hash;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public V get(K key) {
+        byte[] keyBytes = keyCodec.encode(key);
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                throw new KeyNotFoundException("No Key Found!");
+            }
+            
+            long address = addresses[slot];
+            ByteBuffer arena = arenaOf(address);
+            int offset = offsetOf(address);
+            byte[] valueBytes = new byte[arena.getInt(offset + 4)];
+            arena.get(offset + HEADER_SIZE + keyBytes.length, valueBytes);
+            return valueCodec.decode(valueBytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public void delete(K key) {
+        byte[] keyBytes = keyCodec.encode(key);
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            int slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) {
+                throw new KeyNotFoundException("No Key Found!");
+            }
+            
+            long address = addresses[slot];
+            free(address, sizeClassOf(entrySize(address)));
+            removeSlot(slot);
+            size--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the bytes of the chunks holding entries, which includes the unused tail of each chunk.
+     *
+     * @return
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns the bytes of the pages handed to size classes, i.e. the pages holding at least one entry and the
+     * pages being carved.
+     *
+     * @return
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return (pageCount - freePageCount) * PAGE_SIZE;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Drops the off-heap memory; the store cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            arenas.clear();
+            freePageCount = 0;
+            size = 0;
+            Arrays.fill(addresses, NONE);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Looks the key up in the index.
+     *
+     * @param keyBytes
+     * @param hash
+     * @return the slot of the key, or the complement of the empty slot where it would be inserted.
+     */
+    private int find(byte[] keyBytes, int hash) {
+        int slot = hash & mask;
+        while (addresses[slot] != NONE) {
+            if (hashes[slot] == hash && keyEquals(addresses[slot], keyBytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+    
+    /**
+     * Empties the <code>slot</code>, shifting back the entries of the probe sequence after it that would no
+     * longer be reachable from their home slot.
+     *
+     * @param slot
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (addresses[next] == NONE) {
+                break;
+            }
+            
+            // An entry whose home slot lies cyclically in (hole, next] is still reachable.
+            int home = hashes[next] & mask;
+            boolean reachable = (hole <= next ? (hole < home && home <= next) : (hole < home || home <= next));
+            if (!reachable) {
+                addresses[hole] = addresses[next];
+                hashes[hole] = hashes[next];
+                hole = next;
+            }
+        }
+        addresses[hole] = NONE;
+    }
+    
+    private boolean keyEquals(long address, byte[] keyBytes) {
+        ByteBuffer arena = arenaOf(address);
+        int offset = offsetOf(address);
+        if (arena.getInt(offset) != keyBytes.length) {
+            return false;
+        }
+        
+        offset += HEADER_SIZE;
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (arena.get(offset + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void write(long address, byte[] keyBytes, byte[] valueBytes) {
+        ByteBuffer arena = arenaOf(address);
+        int offset = offsetOf(address);
+        arena.putInt(offset, keyBytes.length);
+        arena.putInt(offset + 4, valueBytes.length);
+        arena.put(offset + HEADER_SIZE, keyBytes);
+        arena.put(offset + HEADER_SIZE + keyBytes.length, valueBytes);
+    }
+    
+    private int entrySize(long address) {
+        ByteBuffer arena = arenaOf(address);
+        int offset = offsetOf(address);
+        return HEADER_SIZE + arena.getInt(offset) + arena.getInt(offset + 4);
+    }
+    
+    /**
+     * Takes a chunk of the <code>sizeClass</code> from its free list, else from the page it is carving, else from
+     * a new page.
+     *
+     * @param sizeClass
+     * @return the address of the chunk.
+     * @throws StorageFullException if all the pages are taken and the class has no free chunk.
+     */
+    private long allocate(int sizeClass) {
+        int chunkSize = CHUNK_SIZES[sizeClass];
+        long address = freeChunks[sizeClass];
+        if (address != NONE) {
+            unlinkFree(address, sizeClass);
+        } else {
+            if (carveAddresses[sizeClass] == NONE || carveAddresses[sizeClass] + chunkSize > carveEnds[sizeClass]) {
+                long page = newPage();
+                carveAddresses[sizeClass] = page;
+                carveEnds[sizeClass] = page + PAGE_SIZE;
+            }
+            address = carveAddresses[sizeClass];
+            carveAddresses[sizeClass] += chunkSize;
+        }
+        
+        pageChunks[pageOf(address)]++;
+        usedBytes += chunkSize;
+        return address;
+    }
+    
+    /**
+     * Returns the chunk at the <code>address</code> to the free list of its <code>sizeClass</code>, and its page to
+     * the pool once no chunk of the page is in use anymore.
+     *
+     * @param address
+     * @param sizeClass
+     */
+    private void free(long address, int sizeClass) {
+        long next = freeChunks[sizeClass];
+        ByteBuffer arena = arenaOf(address);
+        arena.putLong(offsetOf(address), next);
+        arena.putLong(offsetOf(address) + 8, NONE);
+        if (next != NONE) {
+            arenaOf(next).putLong(offsetOf(next) + 8, address);
+        }
+        freeChunks[sizeClass] = address;
+        usedBytes -= CHUNK_SIZES[sizeClass];
+        
+        int page = pageOf(address);
+        if (--pageChunks[page] == 0) {
+            releasePage(page, sizeClass);
+        }
+    }
+    
+    /**
+     * Removes the free chunk at the <code>address</code> from the free list of its <code>sizeClass</code>.
+     *
+     * @param address
+     * @param sizeClass
+     */
+    private void unlinkFree(long address, int sizeClass) {
+        ByteBuffer arena = arenaOf(address);
+        long next = arena.getLong(offsetOf(address));
+        long previous = arena.getLong(offsetOf(address) + 8);
+        if (previous == NONE) {
+            freeChunks[sizeClass] = next;
+        } else {
+            arenaOf(previous).putLong(offsetOf(previous), next);
+        }
+        if (next != NONE) {
+            arenaOf(next).putLong(offsetOf(next) + 8, previous);
+        }
+    }
+    
+    /**
+     * Takes the empty <code>page</code> back from its <code>sizeClass</code>: unlinks the chunks carved from it from
+     * the free list (all of them are free) and puts it in the pool of free pages.
+     *
+     * @param page
+     * @param sizeClass
+     */
+    private void releasePage(int page, int sizeClass) {
+        int chunkSize = CHUNK_SIZES[sizeClass];
+        long start = (long) page * PAGE_SIZE;
+        long end = start + PAGE_SIZE;
+        if (carveAddresses[sizeClass] != NONE && carveEnds[sizeClass] == end) {
+            // The page being carved: only the chunks before the carve address were handed out.
+            end = carveAddresses[sizeClass];
+            carveAddresses[sizeClass] = NONE;
+        }
+        for (long chunk = start; chunk + chunkSize <= end; chunk += chunkSize) {
+            unlinkFree(chunk, sizeClass);
+        }
+        
+        freePages[freePageCount++] = page;
+    }
+    
+    /**
+     * @return the address of a page from the pool, else of a new page, allocating a new arena when the last one is
+     * full.
+     * @throws StorageFullException if the store has allocated <code>maxBytes</code> already and no page is free.
+     */
+    private long newPage() {
+        int page;
+        if (freePageCount > 0) {
+            page = freePages[--freePageCount];
+        } else {
+            if (pageCount >= maxPages) {
+                throw new StorageFullException("Memory is full!");
+            }
+            
+            long address = pageCount * PAGE_SIZE;
+            if (address >>> ARENA_SHIFT == arenas.size()) {
+                long arenaSize = Math.min(ARENA_SIZE, (maxPages - pageCount) * PAGE_SIZE);
+                arenas.add(ByteBuffer.allocateDirect((int) arenaSize));
+            }
+            page = (int) pageCount++;
+            if (page == pageChunks.length) {
+                pageChunks = Arrays.copyOf(pageChunks, page * 2);
+                freePages = Arrays.copyOf(freePages, page * 2);
+            }
+        }
+        
+        return (long) page * PAGE_SIZE;
+    }
+    
+    private static int pageOf(long address) {
+        return (int) (address / PAGE_SIZE);
+    }
+    
+    private ByteBuffer arenaOf(long address) {
+        return arenas.get((int) (address >>> ARENA_SHIFT));
+    }
+    
+    private static int offsetOf(long address) {
+        return (int) (address & (ARENA_SIZE - 1));
+    }
+    
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Store is closed!");
+        }
+    }
+    
+    /**
+     * @param entrySize
+     * @return the smallest size class whose chunks hold <code>entrySize</code> bytes.
+     */
+    private static int sizeClassOf(int entrySize) {
+        int index = Arrays.binarySearch(CHUNK_SIZES, entrySize);
+        return (index >= 0 ? index : -index - 1);
+    }
+    
+    /**
+     * @return the chunk size of each class: about 25% apart and 8-byte aligned, up to a whole page.
+     */
+    private static int[] chunkSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = MIN_CHUNK_SIZE; size < PAGE_SIZE; size = ((size + size / 4) + 7) & ~7) {
+            sizes.add(size);
+        }
+        sizes.add(PAGE_SIZE);
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    /**
+     * Spreads the high bits of the hash into the low ones, which pick the home slot.
+     *
+     * @param keyBytes
+     * @return
+     */
+    private static int hash(byte[] keyBytes) {
+        int hash = Arrays.hashCode(keyBytes);
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,400 @@
+package com.rslakra.distributedstore.lru.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file of key-value records sorted by key, memory-mapped for reading.
+ * <p>
+ * The file is made of the records (<code>keyLength, key, valueLength, value</code>, with a value length of -1 for
+ * a tombstone), a sparse index holding every {@link #INDEX_INTERVAL}th key with its offset followed by the last
+ * key, the {@link BloomFilter} of all the keys and a fixed-size footer locating the index and the filter. Only
+ * the index and the filter are loaded on the heap; a point lookup checks the filter, binary searches the index and
+ * scans at most {@link #INDEX_INTERVAL} records of the mapping.
+ * <p>
+ * Tables are limited to 2 GB, the size of one mapping.
+ */
+final class SSTable {
+    
+    static final int INDEX_INTERVAL = 16;
+    
+    /**
+     * The value of a deleted key: it hides the older values of the key until a compaction drops it.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+    
+    private static final int MAGIC = 0x4C534D31;
+    private static final int FOOTER_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+    
+    private final long id;
+    private final Path path;
+    private final MappedByteBuffer data;
+    private final int dataEnd;
+    private final byte[][] indexKeys;
+    private final int[] indexOffsets;
+    private final byte[] maxKey;
+    private final BloomFilter bloomFilter;
+    private final int recordCount;
+    
+    /**
+     * @param id
+     * @param path
+     * @param data
+     * @param dataEnd
+     * @param indexKeys
+     * @param indexOffsets
+     * @param maxKey
+     * @param bloomFilter
+     * @param recordCount
+     */
+    private SSTable(long id, Path path, MappedByteBuffer data, int dataEnd, byte[][] indexKeys, int[] indexOffsets,
+                    byte[] maxKey, BloomFilter bloomFilter, int recordCount) {
+        this.id = id;
+        this.path = path;
+        this.data = data;
+        this.dataEnd = dataEnd;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.maxKey = maxKey;
+        this.bloomFilter = bloomFilter;
+        this.recordCount = recordCount;
+    }
+    
+    /**
+     * Maps the table written at the <code>path</code>.
+     *
+     * @param id
+     * @param path
+     * @return
+     */
+    static SSTable open(long id, Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Invalid table " + path + "!");
+            }
+            
+            // The mapping stays valid after the channel is closed (and after the file is deleted).
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int footer = (int) size - FOOTER_BYTES;
+            int indexOffset = (int) data.getLong(footer);
+            int bloomOffset = (int) data.getLong(footer + Long.BYTES);
+            int recordCount = data.getInt(footer + 2 * Long.BYTES);
+            if (data.getInt(footer + 2 * Long.BYTES + Integer.BYTES) != MAGIC) {
+                throw new IllegalStateException("Invalid table " + path + "!");
+            }
+            
+            ByteBuffer index = data.duplicate().position(indexOffset);
+            int indexSize = index.getInt();
+            byte[][] indexKeys = new byte[indexSize][];
+            int[] indexOffsets = new int[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                indexKeys[i] = new byte[index.getInt()];
+                index.get(indexKeys[i]);
+                indexOffsets[i] = index.getInt();
+            }
+            byte[] maxKey = new byte[index.getInt()];
+            index.get(maxKey);
+            BloomFilter bloomFilter = BloomFilter.readFrom(data.duplicate().position(bloomOffset));
+            return new SSTable(id, path, data, indexOffset, indexKeys, indexOffsets, maxKey, bloomFilter,
+                               recordCount);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Returns the value of the <code>key</code>, {@link #TOMBSTONE} if it was deleted, or null if the table does
+     * not hold it.
+     *
+     * @param key
+     * @return
+     */
+    byte[] get(byte[] key) {
+        if (recordCount == 0 || Arrays.compareUnsigned(key, indexKeys[0]) < 0
+            || Arrays.compareUnsigned(key, maxKey) > 0 || !bloomFilter.mightContain(key)) {
+            return null;
+        }
+        
+        int low = 0;
+        int high = indexKeys.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (Arrays.compareUnsigned(indexKeys[middle], key) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        
+        // Absolute reads only, so concurrent lookups can share the mapping.
+        int offset = indexOffsets[low];
+        int end = (low + 1 < indexOffsets.length ? indexOffsets[low + 1] : dataEnd);
+        while (offset < end) {
+            int keyLength = data.getInt(offset);
+            byte[] recordKey = new byte[keyLength];
+            data.get(offset + Integer.BYTES, recordKey);
+            offset += Integer.BYTES + keyLength;
+            int valueLength = data.getInt(offset);
+            offset += Integer.BYTES;
+            int compare = Arrays.compareUnsigned(recordKey, key);
+            if (compare == 0) {
+                if (valueLength < 0) {
+                    return TOMBSTONE;
+                }
+                
+                byte[] value = new byte[valueLength];
+                data.get(offset, value);
+                return value;
+            } else if (compare > 0) {
+                return null;
+            }
+            offset += Math.max(valueLength, 0);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns the records in key order, tombstones included.
+     *
+     * @return
+     */
+    Iterator<Map.Entry<byte[], byte[]>> iterator() {
+        ByteBuffer records = data.duplicate().position(0).limit(dataEnd);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasRemaining();
+            }
+            
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (!records.hasRemaining()) {
+                    throw new NoSuchElementException();
+                }
+                
+                byte[] key = new byte[records.getInt()];
+                records.get(key);
+                int valueLength = records.getInt();
+                byte[] value = TOMBSTONE;
+                if (valueLength >= 0) {
+                    value = new byte[valueLength];
+                    records.get(value);
+                }
+                
+                return Map.entry(key, value);
+            }
+        };
+    }
+    
+    /**
+     * @return the sequence number of the table; a newer table has a higher one.
+     */
+    long getId() {
+        return id;
+    }
+    
+    /**
+     * @return
+     */
+    Path getPath() {
+        return path;
+    }
+    
+    /**
+     * @return
+     */
+    byte[] getMinKey() {
+        return (recordCount == 0 ? maxKey : indexKeys[0]);
+    }
+    
+    /**
+     * @return
+     */
+    byte[] getMaxKey() {
+        return maxKey;
+    }
+    
+    /**
+     * @return the size of the file in bytes.
+     */
+    long getSize() {
+        return data.capacity();
+    }
+    
+    /**
+     * @param minKey
+     * @param maxKey
+     * @return true if the table may hold keys between the <code>minKey</code> and the <code>maxKey</code>.
+     */
+    boolean overlaps(byte[] minKey, byte[] maxKey) {
+        return Arrays.compareUnsigned(getMinKey(), maxKey) <= 0 && Arrays.compareUnsigned(minKey, this.maxKey) <= 0;
+    }
+    
+    /**
+     * Deletes the file; lookups still in flight keep reading the mapping.
+     */
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+    
+    /**
+     * Writes a table from records added in strictly ascending key order.
+     */
+    static final class Writer {
+        
+        private final long id;
+        private final Path path;
+        private final FileOutputStream file;
+        private final DataOutputStream output;
+        private final List<byte[]> indexKeys = new ArrayList<>();
+        private final List<Integer> indexOffsets = new ArrayList<>();
+        private long[] keyHashes = new long[64];
+        private byte[] lastKey;
+        private int recordCount;
+        private long size;
+        
+        /**
+         * @param id
+         * @param path
+         */
+        Writer(long id, Path path) {
+            this.id = id;
+            this.path = path;
+            try {
+                this.file = new FileOutputStream(path.toFile());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            this.output = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        }
+        
+        /**
+         * @param key
+         * @param value the value, or {@link #TOMBSTONE}.
+         */
+        void add(byte[] key, byte[] value) {
+            if (lastKey != null && Arrays.compareUnsigned(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("Keys must be added in ascending order!");
+            }
+            
+            long recordSize = 2 * Integer.BYTES + key.length + (value == TOMBSTONE ? 0 : value.length);
+            if (size + recordSize > Integer.MAX_VALUE / 2) {
+                throw new IllegalStateException("Table " + path + " is too large!");
+            }
+            
+            if (recordCount % INDEX_INTERVAL == 0) {
+                indexKeys.add(key);
+                indexOffsets.add((int) size);
+            }
+            if (recordCount == keyHashes.length) {
+                keyHashes = Arrays.copyOf(keyHashes, recordCount * 2);
+            }
+            keyHashes[recordCount++] = BloomFilter.hash(key);
+            lastKey = key;
+            try {
+                output.writeInt(key.length);
+                output.write(key);
+                if (value == TOMBSTONE) {
+                    output.writeInt(-1);
+                } else {
+                    output.writeInt(value.length);
+                    output.write(value);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            size += recordSize;
+        }
+        
+        /**
+         * @return the number of bytes of records written so far.
+         */
+        long getSize() {
+            return size;
+        }
+        
+        /**
+         * @return the number of records written so far.
+         */
+        int getRecordCount() {
+            return recordCount;
+        }
+        
+        /**
+         * Writes the index, the filter and the footer, syncs the file and maps it.
+         *
+         * @return
+         */
+        SSTable finish() {
+            BloomFilter bloomFilter = new BloomFilter(recordCount);
+            for (int i = 0; i < recordCount; i++) {
+                bloomFilter.add(keyHashes[i]);
+            }
+            
+            try {
+                long indexOffset = size;
+                output.writeInt(indexKeys.size());
+                long indexSize = Integer.BYTES;
+                for (int i = 0; i < indexKeys.size(); i++) {
+                    output.writeInt(indexKeys.get(i).length);
+                    output.write(indexKeys.get(i));
+                    output.writeInt(indexOffsets.get(i));
+                    indexSize += 2 * Integer.BYTES + indexKeys.get(i).length;
+                }
+                byte[] maxKey = (lastKey == null ? new byte[0] : lastKey);
+                output.writeInt(maxKey.length);
+                output.write(maxKey);
+                indexSize += Integer.BYTES + maxKey.length;
+                
+                ByteBuffer filter = ByteBuffer.allocate(bloomFilter.serializedSize());
+                bloomFilter.writeTo(filter);
+                output.write(filter.array());
+                output.writeLong(indexOffset);
+                output.writeLong(indexOffset + indexSize);
+                output.writeInt(recordCount);
+                output.writeInt(MAGIC);
+                output.flush();
+                file.getChannel().force(true);
+                output.close();
+            } catch (IOException ex) {
+                abort();
+                throw new UncheckedIOException(ex);
+            }
+            
+            return open(id, path);
+        }
+        
+        /**
+         * Closes and deletes the partially written file.
+         */
+        void abort() {
+            try {
+                output.close();
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CommandProcessor Tests
+ */
+public class CommandProcessorTest {
+    
+    private KeyValueStore store;
+    private CommandProcessor commandProcessor;
+    
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new KeyValueStore();
+        commandProcessor = new CommandProcessor(store, new InetSocketAddress("127.0.0.1", 0), 2);
+        commandProcessor.start();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        commandProcessor.close();
+    }
+    
+    @Test
+    void testPipelinedCommands() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "PING\nSET key1 hello world\nGET key1\nGET missing\nMSET a 1 b 2\r\nMGET a missing b\n"
+                         + "DELETE key1\nGET key1\nFOO\n");
+            BufferedReader reader = reader(socket);
+            assertEquals("PONG", reader.readLine());
+            assertEquals("OK", reader.readLine());
+            assertEquals("VALUE hello world", reader.readLine());
+            assertEquals("NIL", reader.readLine());
+            assertEquals("OK", reader.readLine());
+            assertEquals("ARRAY 3", reader.readLine());
+            assertEquals("VALUE 1", reader.readLine());
+            assertEquals("NIL", reader.readLine());
+            assertEquals("VALUE 2", reader.readLine());
+            assertEquals("OK", reader.readLine());
+            assertEquals("NIL", reader.readLine());
+            assertTrue(reader.readLine().startsWith("ERR "));
+            
+            send(socket, "INCR hits\nINCR hits 41\nBEGIN\nINCR hits -2\nCOMMIT\nGET hits\nINCR a x\n");
+            assertEquals("VALUE 1", reader.readLine());
+            assertEquals("VALUE 42", reader.readLine());
+            assertEquals("OK", reader.readLine());
+            assertEquals("VALUE 40", reader.readLine());
+            assertEquals("OK", reader.readLine());
+            assertEquals("VALUE 40", reader.readLine());
+            assertTrue(reader.readLine().startsWith("ERR "));
+        }
+    }
+    
+    @Test
+    void testTransactionsArePerConnection() throws IOException {
+        try (Socket first = connect(); Socket second = connect()) {
+            BufferedReader firstReader = reader(first);
+            BufferedReader secondReader = reader(second);
+            send(first, "SET counter 0\nBEGIN\nGET counter\nSET counter 1\n");
+            assertEquals("OK", firstReader.readLine());
+            assertEquals("OK", firstReader.readLine());
+            assertEquals("VALUE 0", firstReader.readLine());
+            assertEquals("OK", firstReader.readLine());
+            
+            // The other connection neither sees the buffered write nor is in a transaction.
+            send(second, "GET counter\nCOMMIT\nSET counter 2\n");
+            assertEquals("VALUE 0", secondReader.readLine());
+            assertEquals("ERR No active transaction!", secondReader.readLine());
+            assertEquals("OK", secondReader.readLine());
+            
+            send(first, "COMMIT\nGET counter\n");
+            assertEquals("CONFLICT", firstReader.readLine());
+            assertEquals("VALUE 2", firstReader.readLine());
+        }
+    }
+    
+    @Test
+    void testDisconnectRollsBackTransaction() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "BEGIN\nSET key1 value1\n");
+            BufferedReader reader = reader(socket);
+            assertEquals("OK", reader.readLine());
+            assertEquals("OK", reader.readLine());
+        }
+        
+        try (Socket socket = connect()) {
+            send(socket, "GET key1\n");
+            assertEquals("NIL", reader(socket).readLine());
+        }
+    }
+    
+    @Test
+    void testResponsesLargerThanTheWriteBuffer() throws IOException {
+        String value = "x".repeat(100_000);
+        try (Socket socket = connect()) {
+            StringBuilder commands = new StringBuilder("SET big ").append(value).append('\n');
+            for (int i = 0; i < 50; i++) {
+                commands.append("GET big\n");
+            }
+            send(socket, commands.toString());
+            BufferedReader reader = reader(socket);
+            assertEquals("OK", reader.readLine());
+            for (int i = 0; i < 50; i++) {
+                assertEquals("VALUE " + value, reader.readLine());
+            }
+        }
+    }
+    
+    @Test
+    void testValuesWithLineBreaksAreRejected() throws IOException {
+        store.set(null, "lines", "first\nsecond");
+        try (Socket socket = connect()) {
+            send(socket, "SET key1 first\rsecond\nMSET a 1 b 2\r2\nGET lines\nMGET a lines\nGET key1\nPING\n");
+            BufferedReader reader = reader(socket);
+            for (int i = 0; i < 4; i++) {
+                assertTrue(reader.readLine().startsWith("ERR "));
+            }
+            assertEquals("NIL", reader.readLine());
+            assertEquals("PONG", reader.readLine());
+        }
+    }
+    
+    @Test
+    void testUnexpectedFailuresAreAnswered() throws IOException {
+        KeyValueStore failingStore = new KeyValueStore() {
+            
+            @Override
+            public List<String> keys() {
+                throw new UnsupportedOperationException("No keys");
+            }
+        };
+        try (CommandProcessor processor = new CommandProcessor(failingStore, new InetSocketAddress("127.0.0.1", 0),
+                                                               1)) {
+            processor.start();
+            try (Socket socket = new Socket("127.0.0.1", processor.getPort())) {
+                send(socket, "KEYS\nPING\n");
+                BufferedReader reader = reader(socket);
+                assertEquals("ERR java.lang.UnsupportedOperationException: No keys", reader.readLine());
+                assertEquals("PONG", reader.readLine());
+            }
+        }
+    }
+    
+    /**
+     * @return
+     * @throws IOException
+     */
+    private Socket connect() throws IOException {
+        return new Socket("127.0.0.1", commandProcessor.getPort());
+    }
+    
+    /**
+     * @param socket
+     * @param commands
+     * @throws IOException
+     */
+    private static void send(Socket socket, String commands) throws IOException {
+        OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(commands.getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+    }
+    
+    /**
+     * @param socket
+     * @return
+     * @throws IOException
+     */
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+}
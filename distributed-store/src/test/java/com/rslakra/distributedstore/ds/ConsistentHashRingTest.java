@@ -0,0 +1,75 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ConsistentHashRing Tests
+ */
+public class ConsistentHashRingTest {
+    
+    private static final int KEY_COUNT = 100_000;
+    
+    @Test
+    void testKeysAreSpreadEvenly() {
+        ConsistentHashRing<String> ring = ringOf(4);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            counts.merge(ring.nodeFor("key" + i), 1, Integer::sum);
+        }
+        
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // Each node should own a quarter of the keys, give or take a few percent.
+            assertTrue(Math.abs(count - KEY_COUNT / 4) < KEY_COUNT / 20, "Unbalanced share: " + count);
+        }
+    }
+    
+    @Test
+    void testAddingNodeMovesAboutOneNthOfTheKeys() {
+        ConsistentHashRing<String> ring = ringOf(4);
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            owners.put("key" + i, ring.nodeFor("key" + i));
+        }
+        
+        ring.addNode("node4", "node4");
+        int moved = 0;
+        for (Map.Entry<String, String> entry : owners.entrySet()) {
+            String owner = ring.nodeFor(entry.getKey());
+            if (!owner.equals(entry.getValue())) {
+                // Keys only ever move to the new node.
+                assertEquals("node4", owner);
+                moved++;
+            }
+        }
+        assertTrue(Math.abs(moved - KEY_COUNT / 5) < KEY_COUNT / 20, "Moved " + moved + " keys");
+        
+        ring.removeNode("node4");
+        for (Map.Entry<String, String> entry : owners.entrySet()) {
+            assertEquals(entry.getValue(), ring.nodeFor(entry.getKey()));
+        }
+    }
+    
+    @Test
+    void testEmptyRingRejectsLookups() {
+        assertThrows(IllegalStateException.class, () -> new ConsistentHashRing<String>().nodeFor("key"));
+    }
+    
+    /**
+     * @param nodeCount
+     * @return
+     */
+    private static ConsistentHashRing<String> ringOf(int nodeCount) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int i = 0; i < nodeCount; i++) {
+            ring.addNode("node" + i, "node" + i);
+        }
+        
+        return ring;
+    }
+}
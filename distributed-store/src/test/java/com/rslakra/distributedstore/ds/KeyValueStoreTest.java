@@ -2,12 +2,28 @@ package com.rslakra.distributedstore.ds;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -16,6 +32,9 @@ import static org.junit.jupiter.api.Assertions.*;
  */
 public class KeyValueStoreTest {
     
+    @TempDir
+    Path tempDir;
+    
     private KeyValueStore store;
     
     @BeforeEach
@@ -108,4 +127,487 @@ public class KeyValueStoreTest {
             assertEquals("value" + i, store.get("key" + i));
         }
     }
+    
+    @Test
+    void testConcurrentConflictingTransactionsLoseNoUpdates() throws InterruptedException {
+        int threadCount = 8;
+        int incrementsPerThread = 500;
+        store.set("counter", "0");
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch latch = new CountDownLatch(threadCount);
+        
+        for (int i = 0; i < threadCount; i++) {
+            executor.submit(() -> {
+                try {
+                    for (int j = 0; j < incrementsPerThread; j++) {
+                        boolean committed;
+                        do {
+                            store.begin();
+                            long counter = Long.parseLong(store.get("counter"));
+                            store.set("counter", String.valueOf(counter + 1));
+                            committed = store.commit();
+                        } while (!committed);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        latch.await();
+        executor.shutdown();
+        
+        assertEquals(String.valueOf(threadCount * incrementsPerThread), store.get("counter"));
+    }
+    
+    @Test
+    void testSnapshotReadsIgnoreLaterCommits() throws Exception {
+        store.set("key1", "value1");
+        store.set("key2", "value2");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        
+        store.begin();
+        assertEquals("value1", store.get("key1"));
+        executor.submit(() -> {
+            store.begin();
+            store.set("key1", "updated1");
+            store.set("key2", "updated2");
+            assertTrue(store.commit());
+        }).get();
+        
+        // Both keys come from the same snapshot, and a read-only transaction never aborts.
+        assertEquals("value1", store.get("key1"));
+        assertEquals("value2", store.get("key2"));
+        assertTrue(store.commit());
+        executor.shutdown();
+        
+        assertEquals("updated1", store.get("key1"));
+        assertEquals("updated2", store.get("key2"));
+    }
+    
+    @Test
+    void testStaleReadWriteTransactionAborts() throws Exception {
+        store.set("key1", "value1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        
+        store.begin();
+        assertEquals("value1", store.get("key1"));
+        executor.submit(() -> store.set("key1", "concurrent")).get();
+        store.set("key2", "derived");
+        assertFalse(store.commit());
+        executor.shutdown();
+        
+        assertEquals("concurrent", store.get("key1"));
+        assertNull(store.get("key2"));
+    }
+    
+    @Test
+    void testOldVersionsAreCollectedOnceNoSnapshotNeedsThem() throws Exception {
+        store.set("key1", "v0");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        
+        store.begin();
+        assertEquals("v0", store.get("key1"));
+        executor.submit(() -> {
+            for (int i = 1; i <= 10; i++) {
+                store.set("key1", "v" + i);
+            }
+        }).get();
+        
+        // The open snapshot pins the version it reads.
+        store.vacuum();
+        assertTrue(store.versionCount("key1") > 1);
+        assertEquals("v0", store.get("key1"));
+        assertTrue(store.commit());
+        executor.shutdown();
+        
+        store.vacuum();
+        assertEquals(1, store.versionCount("key1"));
+        assertEquals("v10", store.get("key1"));
+        
+        store.delete("key1");
+        store.vacuum();
+        assertEquals(0, store.versionCount("key1"));
+        assertNull(store.get("key1"));
+    }
+    
+    @Test
+    void testScanPagesInKeyOrder() {
+        for (int i = 99; i >= 0; i--) {
+            store.set(String.format("tenant1/%03d", i), "value" + i);
+        }
+        store.set("tenant0/000", "other");
+        store.set("tenant2/000", "other");
+        store.delete("tenant1/050");
+        
+        List<String> keys = new ArrayList<>();
+        String fromKey = "tenant1/";
+        while (true) {
+            Iterator<Map.Entry<String, String>> page = store.scan(fromKey, "tenant1/\uffff", 10);
+            String lastKey = null;
+            while (page.hasNext()) {
+                lastKey = page.next().getKey();
+                keys.add(lastKey);
+            }
+            if (lastKey == null) {
+                break;
+            }
+            fromKey = lastKey + "\0";
+        }
+        
+        assertEquals(99, keys.size());
+        assertEquals("tenant1/000", keys.get(0));
+        assertEquals("tenant1/099", keys.get(98));
+        assertFalse(keys.contains("tenant1/050"));
+        assertEquals(101, countEntries(store.scan(null, null, 0)));
+    }
+    
+    @Test
+    void testScanSeesOwnWritesAndSnapshot() throws Exception {
+        store.set("a", "1");
+        store.set("c", "3");
+        store.set("d", "4");
+        
+        store.begin();
+        store.set("b", "2");
+        store.delete("c");
+        runConcurrently(() -> store.set("cc", "concurrent"));
+        
+        Iterator<Map.Entry<String, String>> scan = store.scan("a", "e", 0);
+        assertEquals(Map.entry("a", "1"), scan.next());
+        assertEquals(Map.entry("b", "2"), scan.next());
+        assertEquals(Map.entry("d", "4"), scan.next());
+        assertFalse(scan.hasNext());
+        
+        // The concurrent insert into the scanned range is a phantom.
+        assertFalse(store.commit());
+        assertEquals("concurrent", store.get("cc"));
+        assertNull(store.get("b"));
+    }
+    
+    @Test
+    void testScanOnlyValidatesTheScannedPart() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            store.set("key" + i, "value" + i);
+        }
+        
+        store.begin();
+        Iterator<Map.Entry<String, String>> scan = store.scan("key0", null, 3);
+        assertEquals(3, countEntries(scan));
+        store.set("summary", "3");
+        runConcurrently(() -> store.set("key7", "updated"));
+        assertTrue(store.commit());
+        
+        store.begin();
+        assertEquals(10, countEntries(store.scan("key0", "key9\uffff", 0)));
+        store.set("summary", "10");
+        runConcurrently(() -> store.delete("key7"));
+        assertFalse(store.commit());
+    }
+    
+    @Test
+    void testCollectedKeysLeaveTheIndex() {
+        store.set("key1", "value1");
+        store.set("key2", "value2");
+        store.delete("key1");
+        store.vacuum();
+        
+        assertEquals(1, countEntries(store.scan(null, null, 0)));
+        store.set("key1", "recreated");
+        assertEquals(2, countEntries(store.scan("key", "key3", 0)));
+    }
+    
+    @Test
+    void testKeysExpire() throws Exception {
+        store.set("session", "data", 100, TimeUnit.MILLISECONDS);
+        store.set("permanent", "data");
+        assertEquals("data", store.get("session"));
+        
+        Thread.sleep(150);
+        // Hidden as soon as the deadline passed, then deleted by the expiry thread.
+        assertNull(store.get("session"));
+        assertEquals(List.of("permanent"), store.keys());
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (store.versionCount("session") > 0 && System.currentTimeMillis() < deadline) {
+            store.vacuum();
+            Thread.sleep(10);
+        }
+        assertEquals(0, store.versionCount("session"));
+        assertEquals("data", store.get("permanent"));
+    }
+    
+    @Test
+    void testRewriteReplacesTheDeadline() throws Exception {
+        store.set("key1", "value1", 50, TimeUnit.MILLISECONDS);
+        store.set("key1", "value2");
+        store.set("key2", "value1", 50, TimeUnit.MILLISECONDS);
+        store.set("key2", "value2", 1, TimeUnit.HOURS);
+        
+        Thread.sleep(100);
+        store.expireDue();
+        assertEquals("value2", store.get("key1"));
+        assertEquals("value2", store.get("key2"));
+    }
+    
+    @Test
+    void testExpiryConflictsWithReaders() throws Exception {
+        store.set("lease", "holder1", 200, TimeUnit.MILLISECONDS);
+        
+        store.begin();
+        assertEquals("holder1", store.get("lease"));
+        store.set("audit", "lease held by holder1");
+        Thread.sleep(300);
+        store.expireDue();
+        assertFalse(store.commit());
+        assertNull(store.get("lease"));
+        assertNull(store.get("audit"));
+    }
+    
+    @Test
+    void testWriteSkewOnMissingKeysAborts() {
+        // Both claim a shift only if nobody holds it yet, each checking the other's (missing) key.
+        Transaction first = store.beginTransaction();
+        Transaction second = store.beginTransaction();
+        assertNull(store.get(first, "shift/bob"));
+        assertNull(store.get(second, "shift/alice"));
+        store.set(first, "shift/alice", "on call");
+        store.set(second, "shift/bob", "on call");
+        assertTrue(store.commit(first));
+        assertFalse(store.commit(second));
+        assertNull(store.get("shift/bob"));
+    }
+    
+    @Test
+    void testSnapshotIsolationOnlyDetectsWriteConflicts() {
+        store.set("alice", "on call");
+        store.set("bob", "on call");
+        
+        // Write skew: each sees the other on call and leaves, and both commit.
+        Transaction first = store.beginTransaction(IsolationLevel.SNAPSHOT);
+        Transaction second = store.beginTransaction(IsolationLevel.SNAPSHOT);
+        assertEquals("on call", store.get(first, "bob"));
+        assertEquals("on call", store.get(second, "alice"));
+        store.delete(first, "alice");
+        store.delete(second, "bob");
+        assertTrue(store.commit(first));
+        assertTrue(store.commit(second));
+        assertTrue(first.getReadSet().isEmpty());
+        
+        // The same serializable race aborts the second one.
+        store.set("alice", "on call");
+        store.set("bob", "on call");
+        first = store.beginTransaction(IsolationLevel.SERIALIZABLE);
+        second = store.beginTransaction(IsolationLevel.SERIALIZABLE);
+        assertEquals("on call", store.get(first, "bob"));
+        assertEquals("on call", store.get(second, "alice"));
+        store.delete(first, "alice");
+        store.delete(second, "bob");
+        assertTrue(store.commit(first));
+        assertFalse(store.commit(second));
+        
+        // First committer wins on a key both write.
+        first = store.beginTransaction(IsolationLevel.SNAPSHOT);
+        second = store.beginTransaction(IsolationLevel.SNAPSHOT);
+        store.set(first, "bob", "first");
+        store.set(second, "bob", "second");
+        assertTrue(store.commit(first));
+        assertFalse(store.commit(second));
+        assertEquals("first", store.get("bob"));
+    }
+    
+    @Test
+    void testMultiGetAndMultiSet() {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("key1", "value1");
+        entries.put("key2", "value2");
+        long version = store.getVersion();
+        store.multiSet(entries);
+        assertEquals(version + 1, store.getVersion());
+        assertEquals(List.of("value1", "value2"), store.multiGet(List.of("key1", "key2")));
+        assertEquals(Arrays.asList("value2", null), store.multiGet(List.of("key2", "missing")));
+        assertThrows(IllegalArgumentException.class, () -> store.multiSet(Collections.singletonMap("key3", null)));
+        assertNull(store.get("key3"));
+    }
+    
+    @Test
+    void testCompareAndSet() {
+        assertTrue(store.getVersioned("key1").isAbsent());
+        assertTrue(store.compareAndSet("key1", Versioned.ABSENT, "value1"));
+        assertFalse(store.compareAndSet("key1", Versioned.ABSENT, "value2"));
+        
+        Versioned<String> versioned = store.getVersioned("key1");
+        assertEquals("value1", versioned.getValue());
+        store.set("key1", "changed");
+        assertFalse(store.compareAndSet("key1", versioned.getVersion(), "value2"));
+        assertTrue(store.compareAndSet("key1", store.getVersioned("key1").getVersion(), "value2"));
+        assertEquals("value2", store.get("key1"));
+        
+        store.delete("key1");
+        assertTrue(store.compareAndSet("key1", Versioned.ABSENT, "value3"));
+        assertEquals("value3", store.get("key1"));
+    }
+    
+    @Test
+    void testConcurrentIncrementsNeverConflict() throws Exception {
+        int threadCount = 8;
+        int incrementsPerThread = 500;
+        store.set("counter", "10", 1, TimeUnit.HOURS);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < incrementsPerThread; j++) {
+                    store.increment("counter", 1);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        
+        assertEquals(String.valueOf(10 + threadCount * incrementsPerThread), store.get("counter"));
+        assertEquals(-5, store.increment("missing", -5));
+        store.set("text", "abc");
+        assertThrows(IllegalArgumentException.class, () -> store.increment("text", 1));
+        store.set("max", String.valueOf(Long.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> store.increment("max", 1));
+        
+        // The increments keep the deadline, so the counter still expires.
+        store.set("session", "0", 100, TimeUnit.MILLISECONDS);
+        store.increment("session", 1);
+        Thread.sleep(200);
+        assertNull(store.get("session"));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (store.versionCount("session") > 0 && System.currentTimeMillis() < deadline) {
+            store.vacuum();
+            Thread.sleep(10);
+        }
+        assertEquals(0, store.versionCount("session"));
+    }
+    
+    @Test
+    void testFailedLogRejectsCommits() throws Exception {
+        Path logDirectory = tempDir.resolve("wal");
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, 1, 256, 1);
+        try (KeyValueStore durableStore = new KeyValueStore(writeAheadLog)) {
+            // A directory in the place of the next segment makes the rollover after the first flush fail.
+            Files.createDirectories(logDirectory.resolve(String.format("wal-%020d.log", 2)));
+            durableStore.set("key1", "value1");
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!hasFailed(writeAheadLog) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(hasFailed(writeAheadLog));
+            
+            long version = durableStore.getVersion();
+            List<CommitRecord> published = Collections.synchronizedList(new ArrayList<>());
+            durableStore.addCommitListener(published::add);
+            assertThrows(UncheckedIOException.class, () -> durableStore.set("key2", "value2"));
+            assertThrows(UncheckedIOException.class, () -> durableStore.increment("counter", 1));
+            assertThrows(UncheckedIOException.class,
+                         () -> durableStore.multiSet(Collections.singletonMap("key3", "value3")));
+            long key1Version = durableStore.getVersioned("key1").getVersion();
+            assertThrows(UncheckedIOException.class, () -> durableStore.compareAndSet("key1", key1Version, "value4"));
+            
+            Transaction transaction = durableStore.beginTransaction();
+            durableStore.set(transaction, "key5", "value5");
+            assertThrows(UncheckedIOException.class, () -> durableStore.commit(transaction));
+            
+            // Nothing of the rejected commits is readable, and nothing was published.
+            assertEquals("value1", durableStore.get("key1"));
+            assertNull(durableStore.get("key2"));
+            assertNull(durableStore.get("counter"));
+            assertNull(durableStore.get("key3"));
+            assertNull(durableStore.get("key5"));
+            assertEquals(version, durableStore.getVersion());
+            assertTrue(published.isEmpty());
+        }
+    }
+    
+    @Test
+    void testCommitWhoseFlushFailedIsNeverVisible() throws Exception {
+        Path logDirectory = tempDir.resolve("wal");
+        AtomicBoolean first = new AtomicBoolean(true);
+        CountDownLatch queued = new CountDownLatch(1);
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, 100, 256, 1) {
+            @Override
+            public CompletableFuture<Void> append(CommitRecord record) {
+                CompletableFuture<Void> durable = super.append(record);
+                if (first.compareAndSet(true, false)) {
+                    // Runs on the flusher once the first commit is durable: holds the failing rollover until the
+                    // second commit is queued behind it.
+                    durable.thenRun(() -> {
+                        try {
+                            queued.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+                } else {
+                    queued.countDown();
+                }
+                return durable;
+            }
+        };
+        try (KeyValueStore durableStore = new KeyValueStore(writeAheadLog)) {
+            // A directory in the place of the next segment makes the rollover after the first flush fail.
+            Files.createDirectories(logDirectory.resolve(String.format("wal-%020d.log", 2)));
+            durableStore.set("key1", "value1");
+            List<CommitRecord> published = Collections.synchronizedList(new ArrayList<>());
+            durableStore.addCommitListener(published::add);
+            Watch watch = durableStore.watch("key", durableStore.getVersion());
+            
+            // The second commit passed the health check and was installed, but its flush failed.
+            assertThrows(UncheckedIOException.class, () -> durableStore.set("key2", "value2"));
+            assertNull(durableStore.get("key2"));
+            assertEquals(1, durableStore.getVersion());
+            assertEquals(0, durableStore.versionCount("key2"));
+            assertTrue(published.isEmpty());
+            assertNull(watch.poll(100, TimeUnit.MILLISECONDS));
+            assertEquals("value1", durableStore.get("key1"));
+        }
+    }
+    
+    /**
+     * @param writeAheadLog
+     * @return
+     */
+    private static boolean hasFailed(WriteAheadLog writeAheadLog) {
+        try {
+            writeAheadLog.checkHealthy();
+            return false;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+    
+    /**
+     * @param scan
+     * @return
+     */
+    private static int countEntries(Iterator<?> scan) {
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Runs the <code>task</code> on another thread, outside the transaction of this one.
+     *
+     * @param task
+     * @throws Exception
+     */
+    private static void runConcurrently(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(task).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PartitionedStore Tests
+ */
+public class PartitionedStoreTest {
+    
+    private static final int KEY_COUNT = 2_000;
+    
+    @Test
+    void testRoutesKeysAndRebalances() throws IOException {
+        List<LocalStoreNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new LocalStoreNode("node" + i));
+        }
+        
+        try (PartitionedStore store = new PartitionedStore(nodes)) {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                store.set("key" + i, "value" + i);
+            }
+            store.delete("key0");
+            
+            // Every key lives only on its owner.
+            int total = 0;
+            for (LocalStoreNode node : nodes) {
+                for (String key : node.keys()) {
+                    assertSame(node, store.nodeFor(key));
+                }
+                total += node.keys().size();
+            }
+            assertEquals(KEY_COUNT - 1, total);
+            
+            int moved = store.addNode(new LocalStoreNode("node3"));
+            assertTrue(moved > KEY_COUNT / 8 && moved < KEY_COUNT / 2, "Moved " + moved + " keys");
+            assertAllPresent(store);
+            
+            store.removeNode("node1");
+            assertEquals(3, store.getNodes().size());
+            assertTrue(nodes.get(1).keys().isEmpty());
+            assertAllPresent(store);
+        }
+    }
+    
+    @Test
+    void testRemoteNodes() throws IOException {
+        List<CommandProcessor> servers = new ArrayList<>();
+        List<StoreNode> nodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                CommandProcessor server = new CommandProcessor(new KeyValueStore(),
+                                                               new InetSocketAddress("127.0.0.1", 0), 1);
+                server.start();
+                servers.add(server);
+                nodes.add(new RemoteStoreNode("node" + i, new InetSocketAddress("127.0.0.1", server.getPort())));
+            }
+            
+            try (PartitionedStore store = new PartitionedStore(nodes)) {
+                for (int i = 0; i < KEY_COUNT; i++) {
+                    store.set("key" + i, "value " + i);
+                }
+                store.delete("key0");
+                assertNull(store.get("key0"));
+                assertEquals("value 1", store.get("key1"));
+                assertEquals(KEY_COUNT - 1, nodes.get(0).keys().size() + nodes.get(1).keys().size());
+            }
+        } finally {
+            servers.forEach(CommandProcessor::close);
+        }
+    }
+    
+    @Test
+    void testMovedKeysKeepTheirDeadlines() throws IOException {
+        LocalStoreNode local = new LocalStoreNode("local");
+        KeyValueStore remoteStore = new KeyValueStore();
+        CommandProcessor server = new CommandProcessor(remoteStore, new InetSocketAddress("127.0.0.1", 0), 1);
+        server.start();
+        try (PartitionedStore store = new PartitionedStore(List.of(local))) {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                local.getStore().set("key" + i, "value\n" + i, 1, TimeUnit.HOURS);
+            }
+            Map<String, Long> deadlines = new HashMap<>();
+            for (int i = 0; i < KEY_COUNT; i++) {
+                deadlines.put("key" + i, local.getStored("key" + i).getExpiresAt());
+            }
+            
+            // Over the protocol to the remote node, then back again.
+            RemoteStoreNode remote = new RemoteStoreNode("remote", new InetSocketAddress("127.0.0.1",
+                                                                                        server.getPort()));
+            assertTrue(store.addNode(remote) > 0);
+            assertFalse(remoteStore.keys().isEmpty());
+            for (String key : remoteStore.keys()) {
+                StoredValue storedValue = remoteStore.getStored(key);
+                assertEquals(deadlines.get(key), storedValue.getExpiresAt());
+                String expected = "value\n" + key.substring("key".length());
+                assertEquals(expected, ValueCodec.UTF_8.decode(storedValue.getValue()));
+            }
+            
+            store.removeNode("remote");
+            assertTrue(remoteStore.keys().isEmpty());
+            assertEquals(KEY_COUNT, local.keys().size());
+            for (int i = 0; i < KEY_COUNT; i++) {
+                StoredValue storedValue = local.getStored("key" + i);
+                assertEquals(deadlines.get("key" + i), storedValue.getExpiresAt());
+                assertEquals("value\n" + i, ValueCodec.UTF_8.decode(storedValue.getValue()));
+            }
+            remote.close();
+        } finally {
+            server.close();
+        }
+    }
+    
+    @Test
+    void testFailedRebalanceLeavesNoCopies() throws IOException {
+        List<LocalStoreNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            nodes.add(new LocalStoreNode("node" + i));
+        }
+        
+        try (PartitionedStore store = new PartitionedStore(nodes)) {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                store.set("key" + i, "value" + i);
+            }
+            store.delete("key0");
+            
+            // Fails after ten keys were copied to it.
+            AtomicBoolean failing = new AtomicBoolean(true);
+            List<String> copied = new ArrayList<>();
+            LocalStoreNode node = new LocalStoreNode("node3") {
+                @Override
+                public void setStored(String key, StoredValue storedValue) {
+                    if (failing.get() && copied.size() == 10) {
+                        throw new IllegalStateException("Node down!");
+                    }
+                    super.setStored(key, storedValue);
+                    copied.add(key);
+                }
+            };
+            assertThrows(IllegalStateException.class, () -> store.addNode(node));
+            assertTrue(node.keys().isEmpty());
+            assertEquals(3, store.getNodes().size());
+            assertAllPresent(store);
+            
+            // A key deleted before the retry stays deleted once the ring switches.
+            String deleted = copied.get(0);
+            store.delete(deleted);
+            failing.set(false);
+            assertTrue(store.addNode(node) > 0);
+            assertSame(node, store.nodeFor(deleted));
+            assertNull(store.get(deleted));
+            assertNull(node.getStore().get(deleted));
+        }
+    }
+    
+    /**
+     * @param store
+     */
+    private static void assertAllPresent(PartitionedStore store) {
+        assertNull(store.get("key0"));
+        for (int i = 1; i < KEY_COUNT; i++) {
+            assertEquals("value" + i, store.get("key" + i));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replication Tests
+ */
+public class ReplicationTest {
+    
+    private static final InetSocketAddress LOCALHOST = new InetSocketAddress("127.0.0.1", 0);
+    
+    @Test
+    void testFollowersCatchUpAndStream() throws Exception {
+        KeyValueStore leader = new KeyValueStore();
+        for (int i = 0; i < 10_000; i++) {
+            leader.set("key" + i, "value" + i);
+        }
+        
+        try (ReplicationLeader replicationLeader = new ReplicationLeader(leader, LOCALHOST)) {
+            replicationLeader.start();
+            InetSocketAddress leaderAddress = new InetSocketAddress("127.0.0.1", replicationLeader.getPort());
+            try (ReplicationFollower first = new ReplicationFollower(new KeyValueStore(), leaderAddress);
+                 ReplicationFollower second = new ReplicationFollower(new KeyValueStore(), leaderAddress)) {
+                first.start();
+                second.start();
+                
+                leader.begin();
+                leader.set("key1", "updated");
+                leader.delete("key2");
+                leader.set("key10000", "value10000");
+                assertTrue(leader.commit());
+                leader.delete("key3");
+                
+                for (ReplicationFollower follower : List.of(first, second)) {
+                    assertTrue(follower.awaitVersion(leader.getVersion(), 10, TimeUnit.SECONDS));
+                    assertEquals(leader.getVersion(), follower.getAppliedVersion());
+                    assertEquals("value0", follower.get("key0"));
+                    assertEquals("updated", follower.get("key1"));
+                    assertNull(follower.get("key2"));
+                    assertNull(follower.get("key3"));
+                    assertEquals("value10000", follower.get("key10000"));
+                    assertEquals(leader.keys().size(), follower.getReplica().keys().size());
+                }
+                assertEquals(2, replicationLeader.getFollowerCount());
+            }
+        }
+    }
+    
+    @Test
+    void testBoundedStalenessReads() throws Exception {
+        KeyValueStore leader = new KeyValueStore();
+        try (ReplicationLeader replicationLeader = new ReplicationLeader(leader, LOCALHOST)) {
+            replicationLeader.start();
+            InetSocketAddress leaderAddress = new InetSocketAddress("127.0.0.1", replicationLeader.getPort());
+            try (ReplicationFollower follower = new ReplicationFollower(new KeyValueStore(), leaderAddress)) {
+                follower.start();
+                ReplicaSet replicaSet = new ReplicaSet(leader, List.of(follower));
+                replicaSet.set("key1", "value1");
+                long version = replicaSet.getLeaderVersion();
+                assertTrue(follower.awaitVersion(version, 10, TimeUnit.SECONDS));
+                
+                assertEquals("value1", replicaSet.get("key1", version));
+                assertEquals(1, replicaSet.getReplicaReads().sum());
+                
+                // No replica can have applied a version the leader has not reached, so the leader serves it.
+                assertEquals("value1", replicaSet.get("key1", version + 1));
+                assertEquals(1, replicaSet.getLeaderReads().sum());
+            }
+        }
+    }
+    
+    @Test
+    void testLaggingFollowerResyncs() throws Exception {
+        KeyValueStore leader = new KeyValueStore();
+        try (ReplicationLeader replicationLeader = new ReplicationLeader(leader, LOCALHOST, 4, 2)) {
+            replicationLeader.start();
+            InetSocketAddress leaderAddress = new InetSocketAddress("127.0.0.1", replicationLeader.getPort());
+            try (ReplicationFollower follower = new ReplicationFollower(new KeyValueStore(), leaderAddress, 10)) {
+                follower.start();
+                for (int i = 0; i < 5_000; i++) {
+                    leader.set("key" + (i % 100), "value" + i);
+                }
+                
+                assertTrue(follower.awaitVersion(leader.getVersion(), 30, TimeUnit.SECONDS));
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(leader.get("key" + i), follower.get("key" + i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StoreMetrics Tests
+ */
+public class StoreMetricsTest {
+    
+    @Test
+    void testHistogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i <= 90 ? 10 : 1000);
+        }
+        
+        assertEquals(100, histogram.getCount());
+        assertEquals(109, histogram.getMean(), 0.001);
+        assertEquals(15, histogram.getPercentile(50));
+        assertEquals(1023, histogram.getPercentile(99));
+        assertEquals(0, new Histogram().getPercentile(99));
+    }
+    
+    @Test
+    void testSketchFindsTheHotKeys() {
+        HotKeySketch sketch = new HotKeySketch(256, 3);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.add("cold" + i);
+            if (i % 10 == 0) {
+                sketch.add("hot1");
+                sketch.add("hot2");
+            }
+            if (i % 20 == 0) {
+                sketch.add("hot3");
+            }
+        }
+        
+        List<Map.Entry<String, Long>> topKeys = sketch.getTopKeys();
+        assertEquals(List.of("hot1", "hot2", "hot3"), topKeys.stream().map(Map.Entry::getKey).sorted().toList());
+        assertTrue(topKeys.get(2).getKey().equals("hot3"));
+    }
+    
+    @Test
+    void testConflictsAreRecorded() {
+        KeyValueStore store = new KeyValueStore();
+        store.set("counter", "0");
+        for (int i = 0; i < 5; i++) {
+            Transaction first = store.beginTransaction();
+            Transaction second = store.beginTransaction();
+            store.set(first, "counter", store.get(first, "counter") + "1");
+            store.set(second, "counter", store.get(second, "counter") + "2");
+            assertTrue(store.commit(first));
+            assertFalse(store.commit(second));
+        }
+        store.begin();
+        store.get("counter");
+        assertTrue(store.commit());
+        
+        StoreMetrics metrics = store.getMetrics();
+        assertEquals(5, metrics.getCommits().sum());
+        assertEquals(5, metrics.getAborts().sum());
+        assertEquals(5, metrics.getConflicts().sum());
+        assertEquals(1, metrics.getReadOnlyCommits().sum());
+        assertEquals(0.5, metrics.getAbortRate());
+        assertEquals(10, metrics.getValidationNanos().getCount());
+        assertEquals(1, metrics.getWriteSetSizes().getPercentile(99));
+        assertEquals("counter", metrics.getConflictKeys().getTopKeys().get(0).getKey());
+        assertEquals(5, metrics.getConflictKeys().getTopKeys().get(0).getValue());
+    }
+}
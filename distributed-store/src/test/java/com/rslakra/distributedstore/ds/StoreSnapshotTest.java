@@ -0,0 +1,74 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StoreSnapshot Tests
+ */
+public class StoreSnapshotTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testSnapshotRoundTrip() throws IOException {
+        try (StoreSnapshot.Writer writer = new StoreSnapshot.Writer(tempDir, 42, 3)) {
+            for (int i = 0; i < 10; i++) {
+                writer.append("key" + i, i == 5 ? null : ValueCodec.UTF_8.encode("value" + i), i + 1, i * 1000L);
+            }
+            writer.commit();
+        }
+        
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        Path snapshot = StoreSnapshot.latest(tempDir).orElseThrow();
+        long version = StoreSnapshot.load(snapshot, 4, (key, value, keyVersion, expiresAt) -> {
+            assertEquals(Integer.parseInt(key.substring(3)) + 1, keyVersion);
+            assertEquals(Integer.parseInt(key.substring(3)) * 1000L, expiresAt);
+            loaded.put(key, value == null ? "<null>" : ValueCodec.UTF_8.decode(value));
+        });
+        
+        assertEquals(42, version);
+        assertEquals(10, loaded.size());
+        assertEquals("value9", loaded.get("key9"));
+        assertEquals("<null>", loaded.get("key5"));
+    }
+    
+    @Test
+    void testCheckpointTruncatesLogAndRecovers() throws IOException {
+        Path logDirectory = tempDir.resolve("wal");
+        Path snapshotDirectory = tempDir.resolve("snapshots");
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, 0, 16, 1024);
+        try (KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, writeAheadLog, snapshotDirectory)) {
+            for (int i = 0; i < 500; i++) {
+                store.set("key" + i, "value" + i);
+            }
+            int segments = writeAheadLog.getSegmentCount();
+            assertTrue(segments > 1);
+            
+            store.checkpoint(snapshotDirectory);
+            assertEquals(1, writeAheadLog.getSegmentCount());
+            
+            // Changes after the checkpoint only live in the log.
+            store.set("key1", "updated");
+            store.delete("key2");
+            store.set("key500", "value500");
+        }
+        
+        WriteAheadLog reopenedLog = new WriteAheadLog(logDirectory, 0, 16, 1024);
+        try (KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, reopenedLog, snapshotDirectory)) {
+            assertEquals("value0", store.get("key0"));
+            assertEquals("updated", store.get("key1"));
+            assertNull(store.get("key2"));
+            assertEquals("value499", store.get("key499"));
+            assertEquals("value500", store.get("key500"));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TimerWheel Tests
+ */
+public class TimerWheelTest {
+    
+    @Test
+    void testEntriesAreDueAtTheirTick() {
+        TimerWheel timerWheel = new TimerWheel(10, 1_000);
+        timerWheel.schedule("soon", 1_025);
+        timerWheel.schedule("level1", 1_000 + 10 * 100);
+        timerWheel.schedule("level2", 1_000 + 10 * 5_000);
+        timerWheel.schedule("past", 500);
+        assertEquals(4, timerWheel.size());
+        
+        assertEquals(List.of(Map.entry("past", 500L)), timerWheel.advance(1_010));
+        assertTrue(timerWheel.advance(1_029).isEmpty());
+        assertEquals(List.of(Map.entry("soon", 1_025L)), timerWheel.advance(1_030));
+        
+        assertTrue(timerWheel.advance(1_000 + 10 * 100 - 1).isEmpty());
+        assertEquals(List.of(Map.entry("level1", 2_000L)), timerWheel.advance(2_000));
+        
+        assertTrue(timerWheel.advance(1_000 + 10 * 5_000 - 1).isEmpty());
+        assertEquals(List.of(Map.entry("level2", 51_000L)), timerWheel.advance(51_000));
+        assertEquals(0, timerWheel.size());
+    }
+    
+    @Test
+    void testEveryEntryFiresOnceAndNeverEarly() {
+        TimerWheel timerWheel = new TimerWheel(1, 0);
+        for (int i = 0; i < 20_000; i++) {
+            timerWheel.schedule("key" + i, (i * 7_919L) % 300_000 + 1);
+        }
+        
+        int fired = 0;
+        for (long now = 0; now < 300_000 + 997; now += 997) {
+            for (Map.Entry<String, Long> entry : timerWheel.advance(now)) {
+                assertTrue(entry.getValue() <= now);
+                assertTrue(entry.getValue() > now - 997);
+                fired++;
+            }
+        }
+        
+        assertEquals(20_000, fired);
+        assertEquals(0, timerWheel.size());
+    }
+    
+    @Test
+    void testDeadlinesBeyondTheWheelAreParked() {
+        TimerWheel timerWheel = new TimerWheel(1, 0);
+        long farAway = (1L << (6 * TimerWheel.LEVELS)) * 3;
+        timerWheel.schedule("far", farAway);
+        
+        assertTrue(timerWheel.advance(farAway - 1).isEmpty());
+        assertEquals(List.of(Map.entry("far", farAway)), timerWheel.advance(farAway));
+    }
+}
@@ -0,0 +1,385 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * TransactionManager Tests
+ */
+public class TransactionManagerTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testTransactionSpansThreads() throws Exception {
+        KeyValueStore store = new KeyValueStore();
+        TransactionManager transactionManager = new TransactionManager(store);
+        store.set("key1", "value1");
+        
+        TransactionHandle handle = transactionManager.begin();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            boolean committed = CompletableFuture.supplyAsync(() -> handle.get("key1"), executor)
+                .thenApplyAsync(value -> {
+                    handle.set("key1", value + "-updated");
+                    handle.set("key2", "value2");
+                    return handle;
+                }, executor)
+                .thenApply(TransactionHandle::commit)
+                .get();
+            assertTrue(committed);
+        } finally {
+            executor.shutdown();
+        }
+        
+        assertFalse(handle.isActive());
+        assertEquals("value1-updated", store.get("key1"));
+        assertEquals("value2", store.get("key2"));
+        assertThrows(IllegalStateException.class, () -> handle.get("key1"));
+    }
+    
+    @Test
+    void testCloseRollsBackUnfinishedTransaction() {
+        KeyValueStore store = new KeyValueStore();
+        TransactionManager transactionManager = new TransactionManager(store);
+        try (TransactionHandle handle = transactionManager.begin()) {
+            handle.set("key1", "value1");
+            assertEquals("value1", handle.get("key1"));
+        }
+        
+        assertNull(store.get("key1"));
+    }
+    
+    @Test
+    void testThousandsOfTransactionsOnVirtualThreads() throws Exception {
+        int transactionCount = 5_000;
+        int counterCount = 50;
+        KeyValueStore store = new KeyValueStore();
+        TransactionManager transactionManager = new TransactionManager(store);
+        for (int i = 0; i < counterCount; i++) {
+            store.set("counter" + i, "0");
+        }
+        
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>(transactionCount);
+            for (int i = 0; i < transactionCount; i++) {
+                String key = "counter" + (i % counterCount);
+                futures.add(executor.submit(() -> {
+                    boolean committed;
+                    do {
+                        try (TransactionHandle handle = transactionManager.begin()) {
+                            int counter = Integer.parseInt(handle.get(key));
+                            // Yield mid-transaction, so the continuation may resume on another carrier thread.
+                            Thread.yield();
+                            handle.set(key, String.valueOf(counter + 1));
+                            committed = handle.commit();
+                        }
+                    } while (!committed);
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        
+        for (int i = 0; i < counterCount; i++) {
+            assertEquals(String.valueOf(transactionCount / counterCount), store.get("counter" + i));
+        }
+    }
+    
+    @Test
+    void testCrossPartitionTransfersStayAtomic() throws Exception {
+        int accountCount = 100;
+        int threadCount = 16;
+        int transfersPerThread = 200;
+        List<KeyValueStore> stores = List.of(new KeyValueStore(), new KeyValueStore(), new KeyValueStore());
+        try (TransactionManager transactionManager = new TransactionManager(stores)) {
+            for (int i = 0; i < accountCount; i++) {
+                transactionManager.storeFor("account" + i).set(null, "account" + i, "100");
+            }
+            
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<?>> futures = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int j = 0; j < transfersPerThread; j++) {
+                        int from = random.nextInt(accountCount);
+                        String source = "account" + from;
+                        String target = "account" + ((from + 1 + random.nextInt(accountCount - 1)) % accountCount);
+                        boolean committed;
+                        do {
+                            try (TransactionHandle handle = transactionManager.begin()) {
+                                handle.set(source, String.valueOf(Integer.parseInt(handle.get(source)) - 1));
+                                handle.set(target, String.valueOf(Integer.parseInt(handle.get(target)) + 1));
+                                committed = handle.commit();
+                            }
+                        } while (!committed);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            
+            int total = 0;
+            for (int i = 0; i < accountCount; i++) {
+                total += Integer.parseInt(transactionManager.storeFor("account" + i).get(null, "account" + i));
+            }
+            assertEquals(accountCount * 100, total);
+            
+            long commits = 0;
+            for (PartitionStats stats : transactionManager.getPartitionStats()) {
+                assertTrue(stats.getCommits().sum() > 0, stats.toString());
+                commits += stats.getCommits().sum();
+            }
+            assertTrue(commits >= threadCount * transfersPerThread);
+        }
+    }
+    
+    @Test
+    void testConflictOnOnePartitionAbortsAllOfThem() {
+        List<KeyValueStore> stores = List.of(new KeyValueStore(), new KeyValueStore());
+        try (TransactionManager transactionManager = new TransactionManager(stores)) {
+            String first = keyOn(transactionManager, stores.get(0));
+            String second = keyOn(transactionManager, stores.get(1));
+            stores.get(0).set(null, first, "1");
+            stores.get(1).set(null, second, "1");
+            
+            TransactionHandle handle = transactionManager.begin();
+            handle.set(first, handle.get(first) + "-updated");
+            handle.set(second, handle.get(second) + "-updated");
+            assertEquals(2, handle.getPartitionCount());
+            stores.get(1).set(null, second, "2");
+            
+            assertFalse(handle.commit());
+            assertEquals("1", stores.get(0).get(null, first));
+            assertEquals("2", stores.get(1).get(null, second));
+            
+            PartitionStats firstStats = transactionManager.getPartitionStats().get(0);
+            PartitionStats secondStats = transactionManager.getPartitionStats().get(1);
+            assertEquals(0, firstStats.getConflicts().sum());
+            assertEquals(1, firstStats.getAborts().sum());
+            assertEquals(1, secondStats.getConflicts().sum());
+            assertEquals(1.0, secondStats.getAbortRate());
+            
+            // The locks of the prepared participant were released.
+            try (TransactionHandle next = transactionManager.begin()) {
+                next.set(first, "3");
+                next.set(second, "3");
+                assertTrue(next.commit());
+            }
+            assertEquals("3", stores.get(0).get(null, first));
+        }
+    }
+    
+    @Test
+    void testFullArenaOnOnePartitionAbortsAllOfThem() {
+        ValueArena firstArena = new ValueArena(1024, 1024);
+        ValueArena secondArena = new ValueArena(1024, 1024);
+        List<KeyValueStore> stores = List.of(new KeyValueStore(LockStripes.DEFAULT_STRIPES, null, null, firstArena),
+                                             new KeyValueStore(LockStripes.DEFAULT_STRIPES, null, null, secondArena));
+        try (TransactionManager transactionManager = new TransactionManager(stores)) {
+            String first = keyOn(transactionManager, stores.get(0));
+            String second = keyOn(transactionManager, stores.get(1));
+            // One value of the size of the slab fills the arena of the second partition.
+            stores.get(1).set(null, "filler" + second, new String(new byte[1024]));
+            
+            TransactionHandle handle = transactionManager.begin();
+            handle.set(first, "a");
+            handle.set(second, "b");
+            assertFalse(handle.commit());
+            assertNull(stores.get(0).get(null, first));
+            assertNull(stores.get(1).get(null, second));
+            assertEquals(0, firstArena.getUsedBytes());
+            assertEquals(1, transactionManager.getPartitionStats().get(1).getConflicts().sum());
+        }
+    }
+    
+    @Test
+    void testFailedLogOnOnePartitionAbortsAllOfThem() throws Exception {
+        Path logDirectory = tempDir.resolve("wal");
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, 1, 256, 1);
+        List<KeyValueStore> stores = List.of(new KeyValueStore(), new KeyValueStore(writeAheadLog));
+        try (TransactionManager transactionManager = new TransactionManager(stores)) {
+            String first = keyOn(transactionManager, stores.get(0));
+            String second = keyOn(transactionManager, stores.get(1));
+            // A directory in the place of the next segment makes the rollover after the first flush fail.
+            Files.createDirectories(logDirectory.resolve(String.format("wal-%020d.log", 2)));
+            stores.get(1).set(null, second, "1");
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!hasFailed(writeAheadLog) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(hasFailed(writeAheadLog));
+            
+            TransactionHandle handle = transactionManager.begin();
+            handle.set(first, "a");
+            handle.set(second, "b");
+            assertFalse(handle.commit());
+            assertNull(stores.get(0).get(null, first));
+            assertEquals("1", stores.get(1).get(null, second));
+        } finally {
+            stores.get(1).close();
+        }
+    }
+    
+    @Test
+    void testSinglePartitionTransactionTakesFastPath() {
+        List<KeyValueStore> stores = List.of(new KeyValueStore(), new KeyValueStore());
+        try (TransactionManager transactionManager = new TransactionManager(stores)) {
+            String key = keyOn(transactionManager, stores.get(1));
+            try (TransactionHandle handle = transactionManager.begin()) {
+                handle.set(key, "value");
+                assertTrue(handle.commit());
+            }
+            
+            PartitionStats stats = transactionManager.getPartitionStats().get(1);
+            assertEquals(1, stats.getFastPathCommits().sum());
+            assertEquals(0, transactionManager.getPartitionStats().get(0).getAttempts().sum());
+        }
+    }
+    
+    @Test
+    void testExecuteRetriesConflictingIncrements() throws Exception {
+        int transactionCount = 2_000;
+        KeyValueStore store = new KeyValueStore();
+        store.set("counter", "0");
+        try (TransactionManager transactionManager = new TransactionManager(store);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>(transactionCount);
+            for (int i = 0; i < transactionCount; i++) {
+                futures.add(executor.submit(() -> transactionManager.execute(handle -> {
+                    int counter = Integer.parseInt(handle.get("counter"));
+                    Thread.yield();
+                    handle.set("counter", String.valueOf(counter + 1));
+                    return counter;
+                })));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        
+        assertEquals(String.valueOf(transactionCount), store.get("counter"));
+    }
+    
+    @Test
+    void testExecuteEscalatesAfterRepeatedAborts() {
+        KeyValueStore store = new KeyValueStore();
+        store.set("counter", "0");
+        RetryPolicy retryPolicy = new RetryPolicy(5, 0, 0, 2);
+        AtomicInteger attempts = new AtomicInteger();
+        try (TransactionManager transactionManager = new TransactionManager(store)) {
+            int counter = transactionManager.execute(retryPolicy, handle -> {
+                int value = Integer.parseInt(handle.get("counter"));
+                if (attempts.incrementAndGet() <= 2) {
+                    // A concurrent writer invalidates the read of the first two attempts.
+                    store.set("counter", String.valueOf(value + 10));
+                }
+                handle.set("counter", String.valueOf(value + 1));
+                return value + 1;
+            });
+            
+            assertEquals(21, counter);
+            assertEquals("21", store.get("counter"));
+            assertEquals(2, transactionManager.getRetryCount());
+            assertEquals(1, transactionManager.getEscalationCount());
+            
+            RetryPolicy twoAttempts = new RetryPolicy(2, 0, 0, 2);
+            assertThrows(IllegalStateException.class, () -> transactionManager.execute(twoAttempts, handle -> {
+                handle.get("counter");
+                store.set("counter", "0");
+                handle.set("counter", "1");
+                return null;
+            }));
+            assertThrows(UnsupportedOperationException.class, () -> transactionManager.execute(handle -> {
+                handle.set("counter", "1");
+                throw new UnsupportedOperationException();
+            }));
+            assertEquals("0", store.get("counter"));
+        }
+    }
+    
+    @Test
+    void testExecuteRetriesAnAbortedCommitOfTheBody() {
+        KeyValueStore store = new KeyValueStore();
+        store.set("counter", "0");
+        AtomicInteger attempts = new AtomicInteger();
+        try (TransactionManager transactionManager = new TransactionManager(store)) {
+            boolean committed = transactionManager.execute(new RetryPolicy(5, 0, 0, 2), handle -> {
+                int value = Integer.parseInt(handle.get("counter"));
+                if (attempts.incrementAndGet() == 1) {
+                    store.set("counter", "10");
+                }
+                handle.set("counter", String.valueOf(value + 1));
+                return handle.commit();
+            });
+            
+            assertTrue(committed);
+            assertEquals(2, attempts.get());
+            assertEquals("11", store.get("counter"));
+            assertEquals(1, transactionManager.getRetryCount());
+        }
+    }
+    
+    @Test
+    void testAbortReportsOnlyTheConflictingKeys() {
+        KeyValueStore store = new KeyValueStore();
+        store.set("hot", "0");
+        store.set("cold", "0");
+        try (TransactionManager transactionManager = new TransactionManager(store);
+             TransactionHandle handle = transactionManager.begin()) {
+            handle.get("cold");
+            handle.get("hot");
+            handle.set("other", "1");
+            store.set("hot", "1");
+            assertFalse(handle.commit());
+            assertTrue(handle.isAborted());
+            assertEquals(Set.of("hot"), handle.getConflictKeys());
+        }
+    }
+    
+    /**
+     * @param writeAheadLog
+     * @return
+     */
+    private static boolean hasFailed(WriteAheadLog writeAheadLog) {
+        try {
+            writeAheadLog.checkHealthy();
+            return false;
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+    
+    /**
+     * @param transactionManager
+     * @param store
+     * @return a key owned by the <code>store</code>.
+     */
+    private static String keyOn(TransactionManager transactionManager, KeyValueStore store) {
+        for (int i = 0; ; i++) {
+            if (transactionManager.storeFor("key" + i) == store) {
+                return "key" + i;
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ValueArena Tests
+ */
+public class ValueArenaTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testSizeClasses() {
+        assertEquals(16, ValueArena.blockSize(0));
+        assertEquals(16, ValueArena.blockSize(16));
+        assertEquals(20, ValueArena.blockSize(17));
+        assertEquals(32, ValueArena.blockSize(32));
+        assertEquals(40, ValueArena.blockSize(33));
+        assertEquals(1 << 20, ValueArena.blockSize(1 << 20));
+        
+        int previousClass = 0;
+        for (int length = 1; length <= 1 << 16; length++) {
+            int blockSize = ValueArena.blockSize(length);
+            assertTrue(blockSize >= length && blockSize <= Math.max(16, length * 5 / 4 + 1));
+            int sizeClass = ValueArena.sizeClass(length);
+            assertTrue(sizeClass == previousClass || sizeClass == previousClass + 1);
+            previousClass = sizeClass;
+        }
+    }
+    
+    @Test
+    void testFreedBlocksAreReused() {
+        ValueArena arena = new ValueArena(1 << 20, 1 << 16);
+        long first = arena.allocate("value1".getBytes());
+        long second = arena.allocate("value2".getBytes());
+        assertEquals("value1", new String(arena.read(first, 6)));
+        assertEquals("value2", new String(arena.read(second, 6)));
+        assertEquals(32, arena.getUsedBytes());
+        
+        arena.free(first, 6);
+        assertEquals(16, arena.getUsedBytes());
+        assertEquals(first, arena.allocate("value3".getBytes()));
+        assertEquals(1 << 16, arena.getReservedBytes());
+        
+        assertThrows(IllegalArgumentException.class, () -> arena.allocate(new byte[(1 << 16) + 1]));
+    }
+    
+    @Test
+    void testArenaIsBounded() {
+        ValueArena arena = new ValueArena(1 << 12, 1 << 11);
+        arena.allocate(new byte[1 << 11]);
+        arena.allocate(new byte[1 << 11]);
+        assertThrows(IllegalStateException.class, () -> arena.allocate(new byte[1]));
+    }
+    
+    @Test
+    void testFullArenaFailsTheWholeCommit() {
+        ValueArena arena = new ValueArena(1 << 12, 1 << 11);
+        KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, null, null, arena);
+        Transaction transaction = store.beginTransaction();
+        for (String key : new String[]{"key1", "key2", "key3"}) {
+            store.set(transaction, key, "x".repeat(1 << 11));
+        }
+        assertThrows(IllegalStateException.class, () -> store.commit(transaction));
+        
+        // Nothing was installed or published, and the blocks taken before the failure were given back.
+        assertNull(store.get("key1"));
+        assertNull(store.get("key2"));
+        assertEquals(0, store.getVersion());
+        assertEquals(0, store.lastStartedVersion());
+        assertEquals(0, arena.getUsedBytes());
+        
+        // The freed blocks serve the next commit.
+        store.set("key1", "y".repeat(1 << 11));
+        assertEquals("y".repeat(1 << 11), store.get("key1"));
+        assertEquals(1, store.getVersion());
+    }
+    
+    @Test
+    void testOffHeapStore() throws Exception {
+        ValueArena arena = new ValueArena(1 << 24, 1 << 20);
+        KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, null, null, arena);
+        store.set("key1", "value1");
+        store.set(null, "key2", new byte[]{1, 2, 3}, ValueCodec.BYTES);
+        assertEquals("value1", store.get("key1"));
+        assertArrayEquals(new byte[]{1, 2, 3}, store.get(null, "key2", ValueCodec.BYTES));
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), store.get(null, "key2", ValueCodec.BYTE_BUFFER));
+        
+        // An open snapshot keeps reading its version while the key is overwritten.
+        Transaction transaction = store.beginTransaction();
+        assertEquals("value1", store.get(transaction, "key1"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            for (int i = 0; i < 1000; i++) {
+                store.set("key1", "updated" + i);
+            }
+        }).get();
+        assertEquals("value1", store.get(transaction, "key1"));
+        assertTrue(store.commit(transaction));
+        
+        // Once nobody can see them, the old versions give their blocks back.
+        store.vacuum();
+        assertEquals("updated999", store.get("key1"));
+        assertEquals(2 * 16, arena.getUsedBytes());
+        
+        store.delete("key1");
+        store.vacuum();
+        assertEquals(16, arena.getUsedBytes());
+        executor.shutdown();
+    }
+    
+    @Test
+    void testConcurrentReadsNeverSeeReusedBlocks() throws Exception {
+        ValueArena arena = new ValueArena(1 << 24, 1 << 20);
+        KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, null, null, arena);
+        for (int i = 0; i < 16; i++) {
+            store.set("key" + i, "value-" + i + "-0");
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> writer = executor.submit(() -> {
+            for (int round = 1; round <= 2000; round++) {
+                for (int i = 0; i < 16; i++) {
+                    store.set("key" + i, "value-" + i + "-" + round);
+                }
+            }
+        });
+        Future<?> reader = executor.submit(() -> {
+            while (!writer.isDone()) {
+                for (int i = 0; i < 16; i++) {
+                    String value = store.get("key" + i);
+                    assertTrue(value.startsWith("value-" + i + "-"), value);
+                }
+            }
+        });
+        writer.get();
+        reader.get();
+        executor.shutdown();
+    }
+    
+    @Test
+    void testOffHeapStoreRecovers() throws IOException {
+        Path logDirectory = tempDir.resolve("wal");
+        Path snapshotDirectory = tempDir.resolve("snapshots");
+        try (KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, new WriteAheadLog(logDirectory),
+                                                     snapshotDirectory, new ValueArena(1 << 20, 1 << 16))) {
+            store.set("key1", "value1");
+            store.set(null, "key2", new byte[]{(byte) 0xFF, 0}, ValueCodec.BYTES);
+            store.checkpoint(snapshotDirectory);
+            store.set("key1", "updated");
+        }
+        
+        ValueArena arena = new ValueArena(1 << 20, 1 << 16);
+        try (KeyValueStore store = new KeyValueStore(LockStripes.DEFAULT_STRIPES, new WriteAheadLog(logDirectory),
+                                                     snapshotDirectory, arena)) {
+            assertEquals("updated", store.get("key1"));
+            assertArrayEquals(new byte[]{(byte) 0xFF, 0}, store.get(null, "key2", ValueCodec.BYTES));
+            assertEquals(2 * 16, arena.getUsedBytes());
+        }
+    }
+}
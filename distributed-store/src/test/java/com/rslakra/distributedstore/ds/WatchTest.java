@@ -0,0 +1,84 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Watch Tests
+ */
+public class WatchTest {
+    
+    @Test
+    void testChangesOfOneCommitAreCoalesced() throws InterruptedException {
+        KeyValueStore store = new KeyValueStore();
+        try (Watch watch = store.watch("config/", store.getVersion())) {
+            store.begin();
+            store.set("config/timeout", "30");
+            store.set("config/retries", "3");
+            store.set("other", "ignored");
+            assertTrue(store.commit());
+            store.set("other", "ignored");
+            store.delete("config/retries");
+            
+            WatchEvent event = watch.poll(1, TimeUnit.SECONDS);
+            assertFalse(event.isResync());
+            assertEquals(Set.of("config/timeout", "config/retries"), event.getWrites().keySet());
+            assertEquals("30", event.getValue("config/timeout", ValueCodec.UTF_8));
+            
+            event = watch.poll(1, TimeUnit.SECONDS);
+            assertEquals(store.getVersion(), event.getVersion());
+            assertEquals(Map.of(), event.getWrites());
+            assertEquals(Set.of("config/retries"), event.getDeletes());
+            assertNull(watch.poll(10, TimeUnit.MILLISECONDS));
+        }
+    }
+    
+    @Test
+    void testWatchReplaysFromASnapshotVersion() throws InterruptedException {
+        KeyValueStore store = new KeyValueStore();
+        store.set("config/a", "0");
+        store.watch("", store.getVersion()).close();
+        store.set("config/a", "1");
+        
+        // Load the keys from a snapshot, then follow the commits after it, including the ones in between.
+        Transaction transaction = store.beginTransaction();
+        assertEquals("1", store.get(transaction, "config/a"));
+        store.rollback(transaction);
+        store.set("config/a", "2");
+        try (Watch watch = store.watch("config/", transaction.getSnapshotVersion())) {
+            store.set("config/a", "3");
+            assertEquals("2", watch.poll(1, TimeUnit.SECONDS).getValue("config/a", ValueCodec.UTF_8));
+            assertEquals("3", watch.poll(1, TimeUnit.SECONDS).getValue("config/a", ValueCodec.UTF_8));
+        }
+        
+        // The commits before the first watch are not retained.
+        Watch watch = store.watch("config/", 0);
+        assertTrue(watch.poll(1, TimeUnit.SECONDS).isResync());
+        assertTrue(watch.isClosed());
+    }
+    
+    @Test
+    void testSlowWatcherIsResyncedWithoutBlockingCommits() throws InterruptedException {
+        KeyValueStore store = new KeyValueStore();
+        Watch slow = store.watch("", store.getVersion(), 4);
+        Watch fast = store.watch("", store.getVersion(), 100);
+        for (int i = 0; i < 10; i++) {
+            store.set("key", String.valueOf(i));
+        }
+        
+        WatchEvent event = slow.poll(1, TimeUnit.SECONDS);
+        assertTrue(event.isResync());
+        assertEquals(5, event.getVersion());
+        assertNull(slow.poll(10, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i + 1, fast.poll(1, TimeUnit.SECONDS).getVersion());
+        }
+        assertFalse(fast.isClosed());
+        fast.close();
+    }
+}
@@ -0,0 +1,172 @@
+package com.rslakra.distributedstore.ds;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * WriteAheadLog Tests
+ */
+public class WriteAheadLogTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testRecoverCommittedState() throws IOException {
+        Path logDirectory = tempDir.resolve("wal");
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            store.set("key1", "value1");
+            store.set("key2", "value2");
+            store.begin();
+            store.set("key2", "transactionValue");
+            store.set("key3", "value3");
+            store.delete("key1");
+            assertTrue(store.commit());
+            
+            store.begin();
+            store.set("key4", "rolledBack");
+            store.rollback();
+        }
+        
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            assertNull(store.get("key1"));
+            assertEquals("transactionValue", store.get("key2"));
+            assertEquals("value3", store.get("key3"));
+            assertNull(store.get("key4"));
+            
+            // New commits continue after the recovered version.
+            store.set("key1", "recreated");
+        }
+        
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            assertEquals("recreated", store.get("key1"));
+        }
+    }
+    
+    @Test
+    void testTimeToLiveSurvivesRestart() throws Exception {
+        Path logDirectory = tempDir.resolve("wal");
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            store.set("session", "data", 300, TimeUnit.MILLISECONDS);
+            store.set("permanent", "data");
+        }
+        
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            assertEquals("data", store.get("session"));
+            Thread.sleep(400);
+            assertNull(store.get("session"));
+            assertEquals("data", store.get("permanent"));
+        }
+    }
+    
+    @Test
+    void testTornTailIsTruncated() throws IOException {
+        Path logDirectory = tempDir.resolve("wal");
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            store.set("key1", "value1");
+        }
+        
+        // Simulate a crash in the middle of writing the next record.
+        Path segment;
+        try (Stream<Path> segments = Files.list(logDirectory)) {
+            segment = segments.findFirst().orElseThrow();
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+        
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            assertEquals("value1", store.get("key1"));
+            store.set("key2", "value2");
+        }
+        
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            assertEquals("value1", store.get("key1"));
+            assertEquals("value2", store.get("key2"));
+        }
+    }
+    
+    @Test
+    void testFailureStopsTheLog() throws Exception {
+        Path logDirectory = tempDir.resolve("wal");
+        try (WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, 500, 256, 1)) {
+            // A directory in the place of the next segment makes the rollover after the first flush fail.
+            Files.createDirectories(logDirectory.resolve(String.format("wal-%020d.log", 2)));
+            CompletableFuture<Void> first = writeAheadLog.append(record(1));
+            CompletableFuture<CompletableFuture<Void>> queued = new CompletableFuture<>();
+            // Runs on the flusher once the first record is durable, so this record is queued before the rollover.
+            first.thenRun(() -> queued.complete(writeAheadLog.append(record(2))));
+            first.get(5, TimeUnit.SECONDS);
+            
+            CompletableFuture<Void> second = queued.get(5, TimeUnit.SECONDS);
+            ExecutionException queuedFailure = assertThrows(ExecutionException.class,
+                                                            () -> second.get(5, TimeUnit.SECONDS));
+            ExecutionException laterFailure = assertThrows(ExecutionException.class,
+                                                           () -> writeAheadLog.append(record(3)).get());
+            // Both fail with the rollover failure, not with a write to the closed segment.
+            assertInstanceOf(FileSystemException.class, queuedFailure.getCause());
+            assertSame(queuedFailure.getCause(), laterFailure.getCause());
+        }
+    }
+    
+    @Test
+    void testConcurrentCommitsShareFsyncs() throws Exception {
+        int threadCount = 16;
+        int commitsPerThread = 50;
+        Path logDirectory = tempDir.resolve("wal");
+        WriteAheadLog writeAheadLog = new WriteAheadLog(logDirectory, 2, 1024);
+        try (KeyValueStore store = new KeyValueStore(writeAheadLog)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            CountDownLatch latch = new CountDownLatch(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                final int index = i;
+                executor.submit(() -> {
+                    try {
+                        for (int j = 0; j < commitsPerThread; j++) {
+                            store.begin();
+                            store.set("key" + index + "-" + j, "value" + j);
+                            assertTrue(store.commit());
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            
+            latch.await();
+            executor.shutdown();
+            assertTrue(writeAheadLog.getSyncCount() < threadCount * commitsPerThread);
+        }
+        
+        try (KeyValueStore store = new KeyValueStore(new WriteAheadLog(logDirectory))) {
+            for (int i = 0; i < threadCount; i++) {
+                for (int j = 0; j < commitsPerThread; j++) {
+                    assertEquals("value" + j, store.get("key" + i + "-" + j));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param version
+     * @return
+     */
+    private static CommitRecord record(long version) {
+        return new CommitRecord(version, Map.of("key" + version, new byte[]{1}), Set.of());
+    }
+}
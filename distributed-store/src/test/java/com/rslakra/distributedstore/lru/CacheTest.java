@@ -0,0 +1,111 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Cache Tests
+ */
+public class CacheTest {
+    
+    @Test
+    void testEntriesExpireAfterWriteAndAfterAccess() {
+        AtomicLong now = new AtomicLong();
+        LRUEvictionPolicy<String> policy = new LRUEvictionPolicy<>();
+        Cache<String, String> cache = new Cache<>(policy, new HashMapStore<>(10), new Expiration(1_000, 300, 0),
+                                                  now::get);
+        cache.set("key1", "value1");
+        cache.set("key2", "value2");
+        for (int i = 0; i < 4; i++) {
+            advance(now, 200);
+            assertEquals("value1", cache.get("key1"));
+        }
+        
+        // Idle for 800ms, key2 expired after access; key1 was read every 200ms and is still there.
+        assertNull(cache.get("key2"));
+        assertEquals(1, cache.size());
+        
+        // Reads do not keep key1 past its expiry after write, and a new write starts it over.
+        advance(now, 200);
+        assertNull(cache.get("key1"));
+        cache.set("key1", "value1b");
+        assertEquals("value1b", cache.get("key1"));
+        
+        // An expired key that is not read is removed by the clean up, and the policy forgets it.
+        advance(now, 400);
+        assertEquals(1, cache.cleanUp());
+        assertEquals(0, cache.size());
+        assertNull(policy.evict());
+        assertEquals(3, cache.getStats().getExpirationCount());
+        assertEquals(2, cache.getStats().getMissCount());
+    }
+    
+    @Test
+    void testWriteRacingTheEvictionOfItsKeyKeepsItsTimestamps() {
+        AtomicLong now = new AtomicLong();
+        AtomicReference<Cache<String, String>> cacheRef = new AtomicReference<>();
+        AtomicBoolean rewrite = new AtomicBoolean(true);
+        // Rewrites key1 right after the store deleted it for an eviction, before the cache drops its timestamps.
+        Store<String, String> store = new HashMapStore<>(2) {
+            @Override
+            public void delete(String key) {
+                super.delete(key);
+                if ("key1".equals(key) && rewrite.compareAndSet(true, false)) {
+                    cacheRef.get().set("key1", "value1b");
+                }
+            }
+        };
+        Cache<String, String> cache = new Cache<>(new LRUEvictionPolicy<>(), store, new Expiration(1_000, 0, 0),
+                                                  now::get);
+        cacheRef.set(cache);
+        cache.set("key1", "value1");
+        cache.set("key2", "value2");
+        cache.set("key3", "value3");
+        
+        assertFalse(rewrite.get());
+        assertNotEquals(Cache.NO_TIME, cache.getWriteTime("key1"));
+        assertEquals("value1b", cache.get("key1"));
+        advance(now, 100_000);
+        assertNull(cache.get("key1"));
+        assertNull(cache.get("key3"));
+    }
+    
+    @Test
+    void testRejectedOverwriteRemovesTheResidentValue() {
+        for (Expiration expiration : new Expiration[]{Expiration.NEVER, new Expiration(1_000, 0, 0)}) {
+            AtomicLong now = new AtomicLong();
+            // Admits no key that needs an eviction, as a W-TinyLFU policy without a window does for a cold key.
+            LRUEvictionPolicy<String> policy = new LRUEvictionPolicy<>() {
+                @Override
+                public boolean admit(String candidate) {
+                    return false;
+                }
+            };
+            Cache<String, String> cache = new Cache<>(policy, new HashMapStore<>(4, (key, value) -> value.length()),
+                                                      expiration, now::get);
+            cache.set("key1", "ab");
+            cache.set("key2", "c");
+            
+            // The heavier value of key1 does not fit and is not admitted: the old one must not be read back.
+            cache.set("key1", "abcd");
+            assertNull(cache.get("key1"));
+            assertEquals(Cache.NO_TIME, cache.getWriteTime("key1"));
+            assertEquals("c", cache.get("key2"));
+            assertEquals(1, cache.weightedSize());
+            assertEquals("key2", policy.evict());
+            assertNull(policy.evict());
+        }
+    }
+    
+    private static void advance(AtomicLong now, long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
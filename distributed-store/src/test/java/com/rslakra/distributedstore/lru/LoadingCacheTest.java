@@ -0,0 +1,157 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LoadingCache Tests
+ */
+public class LoadingCacheTest {
+    
+    @Test
+    void testConcurrentMissesShareOneLoad() throws Exception {
+        AtomicInteger backendLoads = new AtomicInteger();
+        CompletableFuture<String> slowLoad = new CompletableFuture<>();
+        DataSource<String, String> dataSource = new DataSource<>() {
+            @Override
+            public Future<String> get(String key) {
+                backendLoads.incrementAndGet();
+                return slowLoad;
+            }
+            
+            @Override
+            public Future<Void> persist(String key, String value) {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (LoadingCache<String, String> cache = new LoadingCache<>(new LRUEvictionPolicy<>(),
+                                                                     new HashMapStore<>(10), dataSource)) {
+            List<Future<String>> readers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                readers.add(executor.submit(() -> cache.get("key1")));
+            }
+            Thread.sleep(100);
+            slowLoad.complete("value1");
+            
+            for (Future<String> reader : readers) {
+                assertEquals("value1", reader.get());
+            }
+            assertEquals("value1", cache.get("key1"));
+            assertEquals(1, backendLoads.get());
+            assertEquals(1, cache.getLoadCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    void testWritesAreCoalescedAndReadBeforeTheyArePersisted() throws Exception {
+        DataSourceImpl dataSource = new DataSourceImpl();
+        try (LoadingCache<String, String> cache = new LoadingCache<>(new LRUEvictionPolicy<>(),
+                                                                     new HashMapStore<>(5), dataSource, 60_000,
+                                                                     1_000)) {
+            for (int i = 0; i < 1_000; i++) {
+                cache.set("key" + (i % 10), "value" + i);
+            }
+            assertEquals(10, cache.getPendingWriteCount());
+            assertEquals(0, cache.getPersistCount());
+            
+            // Half of the keys were evicted, and their writes are still queued.
+            for (int i = 0; i < 10; i++) {
+                assertEquals("value" + (990 + i), cache.get("key" + i));
+            }
+            assertEquals(0, cache.getLoadCount());
+            assertNull(dataSource.get("key0").get());
+            
+            assertEquals(10, cache.flush());
+            assertEquals(10, cache.getPersistCount());
+            assertEquals(0, cache.getPendingWriteCount());
+            assertEquals("value990", dataSource.get("key0").get());
+        }
+    }
+    
+    @Test
+    void testRefreshAheadServesTheCachedValueWhileReloading() throws Exception {
+        AtomicInteger backendLoads = new AtomicInteger();
+        AtomicReference<CompletableFuture<String>> nextLoad = new AtomicReference<>(
+            CompletableFuture.completedFuture("value1"));
+        DataSource<String, String> dataSource = new DataSource<>() {
+            @Override
+            public Future<String> get(String key) {
+                backendLoads.incrementAndGet();
+                return nextLoad.get();
+            }
+            
+            @Override
+            public Future<Void> persist(String key, String value) {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        
+        AtomicLong now = new AtomicLong();
+        try (LoadingCache<String, String> cache = new LoadingCache<>(new LRUEvictionPolicy<>(),
+                                                                     new HashMapStore<>(10), dataSource, 60_000,
+                                                                     1_000, new Expiration(10_000, 0, 1_000),
+                                                                     now::get)) {
+            assertEquals("value1", cache.get("key1"));
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1_500));
+            
+            // Past the refresh age, the reads return the cached value while a single reload is pending.
+            CompletableFuture<String> slowLoad = new CompletableFuture<>();
+            nextLoad.set(slowLoad);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("value1", cache.get("key1"));
+            }
+            waitFor(() -> backendLoads.get() == 2);
+            assertEquals(1, cache.getRefreshCount());
+            
+            slowLoad.complete("value2");
+            waitFor(() -> "value2".equals(cache.get("key1")));
+            
+            // A write made while a refresh is in flight is not replaced by the reloaded value.
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1_500));
+            CompletableFuture<String> staleLoad = new CompletableFuture<>();
+            nextLoad.set(staleLoad);
+            assertEquals("value2", cache.get("key1"));
+            waitFor(() -> backendLoads.get() == 3);
+            cache.set("key1", "value3");
+            staleLoad.complete("stale");
+            cache.flush();
+            Thread.sleep(100);
+            assertEquals("value3", cache.get("key1"));
+            assertEquals(2, cache.getRefreshCount());
+            assertEquals(0, cache.getStats().getExpirationCount());
+        }
+    }
+    
+    /**
+     * Waits up to 10 seconds for the <code>condition</code>, failing if it never holds.
+     *
+     * @param condition
+     * @throws InterruptedException
+     */
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.rslakra.distributedstore.lru;
+
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import com.rslakra.distributedstore.lru.store.HashMapStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ShardedCache Tests
+ */
+public class ShardedCacheTest {
+    
+    @Test
+    void testCapacityIsSplitOverTheShards() {
+        List<Integer> capacities = new ArrayList<>();
+        ShardedCache<String, String> cache = new ShardedCache<>(4, 10, shardCapacity -> new LRUEvictionPolicy<>(),
+                                                                shardCapacity -> {
+                                                                    capacities.add(shardCapacity);
+                                                                    return new HashMapStore<>(shardCapacity);
+                                                                });
+        assertEquals(List.of(3, 3, 2, 2), capacities);
+        assertEquals(4, cache.getShardCount());
+        assertThrows(IllegalArgumentException.class,
+                     () -> new ShardedCache<String, String>(4, 3, shardCapacity -> new LRUEvictionPolicy<>(),
+                                                            HashMapStore::new));
+    }
+    
+    @Test
+    void testSizeAndStatsAreAggregated() {
+        ShardedCache<String, String> cache = new ShardedCache<>(8, 100, shardCapacity -> new LRUEvictionPolicy<>(),
+                                                                HashMapStore::new);
+        for (int i = 0; i < 1_000; i++) {
+            cache.set("key" + i, "value" + i);
+        }
+        assertTrue(cache.size() <= 100, "size " + cache.size());
+        
+        int hits = 0;
+        for (int i = 0; i < 1_000; i++) {
+            String value = cache.get("key" + i);
+            if (value != null) {
+                assertEquals("value" + i, value);
+                hits++;
+            }
+        }
+        
+        CacheStats stats = cache.getStats();
+        assertEquals(cache.size(), hits);
+        assertEquals(hits, stats.getHitCount());
+        assertEquals(1_000 - hits, stats.getMissCount());
+        assertEquals(1_000 - cache.size(), stats.getEvictionCount());
+    }
+    
+    @Test
+    void testConcurrentAccessStaysWithinCapacity() throws Exception {
+        ShardedCache<Integer, Integer> cache = new ShardedCache<>(16, 1_000,
+                                                                  shardCapacity -> new LRUEvictionPolicy<>(),
+                                                                  HashMapStore::new);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        int key = ThreadLocalRandom.current().nextInt(5_000);
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.set(key, key);
+                        } else {
+                            assertEquals(key, value);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        assertTrue(cache.size() <= 1_000, "size " + cache.size());
+        assertEquals(160_000, cache.getStats().getHitCount() + cache.getStats().getMissCount());
+    }
+}
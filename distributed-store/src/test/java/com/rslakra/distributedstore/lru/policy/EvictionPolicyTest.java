@@ -0,0 +1,111 @@
+package com.rslakra.distributedstore.lru.policy;
+
+import com.rslakra.distributedstore.lru.CacheSimulator;
+import com.rslakra.distributedstore.lru.EvictionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * EvictionPolicy Tests
+ */
+public class EvictionPolicyTest {
+    
+    @Test
+    void testLruEvictsLeastRecentlyUsedKey() {
+        LRUEvictionPolicy<String> policy = new LRUEvictionPolicy<>();
+        policy.accessedKey("key1");
+        policy.accessedKey("key2");
+        policy.accessedKey("key3");
+        policy.accessedKey("key1");
+        
+        assertEquals("key2", policy.evict());
+        assertEquals("key3", policy.evict());
+        assertEquals("key1", policy.evict());
+        assertNull(policy.evict());
+    }
+    
+    @Test
+    void testConcurrentAccessesKeepEveryKeyEvictable() throws Exception {
+        testConcurrentAccesses(new LRUEvictionPolicy<>());
+        testConcurrentAccesses(new WTinyLfuEvictionPolicy<>(1_000));
+    }
+    
+    @Test
+    void testTinyLfuResistsScans() {
+        int capacity = 100;
+        CacheSimulator lru = new CacheSimulator(new LRUEvictionPolicy<>(), capacity);
+        CacheSimulator tinyLfu = new CacheSimulator(new WTinyLfuEvictionPolicy<>(capacity), capacity);
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // Half of the accesses go to 80 hot keys, the other half scan keys that are never used again.
+            String key = (random.nextBoolean() ? "hot" + random.nextInt(80) : "scan" + i);
+            lru.access(key);
+            tinyLfu.access(key);
+        }
+        
+        assertTrue(tinyLfu.getHitRatio() > 0.45, "W-TinyLFU hit ratio " + tinyLfu.getHitRatio());
+        assertTrue(tinyLfu.getHitRatio() > lru.getHitRatio() + 0.1,
+                   "W-TinyLFU " + tinyLfu.getHitRatio() + " vs LRU " + lru.getHitRatio());
+    }
+    
+    @Test
+    void testTinyLfuWithoutWindowRejectsInfrequentCandidates() {
+        WTinyLfuEvictionPolicy<String> policy = new WTinyLfuEvictionPolicy<>(2, 0);
+        policy.accessedKey("key1");
+        policy.accessedKey("key2");
+        for (int i = 0; i < 3; i++) {
+            policy.accessedKey("key1");
+            policy.accessedKey("key2");
+        }
+        
+        assertFalse(policy.admit("key3"));
+        assertEquals("key1", policy.evict());
+    }
+    
+    /**
+     * Hammers the <code>policy</code> from several threads, then checks that it evicts each key exactly once.
+     *
+     * @param policy
+     * @throws Exception
+     */
+    private static void testConcurrentAccesses(EvictionPolicy<Integer> policy) throws Exception {
+        int keyCount = 1_000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50_000; i++) {
+                        policy.accessedKey(ThreadLocalRandom.current().nextInt(keyCount));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int key = 0; key < keyCount; key++) {
+            policy.accessedKey(key);
+        }
+        
+        Set<Integer> evicted = new HashSet<>();
+        Integer key;
+        while ((key = policy.evict()) != null) {
+            assertTrue(evicted.add(key), "Evicted twice: " + key);
+        }
+        assertEquals(keyCount, evicted.size());
+    }
+}
@@ -0,0 +1,60 @@
+package com.rslakra.distributedstore.lru.store;
+
+import com.rslakra.distributedstore.lru.Cache;
+import com.rslakra.distributedstore.lru.StorageFullException;
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HashMapStore Tests
+ */
+public class HashMapStoreTest {
+    
+    @Test
+    void testWeightBudget() {
+        HashMapStore<String, byte[]> store = new HashMapStore<>(100, (key, value) -> value.length);
+        store.set("key1", new byte[60]);
+        store.set("key2", new byte[40]);
+        assertEquals(100, store.weightedSize());
+        assertThrows(StorageFullException.class, () -> store.set("key3", new byte[1]));
+        
+        // An overwrite only needs room for the difference.
+        assertThrows(StorageFullException.class, () -> store.set("key1", new byte[61]));
+        store.set("key1", new byte[10]);
+        assertEquals(50, store.weightedSize());
+        store.delete("key2");
+        assertEquals(10, store.weightedSize());
+        assertEquals(1, store.size());
+        assertThrows(IllegalArgumentException.class, () -> store.set("key4", new byte[101]));
+    }
+    
+    @Test
+    void testCacheEvictsUntilTheEntryFits() {
+        Cache<String, byte[]> cache = new Cache<>(new LRUEvictionPolicy<>(),
+                                                  new HashMapStore<>(100, (key, value) -> value.length));
+        for (int i = 0; i < 10; i++) {
+            cache.set("small" + i, new byte[10]);
+        }
+        cache.get("small0");
+        
+        cache.set("large", new byte[75]);
+        assertEquals(95, cache.weightedSize());
+        assertEquals(3, cache.size());
+        assertNotNull(cache.get("large"));
+        assertNotNull(cache.get("small0"));
+        assertNotNull(cache.get("small9"));
+        assertEquals(8, cache.getStats().getEvictionCount());
+    }
+    
+    @Test
+    void testHeapWeigherGrowsWithTheValue() {
+        HeapWeigher weigher = new HeapWeigher();
+        int small = weigher.weigh("key", "value");
+        int large = weigher.weigh("key", "value".repeat(100));
+        assertTrue(small > 0);
+        assertTrue(large - small >= 495, small + " vs " + large);
+        assertTrue(weigher.weigh("key", new byte[1024]) > 1024);
+    }
+}
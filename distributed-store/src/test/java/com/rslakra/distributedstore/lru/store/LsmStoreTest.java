@@ -0,0 +1,97 @@
+package com.rslakra.distributedstore.lru.store;
+
+import com.rslakra.distributedstore.ds.ValueCodec;
+import com.rslakra.distributedstore.lru.KeyNotFoundException;
+import com.rslakra.distributedstore.lru.StorageFullException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LsmStore Tests
+ */
+public class LsmStoreTest {
+    
+    @TempDir
+    Path tempDir;
+    
+    @Test
+    void testReadsSurviveFlushesCompactionsAndReopen() throws InterruptedException {
+        int keyCount = 5_000;
+        try (LsmStore<String, String> store = newStore(keyCount)) {
+            for (int i = 0; i < keyCount; i++) {
+                store.set("key" + i, "value" + i);
+            }
+            for (int i = 0; i < keyCount; i += 3) {
+                store.set("key" + i, "updated" + i);
+            }
+            for (int i = 1; i < keyCount; i += 3) {
+                store.delete("key" + i);
+            }
+            
+            // Wait for the compactions to catch up, so that the reads below go through the deeper levels.
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (store.getTableCounts().get(0) >= LsmStore.L0_COMPACTION_TRIGGER
+                   && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            List<Integer> tableCounts = store.getTableCounts();
+            assertTrue(tableCounts.size() > 1, "Expected compacted levels: " + tableCounts);
+            assertContents(store, keyCount);
+        }
+        
+        try (LsmStore<String, String> store = newStore(keyCount)) {
+            assertContents(store, keyCount);
+            assertEquals(keyCount - (keyCount + 1) / 3, store.size());
+        }
+    }
+    
+    @Test
+    void testCapacityAndMissingKeys() {
+        try (LsmStore<String, String> store = newStore(2)) {
+            store.set("key1", "value1");
+            store.set("key2", "value2");
+            assertThrows(StorageFullException.class, () -> store.set("key3", "value3"));
+            
+            // Overwriting a key does not need room.
+            store.set("key2", "updated");
+            assertEquals("updated", store.get("key2"));
+            
+            store.delete("key1");
+            assertThrows(KeyNotFoundException.class, () -> store.get("key1"));
+            assertThrows(KeyNotFoundException.class, () -> store.delete("key1"));
+            store.set("key3", "value3");
+            assertEquals(2, store.size());
+        }
+    }
+    
+    /**
+     * @param capacity
+     * @return a store with tiny memtables and tables, so that a few thousand keys span several levels.
+     */
+    private LsmStore<String, String> newStore(long capacity) {
+        return new LsmStore<>(tempDir.resolve("lsm"), ValueCodec.UTF_8, ValueCodec.UTF_8, capacity, 4 * 1024,
+                              8 * 1024);
+    }
+    
+    /**
+     * @param store
+     * @param keyCount
+     */
+    private static void assertContents(LsmStore<String, String> store, int keyCount) {
+        for (int i = 0; i < keyCount; i++) {
+            String key = "key" + i;
+            if (i % 3 == 0) {
+                assertEquals("updated" + i, store.get(key));
+            } else if (i % 3 == 1) {
+                assertThrows(KeyNotFoundException.class, () -> store.get(key));
+            } else {
+                assertEquals("value" + i, store.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.rslakra.distributedstore.lru.store;
+
+import com.rslakra.distributedstore.ds.ValueCodec;
+import com.rslakra.distributedstore.lru.Cache;
+import com.rslakra.distributedstore.lru.KeyNotFoundException;
+import com.rslakra.distributedstore.lru.StorageFullException;
+import com.rslakra.distributedstore.lru.policy.LRUEvictionPolicy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OffHeapStore Tests
+ */
+public class OffHeapStoreTest {
+    
+    @Test
+    void testSetGetDeleteAndChunkReuse() {
+        try (OffHeapStore<String, String> store = new OffHeapStore<>(ValueCodec.UTF_8, ValueCodec.UTF_8, 10_000,
+                                                                     16L * OffHeapStore.PAGE_SIZE)) {
+            for (int i = 0; i < 10_000; i++) {
+                store.set("key" + i, "value" + i);
+            }
+            // Moves every third entry to a larger size class.
+            for (int i = 0; i < 10_000; i += 3) {
+                store.set("key" + i, "value".repeat(40) + i);
+            }
+            // Deletes shift the probe sequences back, which must leave every other key reachable.
+            for (int i = 1; i < 10_000; i += 3) {
+                store.delete("key" + i);
+            }
+            
+            for (int i = 0; i < 10_000; i++) {
+                String key = "key" + i;
+                switch (i % 3) {
+                    case 0 -> assertEquals("value".repeat(40) + i, store.get(key));
+                    case 1 -> assertThrows(KeyNotFoundException.class, () -> store.get(key));
+                    default -> assertEquals("value" + i, store.get(key));
+                }
+            }
+            assertEquals(10_000 - 3_333, store.size());
+            assertThrows(KeyNotFoundException.class, () -> store.delete("key1"));
+            
+            // The freed chunks are reused before any new page is taken.
+            long allocatedBytes = store.getAllocatedBytes();
+            for (int round = 0; round < 5; round++) {
+                for (int i = 1; i < 10_000; i += 3) {
+                    store.set("key" + i, "value" + i);
+                }
+                for (int i = 1; i < 10_000; i += 3) {
+                    store.delete("key" + i);
+                }
+            }
+            assertEquals(allocatedBytes, store.getAllocatedBytes());
+        }
+    }
+    
+    @Test
+    void testStoreIsFullWhenItsPagesAreTaken() {
+        try (OffHeapStore<String, byte[]> store = new OffHeapStore<>(ValueCodec.UTF_8, ValueCodec.BYTES, 1_000,
+                                                                     2L * OffHeapStore.PAGE_SIZE)) {
+            int written = 0;
+            try {
+                while (true) {
+                    store.set("key" + written, new byte[100_000]);
+                    written++;
+                }
+            } catch (StorageFullException ex) {
+                assertEquals(written, store.size());
+            }
+            assertTrue(written > 10 && written <= 20, "written " + written);
+            assertThrows(IllegalArgumentException.class, () -> store.set("huge", new byte[OffHeapStore.PAGE_SIZE]));
+        }
+    }
+    
+    @Test
+    void testCacheEvictsWhenTheMemoryIsFull() {
+        try (OffHeapStore<String, byte[]> store = new OffHeapStore<>(ValueCodec.UTF_8, ValueCodec.BYTES, 1_000,
+                                                                     4L * OffHeapStore.PAGE_SIZE)) {
+            Cache<String, byte[]> cache = new Cache<>(new LRUEvictionPolicy<>(), store);
+            for (int i = 0; i < 500; i++) {
+                byte[] value = new byte[50_000];
+                value[0] = (byte) i;
+                cache.set("key" + i, value);
+            }
+            
+            assertTrue(cache.size() < 100, "size " + cache.size());
+            assertEquals((byte) 499, cache.get("key499")[0]);
+            assertNull(cache.get("key0"));
+            assertEquals(500 - cache.size(), cache.getStats().getEvictionCount());
+        }
+    }
+    
+    @Test
+    void testEmptyPagesGoBackToThePool() {
+        try (OffHeapStore<String, byte[]> store = new OffHeapStore<>(ValueCodec.UTF_8, ValueCodec.BYTES, 1_000,
+                                                                     OffHeapStore.PAGE_SIZE)) {
+            Cache<String, byte[]> cache = new Cache<>(new LRUEvictionPolicy<>(), store);
+            for (int i = 0; i < 100; i++) {
+                cache.set("key" + i, new byte[40]);
+            }
+            assertEquals(OffHeapStore.PAGE_SIZE, store.getAllocatedBytes());
+            
+            // The only page belongs to the small class; evicting its entries hands it to the large one.
+            cache.set("large", new byte[500]);
+            assertEquals(500, cache.get("large").length);
+            assertEquals(1, cache.size());
+            
+            // Entry sizes keep changing; every write finds room, at worst once the other classes are evicted.
+            int[] sizes = {40, 500, 5_000, 100_000};
+            for (int i = 0; i < 1_000; i++) {
+                byte[] value = new byte[sizes[i % sizes.length]];
+                value[0] = (byte) i;
+                cache.set("key" + (i % 50), value);
+                assertEquals((byte) i, cache.get("key" + (i % 50))[0]);
+            }
+            assertTrue(cache.size() > 0);
+        }
+    }
+}